@@ -0,0 +1,128 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eclipse.paho.android.service;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the memory store with the journal and the SQLite store on the device, since SQLite
+ * isn't available in JVM tests. See the logged throughput of the usual flow (a message is stored,
+ * delivered and discarded) and the storage used per message kept in the store.
+ * The SQLite store uses the database of the app, so run it on a test device only.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageStoreBenchmark {
+    private static final String TAG = "MessageStoreBenchmark";
+    private static final int MESSAGES = 2000;
+    // Size of a typical push message
+    private static final int PAYLOAD_SIZE = 200;
+
+    private static final MqttTraceHandler traceHandler = new MqttTraceHandler() {
+        @Override
+        public void traceDebug(String tag, String message) {
+        }
+
+        @Override
+        public void traceError(String tag, String message) {
+        }
+
+        @Override
+        public void traceException(String tag, String message, Exception e) {
+            Log.w(TAG, message, e);
+        }
+    };
+
+    @Test
+    public void throughputAndStorage() {
+        final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        final File journal = new File(context.getCacheDir(), "benchmark.journal");
+
+        journal.delete();
+        long memoryRate = storeAndDiscard(new MemoryMessageStore(traceHandler, journal));
+        journal.delete();
+        long memoryBytes = storeAndKeep(new MemoryMessageStore(traceHandler, journal), journal);
+        journal.delete();
+
+        DatabaseMessageStore.delete(context);
+        long databaseRate = storeAndDiscard(new DatabaseMessageStore(traceHandler, context));
+        DatabaseMessageStore.delete(context);
+        long databaseBytes = storeAndKeep(new DatabaseMessageStore(traceHandler, context),
+                DatabaseMessageStore.getDatabaseFile(context));
+        DatabaseMessageStore.delete(context);
+
+        Log.i(TAG, "Memory store with journal: " + memoryRate + " messages/s, " + memoryBytes + " bytes/message");
+        Log.i(TAG, "SQLite store: " + databaseRate + " messages/s, " + databaseBytes + " bytes/message");
+    }
+
+    // Messages per second, each message is stored and then discarded after delivery
+    private static long storeAndDiscard(MessageStore store) {
+        MqttMessage message = createMessage();
+        long start = System.nanoTime();
+        for (int n = 0; n < MESSAGES; n++) {
+            String id = store.storeArrived("client", "topic", message);
+            assertTrue(store.discardArrived("client", id));
+        }
+        long nanos = System.nanoTime() - start;
+        store.close();
+        return MESSAGES * 1000000000L / nanos;
+    }
+
+    // Bytes of the file per message kept in the store
+    private static long storeAndKeep(MessageStore store, File file) {
+        MqttMessage message = createMessage();
+        // Not more than the memory store keeps
+        int count = MemoryMessageStore.MAX_MESSAGES;
+        for (int n = 0; n < count; n++) {
+            store.storeArrived("client", "topic", message);
+        }
+        int stored = 0;
+        Iterator<MessageStore.StoredMessage> it = store.getAllArrivedMessages("client");
+        while (it.hasNext()) {
+            it.next();
+            stored++;
+        }
+        assertEquals(count, stored);
+        store.close();
+        return file.length() / count;
+    }
+
+    private static MqttMessage createMessage() {
+        byte[] payload = new byte[PAYLOAD_SIZE];
+        Arrays.fill(payload, (byte) 'x');
+        MqttMessage message = new MqttMessage(payload);
+        message.setQos(1);
+        return message;
+    }
+}
@@ -21,9 +21,15 @@ package com.hmdm.launcher;
 
 import android.app.Application;
 
+import com.hmdm.launcher.server.HttpClientKeeper;
 import com.jakewharton.picasso.OkHttp3Downloader;
 import com.squareup.picasso.Picasso;
 
+import java.io.File;
+
+import okhttp3.Cache;
+import okhttp3.OkHttpClient;
+
 public class App extends Application {
 
     @Override
@@ -31,7 +37,11 @@ public class App extends Application {
         super.onCreate();
 
         Picasso.Builder builder = new Picasso.Builder(this);
-        builder.downloader(new OkHttp3Downloader(this,Integer.MAX_VALUE));
+        // Derived from the shared client to reuse its connection pool
+        OkHttpClient client = HttpClientKeeper.getClient().newBuilder()
+                .cache(new Cache(new File(getCacheDir(), "picasso-cache"), Integer.MAX_VALUE))
+                .build();
+        builder.downloader(new OkHttp3Downloader(client));
         Picasso built = builder.build();
         //built.setIndicatorsEnabled(true);
         //built.setLoggingEnabled(true);
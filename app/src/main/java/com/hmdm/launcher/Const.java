@@ -24,6 +24,7 @@ public class Const {
     public static final int TASK_SUCCESS = 0;
     public static final int TASK_ERROR = 1;
     public static final int TASK_NETWORK_ERROR = 2;
+    public static final int TASK_NOT_MODIFIED = 3;
 
     public static final String ACTION_SERVICE_STOP = "SERVICE_STOP";
     public static final String ACTION_SHOW_LAUNCHER = "SHOW_LAUNCHER";
@@ -162,6 +163,7 @@ public class Const {
 
     public static final String HEADER_IP_ADDRESS = "X-IP-Address";
     public static final String HEADER_RESPONSE_SIGNATURE = "X-Response-Signature";
+    public static final String HEADER_ETAG = "ETag";
 
     public static final int SCREEN_ORIENTATION_PORTRAIT = 1;
     public static final int SCREEN_ORIENTATION_LANDSCAPE = 2;
@@ -0,0 +1,126 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmdm.launcher.db;
+
+import android.annotation.SuppressLint;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+// Checksums of managed files keyed by their path and file system attributes
+public class FileFingerprintTable {
+    private static final String CREATE_TABLE =
+            "CREATE TABLE file_fingerprints (" +
+                    "path TEXT PRIMARY KEY NOT NULL, " +
+                    "size INTEGER, " +
+                    "mtime INTEGER, " +
+                    "inode INTEGER, " +
+                    "checksum TEXT " +
+                    ")";
+    private static final String INSERT_FINGERPRINT =
+            "INSERT OR REPLACE INTO file_fingerprints(path, size, mtime, inode, checksum) VALUES (?, ?, ?, ?, ?)";
+    private static final String SELECT_ALL =
+            "SELECT * FROM file_fingerprints";
+
+    public static class Fingerprint {
+        private String path;
+        private long size;
+        private long mtime;
+        private long inode;
+        private String checksum;
+
+        public Fingerprint(String path, long size, long mtime, long inode, String checksum) {
+            this.path = path;
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.checksum = checksum;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getChecksum() {
+            return checksum;
+        }
+
+        public boolean matches(long size, long mtime, long inode) {
+            return this.size == size && this.mtime == mtime && this.inode == inode;
+        }
+    }
+
+    public static String getCreateTableSql() {
+        return CREATE_TABLE;
+    }
+
+    public static void insert(SQLiteDatabase db, Collection<Fingerprint> items) {
+        SQLiteStatement statement = null;
+        db.beginTransaction();
+        try {
+            statement = db.compileStatement(INSERT_FINGERPRINT);
+            for (Fingerprint item : items) {
+                statement.clearBindings();
+                statement.bindString(1, item.path);
+                statement.bindLong(2, item.size);
+                statement.bindLong(3, item.mtime);
+                statement.bindLong(4, item.inode);
+                if (item.checksum != null) {
+                    statement.bindString(5, item.checksum);
+                }
+                statement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            if (statement != null) {
+                statement.close();
+            }
+            db.endTransaction();
+        }
+    }
+
+    @SuppressLint("Range")
+    public static Map<String, Fingerprint> selectAll(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery(SELECT_ALL, new String[] {});
+        Map<String, Fingerprint> result = new HashMap<>();
+
+        boolean isDataNotEmpty = cursor.moveToFirst();
+        while (isDataNotEmpty) {
+            Fingerprint item = new Fingerprint(
+                    cursor.getString(cursor.getColumnIndex("path")),
+                    cursor.getLong(cursor.getColumnIndex("size")),
+                    cursor.getLong(cursor.getColumnIndex("mtime")),
+                    cursor.getLong(cursor.getColumnIndex("inode")),
+                    cursor.getString(cursor.getColumnIndex("checksum")));
+            result.put(item.path, item);
+
+            isDataNotEmpty = cursor.moveToNext();
+        }
+        cursor.close();
+
+        return result;
+    }
+}
@@ -19,13 +19,14 @@
 
 package com.hmdm.launcher.db;
 
+import android.annotation.SuppressLint;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 
 import com.hmdm.launcher.json.RemoteLogConfig;
-import com.hmdm.launcher.json.RemoteLogItem;
 
+import java.util.LinkedList;
 import java.util.List;
 
 public class LogConfigTable {
@@ -40,8 +41,8 @@ public class LogConfigTable {
             "DELETE FROM log_rules";
     private static final String INSERT_RULE =
             "INSERT OR IGNORE INTO log_rules(packageId, level, filter) VALUES (?, ?, ?)";
-    private static final String FIND_MATCHING =
-            "SELECT * FROM log_rules WHERE packageId = ? AND level >= ? AND (filter IS NULL OR filter = '' OR ? LIKE ('%' || filter || '%')) LIMIT 1";
+    private static final String SELECT_ALL =
+            "SELECT * FROM log_rules";
 
     public static String getCreateTableSql() {
         return CREATE_TABLE;
@@ -66,14 +67,23 @@ public class LogConfigTable {
         }
     }
 
-    public static boolean match(SQLiteDatabase db, RemoteLogItem item) {
-        Cursor cursor = db.rawQuery(FIND_MATCHING, new String[] {
-                item.getPackageId(),
-                Integer.toString(item.getLogLevel()),
-                item.getMessage()
-        });
-        boolean ret = cursor.moveToFirst();
+    @SuppressLint("Range")
+    public static List<RemoteLogConfig> selectAll(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery(SELECT_ALL, new String[] {});
+        List<RemoteLogConfig> result = new LinkedList<>();
+
+        boolean isDataNotEmpty = cursor.moveToFirst();
+        while (isDataNotEmpty) {
+            RemoteLogConfig item = new RemoteLogConfig();
+            item.setPackageId(cursor.getString(cursor.getColumnIndex("packageId")));
+            item.setLogLevel(cursor.getInt(cursor.getColumnIndex("level")));
+            item.setFilter(cursor.getString(cursor.getColumnIndex("filter")));
+            result.add(item);
+
+            isDataNotEmpty = cursor.moveToNext();
+        }
         cursor.close();
-        return ret;
+
+        return result;
     }
 }
@@ -23,6 +23,7 @@ import android.annotation.SuppressLint;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 
 import com.hmdm.launcher.json.RemoteLogItem;
 
@@ -40,10 +41,14 @@ public class LogTable {
                     ")";
     private static final String SELECT_LAST_LOGS =
             "SELECT * FROM logs ORDER BY ts LIMIT ?";
+    private static final String SELECT_FIRST_LOGS =
+            "SELECT * FROM logs ORDER BY _id LIMIT ?";
     private static final String INSERT_LOG =
             "INSERT OR IGNORE INTO logs(ts, level, packageId, message) VALUES (?, ?, ?, ?)";
     private static final String DELETE_FROM_LOGS =
             "DELETE FROM logs WHERE _id=?";
+    private static final String DELETE_LOG_RANGE =
+            "DELETE FROM logs WHERE _id BETWEEN ? AND ?";
     private static final String DELETE_OLD_LOGS =
             "DELETE FROM logs WHERE ts < ?";
 
@@ -64,6 +69,34 @@ public class LogTable {
         }
     }
 
+    public static void insert(SQLiteDatabase db, List<RemoteLogItem> items) {
+        SQLiteStatement statement = null;
+        db.beginTransaction();
+        try {
+            statement = db.compileStatement(INSERT_LOG);
+            for (RemoteLogItem item : items) {
+                statement.clearBindings();
+                statement.bindLong(1, item.getTimestamp());
+                statement.bindLong(2, item.getLogLevel());
+                if (item.getPackageId() != null) {
+                    statement.bindString(3, item.getPackageId());
+                }
+                if (item.getMessage() != null) {
+                    statement.bindString(4, item.getMessage());
+                }
+                statement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            if (statement != null) {
+                statement.close();
+            }
+            db.endTransaction();
+        }
+    }
+
     public static void deleteOldItems(SQLiteDatabase db) {
         long oldTs = System.currentTimeMillis() - 7 * 24 * 60 * 60 * 1000L;
         try {
@@ -91,11 +124,36 @@ public class LogTable {
         }
     }
 
-    @SuppressLint("Range")
+    // Deletes items with IDs from fromId to toId inclusive
+    public static void deleteRange(SQLiteDatabase db, long fromId, long toId) {
+        try {
+            db.execSQL(DELETE_LOG_RANGE, new String[]{
+                    Long.toString(fromId),
+                    Long.toString(toId)
+            });
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
     public static List<RemoteLogItem> select(SQLiteDatabase db, int limit) {
         Cursor cursor = db.rawQuery( SELECT_LAST_LOGS, new String[] {
             Integer.toString(limit)
         });
+        return readItems(cursor);
+    }
+
+    // Selects the items having the lowest IDs, so there's no other items
+    // between the first and the last ID of the result
+    public static List<RemoteLogItem> selectFirst(SQLiteDatabase db, int limit) {
+        Cursor cursor = db.rawQuery( SELECT_FIRST_LOGS, new String[] {
+                Integer.toString(limit)
+        });
+        return readItems(cursor);
+    }
+
+    @SuppressLint("Range")
+    private static List<RemoteLogItem> readItems(Cursor cursor) {
         List<RemoteLogItem> result = new LinkedList<>();
 
         boolean isDataNotEmpty = cursor.moveToFirst();
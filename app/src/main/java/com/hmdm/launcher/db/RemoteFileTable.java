@@ -26,6 +26,9 @@ import android.database.sqlite.SQLiteDatabase;
 
 import com.hmdm.launcher.json.RemoteFile;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public class RemoteFileTable {
     private static final String CREATE_TABLE =
             "CREATE TABLE files (" +
@@ -44,6 +47,8 @@ public class RemoteFileTable {
             "DELETE FROM files WHERE path=?";
     private static final String SELECT_FILE_BY_PATH =
             "SELECT * FROM files WHERE path=?";
+    private static final String SELECT_ALL =
+            "SELECT * FROM files";
 
     public static String getCreateTableSql() {
         return CREATE_TABLE;
@@ -71,22 +76,43 @@ public class RemoteFileTable {
         }
     }
 
-    @SuppressLint("Range")
     public static RemoteFile selectByPath(SQLiteDatabase db, String path) {
         Cursor cursor = db.rawQuery(SELECT_FILE_BY_PATH, new String[] { path });
 
         RemoteFile item = null;
         if (cursor.moveToFirst()) {
-            item = new RemoteFile();
-            item.setId(cursor.getLong(cursor.getColumnIndex("_id")));
-            item.setLastUpdate(cursor.getLong(cursor.getColumnIndex("lastUpdate")));
-            item.setUrl(cursor.getString(cursor.getColumnIndex("url")));
-            item.setChecksum(cursor.getString(cursor.getColumnIndex("checksum")));
-            item.setPath(cursor.getString(cursor.getColumnIndex("path")));
-            item.setDescription(cursor.getString(cursor.getColumnIndex("description")));
+            item = readItem(cursor);
+        }
+        cursor.close();
+
+        return item;
+    }
+
+    // Use this instead of selectByPath() to check many files
+    public static Map<String, RemoteFile> selectAll(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery(SELECT_ALL, new String[] {});
+        Map<String, RemoteFile> result = new HashMap<>();
+
+        boolean isDataNotEmpty = cursor.moveToFirst();
+        while (isDataNotEmpty) {
+            RemoteFile item = readItem(cursor);
+            result.put(item.getPath(), item);
+            isDataNotEmpty = cursor.moveToNext();
         }
         cursor.close();
 
+        return result;
+    }
+
+    @SuppressLint("Range")
+    private static RemoteFile readItem(Cursor cursor) {
+        RemoteFile item = new RemoteFile();
+        item.setId(cursor.getLong(cursor.getColumnIndex("_id")));
+        item.setLastUpdate(cursor.getLong(cursor.getColumnIndex("lastUpdate")));
+        item.setUrl(cursor.getString(cursor.getColumnIndex("url")));
+        item.setChecksum(cursor.getString(cursor.getColumnIndex("checksum")));
+        item.setPath(cursor.getString(cursor.getColumnIndex("path")));
+        item.setDescription(cursor.getString(cursor.getColumnIndex("description")));
         return item;
     }
 }
@@ -1,7 +1,5 @@
 package com.hmdm.launcher.helper;
 
-import static com.hmdm.launcher.util.InstallUtils.DO_NOT_VERIFY;
-
 import android.app.admin.DevicePolicyManager;
 import android.content.ComponentName;
 import android.content.Context;
@@ -14,19 +12,17 @@ import androidx.annotation.RequiresApi;
 
 import com.hmdm.launcher.Const;
 import com.hmdm.launcher.R;
+import com.hmdm.launcher.server.HttpClientKeeper;
 import com.hmdm.launcher.util.InstallUtils;
 import com.hmdm.launcher.util.LegacyUtils;
 import com.hmdm.launcher.util.RemoteLogger;
 import com.hmdm.launcher.util.Utils;
 
-import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
@@ -36,7 +32,8 @@ import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
-import javax.net.ssl.HttpsURLConnection;
+import okhttp3.Request;
+import okhttp3.Response;
 
 public class CertInstaller {
     static class CertEntry {
@@ -217,44 +214,38 @@ public class CertInstaller {
                 tempFile = File.createTempFile(getFileName(strUrl), ".pem");
             }
 
-            URL url = new URL(strUrl);
-
-            HttpURLConnection connection;
-            // Turn off certificate validity check because we didn't yet install trusted certs
-            if (url.getProtocol().toLowerCase().equals("https")) {
-                connection = (HttpsURLConnection) url.openConnection();
-                ((HttpsURLConnection) connection).setHostnameVerifier(DO_NOT_VERIFY);
-            } else {
-                connection = (HttpURLConnection) url.openConnection();
-            }
-            connection.setRequestMethod("GET");
-            connection.setRequestProperty("Accept-Encoding", "identity");
-            connection.setConnectTimeout((int) Const.CONNECTION_TIMEOUT);
-            connection.setReadTimeout((int) Const.CONNECTION_TIMEOUT);
+            Request.Builder requestBuilder = new Request.Builder().
+                    url(strUrl).
+                    header("Accept-Encoding", "identity");
             String signature = InstallUtils.getRequestSignature(strUrl);
             if (signature != null) {
-                connection.setRequestProperty("X-Request-Signature", signature);
+                requestBuilder.header("X-Request-Signature", signature);
             }
-            connection.connect();
 
-            if (connection.getResponseCode() != 200) {
-                throw new Exception("Bad server response for " + strUrl + ": " + connection.getResponseCode());
-            }
+            // Turn off hostname verification because we didn't yet install trusted certs
+            Response response = HttpClientKeeper.getClientWithoutHostnameVerification().newCall(requestBuilder.build()).execute();
+            try {
+                if (response.code() != 200) {
+                    throw new Exception("Bad server response for " + strUrl + ": " + response.code());
+                }
 
-            InputStream is = connection.getInputStream();
-            DataInputStream dis = new DataInputStream(is);
+                InputStream is = response.body().byteStream();
 
-            byte[] buffer = new byte[1024];
-            int length;
+                byte[] buffer = new byte[1024];
+                int length;
 
-            FileOutputStream fos = new FileOutputStream(tempFile);
-            while ((length = dis.read(buffer)) > 0) {
-                fos.write(buffer, 0, length);
+                FileOutputStream fos = new FileOutputStream(tempFile);
+                try {
+                    while ((length = is.read(buffer)) > 0) {
+                        fos.write(buffer, 0, length);
+                    }
+                    fos.flush();
+                } finally {
+                    fos.close();
+                }
+            } finally {
+                response.close();
             }
-            fos.flush();
-            fos.close();
-
-            dis.close();
         } catch (Exception e) {
             tempFile.delete();
             throw e;
@@ -0,0 +1,146 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.helper;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.hmdm.launcher.json.ServerConfig;
+import com.hmdm.launcher.util.JsonCodec;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Set of configuration sections changed between two configurations.
+ * Sections are compared structurally (as JSON trees), so the configurations
+ * are equal if the server sends the same values in the same order.
+ */
+public class ConfigDiff {
+
+    public static final int APPLICATIONS = 1;
+    public static final int FILES = 2;
+    public static final int POLICIES = 4;
+    public static final int RESTRICTIONS = 8;
+    public static final int ACTIONS = 16;
+    public static final int PUSH_OPTIONS = 32;
+    public static final int ALL = APPLICATIONS | FILES | POLICIES | RESTRICTIONS | ACTIONS | PUSH_OPTIONS;
+
+    private static final int[] SECTIONS = {APPLICATIONS, FILES, POLICIES, RESTRICTIONS, ACTIONS, PUSH_OPTIONS};
+    private static final String[] SECTION_NAMES = {"applications", "files", "policies", "restrictions", "actions", "push options"};
+
+    private static final ObjectMapper mapper = JsonCodec.getMapper();
+
+    private final int changes;
+
+    private ConfigDiff(int changes) {
+        this.changes = changes;
+    }
+
+    // All sections are considered changed
+    public static ConfigDiff full() {
+        return new ConfigDiff(ALL);
+    }
+
+    public static ConfigDiff compare(Snapshot oldSnapshot, ServerConfig newConfig) {
+        if (oldSnapshot == null || newConfig == null) {
+            return full();
+        }
+        Snapshot newSnapshot = new Snapshot(newConfig);
+        int changes = 0;
+        for (int n = 0; n < SECTIONS.length; n++) {
+            if (!oldSnapshot.sections[n].equals(newSnapshot.sections[n])) {
+                changes |= SECTIONS[n];
+            }
+        }
+        return new ConfigDiff(changes);
+    }
+
+    public boolean isChanged(int section) {
+        return (changes & section) != 0;
+    }
+
+    public boolean isEmpty() {
+        return changes == 0;
+    }
+
+    public static String getSectionName(int section) {
+        for (int n = 0; n < SECTIONS.length; n++) {
+            if (SECTIONS[n] == section) {
+                return SECTION_NAMES[n];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        List<String> names = new LinkedList<>();
+        for (int n = 0; n < SECTIONS.length; n++) {
+            if (isChanged(SECTIONS[n])) {
+                names.add(SECTION_NAMES[n]);
+            }
+        }
+        return names.isEmpty() ? "none" : String.join(", ", names);
+    }
+
+    /**
+     * Copy of the configuration sections taken when the configuration has been applied.
+     * It doesn't refer to the ServerConfig object which may be changed later.
+     */
+    public static class Snapshot {
+        private final JsonNode[] sections = new JsonNode[SECTIONS.length];
+
+        public Snapshot(ServerConfig config) {
+            ObjectNode applications = mapper.createObjectNode();
+            applications.set("applications", mapper.valueToTree(config.getApplications()));
+            sections[0] = applications;
+
+            // File templates contain custom fields
+            ObjectNode files = mapper.createObjectNode();
+            files.set("files", mapper.valueToTree(config.getFiles()));
+            files.put("custom1", config.getCustom1());
+            files.put("custom2", config.getCustom2());
+            files.put("custom3", config.getCustom3());
+            sections[1] = files;
+
+            // Policies include the proxy and certificates set up in the launcher settings
+            ObjectNode policies = mapper.createObjectNode();
+            policies.put("runDefaultLauncher", config.getRunDefaultLauncher());
+            policies.set("applicationSettings", mapper.valueToTree(config.getApplicationSettings()));
+            sections[2] = policies;
+
+            // Locked packages are also set up in the launcher settings
+            ObjectNode restrictions = mapper.createObjectNode();
+            restrictions.put("restrictions", config.getRestrictions());
+            restrictions.set("applicationSettings", mapper.valueToTree(config.getApplicationSettings()));
+            sections[3] = restrictions;
+
+            ObjectNode actions = mapper.createObjectNode();
+            actions.set("actions", mapper.valueToTree(config.getActions()));
+            sections[4] = actions;
+
+            ObjectNode push = mapper.createObjectNode();
+            push.put("pushOptions", config.getPushOptions());
+            push.put("keepaliveTime", config.getKeepaliveTime());
+            sections[5] = push;
+        }
+    }
+}
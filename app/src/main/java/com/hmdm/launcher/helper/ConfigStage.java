@@ -0,0 +1,57 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.helper;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Stages of the configuration update which may be skipped in a background update,
+ * with the configuration sections they apply.
+ */
+public enum ConfigStage {
+    POLICIES("policies", ConfigDiff.POLICIES),
+    FILES("files", ConfigDiff.FILES),
+    // Certificate paths are set in the launcher settings
+    CERTIFICATES("certificates", ConfigDiff.POLICIES),
+    APPLICATIONS("applications", ConfigDiff.APPLICATIONS),
+    ACTIONS("actions", ConfigDiff.ACTIONS);
+
+    private final String name;
+    private final int section;
+
+    ConfigStage(String name, int section) {
+        this.name = name;
+        this.section = section;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getSection() {
+        return section;
+    }
+
+    // Returns true if the stage inputs are not changed since the last applied configuration
+    // and the device still matches them. The device state is checked only if the inputs are not changed
+    public boolean canSkip(ConfigDiff diff, BooleanSupplier deviceStateApplied) {
+        return !diff.isChanged(section) && (deviceStateApplied == null || deviceStateApplied.getAsBoolean());
+    }
+}
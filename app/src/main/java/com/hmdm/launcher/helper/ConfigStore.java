@@ -0,0 +1,348 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.helper;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.hmdm.launcher.Const;
+import com.hmdm.launcher.json.Application;
+import com.hmdm.launcher.json.ApplicationSetting;
+import com.hmdm.launcher.json.RemoteFile;
+import com.hmdm.launcher.json.ServerConfig;
+import com.hmdm.launcher.util.JsonCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * Stores the configuration in a binary snapshot file instead of a JSON string in the preferences.
+ * The file consists of a header, a table of sections and the sections themselves.
+ * Sections are encoded as JSON by the same mappings as the server response.
+ * The file is memory-mapped on reading, and large sections (applications, files, application settings)
+ * are only decoded when they are accessed first time.
+ * Restrictions and other small settings are stored in the base section which is decoded at once.
+ */
+public class ConfigStore {
+    private static final String FILE_NAME = "config.bin";
+    private static final int MAGIC = 0x484D4346;        // "HMCF"
+    // Increment when the layout of the file is changed; files of other versions are ignored
+    private static final int SCHEMA_VERSION = 1;
+
+    private static final int SECTION_BASE = 1;
+    private static final int SECTION_APPLICATIONS = 2;
+    private static final int SECTION_FILES = 3;
+    private static final int SECTION_APPLICATION_SETTINGS = 4;
+    private static final int[] SECTIONS = {SECTION_BASE, SECTION_APPLICATIONS, SECTION_FILES, SECTION_APPLICATION_SETTINGS};
+
+    private static final ObjectMapper mapper = JsonCodec.getMapper();
+
+    private final File file;
+    // SHA-1 of the stored sections, used to skip writing the same configuration
+    private String hash;
+
+    public ConfigStore(Context context) {
+        this(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    ConfigStore(File file) {
+        this.file = file;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public boolean exists() {
+        return file.exists();
+    }
+
+    // Returns null if there's no stored configuration or it can't be read
+    public ServerConfig load() {
+        if (!file.exists()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            // The mapping stays valid after the channel is closed and even if the file is replaced
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != SCHEMA_VERSION) {
+                Log.w(Const.LOG_TAG, "Unsupported configuration file format, ignoring");
+                return null;
+            }
+            byte[] hashBytes = new byte[buffer.getInt()];
+            buffer.get(hashBytes);
+            String storedHash = new String(hashBytes, StandardCharsets.UTF_8);
+
+            // The hash is checked before anything is decoded: a damaged file is treated as missing
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            ByteBuffer base = null;
+            ByteBuffer applications = null;
+            ByteBuffer files = null;
+            ByteBuffer applicationSettings = null;
+            int sectionCount = buffer.getInt();
+            for (int n = 0; n < sectionCount; n++) {
+                int id = buffer.getInt();
+                ByteBuffer section = slice(buffer, buffer.getInt(), buffer.getInt());
+                digest.update(section.duplicate());
+                switch (id) {
+                    case SECTION_BASE:
+                        base = section;
+                        break;
+                    case SECTION_APPLICATIONS:
+                        applications = section;
+                        break;
+                    case SECTION_FILES:
+                        files = section;
+                        break;
+                    case SECTION_APPLICATION_SETTINGS:
+                        applicationSettings = section;
+                        break;
+                }
+            }
+            if (!toHex(digest.digest()).equals(storedHash)) {
+                Log.w(Const.LOG_TAG, "Configuration file is damaged, ignoring");
+                return null;
+            }
+            if (base == null) {
+                return null;
+            }
+            LazyServerConfig config = JsonCodec.read(new ByteBufferBackedInputStream(base), LazyServerConfig.class);
+            config.setSections(applications, files, applicationSettings);
+            hash = storedHash;
+            return config;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Reads the stored configuration and decodes all its sections.
+     * Used to check the stored configuration before its source is removed.
+     */
+    public boolean verify() {
+        ServerConfig config = load();
+        return config instanceof LazyServerConfig && ((LazyServerConfig) config).decodeAll();
+    }
+
+    /**
+     * Writes the configuration to a temporary file and renames it, so the stored configuration
+     * is never partially written. Nothing is written if the configuration is not changed.
+     */
+    public void save(ServerConfig config) throws Exception {
+        byte[][] sections = new byte[SECTIONS.length][];
+        ObjectNode base = mapper.valueToTree(config);
+        base.remove("applications");
+        base.remove("files");
+        base.remove("applicationSettings");
+        sections[0] = mapper.writeValueAsBytes(base);
+        sections[1] = mapper.writeValueAsBytes(config.getApplications());
+        sections[2] = mapper.writeValueAsBytes(config.getFiles());
+        sections[3] = mapper.writeValueAsBytes(config.getApplicationSettings());
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        for (byte[] section : sections) {
+            digest.update(section);
+        }
+        String newHash = toHex(digest.digest());
+        if (newHash.equals(hash) && file.exists()) {
+            return;
+        }
+
+        byte[] hashBytes = newHash.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(header);
+        dos.writeInt(MAGIC);
+        dos.writeInt(SCHEMA_VERSION);
+        dos.writeInt(hashBytes.length);
+        dos.write(hashBytes);
+        dos.writeInt(SECTIONS.length);
+        // Section table: id, offset, length
+        int offset = header.size() + SECTIONS.length * 12;
+        for (int n = 0; n < SECTIONS.length; n++) {
+            dos.writeInt(SECTIONS[n]);
+            dos.writeInt(offset);
+            dos.writeInt(sections[n].length);
+            offset += sections[n].length;
+        }
+        dos.flush();
+
+        File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmpFile)) {
+            header.writeTo(fos);
+            for (byte[] section : sections) {
+                fos.write(section);
+            }
+            fos.getFD().sync();
+        } catch (Exception e) {
+            tmpFile.delete();
+            throw e;
+        }
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new Exception("Failed to rename " + tmpFile.getAbsolutePath());
+        }
+        hash = newHash;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer section = buffer.duplicate();
+        section.position(offset);
+        section.limit(offset + length);
+        return section.slice();
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Configuration with large sections decoded from the mapped file on first access.
+     * Setting a section drops its encoded value.
+     */
+    public static class LazyServerConfig extends ServerConfig {
+        private static final ObjectReader APPLICATIONS_READER = JsonCodec.reader(new TypeReference<List<Application>>() {});
+        private static final ObjectReader FILES_READER = JsonCodec.reader(new TypeReference<List<RemoteFile>>() {});
+        private static final ObjectReader APPLICATION_SETTINGS_READER = JsonCodec.reader(new TypeReference<List<ApplicationSetting>>() {});
+
+        private ByteBuffer applicationsSection;
+        private ByteBuffer filesSection;
+        private ByteBuffer applicationSettingsSection;
+
+        private synchronized void setSections(ByteBuffer applications, ByteBuffer files, ByteBuffer applicationSettings) {
+            applicationsSection = applications;
+            filesSection = files;
+            applicationSettingsSection = applicationSettings;
+        }
+
+        @Override
+        public synchronized List<Application> getApplications() {
+            if (applicationsSection != null) {
+                List<Application> applications = decode(applicationsSection, APPLICATIONS_READER);
+                applicationsSection = null;
+                if (applications != null) {
+                    super.setApplications(applications);
+                }
+            }
+            return super.getApplications();
+        }
+
+        @Override
+        public synchronized void setApplications(List<Application> applications) {
+            applicationsSection = null;
+            super.setApplications(applications);
+        }
+
+        @Override
+        public synchronized List<RemoteFile> getFiles() {
+            if (filesSection != null) {
+                List<RemoteFile> files = decode(filesSection, FILES_READER);
+                filesSection = null;
+                if (files != null) {
+                    super.setFiles(files);
+                }
+            }
+            return super.getFiles();
+        }
+
+        @Override
+        public synchronized void setFiles(List<RemoteFile> files) {
+            filesSection = null;
+            super.setFiles(files);
+        }
+
+        @Override
+        public synchronized List<ApplicationSetting> getApplicationSettings() {
+            if (applicationSettingsSection != null) {
+                List<ApplicationSetting> settings = decode(applicationSettingsSection, APPLICATION_SETTINGS_READER);
+                applicationSettingsSection = null;
+                if (settings != null) {
+                    super.setApplicationSettings(settings);
+                }
+            }
+            return super.getApplicationSettings();
+        }
+
+        @Override
+        public synchronized void setApplicationSettings(List<ApplicationSetting> applicationSettings) {
+            applicationSettingsSection = null;
+            super.setApplicationSettings(applicationSettings);
+        }
+
+        // Returns false if any of the sections can't be decoded
+        private synchronized boolean decodeAll() {
+            try {
+                if (applicationsSection != null) {
+                    List<Application> applications = APPLICATIONS_READER.readValue(new ByteBufferBackedInputStream(applicationsSection.duplicate()));
+                    if (applications != null) {
+                        super.setApplications(applications);
+                    }
+                }
+                if (filesSection != null) {
+                    List<RemoteFile> files = FILES_READER.readValue(new ByteBufferBackedInputStream(filesSection.duplicate()));
+                    if (files != null) {
+                        super.setFiles(files);
+                    }
+                }
+                if (applicationSettingsSection != null) {
+                    List<ApplicationSetting> settings = APPLICATION_SETTINGS_READER.readValue(new ByteBufferBackedInputStream(applicationSettingsSection.duplicate()));
+                    if (settings != null) {
+                        super.setApplicationSettings(settings);
+                    }
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                return false;
+            }
+            applicationsSection = null;
+            filesSection = null;
+            applicationSettingsSection = null;
+            return true;
+        }
+
+        private static <T> T decode(ByteBuffer section, ObjectReader reader) {
+            try {
+                return reader.readValue(new ByteBufferBackedInputStream(section.duplicate()));
+            } catch (Exception e) {
+                // The section stays empty until the configuration is received from the server again
+                e.printStackTrace();
+                return null;
+            }
+        }
+    }
+}
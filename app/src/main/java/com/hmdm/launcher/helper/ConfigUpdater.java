@@ -14,6 +14,7 @@ import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
@@ -39,7 +40,9 @@ import com.hmdm.launcher.task.ConfirmRebootTask;
 import com.hmdm.launcher.task.GetRemoteLogConfigTask;
 import com.hmdm.launcher.task.GetServerConfigTask;
 import com.hmdm.launcher.util.DeviceInfoProvider;
+import com.hmdm.launcher.util.DownloadPrefetcher;
 import com.hmdm.launcher.util.InstallUtils;
+import com.hmdm.launcher.util.PackageSnapshotCache;
 import com.hmdm.launcher.util.PushNotificationMqttWrapper;
 import com.hmdm.launcher.util.RemoteLogger;
 import com.hmdm.launcher.util.SystemUtils;
@@ -50,6 +53,7 @@ import org.apache.commons.io.FileUtils;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
@@ -57,6 +61,8 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
 
 public class ConfigUpdater {
 
@@ -95,6 +101,28 @@ public class ConfigUpdater {
     private int retryDelay;
     private boolean loadOnly = false;
     private boolean userInteraction;
+    // Set if the server reported that the configuration is not changed since the last update
+    private boolean configNotModified;
+    // ETag of the configuration being applied, saved when the update flow completes without errors
+    private String configETag;
+    private boolean updateFailed;
+
+    // Snapshot of the last configuration applied without errors
+    // Background updates skip the stages whose inputs are not changed since then
+    private static volatile ConfigDiff.Snapshot appliedSnapshot;
+    private static volatile long appliedSnapshotTime;
+    // Stages are not skipped if the configuration hasn't been fully applied for a long time
+    private static final long APPLIED_SNAPSHOT_MAX_AGE_MS = 24 * 3600000L;
+    // Last measured duration of each stage, used to estimate the time saved by skipping it
+    // (written from background threads as well)
+    private static final Map<String, Long> stageDurations = new ConcurrentHashMap<>();
+    private ConfigDiff configDiff = ConfigDiff.full();
+    private boolean fullUpdate;
+    private long stageStartTime;
+    private long timeSaved;
+    private List<String> skippedStages = new LinkedList<>();
+    // Next apps and files are downloaded while the current one is being installed
+    private DownloadPrefetcher downloadPrefetcher;
 
     public List<Application> getApplicationsForRun() {
         return applicationsForRun;
@@ -122,6 +150,7 @@ public class ConfigUpdater {
     public ConfigUpdater(Context context) {
         retryCount = SettingsHelper.getInstance(context).getConnRetryCount();
         retryDelay = SettingsHelper.getInstance(context).getConnRetryDelay() * 1000;
+        downloadPrefetcher = new DownloadPrefetcher(context.getApplicationContext(), BuildConfig.PARALLEL_DOWNLOADS - 1);
     }
 
     public void setLoadOnly(boolean loadOnly) {
@@ -153,7 +182,14 @@ public class ConfigUpdater {
         if (uiNotifier != null) {
             uiNotifier.onConfigUpdateStart();
         }
-        new GetServerConfigTask( context ) {
+        configNotModified = false;
+        configETag = null;
+        updateFailed = false;
+        configDiff = ConfigDiff.full();
+        fullUpdate = true;
+        timeSaved = 0;
+        skippedStages.clear();
+        GetServerConfigTask task = new GetServerConfigTask( context ) {
             @Override
             protected void onPostExecute( Integer result ) {
                 super.onPostExecute( result );
@@ -163,6 +199,16 @@ public class ConfigUpdater {
                 switch ( result ) {
                     case Const.TASK_SUCCESS:
                         RemoteLogger.log(context, Const.LOG_INFO, "Configuration updated");
+                        // The ETag is saved again after the new configuration is fully applied
+                        settingsHelper.setConfigETag(null);
+                        configETag = getConfigETag();
+                        computeConfigDiff();
+                        removeOrphanedPartialDownloads();
+                        updateRemoteLogConfig();
+                        break;
+                    case Const.TASK_NOT_MODIFIED:
+                        RemoteLogger.log(context, Const.LOG_DEBUG, "Configuration not modified, skipping update");
+                        configNotModified = true;
                         updateRemoteLogConfig();
                         break;
                     case Const.TASK_ERROR:
@@ -196,7 +242,10 @@ public class ConfigUpdater {
                         break;
                 }
             }
-        }.execute();
+        };
+        // Background updates are skipped if the configuration is not changed
+        task.setConditional(!userInteraction);
+        task.execute();
     }
 
     public void skipConfigLoad() {
@@ -223,10 +272,10 @@ public class ConfigUpdater {
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
-                if (!loadOnly) {
-                    checkServerMigration();
-                } else {
+                if (loadOnly) {
                     Log.d(Const.LOG_TAG, "LoadOnly flag set, finishing the update flow");
+                } else {
+                    checkServerMigration();
                 }
                 // If loadOnly flag is set, we finish the flow here
             }
@@ -234,6 +283,98 @@ public class ConfigUpdater {
         task.execute();
     }
 
+    // The configuration has been already applied, so the remaining stages are not repeated.
+    // Restrictions have been released in the beginning of the update though, so they're locked again
+    private void completeNotModifiedConfig() {
+        lockUserRestrictions();
+        notifyPermissiveMode();
+        if (uiNotifier != null) {
+            uiNotifier.onAppUpdateStart();
+            uiNotifier.onConfigUpdateComplete();
+        }
+        RemoteLogger.log(context, Const.LOG_VERBOSE, "Update flow completed, configuration not modified");
+    }
+
+    private void computeConfigDiff() {
+        ConfigDiff.Snapshot snapshot = appliedSnapshot;
+        if (userInteraction || snapshot == null ||
+                System.currentTimeMillis() - appliedSnapshotTime > APPLIED_SNAPSHOT_MAX_AGE_MS) {
+            // User expects the full update, and we also re-check everything from time to time
+            configDiff = ConfigDiff.full();
+            fullUpdate = true;
+            return;
+        }
+        configDiff = ConfigDiff.compare(snapshot, settingsHelper.getConfig());
+        fullUpdate = false;
+        RemoteLogger.log(context, Const.LOG_DEBUG, "Changed configuration sections: " + configDiff);
+    }
+
+    // Interrupted downloads of apps and files removed from the configuration are not resumed any more
+    private void removeOrphanedPartialDownloads() {
+        final ServerConfig config = settingsHelper.getConfig();
+        if (config != null) {
+            new Thread(() -> InstallUtils.removeOrphanedPartialDownloads(context, config)).start();
+        }
+    }
+
+    // Returns true if the stage inputs are not changed since the last applied configuration
+    // and the device still matches them. The device state is checked only if the inputs are not changed
+    private boolean skipStage(ConfigStage stage, BooleanSupplier deviceStateApplied) {
+        if (!stage.canSkip(configDiff, deviceStateApplied)) {
+            if (!configDiff.isChanged(stage.getSection())) {
+                RemoteLogger.log(context, Const.LOG_DEBUG, "Not skipping stage " + stage.getName() + ": device state doesn't match the configuration");
+            }
+            return false;
+        }
+        Log.d(Const.LOG_TAG, "Skipping stage " + stage.getName() + ": " + ConfigDiff.getSectionName(stage.getSection()) + " not changed");
+        skippedStages.add(stage.getName());
+        Long duration = stageDurations.get(stage.getName());
+        if (duration != null) {
+            timeSaved += duration;
+        }
+        return true;
+    }
+
+    // Returns true if the stage inputs are not changed since the last applied configuration
+    private boolean skipStage(ConfigStage stage) {
+        return skipStage(stage, null);
+    }
+
+    private void startStage() {
+        stageStartTime = SystemClock.elapsedRealtime();
+    }
+
+    private void endStage(ConfigStage stage) {
+        if (stageStartTime != 0) {
+            stageDurations.put(stage.getName(), SystemClock.elapsedRealtime() - stageStartTime);
+            stageStartTime = 0;
+        }
+    }
+
+    // Called when the update flow completes without errors
+    private void onConfigApplied() {
+        if (updateFailed || filesForInstall.size() > 0 || applicationsForInstall.size() > 0) {
+            // Something is not applied, next update should be a full one
+            return;
+        }
+        if (!Utils.isDeviceOwner(context) && !BuildConfig.SYSTEM_PRIVILEGES) {
+            // The user may reject the app installation so we can't rely on the result
+            return;
+        }
+        if (configETag != null) {
+            // Skip next updates until the configuration is changed
+            settingsHelper.setConfigETag(configETag);
+        }
+        ServerConfig config = settingsHelper.getConfig();
+        if (config != null) {
+            appliedSnapshot = new ConfigDiff.Snapshot(config);
+            if (fullUpdate) {
+                // Skipped stages are not re-checked so the snapshot age is not renewed
+                appliedSnapshotTime = System.currentTimeMillis();
+            }
+        }
+    }
+
     private void setSelfPermissions(String appPermissionStrategy) {
         Utils.autoGrantRequestedPermissions(context, context.getPackageName(),
                 appPermissionStrategy, true);
@@ -275,6 +416,8 @@ public class ConfigUpdater {
         setupPushService();
     }
 
+    // Push service is set up on every update: connect() does nothing if already connected
+    // and reconnects otherwise, so it's not skipped even if the push options are not changed
     private void setupPushService() {
         Log.d(Const.LOG_TAG, "setupPushService() called");
         String pushOptions = null;
@@ -292,13 +435,13 @@ public class ConfigUpdater {
                 try {
                     URL url = new URL(settingsHelper.getBaseUrl());
                     Runnable nextRunnable = () -> {
-                        checkFactoryReset();
+                        onPushServiceSetUp();
                     };
                     PushNotificationMqttWrapper.getInstance().connect(context, url.getHost(), BuildConfig.MQTT_PORT,
                             pushOptions, keepaliveTime, settingsHelper.getDeviceId(), nextRunnable, nextRunnable);
                 } catch (Exception e) {
                     e.printStackTrace();
-                    checkFactoryReset();
+                    onPushServiceSetUp();
                 }
             } else {
                 try {
@@ -312,8 +455,17 @@ public class ConfigUpdater {
                     e.printStackTrace();
                 }
 
-                checkFactoryReset();
+                onPushServiceSetUp();
             }
+        } else {
+            onPushServiceSetUp();
+        }
+    }
+
+    // The push service is set up even if the configuration is not modified because it may be disconnected
+    private void onPushServiceSetUp() {
+        if (configNotModified) {
+            completeNotModifiedConfig();
         } else {
             checkFactoryReset();
         }
@@ -409,6 +561,14 @@ public class ConfigUpdater {
     }
 
     private void setDefaultLauncher() {
+        if (skipStage(ConfigStage.POLICIES, this::isDefaultLauncherApplied)) {
+            if (uiNotifier != null) {
+                uiNotifier.onPoliciesUpdated();
+            }
+            checkAndUpdateFiles();
+            return;
+        }
+        startStage();
         ServerConfig config = settingsHelper != null ? settingsHelper.getConfig() : null;
         if (Utils.isDeviceOwner(context) && config != null) {
             // "Run default launcher" means we should not set Headwind MDM as a default launcher
@@ -438,6 +598,16 @@ public class ConfigUpdater {
         updatePolicies();
     }
 
+    // The user may have selected another default launcher
+    private boolean isDefaultLauncherApplied() {
+        ServerConfig config = settingsHelper.getConfig();
+        if (!Utils.isDeviceOwner(context) || config == null) {
+            return true;
+        }
+        boolean needSetLauncher = (config.getRunDefaultLauncher() == null || !config.getRunDefaultLauncher());
+        return needSetLauncher == context.getPackageName().equalsIgnoreCase(Utils.getDefaultLauncher(context));
+    }
+
     private void updatePolicies() {
         // Update miscellaneous device policies here
 
@@ -459,11 +629,18 @@ public class ConfigUpdater {
         if (uiNotifier != null) {
             uiNotifier.onPoliciesUpdated();
         }
+        endStage(ConfigStage.POLICIES);
         Log.d(Const.LOG_TAG, "updatePolicies(): proceed to updating files");
         checkAndUpdateFiles();
     }
 
     private void checkAndUpdateFiles() {
+        // Files may have been deleted or created by the user or other apps
+        if (skipStage(ConfigStage.FILES, () -> InstallUtils.areFilesInPlace(settingsHelper.getConfig().getFiles()))) {
+            installCertificates();
+            return;
+        }
+        startStage();
         new AsyncTask<Void, Void, Void>() {
             @Override
             protected Void doInBackground(Void... voids) {
@@ -493,6 +670,7 @@ public class ConfigUpdater {
         }
         if (filesForInstall.size() > 0 && isGoodNetworkForUpdate) {
             RemoteFile remoteFile = filesForInstall.remove(0);
+            final List<RemoteFile> nextFiles = new ArrayList<>(filesForInstall);
 
             new AsyncTask<RemoteFile, Void, RemoteFileStatus>() {
 
@@ -501,6 +679,7 @@ public class ConfigUpdater {
                 protected RemoteFileStatus doInBackground(RemoteFile... remoteFiles) {
                     final RemoteFile remoteFile = remoteFiles[0];
                     RemoteFileStatus remoteFileStatus = null;
+                    prefetchFiles(nextFiles);
 
                     if (remoteFile.isRemove()) {
                         RemoteLogger.log(context, Const.LOG_DEBUG, "Removing file: " + remoteFile.getPath());
@@ -536,7 +715,7 @@ public class ConfigUpdater {
                         File file = null;
                         try {
                             RemoteLogger.log(context, Const.LOG_DEBUG, "Downloading file: " + remoteFile.getPath());
-                            file = InstallUtils.downloadFile(context, remoteFile.getUrl(),
+                            file = downloadPrefetcher.take(remoteFile.getUrl(),
                                     new InstallUtils.DownloadProgress() {
                                         @Override
                                         public void onDownloadProgress(final int progress, final long total, final long current) {
@@ -619,6 +798,9 @@ public class ConfigUpdater {
                 protected void onPostExecute(RemoteFileStatus fileStatus) {
                     if (fileStatus != null) {
                         if (!fileStatus.installed) {
+                            updateFailed = true;
+                            // The flow stops here until the user repeats or skips the download
+                            downloadPrefetcher.clear();
                             filesForInstall.add( 0, fileStatus.remoteFile );
                             if (uiNotifier != null) {
                                 if (!fileStatus.downloaded) {
@@ -649,11 +831,48 @@ public class ConfigUpdater {
 
             }.execute(remoteFile);
         } else {
+            downloadPrefetcher.clear();
+            endStage(ConfigStage.FILES);
             Log.i(Const.LOG_TAG, "loadAndInstallFiles(): Proceed to certificate installation");
             installCertificates();
         }
     }
 
+    // Called in the background thread
+    // Files with failed download attempts are not prefetched: canDownload() decides on them in their turn
+    private void prefetchFiles(List<RemoteFile> nextFiles) {
+        DatabaseHelper dbHelper = DatabaseHelper.instance(context);
+        for (RemoteFile remoteFile : nextFiles) {
+            if (remoteFile.isRemove() || remoteFile.getUrl() == null ||
+                    DownloadTable.selectByPath(dbHelper.getReadableDatabase(), remoteFile.getPath()) != null) {
+                continue;
+            }
+            if (!downloadPrefetcher.prefetch(remoteFile.getUrl())) {
+                break;
+            }
+        }
+    }
+
+    // Called in the background thread
+    private void prefetchApplications(List<Application> nextApplications) {
+        if (InstallUtils.isStreamingInstallPreferred(context)) {
+            // Apps are downloaded directly into the installer in their turn
+            return;
+        }
+        DatabaseHelper dbHelper = DatabaseHelper.instance(context);
+        for (Application application : nextApplications) {
+            if (application.isRemove() || application.getUrl() == null ||
+                    application.getUrl().startsWith("market://details") || application.getUrl().startsWith("file:///") ||
+                    DownloadTable.selectByPath(dbHelper.getReadableDatabase(),
+                            InstallUtils.getAppTempPath(context, application.getUrl())) != null) {
+                continue;
+            }
+            if (!downloadPrefetcher.prefetch(application.getUrl())) {
+                break;
+            }
+        }
+    }
+
     // Save failed attempt to download or install a file or an app in the database to avoid infinite loops
     private void saveFailedAttempt(Context context, Download lastDownload, String url, String path, boolean downloaded, boolean installed) {
         if (lastDownload == null) {
@@ -718,8 +937,13 @@ public class ConfigUpdater {
     }
 
     private void installCertificates() {
+        if (skipStage(ConfigStage.CERTIFICATES)) {
+            checkAndUpdateApplications();
+            return;
+        }
         final String certPaths = settingsHelper.getAppPreference(context.getPackageName(), "certificates");
         if (certPaths != null) {
+            startStage();
             new AsyncTask<Void, Void, Void>() {
                 @Override
                 protected Void doInBackground(Void... voids) {
@@ -729,6 +953,7 @@ public class ConfigUpdater {
 
                 @Override
                 protected void onPostExecute(Void v) {
+                    endStage(ConfigStage.CERTIFICATES);
                     checkAndUpdateApplications();
                 }
             }.execute();
@@ -749,6 +974,13 @@ public class ConfigUpdater {
          */
         configInitializing = false;
 
+        // Apps may have been removed or replaced by the user, this is checked using the installed package snapshot
+        if (skipStage(ConfigStage.APPLICATIONS, () -> InstallUtils.areApplicationsInstalled(context,
+                settingsHelper.getConfig().getApplications(), pendingInstallations))) {
+            lockRestrictions();
+            return;
+        }
+        startStage();
         ServerConfig config = settingsHelper.getConfig();
         InstallUtils.generateApplicationsForInstallList(context, config.getApplications(), applicationsForInstall, pendingInstallations);
 
@@ -775,6 +1007,7 @@ public class ConfigUpdater {
         }
         if (applicationsForInstall.size() > 0 && isGoodTimeForAppUpdate && isGoodNetworkForUpdate) {
             Application application = applicationsForInstall.remove(0);
+            final List<Application> nextApplications = new ArrayList<>(applicationsForInstall);
 
             new AsyncTask<Application, Void, ApplicationStatus>() {
 
@@ -782,6 +1015,7 @@ public class ConfigUpdater {
                 protected ApplicationStatus doInBackground(Application... applications) {
                     final Application application = applications[0];
                     ApplicationStatus applicationStatus = null;
+                    prefetchApplications(nextApplications);
 
                     if (application.isRemove()) {
                         // Remove the app
@@ -853,10 +1087,38 @@ public class ConfigUpdater {
                             return applicationStatus;
                         }
 
+                        if (canStreamInstall(application)) {
+                            try {
+                                if (streamInstallApplication(application.getUrl(), application.getPkg(), application.getVersion(),
+                                        (progress, total, current) -> {
+                                            if (uiNotifier != null) {
+                                                uiNotifier.onDownloadProgress(progress, total, current);
+                                            }
+                                        })) {
+                                    if (uiNotifier != null) {
+                                        uiNotifier.onAppInstalling(application);
+                                    }
+                                    applicationStatus.installed = true;
+                                    if (lastDownload != null) {
+                                        DownloadTable.deleteByPath(dbHelper.getWritableDatabase(), lastDownload.getPath());
+                                    }
+                                    return applicationStatus;
+                                }
+                                // The download can't be verified without its size, so it goes through a file
+                                RemoteLogger.log(context, Const.LOG_DEBUG, "Size of app " + application.getPkg() + " is unknown, downloading it to a file");
+                            } catch (Exception e) {
+                                RemoteLogger.log(context, Const.LOG_WARN, "Failed to download app " + application.getPkg() + ": " + e.getMessage());
+                                e.printStackTrace();
+                                saveFailedAttempt(context, lastDownload, application.getUrl(), tempPath, false, false);
+                                applicationStatus.installed = false;
+                                return applicationStatus;
+                            }
+                        }
+
                         File file = null;
                         try {
                             RemoteLogger.log(context, Const.LOG_DEBUG, "Downloading app: " + application.getPkg());
-                            file = InstallUtils.downloadFile(context, application.getUrl(),
+                            file = downloadPrefetcher.take(application.getUrl(),
                                     new InstallUtils.DownloadProgress() {
                                         @Override
                                         public void onDownloadProgress(final int progress, final long total, final long current) {
@@ -913,6 +1175,9 @@ public class ConfigUpdater {
                                 applicationsForRun.add(applicationStatus.application);
                             }
                         } else {
+                            updateFailed = true;
+                            // The flow stops here until the user repeats or skips the download
+                            downloadPrefetcher.clear();
                             applicationsForInstall.add( 0, applicationStatus.application );
                             if (uiNotifier != null) {
                                 uiNotifier.onAppDownloadError(applicationStatus.application);
@@ -938,11 +1203,19 @@ public class ConfigUpdater {
         } else {
             // App install receiver is unregistered after all apps are installed or a timeout happens
             //unregisterAppInstallReceiver();
+            downloadPrefetcher.clear();
+            endStage(ConfigStage.APPLICATIONS);
             lockRestrictions();
         }
     }
 
+    // Restrictions are released in the beginning of each update, so they're always locked again
     private void lockRestrictions() {
+        lockUserRestrictions();
+        notifyThreads();
+    }
+
+    private void lockUserRestrictions() {
         if (settingsHelper.getConfig() != null && settingsHelper.getConfig().getRestrictions() != null) {
             Utils.lockUserRestrictions(context, settingsHelper.getConfig().getRestrictions());
         }
@@ -950,28 +1223,35 @@ public class ConfigUpdater {
         Utils.lockPackages(context, lockedPackages, true);
         String unlockedPackages = settingsHelper.getAppPreference(context.getPackageName(), "unlocked_packages");
         Utils.lockPackages(context, unlockedPackages, false);
-        notifyThreads();
     }
 
     private void notifyThreads() {
+        notifyPermissiveMode();
+        setActions();
+    }
+
+    private void notifyPermissiveMode() {
         ServerConfig config = settingsHelper.getConfig();
         if (config != null) {
             Intent intent = new Intent(Const.ACTION_TOGGLE_PERMISSIVE);
             intent.putExtra(Const.EXTRA_ENABLED, config.isPermissive() || config.isKioskMode());
             LocalBroadcastManager.getInstance(context).sendBroadcast(intent);
         }
-        setActions();
     }
 
     private void setActions() {
         final ServerConfig config = settingsHelper.getConfig();
+        final boolean skipActions = skipStage(ConfigStage.ACTIONS);
+        if (!skipActions) {
+            startStage();
+        }
         // As per the documentation, setting the default preferred activity should not be done on the main thread
         new AsyncTask<Void, Void, Void>() {
             @Override
             protected Void doInBackground(Void... voids) {
                 // If kiosk browser is installed, make it a default browser
                 // This is a temporary solution! Perhaps user wants only to open specific hosts / schemes
-                if (Utils.isDeviceOwner(context)) {
+                if (!skipActions && Utils.isDeviceOwner(context)) {
                     if (config.getActions() != null && config.getActions().size() > 0) {
                         for (Action action : config.getActions()) {
                             Utils.setAction(context, action);
@@ -983,6 +1263,9 @@ public class ConfigUpdater {
 
             @Override
             protected void onPostExecute(Void v) {
+                if (!skipActions) {
+                    endStage(ConfigStage.ACTIONS);
+                }
                 if (uiNotifier != null) {
                     uiNotifier.onConfigUpdateComplete();
                 }
@@ -992,6 +1275,10 @@ public class ConfigUpdater {
                 context.sendBroadcast(intent);
 
                 RemoteLogger.log(context, Const.LOG_VERBOSE, "Update flow completed");
+                if (skippedStages.size() > 0) {
+                    RemoteLogger.log(context, Const.LOG_DEBUG, "Skipped unchanged stages: " +
+                            String.join(", ", skippedStages) + ", time saved: " + timeSaved + " ms");
+                }
                 if (pendingInstallations.size() > 0) {
                     // Some apps are still pending installation
                     // Let's wait until they're all installed
@@ -999,6 +1286,7 @@ public class ConfigUpdater {
                     waitForInstallComplete();
                 } else {
                     unregisterAppInstallReceiver();
+                    onConfigApplied();
                 }
 
                 // onConfigUpdateComplete() method contents
@@ -1026,6 +1314,9 @@ public class ConfigUpdater {
                     }
                 }
                 unregisterAppInstallReceiver();
+                if (pendingInstallations.size() == 0) {
+                    onConfigApplied();
+                }
                 if (uiNotifier != null) {
                     uiNotifier.onAllAppInstallComplete();
                 }
@@ -1072,6 +1363,7 @@ public class ConfigUpdater {
                                 if (packageName != null) {
                                     RemoteLogger.log(context, Const.LOG_DEBUG, "App " + packageName + " installed successfully");
                                     Log.i(Const.LOG_TAG, "Install complete: " + packageName);
+                                    PackageSnapshotCache.getInstance().invalidate(packageName);
                                     File file = pendingInstallations.get(packageName);
                                     if (file != null) {
                                         pendingInstallations.remove(packageName);
@@ -1135,6 +1427,7 @@ public class ConfigUpdater {
                                     logRecord += ", extra: " + extraMessage;
                                 }
                                 RemoteLogger.log(context, Const.LOG_ERROR, logRecord);
+                                updateFailed = true;
                                 if (packageName != null) {
                                     File file = pendingInstallations.get(packageName);
                                     if (file != null) {
@@ -1209,6 +1502,7 @@ public class ConfigUpdater {
             InstallUtils.silentInstallApplication(context, file, packageName, new InstallUtils.InstallErrorHandler() {
                 @Override
                 public void onInstallError(String msg) {
+                    updateFailed = true;
                     Log.i(Const.LOG_TAG, "installApplication(): error installing app " + packageName);
                     pendingInstallations.remove(packageName);
                     if (file.exists()) {
@@ -1246,6 +1540,7 @@ public class ConfigUpdater {
             InstallUtils.requestInstallApplication(context, file, new InstallUtils.InstallErrorHandler() {
                 @Override
                 public void onInstallError(String msg) {
+                    updateFailed = true;
                     pendingInstallations.remove(packageName);
                     if (file.exists()) {
                         file.delete();
@@ -1266,6 +1561,37 @@ public class ConfigUpdater {
         }
     }
 
+    // Silent installation of an APK (not XAPK) without a temporary file
+    private boolean canStreamInstall(Application application) {
+        return (Utils.isDeviceOwner(context) || BuildConfig.SYSTEM_PRIVILEGES) &&
+                !application.getUrl().endsWith(".xapk") &&
+                InstallUtils.isStreamingInstallPreferred(context);
+    }
+
+    // Returns false if the app can't be installed while downloading, and should be downloaded to a file
+    // This function is called from a background thread
+    private boolean streamInstallApplication(String url, final String packageName, final String version,
+                                             InstallUtils.DownloadProgress progress) throws Exception {
+        if (packageName.equals(context.getPackageName()) &&
+                context.getPackageManager().getLaunchIntentForPackage(Const.LAUNCHER_RESTARTER_PACKAGE_ID) != null) {
+            // Restart self in EMUI: there's no auto restart after update in EMUI, we must use a helper app
+            startLauncherRestarter();
+        }
+        String versionData = version == null || version.equals("0") ? "" : " " + version;
+        // The file is not created, but its path is used to save failed install attempts
+        pendingInstallations.put(packageName, new File(InstallUtils.getAppTempPath(context, url)));
+        RemoteLogger.log(context, Const.LOG_INFO, "Silently installing app " + packageName + versionData + " while downloading");
+        boolean streamed = false;
+        try {
+            streamed = InstallUtils.streamInstallApplication(context, url, packageName, progress);
+        } finally {
+            if (!streamed) {
+                pendingInstallations.remove(packageName);
+            }
+        }
+        return streamed;
+    }
+
     private void uninstallApplication(final String packageName) {
         if (Utils.isDeviceOwner(context) || BuildConfig.SYSTEM_PRIVILEGES) {
             RemoteLogger.log(context, Const.LOG_INFO, "Silently uninstall app " + packageName);
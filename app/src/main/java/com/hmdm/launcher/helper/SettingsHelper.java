@@ -22,12 +22,12 @@ package com.hmdm.launcher.helper;
 import android.content.Context;
 import android.content.SharedPreferences;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdm.launcher.BuildConfig;
 import com.hmdm.launcher.json.Application;
 import com.hmdm.launcher.json.ApplicationSetting;
 import com.hmdm.launcher.json.RemoteFile;
 import com.hmdm.launcher.json.ServerConfig;
+import com.hmdm.launcher.util.JsonCodec;
 
 import java.util.Arrays;
 import java.util.HashMap;
@@ -49,6 +49,10 @@ public class SettingsHelper {
     private static final String PREF_KEY_DEVICE_ID_USE = ".helpers.DEVICE_ID_USE";
     private static final String PREF_KEY_CERT_URLS = ".helpers.CERT_URLS";
     private static final String PREF_KEY_CONFIG = ".helpers.CONFIG";
+    private static final String PREF_KEY_CONFIG_HASH = ".helpers.CONFIG_HASH";
+    private static final String PREF_KEY_CONFIG_ETAG = ".helpers.CONFIG_ETAG";
+    private static final String PREF_KEY_CONFIG_ETAG_TIMESTAMP = ".helpers.CONFIG_ETAG_TIMESTAMP";
+    private static final String PREF_KEY_CONFIG_ETAG_VERSION = ".helpers.CONFIG_ETAG_VERSION";
     private static final String PREF_KEY_IP_ADDRESS = ".helpers.IP_ADDRESS";
     private static final String PREF_KEY_IMEI = ".helpers.IMEI";
     private static final String PREF_KEY_CONN_RETRY_COUNT = ".helpers.CONN_RETRY_COUNT";
@@ -64,13 +68,19 @@ public class SettingsHelper {
     private static final String PREF_KEY_USER_CUSTOM_1 = ".helpers.USER_CUSTOM_1";
     private static final String PREF_KEY_USER_CUSTOM_2 = ".helpers.USER_CUSTOM_2";
     private static final String PREF_KEY_USER_CUSTOM_3 = ".helpers.USER_CUSTOM_3";
+    // Configuration is fully re-applied at least once per this period even if it is not changed
+    private static final long CONFIG_ETAG_MAX_AGE_MS = 24 * 3600 * 1000L;
+
     // This prefix is for the compatibility with a legacy package name
     private static String PACKAGE_NAME;
 
     private SharedPreferences sharedPreferences;
+    private ConfigStore configStore;
     private ServerConfig config;
     private ServerConfig oldConfig;
     private Map<String,ApplicationSetting> appSettings = new HashMap<>();
+    // Configuration whose application settings are not yet copied to appSettings
+    private ServerConfig appSettingsConfig;
     private Set<String> allowedClasses = new HashSet<>();
 
     private static SettingsHelper instance;
@@ -86,6 +96,7 @@ public class SettingsHelper {
     public SettingsHelper(Context context) {
         PACKAGE_NAME = context.getPackageName();
         sharedPreferences = context.getSharedPreferences(PACKAGE_NAME + PREFERENCES_ID, Context.MODE_PRIVATE );
+        configStore = new ConfigStore(context);
         initConfig();
     }
 
@@ -98,12 +109,28 @@ public class SettingsHelper {
 
     private void initConfig() {
         try {
-            if ( sharedPreferences.contains(PACKAGE_NAME + PREF_KEY_CONFIG) ) {
-                ObjectMapper mapper = new ObjectMapper();
-                config = mapper.readValue(
+            config = configStore.load();
+            if (config == null && sharedPreferences.contains(PACKAGE_NAME + PREF_KEY_CONFIG)) {
+                // Earlier versions stored the configuration in the preferences: move it to the config store
+                config = JsonCodec.read(
                         sharedPreferences.getString(PACKAGE_NAME + PREF_KEY_CONFIG, "" ),
                         ServerConfig.class );
-                updateAppSettingsMap(config);
+                try {
+                    configStore.save(config);
+                    // Keep the preferences until the stored configuration is read back
+                    if (configStore.verify()) {
+                        sharedPreferences.edit()
+                                .remove(PACKAGE_NAME + PREF_KEY_CONFIG)
+                                .remove(PACKAGE_NAME + PREF_KEY_CONFIG_HASH)
+                                .commit();
+                    }
+                } catch (Exception e) {
+                    // Keep the preferences, migration will be repeated on the next start
+                    e.printStackTrace();
+                }
+            }
+            if (config != null) {
+                invalidateAppSettings(config);
                 updateAllowedClassesSet(config);
             }
         } catch ( Exception e ) {
@@ -231,6 +258,33 @@ public class SettingsHelper {
         return sharedPreferences.edit().putLong(PACKAGE_NAME + PREF_CFG_UPDATE_TIMESTAMP, timestamp).commit();
     }
 
+    // Returns the ETag of the last fully applied configuration, or null if the full update is required
+    public String getConfigETag() {
+        long timestamp = sharedPreferences.getLong(PACKAGE_NAME + PREF_KEY_CONFIG_ETAG_TIMESTAMP, 0);
+        int version = sharedPreferences.getInt(PACKAGE_NAME + PREF_KEY_CONFIG_ETAG_VERSION, 0);
+        long now = System.currentTimeMillis();
+        if (now < timestamp || now - timestamp > CONFIG_ETAG_MAX_AGE_MS || version != BuildConfig.VERSION_CODE) {
+            return null;
+        }
+        return sharedPreferences.getString(PACKAGE_NAME + PREF_KEY_CONFIG_ETAG, null);
+    }
+
+    public boolean setConfigETag(String etag) {
+        if (etag == null) {
+            return sharedPreferences.edit()
+                    .remove(PACKAGE_NAME + PREF_KEY_CONFIG_ETAG)
+                    .remove(PACKAGE_NAME + PREF_KEY_CONFIG_ETAG_TIMESTAMP)
+                    .remove(PACKAGE_NAME + PREF_KEY_CONFIG_ETAG_VERSION)
+                    .commit();
+        } else {
+            return sharedPreferences.edit()
+                    .putString(PACKAGE_NAME + PREF_KEY_CONFIG_ETAG, etag)
+                    .putLong(PACKAGE_NAME + PREF_KEY_CONFIG_ETAG_TIMESTAMP, System.currentTimeMillis())
+                    .putInt(PACKAGE_NAME + PREF_KEY_CONFIG_ETAG_VERSION, BuildConfig.VERSION_CODE)
+                    .commit();
+        }
+    }
+
     public boolean setEnrollOptionCustomer(String customer) {
         if (customer == null) {
             return sharedPreferences.edit().remove(PACKAGE_NAME + PREF_KEY_CUSTOMER).commit();
@@ -330,14 +384,14 @@ public class SettingsHelper {
 
     public void updateConfig( ServerConfig config ) {
         try {
-            ObjectMapper objectMapper = new ObjectMapper();
-            sharedPreferences.edit().putString(PACKAGE_NAME + PREF_KEY_CONFIG, objectMapper.writeValueAsString( config ) ).commit();
+            // The store doesn't rewrite the file if the configuration is not changed
+            configStore.save(config);
         } catch ( Exception e ) {
             e.printStackTrace();
             // Do not apply changes when there's an error while writing settings
             return;
         }
-        updateAppSettingsMap(config);
+        invalidateAppSettings(config);
         updateAllowedClassesSet(config);
         this.oldConfig = this.config;
         this.config = config;
@@ -383,8 +437,22 @@ public class SettingsHelper {
         }
     }
 
+    // Application settings are processed on first access, so the stored configuration
+    // doesn't decode them if they aren't used
+    private synchronized void invalidateAppSettings(ServerConfig config) {
+        appSettingsConfig = config;
+    }
+
+    private synchronized Map<String,ApplicationSetting> getAppSettings() {
+        if (appSettingsConfig != null) {
+            updateAppSettingsMap(appSettingsConfig);
+            appSettingsConfig = null;
+        }
+        return appSettings;
+    }
+
     private void updateAppSettingsMap(ServerConfig config) {
-        if (config == null || config.getApplicationSettings() == null) {
+        if (config.getApplicationSettings() == null) {
             return;
         }
         appSettings.clear();
@@ -418,7 +486,7 @@ public class SettingsHelper {
 
     public String getAppPreference(String packageId, String attr) {
         String key = packageId + "." + attr;
-        ApplicationSetting setting = appSettings.get(key);
+        ApplicationSetting setting = getAppSettings().get(key);
         if (setting == null) {
             return null;
         }
@@ -427,14 +495,14 @@ public class SettingsHelper {
 
     public boolean setAppPreference(String packageId, String attr, String value) {
         String key = packageId + "." + attr;
-        ApplicationSetting setting = appSettings.get(key);
+        ApplicationSetting setting = getAppSettings().get(key);
         if (setting == null) {
             setting = new ApplicationSetting();
             setting.setPackageId(packageId);
             setting.setName(attr);
             setting.setType(1);     // 1 is string (default value)
             setting.setReadOnly(false);
-            appSettings.put(key, setting);
+            getAppSettings().put(key, setting);
         }
         if (setting.isReadOnly()) {
             return false;
@@ -449,7 +517,7 @@ public class SettingsHelper {
     }
 
     public Map<String,ApplicationSetting> getProcessedAppSettings() {
-        return appSettings;
+        return getAppSettings();
     }
 
     public Set<String> getAllowedClasses() {
@@ -19,14 +19,35 @@
 
 package com.hmdm.launcher.json;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.hmdm.launcher.util.JsonCodec;
 
-import org.json.JSONObject;
-
+/**
+ * Push message received from any transport.
+ * The message is immutable because it may be handled in several threads (see PushCommandDispatcher).
+ * The payload is kept as JSON text, which is passed to plugins as is, and parsed once on first use:
+ * the duplicate check and the command handler share the result.
+ */
 @JsonIgnoreProperties( ignoreUnknown = true )
 public class PushMessage {
-    private String messageType;
-    private String payload;
+    private final String messageType;
+    private final String payload;
+    // Derived from the final fields, so a race only makes the payload parsed twice
+    private volatile ParsedPayload parsedPayload;
+
+    private static class ParsedPayload {
+        private final String normalized;
+        private final PushPayload data;
+
+        private ParsedPayload(String normalized, PushPayload data) {
+            this.normalized = normalized;
+            this.data = data;
+        }
+    }
 
     public static final String TYPE_CONFIG_UPDATING = "configUpdating";
     public static final String TYPE_CONFIG_UPDATED = "configUpdated";
@@ -46,30 +67,53 @@ public class PushMessage {
     public static final String TYPE_ADMIN_PANEL = "adminPanel";
     public static final String TYPE_CLEAR_APP_DATA = "clearAppData";
 
-    public String getMessageType() {
-        return messageType;
+    @JsonCreator
+    public PushMessage(@JsonProperty("messageType") String messageType, @JsonProperty("payload") String payload) {
+        this.messageType = messageType;
+        this.payload = payload;
     }
 
-    public void setMessageType( String messageType ) {
-        this.messageType = messageType;
+    public String getMessageType() {
+        return messageType;
     }
 
     public String getPayload() {
         return payload;
     }
 
-    public void setPayload(String payload) {
-        this.payload = payload;
+    // Returns null if the payload is not a valid JSON object
+    @JsonIgnore
+    public PushPayload getPayloadData() {
+        return getParsedPayload().data;
+    }
+
+    // Payload without formatting, so the same payload sent by different transports is equal.
+    // Returns null if the payload is not a valid JSON object
+    @JsonIgnore
+    public String getNormalizedPayload() {
+        return getParsedPayload().normalized;
+    }
+
+    private ParsedPayload getParsedPayload() {
+        ParsedPayload result = parsedPayload;
+        if (result == null) {
+            result = parsePayload(payload);
+            parsedPayload = result;
+        }
+        return result;
     }
 
-    public JSONObject getPayloadJSON() {
+    private static ParsedPayload parsePayload(String payload) {
         if (payload != null) {
             try {
-                return new JSONObject(payload);
+                JsonNode tree = JsonCodec.getMapper().readTree(payload);
+                if (tree != null && tree.isObject()) {
+                    return new ParsedPayload(tree.toString(), JsonCodec.getMapper().treeToValue(tree, PushPayload.class));
+                }
             } catch (Exception e) {
                 // Bad payload
             }
         }
-        return null;
+        return new ParsedPayload(null, null);
     }
 }
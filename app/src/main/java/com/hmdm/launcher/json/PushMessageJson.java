@@ -1,43 +0,0 @@
-/*
- * Headwind MDM: Open Source Android MDM Software
- * https://h-mdm.com
- *
- * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-
-package com.hmdm.launcher.json;
-
-import org.json.JSONObject;
-
-public class PushMessageJson extends PushMessage {
-    private JSONObject payloadJSON;
-
-    public PushMessageJson() {
-    }
-
-    public PushMessageJson(String messageType, JSONObject payloadJSON) {
-        setMessageType(messageType);
-        this.payloadJSON = payloadJSON;
-    }
-
-    @Override
-    public JSONObject getPayloadJSON() {
-        return payloadJSON;
-    }
-
-    public void setPayloadJSON(JSONObject payloadJSON) {
-        this.payloadJSON = payloadJSON;
-    }
-}
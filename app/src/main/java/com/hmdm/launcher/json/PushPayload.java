@@ -0,0 +1,145 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.json;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parameters of a push command, decoded from the payload by the shared mapper.
+ * Each command uses a few of the fields, the rest are null. There are no public setters
+ * because the payload is shared by the threads handling the message (see PushMessage).
+ */
+@JsonIgnoreProperties( ignoreUnknown = true )
+public class PushPayload {
+    private String pkg;
+    private List<String> packages = Collections.emptyList();
+    private String action;
+    private String data;
+    private Map<String, Object> extras = Collections.emptyMap();
+    private String path;
+    private String recursive;
+    private String command;
+
+    // Application package (runApp, broadcast, uninstallApp, clearAppData)
+    public String getPkg() {
+        return pkg;
+    }
+
+    // grantPermissions accepts either a single package or an array
+    public List<String> getPackages() {
+        return packages;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public String getData() {
+        return data;
+    }
+
+    // Free-form intent extras: only strings, integers and booleans are kept
+    public Map<String, Object> getExtras() {
+        return extras;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getRecursive() {
+        return recursive;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    @JsonProperty("pkg")
+    private void setPkg(JsonNode node) {
+        if (node.isArray()) {
+            List<String> list = new ArrayList<>(node.size());
+            for (JsonNode item : node) {
+                if (item.isValueNode() && !item.isNull()) {
+                    list.add(item.asText());
+                }
+            }
+            packages = Collections.unmodifiableList(list);
+        } else if (node.isValueNode() && !node.isNull()) {
+            pkg = node.asText();
+            packages = Collections.singletonList(pkg);
+        }
+    }
+
+    @JsonProperty("action")
+    private void setAction(String action) {
+        this.action = action;
+    }
+
+    @JsonProperty("data")
+    private void setData(String data) {
+        this.data = data;
+    }
+
+    @JsonProperty("extra")
+    private void setExtra(JsonNode node) {
+        if (!node.isObject()) {
+            return;
+        }
+        Map<String, Object> map = new LinkedHashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonNode value = field.getValue();
+            if (value.isTextual()) {
+                map.put(field.getKey(), value.textValue());
+            } else if (value.isInt()) {
+                map.put(field.getKey(), value.intValue());
+            } else if (value.isBoolean()) {
+                map.put(field.getKey(), value.booleanValue());
+            }
+        }
+        extras = Collections.unmodifiableMap(map);
+    }
+
+    @JsonProperty("path")
+    private void setPath(String path) {
+        this.path = path;
+    }
+
+    @JsonProperty("recursive")
+    private void setRecursive(String recursive) {
+        this.recursive = recursive;
+    }
+
+    @JsonProperty("command")
+    private void setCommand(String command) {
+        this.command = command;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.server;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.hmdm.launcher.BuildConfig;
+import com.hmdm.launcher.Const;
+import com.hmdm.launcher.util.InstallUtils;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Cache;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * Process-wide HTTP stack.
+ * All HTTP clients are derived from a single OkHttpClient, so they share
+ * the connection pool and the dispatcher and reuse connections to the same host.
+ */
+public class HttpClientKeeper {
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_MINS = 5;
+
+    private static final long IMAGE_CACHE_SIZE = 1000000L;
+
+    private static OkHttpClient client;
+    private static OkHttpClient imageClient;
+
+    private static final AtomicLong connectionsAcquired = new AtomicLong();
+    private static final AtomicLong connectionsCreated = new AtomicLong();
+
+    public static synchronized OkHttpClient getClient() {
+        if (client == null) {
+            OkHttpClient.Builder builder = BuildConfig.TRUST_ANY_CERTIFICATE ?
+                    UnsafeOkHttpClient.getUnsafeOkHttpClientBuilder() : new OkHttpClient.Builder();
+            builder.connectTimeout(Const.CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS).
+                    readTimeout(Const.CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS).
+                    writeTimeout(Const.CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS).
+                    connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINS, TimeUnit.MINUTES)).
+                    // HTTP/2 is negotiated by ALPN if the server supports it
+                    protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1)).
+                    eventListener(new EventListener() {
+                        @Override
+                        public void connectEnd(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress,
+                                               @NonNull Proxy proxy, Protocol protocol) {
+                            connectionsCreated.incrementAndGet();
+                        }
+
+                        @Override
+                        public void connectionAcquired(@NonNull Call call, @NonNull Connection connection) {
+                            connectionsAcquired.incrementAndGet();
+                        }
+                    });
+            client = builder.build();
+        }
+        return client;
+    }
+
+    // Derived clients share the connection pool and the dispatcher with the main client
+    public static OkHttpClient getClient(long readTimeout) {
+        if (readTimeout == Const.CONNECTION_TIMEOUT) {
+            return getClient();
+        }
+        return getClient().newBuilder().
+                readTimeout(readTimeout, TimeUnit.MILLISECONDS).
+                build();
+    }
+
+    // Used for downloading certificates before the trusted certificates are installed
+    public static OkHttpClient getClientWithoutHostnameVerification() {
+        return getClient().newBuilder().
+                hostnameVerifier(InstallUtils.DO_NOT_VERIFY).
+                build();
+    }
+
+    // Client for Picasso: caches images and signs requests
+    public static synchronized OkHttpClient getImageClient(Context context) {
+        if (imageClient == null) {
+            if (BuildConfig.TRUST_ANY_CERTIFICATE) {
+                // For TRUST_ANY_CERTIFICATE, we won't add signatures because it's unsafe anyway
+                // and is just a workaround to use Headwind MDM on the LAN
+                imageClient = getClient();
+            } else {
+                // Add signature to all requests to protect against unauthorized API calls
+                imageClient = getClient().newBuilder()
+                        .cache(new Cache(new File(context.getApplicationContext().getCacheDir(), "image_cache"), IMAGE_CACHE_SIZE))
+                        .addInterceptor(chain -> {
+                            okhttp3.Request.Builder requestBuilder = chain.request().newBuilder();
+                            String signature = InstallUtils.getRequestSignature(chain.request().url().toString());
+                            if (signature != null) {
+                                requestBuilder.addHeader("X-Request-Signature", signature);
+                            }
+                            return chain.proceed(requestBuilder.build());
+                        })
+                        .build();
+            }
+        }
+        return imageClient;
+    }
+
+    public static int getIdleConnectionCount() {
+        return getClient().connectionPool().idleConnectionCount();
+    }
+
+    public static int getActiveConnectionCount() {
+        ConnectionPool pool = getClient().connectionPool();
+        return pool.connectionCount() - pool.idleConnectionCount();
+    }
+
+    // Share of requests served by an already open connection
+    public static float getConnectionReuseRatio() {
+        long acquired = connectionsAcquired.get();
+        if (acquired == 0) {
+            return 0;
+        }
+        long created = Math.min(connectionsCreated.get(), acquired);
+        return (float)(acquired - created) / acquired;
+    }
+
+    public static String getStats() {
+        return "HTTP connections: active " + getActiveConnectionCount() +
+                ", idle " + getIdleConnectionCount() +
+                ", acquired " + connectionsAcquired.get() +
+                ", created " + connectionsCreated.get() +
+                ", reuse ratio " + String.format(Locale.US, "%.2f", getConnectionReuseRatio());
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.server;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.hmdm.launcher.Const;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Decides which server (primary or secondary) is queried first.
+ * Each base URL has a health score and a latency EWMA updated by the results of the requests.
+ * A server which failed is queried last until it is back; meanwhile it is probed in the background
+ * by a lightweight request, so the regular requests don't wait for its timeout.
+ */
+public class ServerEndpointSelector {
+    // Weight of the last result in the health score and the latency
+    private static final double HEALTH_ALPHA = 0.5;
+    private static final double LATENCY_ALPHA = 0.2;
+    // A single failure of a healthy server makes it unhealthy, and a single success brings it back
+    // A server which failed many times in a row needs more successful probes
+    private static final double HEALTHY_SCORE = 0.6;
+    // The secondary server is preferred to the healthy primary one only if it is much faster
+    private static final double LATENCY_FACTOR = 2.0;
+
+    // The probe interval is doubled on each consecutive failure
+    private static final long PROBE_INTERVAL_MS = 30000;
+    private static final long MAX_PROBE_INTERVAL_MS = 600000;
+    private static final long PROBE_TIMEOUT_MS = 5000;
+
+    // The second request is sent if the first one is not completed in this time
+    private static final long HEDGE_MIN_DELAY_MS = 2000;
+    private static final int HEDGE_LATENCY_FACTOR = 3;
+
+    private static ServerEndpointSelector instance;
+
+    private final Map<String, Endpoint> endpoints = new HashMap<>();
+    private OkHttpClient probeClient;
+    private final LongSupplier clock;
+
+    private static class Endpoint {
+        private final String baseUrl;
+        private double health = 1;
+        // Zero if unknown
+        private double latency;
+        private int consecutiveFailures;
+        private long lastFailureTime;
+        private boolean probing;
+        private int successCount;
+        private int failureCount;
+
+        private Endpoint(String baseUrl) {
+            this.baseUrl = baseUrl;
+        }
+
+        private boolean isHealthy() {
+            return health >= HEALTHY_SCORE;
+        }
+    }
+
+    private ServerEndpointSelector() {
+        this(null, SystemClock::elapsedRealtime);
+    }
+
+    // The probe client is created from the shared HTTP client if it is not set
+    ServerEndpointSelector(OkHttpClient probeClient, LongSupplier clock) {
+        this.probeClient = probeClient;
+        this.clock = clock;
+    }
+
+    public static synchronized ServerEndpointSelector getInstance() {
+        if (instance == null) {
+            instance = new ServerEndpointSelector();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the base URLs in the order they should be queried.
+     * If both URLs are the same, the URL is returned twice so the request is retried once.
+     */
+    public synchronized List<String> getOrder(String primaryUrl, String secondaryUrl) {
+        List<String> order = new LinkedList<>();
+        if (secondaryUrl == null || secondaryUrl.equals(primaryUrl)) {
+            order.add(primaryUrl);
+            order.add(primaryUrl);
+            return order;
+        }
+
+        Endpoint primary = getEndpoint(primaryUrl);
+        Endpoint secondary = getEndpoint(secondaryUrl);
+        probeIfDue(primary);
+        probeIfDue(secondary);
+
+        if (isPreferred(secondary, primary)) {
+            order.add(secondaryUrl);
+            order.add(primaryUrl);
+        } else {
+            order.add(primaryUrl);
+            order.add(secondaryUrl);
+        }
+        return order;
+    }
+
+    private boolean isPreferred(Endpoint candidate, Endpoint current) {
+        if (candidate.isHealthy() != current.isHealthy()) {
+            return candidate.isHealthy();
+        }
+        if (!current.isHealthy()) {
+            // Both are down, try the one which is more likely to be back
+            return candidate.health > current.health;
+        }
+        return candidate.latency > 0 && current.latency > 0 &&
+                candidate.latency * LATENCY_FACTOR < current.latency;
+    }
+
+    // Latency is negative if it shouldn't be taken into account, for example for long polling
+    public synchronized void recordSuccess(String baseUrl, long latency) {
+        Endpoint endpoint = getEndpoint(baseUrl);
+        boolean wasHealthy = endpoint.isHealthy();
+        endpoint.health += HEALTH_ALPHA * (1 - endpoint.health);
+        endpoint.consecutiveFailures = 0;
+        endpoint.successCount++;
+        if (latency >= 0) {
+            endpoint.latency = endpoint.latency == 0 ? latency :
+                    endpoint.latency + LATENCY_ALPHA * (latency - endpoint.latency);
+        }
+        if (!wasHealthy && endpoint.isHealthy()) {
+            Log.i(Const.LOG_TAG, "Server " + baseUrl + " is back");
+        }
+    }
+
+    public synchronized void recordFailure(String baseUrl) {
+        Endpoint endpoint = getEndpoint(baseUrl);
+        boolean wasHealthy = endpoint.isHealthy();
+        endpoint.health -= HEALTH_ALPHA * endpoint.health;
+        endpoint.consecutiveFailures++;
+        endpoint.failureCount++;
+        endpoint.lastFailureTime = clock.getAsLong();
+        if (wasHealthy && !endpoint.isHealthy()) {
+            Log.w(Const.LOG_TAG, "Server " + baseUrl + " is down");
+        }
+    }
+
+    // Delay before sending the request to the second server if the first one doesn't respond
+    public synchronized long getHedgeDelay(String baseUrl) {
+        Endpoint endpoint = getEndpoint(baseUrl);
+        long delay = Math.max(HEDGE_MIN_DELAY_MS, (long)(endpoint.latency * HEDGE_LATENCY_FACTOR));
+        return Math.min(delay, Const.CONNECTION_TIMEOUT);
+    }
+
+    private Endpoint getEndpoint(String baseUrl) {
+        Endpoint endpoint = endpoints.get(baseUrl);
+        if (endpoint == null) {
+            endpoint = new Endpoint(baseUrl);
+            endpoints.put(baseUrl, endpoint);
+        }
+        return endpoint;
+    }
+
+    private long getProbeInterval(Endpoint endpoint) {
+        // A server may be still unhealthy after a successful request, then there are no consecutive failures
+        int shift = Math.max(0, Math.min(endpoint.consecutiveFailures - 1, 5));
+        return Math.min(PROBE_INTERVAL_MS << shift, MAX_PROBE_INTERVAL_MS);
+    }
+
+    // Any HTTP response means the server is reachable
+    private void probeIfDue(final Endpoint endpoint) {
+        if (endpoint.isHealthy() || endpoint.probing ||
+                clock.getAsLong() - endpoint.lastFailureTime < getProbeInterval(endpoint)) {
+            return;
+        }
+        Request request;
+        try {
+            request = new Request.Builder().url(endpoint.baseUrl).head().build();
+        } catch (Exception e) {
+            // Invalid URL, nothing to probe
+            return;
+        }
+        endpoint.probing = true;
+        getProbeClient().newCall(request).enqueue(new Callback() {
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                response.close();
+                synchronized (ServerEndpointSelector.this) {
+                    endpoint.probing = false;
+                }
+                recordSuccess(endpoint.baseUrl, -1);
+            }
+
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                synchronized (ServerEndpointSelector.this) {
+                    endpoint.probing = false;
+                }
+                recordFailure(endpoint.baseUrl);
+            }
+        });
+    }
+
+    private OkHttpClient getProbeClient() {
+        if (probeClient == null) {
+            probeClient = HttpClientKeeper.getClient().newBuilder().
+                    connectTimeout(PROBE_TIMEOUT_MS, TimeUnit.MILLISECONDS).
+                    readTimeout(PROBE_TIMEOUT_MS, TimeUnit.MILLISECONDS).
+                    build();
+        }
+        return probeClient;
+    }
+
+    public synchronized String getStats() {
+        StringBuilder stats = new StringBuilder("Servers:");
+        for (Endpoint endpoint : endpoints.values()) {
+            stats.append(String.format(Locale.US, " %s health %.2f, latency %d ms, succeeded %d, failed %d;",
+                    endpoint.baseUrl, endpoint.health, (long)endpoint.latency,
+                    endpoint.successCount, endpoint.failureCount));
+        }
+        return stats.toString();
+    }
+}
@@ -32,6 +32,7 @@ import com.hmdm.launcher.json.ServerConfigResponse;
 
 import java.util.List;
 
+import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.http.Body;
@@ -41,12 +42,16 @@ import retrofit2.http.Headers;
 import retrofit2.http.POST;
 import retrofit2.http.PUT;
 import retrofit2.http.Path;
+import retrofit2.http.Streaming;
 
 public interface ServerService {
 
     static final String REQUEST_SIGNATURE_HEADER = "X-Request-Signature";
     static final String CPU_ARCH_HEADER = "X-CPU-Arch";
+    static final String IF_NONE_MATCH_HEADER = "If-None-Match";
 
+    // The body is parsed while it's received, so it's not buffered by Retrofit
+    @Streaming
     @POST("{project}/rest/public/sync/configuration/{number}")
     Call<ResponseBody> enrollAndGetServerConfigRaw(@Path("project") String project,
                                                    @Path("number") String number,
@@ -54,11 +59,13 @@ public interface ServerService {
                                                    @Header(CPU_ARCH_HEADER) String cpuArch,
                                                    @Body DeviceEnrollOptions createOptions);
 
+    @Streaming
     @GET("{project}/rest/public/sync/configuration/{number}")
     Call<ResponseBody> getServerConfigRaw(@Path("project") String project,
                                           @Path("number") String number,
                                           @Header(REQUEST_SIGNATURE_HEADER) String signature,
-                                          @Header(CPU_ARCH_HEADER) String cpuArch);
+                                          @Header(CPU_ARCH_HEADER) String cpuArch,
+                                          @Header(IF_NONE_MATCH_HEADER) String etag);
 
     @POST("{project}/rest/public/sync/configuration/{number}")
     Call<ServerConfigResponse> enrollAndGetServerConfig(@Path("project") String project,
@@ -71,7 +78,8 @@ public interface ServerService {
     Call<ServerConfigResponse> getServerConfig(@Path("project") String project,
                                                @Path("number") String number,
                                                @Header(REQUEST_SIGNATURE_HEADER) String signature,
-                                               @Header(CPU_ARCH_HEADER) String cpuArch);
+                                               @Header(CPU_ARCH_HEADER) String cpuArch,
+                                               @Header(IF_NONE_MATCH_HEADER) String etag);
 
     @POST("{project}/rest/public/sync/info")
     @Headers("Content-Type: application/json")
@@ -94,6 +102,11 @@ public interface ServerService {
     @Headers("Content-Type: application/json")
     Call<ResponseBody> sendLogs(@Path("project") String project, @Path("number") String number, @Body List<RemoteLogItem> logItems);
 
+    // The body is a gzipped JSON list of RemoteLogItem
+    @POST("{project}/rest/plugins/devicelog/log/list/{number}")
+    @Headers("Content-Encoding: gzip")
+    Call<ResponseBody> sendLogsCompressed(@Path("project") String project, @Path("number") String number, @Body RequestBody logItems);
+
     @PUT("{project}/rest/plugins/deviceinfo/deviceinfo/public/{number}")
     @Headers("Content-Type: application/json")
     Call<ResponseBody> sendDetailedInfo(@Path("project") String project, @Path("number") String number, @Body List<DetailedInfo> infoItems);
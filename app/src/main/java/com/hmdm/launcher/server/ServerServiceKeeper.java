@@ -20,15 +20,31 @@
 package com.hmdm.launcher.server;
 
 import android.content.Context;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdm.launcher.BuildConfig;
 import com.hmdm.launcher.Const;
 import com.hmdm.launcher.helper.SettingsHelper;
+import com.hmdm.launcher.util.JsonCodec;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import okhttp3.OkHttpClient;
+import okhttp3.HttpUrl;
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
 import retrofit2.Retrofit;
 import retrofit2.converter.jackson.JacksonConverterFactory;
 
@@ -36,11 +52,201 @@ public class ServerServiceKeeper {
 
     private static ServerService serverServiceInstance;
     private static ServerService secondaryServerServiceInstance;
+    // Services used by execute(), the key is the read timeout and the base URL
+    private static final Map<String, ServerService> services = new HashMap<>();
+
+    public interface ServerCall<T> {
+        Call<T> create(ServerService service, String baseUrl);
+    }
 
     // This is called after changing the server URL
     public static void resetServices() {
         serverServiceInstance = null;
         secondaryServerServiceInstance = null;
+        synchronized (services) {
+            services.clear();
+        }
+    }
+
+    /**
+     * Sends the request to the server which is currently the best one and falls back to the other server on network errors.
+     * Servers known to be down are queried last, so the request doesn't wait for their timeout.
+     */
+    public static <T> Response<T> execute(Context context, ServerCall<T> serverCall) throws Exception {
+        return execute(context, Const.CONNECTION_TIMEOUT, false, serverCall);
+    }
+
+    // Long polling requests wait for the server events, so their latency is not taken into account
+    public static <T> Response<T> execute(Context context, long readTimeout, ServerCall<T> serverCall) throws Exception {
+        return execute(context, readTimeout, false, serverCall);
+    }
+
+    /**
+     * Same as execute(), but if the first server doesn't respond in a short time, the request is also sent
+     * to the second one and the first response is taken. Use it only for requests which may be safely repeated.
+     */
+    public static <T> Response<T> executeHedged(Context context, ServerCall<T> serverCall) throws Exception {
+        return execute(context, Const.CONNECTION_TIMEOUT, BuildConfig.HEDGE_SERVER_REQUESTS, serverCall);
+    }
+
+    private static <T> Response<T> execute(Context context, long readTimeout, boolean hedge,
+                                           ServerCall<T> serverCall) throws Exception {
+        List<String> baseUrls = getBaseUrls(context);
+        if (hedge && !baseUrls.get(0).equals(baseUrls.get(1))) {
+            return executeHedged(baseUrls, serverCall);
+        }
+
+        ServerEndpointSelector selector = ServerEndpointSelector.getInstance();
+        Exception error = null;
+        for (String baseUrl : baseUrls) {
+            ServerService service = getService(baseUrl, readTimeout);
+            long start = SystemClock.elapsedRealtime();
+            try {
+                Response<T> response = serverCall.create(service, baseUrl).execute();
+                selector.recordSuccess(baseUrl, readTimeout == Const.CONNECTION_TIMEOUT ?
+                        SystemClock.elapsedRealtime() - start : -1);
+                return response;
+            } catch (IOException e) {
+                e.printStackTrace();
+                selector.recordFailure(baseUrl);
+                error = e;
+            }
+        }
+        throw error;
+    }
+
+    private static class HedgedResult<T> {
+        private Call<T> call;
+        private Response<T> response;
+        private Exception error;
+    }
+
+    private static <T> Response<T> executeHedged(List<String> baseUrls, ServerCall<T> serverCall) throws Exception {
+        BlockingQueue<HedgedResult<T>> results = new LinkedBlockingQueue<>();
+        // Set when the result is taken, so the responses of the other calls are closed
+        AtomicBoolean finished = new AtomicBoolean();
+        List<Call<T>> calls = new LinkedList<>();
+        Call<T> winner = null;
+        try {
+            calls.add(enqueue(baseUrls.get(0), serverCall, results, finished));
+            HedgedResult<T> result = results.poll(ServerEndpointSelector.getInstance().getHedgeDelay(baseUrls.get(0)),
+                    TimeUnit.MILLISECONDS);
+            if (result == null) {
+                // The first server is slow, query the second one as well
+                calls.add(enqueue(baseUrls.get(1), serverCall, results, finished));
+            }
+            int completed = 0;
+            while (true) {
+                if (result == null) {
+                    result = results.take();
+                }
+                completed++;
+                if (result.response != null) {
+                    winner = result.call;
+                    return result.response;
+                }
+                if (calls.size() < baseUrls.size()) {
+                    // The first server failed fast
+                    calls.add(enqueue(baseUrls.get(1), serverCall, results, finished));
+                } else if (completed == calls.size()) {
+                    throw result.error;
+                }
+                result = null;
+            }
+        } finally {
+            // Cancelling the winner would close its response body
+            for (Call<T> call : calls) {
+                if (call != winner) {
+                    call.cancel();
+                }
+            }
+            // The winner is already taken from the queue, the rest are responses of the other server
+            finished.set(true);
+            closeResults(results);
+        }
+    }
+
+    private static <T> void closeResults(BlockingQueue<HedgedResult<T>> results) {
+        HedgedResult<T> result;
+        while ((result = results.poll()) != null) {
+            if (result.response == null) {
+                continue;
+            }
+            // Retrofit replaces the body of raw() by a stub, so the parsed bodies are closed:
+            // a streamed ResponseBody holds the connection until it's closed
+            Object body = result.response.body();
+            try {
+                if (body instanceof Closeable) {
+                    ((Closeable) body).close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            ResponseBody errorBody = result.response.errorBody();
+            if (errorBody != null) {
+                errorBody.close();
+            }
+        }
+    }
+
+    private static <T> Call<T> enqueue(final String baseUrl, ServerCall<T> serverCall,
+                                       final BlockingQueue<HedgedResult<T>> results, final AtomicBoolean finished) {
+        final ServerEndpointSelector selector = ServerEndpointSelector.getInstance();
+        final long start = SystemClock.elapsedRealtime();
+        Call<T> call = serverCall.create(getService(baseUrl, Const.CONNECTION_TIMEOUT), baseUrl);
+        call.enqueue(new Callback<T>() {
+            @Override
+            public void onResponse(@NonNull Call<T> call, @NonNull Response<T> response) {
+                selector.recordSuccess(baseUrl, SystemClock.elapsedRealtime() - start);
+                HedgedResult<T> result = new HedgedResult<>();
+                result.call = call;
+                result.response = response;
+                results.add(result);
+                // The response came after the result had been taken, so nobody will use it
+                if (finished.get()) {
+                    closeResults(results);
+                }
+            }
+
+            @Override
+            public void onFailure(@NonNull Call<T> call, @NonNull Throwable t) {
+                // A cancelled request tells nothing about the server
+                if (!call.isCanceled()) {
+                    selector.recordFailure(baseUrl);
+                }
+                HedgedResult<T> result = new HedgedResult<>();
+                result.call = call;
+                result.error = t instanceof Exception ? (Exception) t : new IOException(t);
+                results.add(result);
+            }
+        });
+        return call;
+    }
+
+    // Invalid URLs are replaced in the same way as in getServerServiceInstance() and getSecondaryServerServiceInstance()
+    private static List<String> getBaseUrls(Context context) {
+        SettingsHelper settingsHelper = SettingsHelper.getInstance(context);
+        String primaryUrl = settingsHelper.getBaseUrl();
+        if (primaryUrl == null || HttpUrl.parse(primaryUrl) == null) {
+            primaryUrl = BuildConfig.BASE_URL;
+        }
+        String secondaryUrl = settingsHelper.getSecondaryBaseUrl();
+        if (secondaryUrl == null || HttpUrl.parse(secondaryUrl) == null) {
+            secondaryUrl = primaryUrl;
+        }
+        return ServerEndpointSelector.getInstance().getOrder(primaryUrl, secondaryUrl);
+    }
+
+    private static ServerService getService(String baseUrl, long readTimeout) {
+        String key = readTimeout + " " + baseUrl;
+        synchronized (services) {
+            ServerService service = services.get(key);
+            if (service == null) {
+                service = createServerService(baseUrl, readTimeout);
+                services.put(key, service);
+            }
+            return service;
+        }
     }
 
     public static ServerService getServerServiceInstance(Context context) {
@@ -84,18 +290,13 @@ public class ServerServiceKeeper {
     private static Retrofit.Builder createBuilder(String baseUrl, long readTimeout) {
         Retrofit.Builder builder = new Retrofit.Builder();
 
-        if (BuildConfig.TRUST_ANY_CERTIFICATE) {
-            builder.client(UnsafeOkHttpClient.getUnsafeOkHttpClient());
-        } else {
-            OkHttpClient.Builder clientBuilder = new OkHttpClient.Builder().
-                    connectTimeout(Const.CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS).
-                    readTimeout(readTimeout, TimeUnit.MILLISECONDS).
-                    writeTimeout(Const.CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
-            builder.client(clientBuilder.build());
-        }
+        // All services share the same connection pool
+        builder.client(HttpClientKeeper.getClient(readTimeout));
 
+        // Callbacks of the hedged requests are delivered on the OkHttp threads because the caller is waiting for them
         builder.baseUrl( baseUrl )
-                .addConverterFactory( JacksonConverterFactory.create( new ObjectMapper()) );
+                .callbackExecutor(Runnable::run)
+                .addConverterFactory( JacksonConverterFactory.create(JsonCodec.getMapper()) );
 
         return builder;
     }
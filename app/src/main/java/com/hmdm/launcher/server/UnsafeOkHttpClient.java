@@ -16,6 +16,10 @@ import okhttp3.OkHttpClient;
 
 public class UnsafeOkHttpClient {
     public static OkHttpClient getUnsafeOkHttpClient() {
+        return getUnsafeOkHttpClientBuilder().build();
+    }
+
+    public static OkHttpClient.Builder getUnsafeOkHttpClientBuilder() {
         try {
             // Create a trust manager that does not validate certificate chains
             final TrustManager[] trustAllCerts = new TrustManager[] {
@@ -54,8 +58,7 @@ public class UnsafeOkHttpClient {
                 }
             });
 
-            OkHttpClient okHttpClient = builder.build();
-            return okHttpClient;
+            return builder;
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
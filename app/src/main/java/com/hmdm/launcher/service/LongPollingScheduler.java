@@ -0,0 +1,131 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.service;
+
+import android.content.Context;
+import android.os.PowerManager;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+import okhttp3.Headers;
+
+/**
+ * Calculates pauses between long polling requests.
+ * After errors, the pause is at least a minute, as the server may be overloaded or reject the device.
+ * Above the minimum, the pause grows exponentially and is randomized over the whole range ("full jitter"),
+ * so devices disconnected at the same moment (for example by a server restart) don't reconnect in lockstep.
+ * The server may request a longer pause by the Retry-After header.
+ * Pauses are stretched while the device is in the battery saver or idle mode.
+ */
+public class LongPollingScheduler {
+    // Pause after a normal response, to avoid looping if the server would respond instantly
+    private static final long DELAY_AFTER_REQUEST_MS = 5000;
+    // Minimal pause after an error
+    private static final long MIN_ERROR_DELAY_MS = 60000;
+    // Range of the random part of the pause after the first error, doubled on each consecutive error
+    private static final long BACKOFF_BASE_MS = 60000;
+    private static final long MAX_BACKOFF_MS = 600000;
+    private static final int POWER_SAVE_FACTOR = 3;
+    // Only each N-th inquiry is logged unless there are errors, because each log record is written to the database
+    private static final int INQUIRY_LOG_SAMPLE = 20;
+
+    private final Random random;
+    private final BooleanSupplier powerSaving;
+    private final LongSupplier wallClock;
+    private int consecutiveErrors;
+    private long inquiryCount;
+
+    public LongPollingScheduler(Context context) {
+        this(new Random(), () -> isPowerSaving(context), System::currentTimeMillis);
+    }
+
+    LongPollingScheduler(Random random, BooleanSupplier powerSaving, LongSupplier wallClock) {
+        this.random = random;
+        this.powerSaving = powerSaving;
+        this.wallClock = wallClock;
+    }
+
+    public boolean shouldLogInquiry() {
+        return consecutiveErrors > 0 || inquiryCount++ % INQUIRY_LOG_SAMPLE == 0;
+    }
+
+    public long onSuccess() {
+        consecutiveErrors = 0;
+        // Randomized between 0.5 and 1.5 of the base pause
+        long delay = DELAY_AFTER_REQUEST_MS / 2 + (long)(random.nextDouble() * DELAY_AFTER_REQUEST_MS);
+        return stretch(delay);
+    }
+
+    // Pause after an HTTP response of any status
+    public long onResponse(int code, Headers headers) {
+        return isError(code) ? onError(headers) : onSuccess();
+    }
+
+    // Response code 500 is fine: the server ends the polling request by timeout.
+    // Other errors are 4xx (403 Forbidden in particular) or the server is unavailable
+    public static boolean isError(int code) {
+        return (code < 200 || code >= 300) && code != 500;
+    }
+
+    // Headers may be null if there's no response
+    public long onError(Headers headers) {
+        consecutiveErrors++;
+        int shift = Math.min(consecutiveErrors - 1, 16);
+        long ceiling = Math.min(BACKOFF_BASE_MS << shift, MAX_BACKOFF_MS - MIN_ERROR_DELAY_MS);
+        long delay = MIN_ERROR_DELAY_MS + (long)(random.nextDouble() * ceiling);
+
+        long retryAfter = headers != null ? getRetryAfter(headers) : 0;
+        if (retryAfter > 0) {
+            // Not earlier than requested, plus some jitter to spread the devices
+            delay = Math.max(delay, retryAfter + (long)(random.nextDouble() * retryAfter / 10));
+        }
+        return stretch(delay);
+    }
+
+    private long stretch(long delay) {
+        return powerSaving.getAsBoolean() ? delay * POWER_SAVE_FACTOR : delay;
+    }
+
+    private static boolean isPowerSaving(Context context) {
+        PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        return pm != null && (pm.isPowerSaveMode() || pm.isDeviceIdleMode());
+    }
+
+    // Retry-After is either a number of seconds or a date
+    private long getRetryAfter(Headers headers) {
+        String value = headers.get("Retry-After");
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Math.min(Long.parseLong(value.trim()) * 1000, MAX_BACKOFF_MS);
+        } catch (NumberFormatException e) {
+            // Not a number
+        }
+        Date date = headers.getDate("Retry-After");
+        if (date == null) {
+            return 0;
+        }
+        return Math.max(0, Math.min(date.getTime() - wallClock.getAsLong(), MAX_BACKOFF_MS));
+    }
+}
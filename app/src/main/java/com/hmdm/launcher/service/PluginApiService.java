@@ -191,10 +191,7 @@ public class PluginApiService extends Service {
             if (!apiKey.equals(BuildConfig.LIBRARY_API_KEY)) {
                 return false;
             }
-            PushMessage message = new PushMessage();
-            message.setMessageType(type);
-            message.setPayload(payload);
-            PushNotificationProcessor.process(message, PluginApiService.this);
+            PushNotificationProcessor.process(new PushMessage(type, payload), PluginApiService.this);
             return true;
         }
     };
@@ -24,11 +24,10 @@ import com.hmdm.launcher.helper.SettingsHelper;
 import com.hmdm.launcher.json.PushMessage;
 import com.hmdm.launcher.json.PushResponse;
 import com.hmdm.launcher.pro.ProUtils;
-import com.hmdm.launcher.server.ServerService;
 import com.hmdm.launcher.server.ServerServiceKeeper;
 import com.hmdm.launcher.util.RemoteLogger;
 import com.hmdm.launcher.util.Utils;
-import com.hmdm.launcher.worker.PushNotificationProcessor;
+import com.hmdm.launcher.worker.PushMessagePipeline;
 
 import org.eclipse.paho.android.service.MqttService;
 
@@ -42,17 +41,11 @@ public class PushLongPollingService extends Service {
     private boolean enabled = true;
     private boolean threadActive = false;
     private Thread pollingThread;
-    // If we get an exception, we have to delay, otherwise there would be a looping
-    private final long DELAY_AFTER_EXCEPTION_MS = 60000;
-    // Delay between polling requests to avoid looping if the server would respond instantly
-    private final long DELAY_AFTER_REQUEST_MS = 5000;
     public static String CHANNEL_ID = MqttService.class.getName();
     // A flag preventing multiple notifications for the foreground service
     boolean started = false;
     // Notification ID for the foreground service
     private static final int NOTIFICATION_ID = 113;
-    private ServerService serverService;
-    private ServerService secondaryServerService;
 
     private final BroadcastReceiver receiver = new BroadcastReceiver() {
         @Override
@@ -99,12 +92,6 @@ public class PushLongPollingService extends Service {
     private Runnable pollingRunnable = () -> {
         Context context = PushLongPollingService.this;
         SettingsHelper settingsHelper = SettingsHelper.getInstance(context);
-        if (serverService == null) {
-            serverService = ServerServiceKeeper.createServerService(settingsHelper.getBaseUrl(), Const.LONG_POLLING_READ_TIMEOUT);
-        }
-        if (secondaryServerService == null) {
-            secondaryServerService = ServerServiceKeeper.createServerService(settingsHelper.getSecondaryBaseUrl(), Const.LONG_POLLING_READ_TIMEOUT);
-        }
 
         // Calculate request signature
         String encodedDeviceId = settingsHelper.getDeviceId();
@@ -119,66 +106,44 @@ public class PushLongPollingService extends Service {
         } catch (Exception e) {
         }
 
+        final String requestSignature = signature;
+
+        LongPollingScheduler scheduler = new LongPollingScheduler(context);
+
         threadActive = true;
         while (enabled) {
-            Response<PushResponse> response = null;
-
-            RemoteLogger.log(context, Const.LOG_VERBOSE, "Push long polling inquiry");
-            try {
-                // This is the long operation
-                response = serverService.
-                        queryPushLongPolling(settingsHelper.getServerProject(), settingsHelper.getDeviceId(), signature).execute();
-            } catch (Exception e) {
-                RemoteLogger.log(context, Const.LOG_WARN, "Failed to query push notifications from "
-                        + settingsHelper.getBaseUrl() + " : " + e.getMessage());
-                e.printStackTrace();
+            if (scheduler.shouldLogInquiry()) {
+                RemoteLogger.log(context, Const.LOG_VERBOSE, "Push long polling inquiry");
             }
-
+            long delay;
             try {
-                if (response == null) {
-                    response = secondaryServerService.
-                            queryPushLongPolling(settingsHelper.getServerProject(), settingsHelper.getDeviceId(), signature).execute();
-                }
+                // This is the long operation
+                Response<PushResponse> response = ServerServiceKeeper.execute(context, Const.LONG_POLLING_READ_TIMEOUT,
+                        (serverService, baseUrl) -> serverService.queryPushLongPolling(settingsHelper.getServerProject(),
+                                settingsHelper.getDeviceId(), requestSignature));
 
                 if ( response.isSuccessful() ) {
                     if ( Const.STATUS_OK.equals( response.body().getStatus() ) && response.body().getData() != null ) {
-                        boolean hasConfigUpdated = false;
                         for (PushMessage message : response.body().getData()) {
-                            // Filter out multiple configuration update requests
-                            if (message.getMessageType().equals(PushMessage.TYPE_CONFIG_UPDATED)) {
-                                if (!hasConfigUpdated) {
-                                    hasConfigUpdated = true;
-                                    PushNotificationProcessor.process(message, context);
-                                }
-                            } else {
-                                PushNotificationProcessor.process(message, context);
-                            }
+                            PushMessagePipeline.getInstance().submit(context, message);
                         }
                     }
-                } else if (response.code() >= 400 && response.code() < 500) {
-                    // Response code 500 is fine (Timeout), so here we log only 4xx requests (403 Forbidden in particular)
+                } else if (LongPollingScheduler.isError(response.code())) {
                     RemoteLogger.log(context, Const.LOG_WARN, "Wrong response while querying push notifications from "
-                            + settingsHelper.getSecondaryBaseUrl() + " : HTTP status " + response.code());
-                    try {
-                        // On exception, we need to wait to avoid looping
-                        Thread.sleep(DELAY_AFTER_EXCEPTION_MS);
-                    } catch (InterruptedException e1) {
-                        e1.printStackTrace();
-                    }
+                            + response.raw().request().url().host() + " : HTTP status " + response.code());
                 }
-                // Avoid looping by adding some pause
-                Thread.sleep(DELAY_AFTER_REQUEST_MS);
-
+                delay = scheduler.onResponse(response.code(), response.headers());
             } catch ( Exception e ) {
-                RemoteLogger.log(context, Const.LOG_WARN, "Failed to query push notifications from "
-                        + settingsHelper.getSecondaryBaseUrl() + " : " + e.getMessage());
+                RemoteLogger.log(context, Const.LOG_WARN, "Failed to query push notifications: " + e.getMessage());
+                e.printStackTrace();
+                delay = scheduler.onError(null);
+            }
+
+            try {
+                // Avoid looping by adding some pause, longer on errors
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
                 e.printStackTrace();
-                try {
-                    // On exception, we need to wait to avoid looping
-                    Thread.sleep(DELAY_AFTER_EXCEPTION_MS);
-                } catch (InterruptedException e1) {
-                    e1.printStackTrace();
-                }
             }
         }
         threadActive = false;
@@ -25,7 +25,6 @@ import android.os.AsyncTask;
 import com.hmdm.launcher.Const;
 import com.hmdm.launcher.helper.SettingsHelper;
 import com.hmdm.launcher.json.RemoteLogConfigResponse;
-import com.hmdm.launcher.server.ServerService;
 import com.hmdm.launcher.server.ServerServiceKeeper;
 import com.hmdm.launcher.util.RemoteLogger;
 
@@ -42,22 +41,9 @@ public class GetRemoteLogConfigTask extends AsyncTask< Void, Integer, Integer >
 
     @Override
     protected Integer doInBackground( Void... voids ) {
-        ServerService serverService = ServerServiceKeeper.getServerServiceInstance(context);
-        ServerService secondaryServerService = ServerServiceKeeper.getSecondaryServerServiceInstance(context);
-        Response<RemoteLogConfigResponse> response = null;
-
-        try {
-            response = serverService.
-                    getRemoteLogConfig(settingsHelper.getServerProject(), settingsHelper.getDeviceId()).execute();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
         try {
-            if (response == null) {
-                response = secondaryServerService.
-                        getRemoteLogConfig(settingsHelper.getServerProject(), settingsHelper.getDeviceId()).execute();
-            }
+            Response<RemoteLogConfigResponse> response = ServerServiceKeeper.executeHedged(context, (serverService, baseUrl) ->
+                    serverService.getRemoteLogConfig(settingsHelper.getServerProject(), settingsHelper.getDeviceId()));
 
             if ( response.isSuccessful() ) {
                 if ( Const.STATUS_OK.equals( response.body().getStatus() ) && response.body().getData() != null ) {
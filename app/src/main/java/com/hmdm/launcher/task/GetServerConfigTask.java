@@ -25,7 +25,6 @@ import android.os.Build;
 import android.provider.Settings;
 import android.util.Log;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdm.launcher.BuildConfig;
 import com.hmdm.launcher.Const;
 import com.hmdm.launcher.helper.CryptoHelper;
@@ -34,11 +33,12 @@ import com.hmdm.launcher.json.DeviceEnrollOptions;
 import com.hmdm.launcher.json.ServerConfig;
 import com.hmdm.launcher.json.ServerConfigResponse;
 import com.hmdm.launcher.pro.ProUtils;
-import com.hmdm.launcher.server.ServerService;
 import com.hmdm.launcher.server.ServerServiceKeeper;
 import com.hmdm.launcher.util.AppRestrictionUpdater;
+import com.hmdm.launcher.util.JsonCodec;
 import com.hmdm.launcher.util.PushNotificationMqttWrapper;
 import com.hmdm.launcher.util.RemoteLogger;
+import com.hmdm.launcher.util.SignatureVerifyingStream;
 import com.hmdm.launcher.util.Utils;
 
 import okhttp3.ResponseBody;
@@ -46,12 +46,11 @@ import retrofit2.Response;
 
 public class GetServerConfigTask extends AsyncTask< Void, Integer, Integer > {
 
+    private static final int HTTP_NOT_MODIFIED = 304;
+
     private Context context;
     private SettingsHelper settingsHelper;
 
-    private ServerService serverService;
-    private ServerService secondaryServerService;
-
     private String serverHost;
     private String urlTemplate = "{project}/rest/public/sync/configuration/{number}";
     private String errorText;
@@ -61,6 +60,12 @@ public class GetServerConfigTask extends AsyncTask< Void, Integer, Integer > {
     private boolean isDeviceNotFound;
     // This is the only application error which requires reporting in the background
     private String notFoundError = "error.notfound.device";
+    // If set, the ETag of the last applied configuration is sent to the server
+    // and the configuration is not downloaded if it is not changed
+    private boolean conditional;
+    private boolean notModified;
+    // ETag of the received configuration
+    private String configETag;
 
     public GetServerConfigTask( Context context ) {
         this.context = context;
@@ -71,6 +76,14 @@ public class GetServerConfigTask extends AsyncTask< Void, Integer, Integer > {
         return errorText;
     }
 
+    public void setConditional(boolean conditional) {
+        this.conditional = conditional;
+    }
+
+    public String getConfigETag() {
+        return configETag;
+    }
+
     @Override
     protected Integer doInBackground( Void... voids ) {
         DeviceEnrollOptions enrollOptions = null;
@@ -83,14 +96,6 @@ public class GetServerConfigTask extends AsyncTask< Void, Integer, Integer > {
             enrollOptions.setGroups(settingsHelper.getEnrollOptionGroup());
         }
 
-        try {
-            serverService = ServerServiceKeeper.getServerServiceInstance(context);
-            secondaryServerService = ServerServiceKeeper.getSecondaryServerServiceInstance(context);
-        } catch (Exception e) {
-            errorText = "Exception: " + e.getMessage();
-            return Const.TASK_NETWORK_ERROR;
-        }
-
         String deviceId = settingsHelper.getDeviceId();
         String signature = "";
         try {
@@ -98,13 +103,19 @@ public class GetServerConfigTask extends AsyncTask< Void, Integer, Integer > {
         } catch (Exception e) {
         }
 
+        String etag = null;
+        if (conditional && enrollOptions == null && settingsHelper.getConfig() != null) {
+            etag = settingsHelper.getConfigETag();
+        }
+
         isDeviceNotFound = false;
+        notModified = false;
         try {
             ServerConfig serverConfig = null;
             if (enrollOptions == null) {
                 serverConfig = BuildConfig.CHECK_SIGNATURE ?
-                        getServerConfigSecure(deviceId, signature) :
-                        getServerConfigPlain(deviceId, signature);
+                        getServerConfigSecure(deviceId, signature, etag) :
+                        getServerConfigPlain(deviceId, signature, etag);
             } else {
                 serverConfig = BuildConfig.CHECK_SIGNATURE ?
                         enrollSecure(deviceId, enrollOptions, signature) :
@@ -152,6 +163,8 @@ public class GetServerConfigTask extends AsyncTask< Void, Integer, Integer > {
                 ProUtils.processConfig(context, serverConfig);
 
                 return Const.TASK_SUCCESS;
+            } else if (notModified) {
+                return Const.TASK_NOT_MODIFIED;
             } else {
                 return isDeviceNotFound ? Const.TASK_ERROR : Const.TASK_NETWORK_ERROR;
             }
@@ -163,24 +176,20 @@ public class GetServerConfigTask extends AsyncTask< Void, Integer, Integer > {
         return Const.TASK_NETWORK_ERROR;
     }
 
-    private ServerConfig getServerConfigPlain(String deviceId, String signature) throws Exception {
-        Response<ServerConfigResponse> response = null;
-        try {
-            serverHost = settingsHelper.getBaseUrl();
-            response = serverService.getServerConfig(settingsHelper.getServerProject(),
-                    deviceId, signature, Build.CPU_ABI).execute();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    private ServerConfig getServerConfigPlain(String deviceId, String signature, String etag) throws Exception {
+        Response<ServerConfigResponse> response = ServerServiceKeeper.executeHedged(context, (serverService, baseUrl) -> {
+            serverHost = baseUrl;
+            return serverService.getServerConfig(settingsHelper.getServerProject(), deviceId, signature, Build.CPU_ABI, etag);
+        });
 
-        if (response == null) {
-            serverHost = settingsHelper.getSecondaryBaseUrl();
-            response = secondaryServerService.getServerConfig(settingsHelper.getServerProject(),
-                    deviceId, signature, Build.CPU_ABI).execute();
+        if (response.code() == HTTP_NOT_MODIFIED) {
+            notModified = true;
+            return null;
         }
 
         if (response.isSuccessful() && Const.STATUS_OK.equals(response.body().getStatus()) && response.body().getData() != null) {
             SettingsHelper.getInstance(context).setExternalIp(response.headers().get(Const.HEADER_IP_ADDRESS));
+            configETag = response.headers().get(Const.HEADER_ETAG);
             return response.body().getData();
         } else {
             isDeviceNotFound = response.body() != null && notFoundError.equals(response.body().getMessage());
@@ -191,72 +200,23 @@ public class GetServerConfigTask extends AsyncTask< Void, Integer, Integer > {
 
     // Check server signature before accepting server response
     // This is an additional protection against Man-In-The-Middle attacks
-    private ServerConfig getServerConfigSecure(String deviceId, String signature) throws Exception {
-        Response<ResponseBody> response = null;
-
-        try {
-            serverHost = settingsHelper.getBaseUrl();
-            response = serverService.getServerConfigRaw(settingsHelper.getServerProject(),
-                    deviceId, signature, Build.CPU_ABI).execute();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        if (response == null) {
-            serverHost = settingsHelper.getSecondaryBaseUrl();
-            response = secondaryServerService.getServerConfigRaw(settingsHelper.getServerProject(),
-                    deviceId, signature, Build.CPU_ABI).execute();
+    private ServerConfig getServerConfigSecure(String deviceId, String signature, String etag) throws Exception {
+        Response<ResponseBody> response = ServerServiceKeeper.executeHedged(context, (serverService, baseUrl) -> {
+            serverHost = baseUrl;
+            return serverService.getServerConfigRaw(settingsHelper.getServerProject(), deviceId, signature, Build.CPU_ABI, etag);
+        });
+
+        if (response.code() == HTTP_NOT_MODIFIED) {
+            notModified = true;
+            return null;
         }
 
         if (response.isSuccessful()) {
-            String serverResponse = response.body().string();
-
-            ServerConfigResponse serverConfigResponse;
-            try {
-                serverConfigResponse = new ObjectMapper().readValue(serverResponse, ServerConfigResponse.class);
-            } catch (Exception e) {
-                errorText = "Failed to parse JSON";
-                Log.e(Const.LOG_TAG, errorText);
-                buildTaskErrorTextSecure(response, serverResponse);
-                return null;
-            }
-
-            // Check for application errors before checking the signature
-            // Because the errors are not signed
-            if (!Const.STATUS_OK.equals(serverConfigResponse.getStatus())) {
-                isDeviceNotFound = notFoundError.equals(serverConfigResponse.getMessage());
-                buildTaskErrorTextSecure(response, serverResponse);
-                return null;
-            }
-
-            // Check response signature
-            String serverSignature = response.headers().get(Const.HEADER_RESPONSE_SIGNATURE);
-            if (serverSignature == null) {
-                errorText = "Missing " + Const.HEADER_RESPONSE_SIGNATURE + " flag, dropping response";
-                Log.e(Const.LOG_TAG, errorText);
-                buildTaskErrorTextSecure(response, serverResponse);
-                return null;
-            }
-
-            // We need to extract data from the response body
-            // Here we assume the specific form of response body: {"status":"OK","message":null,"data":{...}}
-            final String dataMarker = "\"data\":";
-            int pos = serverResponse.indexOf(dataMarker);
-            if (pos == -1) {
-                errorText = "Wrong server response, missing data";
-                Log.e(Const.LOG_TAG, errorText + ": " + serverResponse);
-                buildTaskErrorTextSecure(response, serverResponse);
-                return null;
-            }
-            String serverData = serverResponse.substring(pos + dataMarker.length(), serverResponse.length() - 1);
-            String calculatedSignature = CryptoHelper.getSHA1String(BuildConfig.REQUEST_SIGNATURE + serverData.replaceAll("\\s", ""));
-            if (!calculatedSignature.equalsIgnoreCase(serverSignature)) {
-                errorText = "Server signature " + serverSignature + " doesn't match calculated signature " + calculatedSignature + ", dropping response";
-                Log.e(Const.LOG_TAG, errorText);
-                buildTaskErrorTextSecure(response, serverResponse);
-                return null;
+            ServerConfig serverConfig = readSignedConfig(response);
+            if (serverConfig != null) {
+                configETag = response.headers().get(Const.HEADER_ETAG);
             }
-            return new ObjectMapper().readValue(serverData, ServerConfig.class);
+            return serverConfig;
         } else {
             buildTaskErrorTextSecure(response, null);
         }
@@ -266,20 +226,10 @@ public class GetServerConfigTask extends AsyncTask< Void, Integer, Integer > {
     // Apply extra device creation options (need to be used only at first start when config=null!)
     private ServerConfig enrollPlain(String deviceId, DeviceEnrollOptions createOptions,
                                      String signature) throws Exception {
-        Response<ServerConfigResponse> response = null;
-        try {
-            serverHost = settingsHelper.getBaseUrl();
-            response = serverService.enrollAndGetServerConfig(settingsHelper.getServerProject(),
-                    deviceId, signature, Build.CPU_ABI, createOptions).execute();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        if (response == null) {
-            serverHost = settingsHelper.getSecondaryBaseUrl();
-            response = secondaryServerService.enrollAndGetServerConfig(settingsHelper.getServerProject(),
-                    deviceId, signature, Build.CPU_ABI, createOptions).execute();
-        }
+        Response<ServerConfigResponse> response = ServerServiceKeeper.execute(context, (serverService, baseUrl) -> {
+            serverHost = baseUrl;
+            return serverService.enrollAndGetServerConfig(settingsHelper.getServerProject(), deviceId, signature, Build.CPU_ABI, createOptions);
+        });
 
         if (response.isSuccessful() && Const.STATUS_OK.equals(response.body().getStatus()) && response.body().getData() != null) {
             SettingsHelper.getInstance(context).setExternalIp(response.headers().get(Const.HEADER_IP_ADDRESS));
@@ -297,76 +247,76 @@ public class GetServerConfigTask extends AsyncTask< Void, Integer, Integer > {
     private ServerConfig enrollSecure(String deviceId,
                                       DeviceEnrollOptions createOptions,
                                       String signature) throws Exception {
-        Response<ResponseBody> response = null;
+        Response<ResponseBody> response = ServerServiceKeeper.execute(context, (serverService, baseUrl) -> {
+            serverHost = baseUrl;
+            return serverService.enrollAndGetServerConfigRaw(settingsHelper.getServerProject(), deviceId, signature, Build.CPU_ABI, createOptions);
+        });
 
-        try {
-            serverHost = settingsHelper.getBaseUrl();
-            response = serverService.
-                    enrollAndGetServerConfigRaw(settingsHelper.getServerProject(),
-                            deviceId, signature, Build.CPU_ABI, createOptions).execute();
-        } catch (Exception e) {
-            e.printStackTrace();
+        if (response.isSuccessful()) {
+            return readSignedConfig(response);
+        } else {
+            buildTaskErrorTextSecure(response, null);
         }
+        return null;
+    }
 
-        if (response == null) {
-            serverHost = settingsHelper.getSecondaryBaseUrl();
-            response = secondaryServerService.
-                    enrollAndGetServerConfigRaw(settingsHelper.getServerProject(),
-                            deviceId, signature, Build.CPU_ABI, createOptions).execute();
+    // The body is streamed, so it's closed on every return to release the connection
+    private ServerConfig readSignedConfig(Response<ResponseBody> response) {
+        try (ResponseBody responseBody = response.body()) {
+            return readSignedConfig(response, responseBody);
         }
+    }
 
-        if (response.isSuccessful()) {
-            String serverResponse = response.body().string();
-
-            ServerConfigResponse serverConfigResponse;
+    // Parses the response and checks its signature in a single pass over the body, without buffering it.
+    // The parsed configuration is dropped if the signature doesn't match
+    private ServerConfig readSignedConfig(Response<ResponseBody> response, ResponseBody responseBody) {
+        SignatureVerifyingStream body = new SignatureVerifyingStream(responseBody.byteStream(), BuildConfig.REQUEST_SIGNATURE);
+        ServerConfigResponse serverConfigResponse;
+        try {
             try {
-                serverConfigResponse = new ObjectMapper().readValue(serverResponse, ServerConfigResponse.class);
-            } catch (Exception e) {
-                errorText = "Failed to parse JSON";
-                Log.e(Const.LOG_TAG, errorText);
-                buildTaskErrorTextSecure(response, serverResponse);
-                return null;
+                serverConfigResponse = JsonCodec.read(body, ServerConfigResponse.class);
+            } finally {
+                // Reads the rest of the body and completes the signature
+                body.close();
             }
+        } catch (Exception e) {
+            errorText = "Failed to parse JSON";
+            Log.e(Const.LOG_TAG, errorText);
+            buildTaskErrorTextSecure(response, body.getCapturedText());
+            return null;
+        }
 
-            // Check for application errors before checking the signature
-            // Because the errors are not signed
-            if (!Const.STATUS_OK.equals(serverConfigResponse.getStatus())) {
-                isDeviceNotFound = notFoundError.equals(serverConfigResponse.getMessage());
-                buildTaskErrorTextSecure(response, serverResponse);
-                return null;
-            }
+        // Check for application errors before checking the signature
+        // Because the errors are not signed
+        if (!Const.STATUS_OK.equals(serverConfigResponse.getStatus())) {
+            isDeviceNotFound = notFoundError.equals(serverConfigResponse.getMessage());
+            buildTaskErrorTextSecure(response, body.getCapturedText());
+            return null;
+        }
 
-            // Check response signature
-            String serverSignature = response.headers().get(Const.HEADER_RESPONSE_SIGNATURE);
-            if (serverSignature == null) {
-                errorText = "Missing " + Const.HEADER_RESPONSE_SIGNATURE + " flag, dropping response";
-                Log.e(Const.LOG_TAG, errorText);
-                buildTaskErrorTextSecure(response, serverResponse);
-            }
+        // Check response signature
+        String serverSignature = response.headers().get(Const.HEADER_RESPONSE_SIGNATURE);
+        if (serverSignature == null) {
+            errorText = "Missing " + Const.HEADER_RESPONSE_SIGNATURE + " flag, dropping response";
+            Log.e(Const.LOG_TAG, errorText);
+            buildTaskErrorTextSecure(response, body.getCapturedText());
+            return null;
+        }
 
-            // We need to extract data from the response body
-            // Here we assume the specific form of response body: {"status":"OK","message":null,"data":{...}}
-            final String dataMarker = "\"data\":";
-            int pos = serverResponse.indexOf(dataMarker);
-            if (pos == -1) {
-                errorText = "Wrong server response, missing data";
-                Log.e(Const.LOG_TAG, errorText + ": " + serverResponse);
-                buildTaskErrorTextSecure(response, serverResponse);
-                return null;
-            }
-            String serverData = serverResponse.substring(pos + dataMarker.length(), serverResponse.length() - 1);
-            String calculatedSignature = CryptoHelper.getSHA1String(BuildConfig.REQUEST_SIGNATURE + serverData.replaceAll("\\s", ""));
-            if (!calculatedSignature.equalsIgnoreCase(serverSignature)) {
-                errorText = "Server signature " + serverSignature + " doesn't match calculated signature " + calculatedSignature + ", dropping response";
-                Log.e(Const.LOG_TAG, errorText);
-                buildTaskErrorTextSecure(response, serverResponse);
-                return null;
-            }
-            return new ObjectMapper().readValue(serverData, ServerConfig.class);
-        } else {
-            buildTaskErrorTextSecure(response, null);
+        String calculatedSignature = body.getSignature();
+        if (calculatedSignature == null) {
+            errorText = "Wrong server response, missing data";
+            Log.e(Const.LOG_TAG, errorText + ": " + body.getCapturedText());
+            buildTaskErrorTextSecure(response, body.getCapturedText());
+            return null;
         }
-        return null;
+        if (!calculatedSignature.equalsIgnoreCase(serverSignature)) {
+            errorText = "Server signature " + serverSignature + " doesn't match calculated signature " + calculatedSignature + ", dropping response";
+            Log.e(Const.LOG_TAG, errorText);
+            buildTaskErrorTextSecure(response, body.getCapturedText());
+            return null;
+        }
+        return serverConfigResponse.getData();
     }
 
     private void buildTaskErrorText(Response<ServerConfigResponse> response) {
@@ -25,7 +25,6 @@ import android.os.AsyncTask;
 import com.hmdm.launcher.Const;
 import com.hmdm.launcher.helper.SettingsHelper;
 import com.hmdm.launcher.json.DeviceInfo;
-import com.hmdm.launcher.server.ServerService;
 import com.hmdm.launcher.server.ServerServiceKeeper;
 
 import okhttp3.ResponseBody;
@@ -43,20 +42,9 @@ public class SendDeviceInfoTask extends AsyncTask< DeviceInfo, Integer, Integer
 
     @Override
     protected Integer doInBackground( DeviceInfo... info ) {
-        ServerService serverService = ServerServiceKeeper.getServerServiceInstance(context);
-        ServerService secondaryServerService = ServerServiceKeeper.getSecondaryServerServiceInstance(context);
-        Response< ResponseBody > response = null;
-
         try {
-            response = serverService.sendDevice(settingsHelper.getServerProject(), info[ 0 ]).execute();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        try {
-            if (response == null) {
-                response = secondaryServerService.sendDevice(settingsHelper.getServerProject(), info[0]).execute();
-            }
+            Response< ResponseBody > response = ServerServiceKeeper.execute(context, (serverService, baseUrl) ->
+                    serverService.sendDevice(settingsHelper.getServerProject(), info[0]));
             if ( response.isSuccessful() ) {
                 return Const.TASK_SUCCESS;
             }
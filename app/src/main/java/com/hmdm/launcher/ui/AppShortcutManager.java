@@ -1,14 +1,11 @@
 package com.hmdm.launcher.ui;
 
 import android.content.Context;
-import android.content.Intent;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
 
 import com.hmdm.launcher.helper.SettingsHelper;
 import com.hmdm.launcher.json.Application;
 import com.hmdm.launcher.util.AppInfo;
+import com.hmdm.launcher.util.PackageSnapshotCache;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -32,22 +29,12 @@ public class AppShortcutManager {
         Map<String, Application> requiredPackages = new HashMap();
         Map<String, Application> requiredLinks = new HashMap();
         getConfiguredApps(context, bottom, requiredPackages, requiredLinks);
-        PackageManager pm = context.getPackageManager();
-        List<ApplicationInfo> packs = pm.getInstalledApplications(0);
-        if (packs == null) {
-            return requiredLinks.size();
-        }
+        List<PackageSnapshotCache.PackageEntry> packs = PackageSnapshotCache.getInstance().getPackages(context);
         // Calculate applications
         int packageCount = 0;
-        for(int i = 0; i < packs.size(); i++) {
-            ApplicationInfo p = packs.get(i);
-            if (pm.getLaunchIntentForPackage(p.packageName) != null &&
-                    requiredPackages.containsKey(p.packageName)) {
-                Intent intent = new Intent(Intent.ACTION_MAIN);
-                intent.addCategory(Intent.CATEGORY_LAUNCHER);
-                intent.setPackage(p.packageName);
-                List<ResolveInfo> shortcuts = pm.queryIntentActivities(intent, 0);
-                packageCount += shortcuts.size();
+        for (PackageSnapshotCache.PackageEntry p : packs) {
+            if (p.isLaunchable() && requiredPackages.containsKey(p.getPackageName())) {
+                packageCount += p.getLauncherActivityLabels().size();
             }
         }
         return requiredLinks.size() + packageCount;
@@ -59,37 +46,30 @@ public class AppShortcutManager {
         getConfiguredApps(context, bottom, requiredPackages, requiredLinks);
 
         List<AppInfo> appInfos = new ArrayList<>();
-        List<ApplicationInfo> packs = context.getPackageManager().getInstalledApplications(0);
-        if (packs == null) {
-            return new ArrayList<AppInfo>();
-        }
+        // Installed packages, their labels and launcher activities are taken from the shared snapshot
+        // instead of querying the package manager for each package
+        List<PackageSnapshotCache.PackageEntry> packs = PackageSnapshotCache.getInstance().getPackages(context);
         // First we display app icons
-        PackageManager pm = context.getPackageManager();
-        for(int i = 0; i < packs.size(); i++) {
-            ApplicationInfo p = packs.get(i);
-            if (pm.getLaunchIntentForPackage(p.packageName) != null &&
-                    requiredPackages.containsKey( p.packageName) ) {
-                Application app = requiredPackages.get(p.packageName);
+        for (PackageSnapshotCache.PackageEntry p : packs) {
+            if (p.isLaunchable() && requiredPackages.containsKey(p.getPackageName())) {
+                Application app = requiredPackages.get(p.getPackageName());
                 AppInfo newInfo = new AppInfo();
                 newInfo.type = AppInfo.TYPE_APP;
                 newInfo.keyCode = app.getKeyCode();
-                newInfo.name = app.getIconText() != null ? app.getIconText() : p.loadLabel(pm).toString();
-                newInfo.packageName = p.packageName;
+                newInfo.name = app.getIconText() != null ? app.getIconText() : p.getLabel();
+                newInfo.packageName = p.getPackageName();
                 newInfo.iconUrl = app.getIcon();
                 newInfo.screenOrder = app.getScreenOrder();
                 newInfo.longTap = app.isLongTap() ? 1 : 0;
 
                 // Duplicate shortcuts for apps with multiple intent activities
-                Intent intent = new Intent(Intent.ACTION_MAIN);
-                intent.addCategory(Intent.CATEGORY_LAUNCHER);
-                intent.setPackage(p.packageName);
-                List<ResolveInfo> shortcuts = pm.queryIntentActivities(intent, 0);
+                List<String> shortcuts = p.getLauncherActivityLabels();
                 if (shortcuts.size() > 1) {
                     for (int j = 0; j < shortcuts.size(); j++) {
                         AppInfo appInfo = new AppInfo(newInfo);
                         appInfo.multiIcon = true;
                         appInfo.iconIndex = j;
-                        appInfo.name = shortcuts.get(j).loadLabel(pm).toString();
+                        appInfo.name = shortcuts.get(j);
                         // Icon is loaded in BaseAppListAdapter because here's just a custom URL
                         appInfos.add(appInfo);
                     }
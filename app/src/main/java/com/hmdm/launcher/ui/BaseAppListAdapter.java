@@ -6,8 +6,8 @@ import android.content.ComponentName;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
+import android.graphics.Bitmap;
 import android.graphics.Color;
-import android.graphics.drawable.Drawable;
 import android.graphics.drawable.GradientDrawable;
 import android.net.Uri;
 import android.provider.DocumentsContract;
@@ -20,6 +20,7 @@ import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.core.content.FileProvider;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.hmdm.launcher.BuildConfig;
@@ -28,11 +29,12 @@ import com.hmdm.launcher.R;
 import com.hmdm.launcher.databinding.ItemAppBinding;
 import com.hmdm.launcher.helper.SettingsHelper;
 import com.hmdm.launcher.json.ServerConfig;
-import com.hmdm.launcher.server.UnsafeOkHttpClient;
+import com.hmdm.launcher.server.HttpClientKeeper;
 import com.hmdm.launcher.util.AppInfo;
-import com.hmdm.launcher.util.InstallUtils;
+import com.hmdm.launcher.util.IconCache;
 import com.hmdm.launcher.util.Utils;
 import com.jakewharton.picasso.OkHttp3Downloader;
+import com.squareup.picasso.Callback;
 import com.squareup.picasso.NetworkPolicy;
 import com.squareup.picasso.Picasso;
 
@@ -40,9 +42,7 @@ import java.io.File;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-
-import okhttp3.Cache;
-import okhttp3.OkHttpClient;
+import java.util.Objects;
 
 public abstract class BaseAppListAdapter extends RecyclerView.Adapter<BaseAppListAdapter.ViewHolder> {
     protected LayoutInflater layoutInflater;
@@ -59,7 +59,7 @@ public abstract class BaseAppListAdapter extends RecyclerView.Adapter<BaseAppLis
     protected boolean focused = true;
     protected boolean dpadUsed = false;
 
-    protected Picasso picasso = null;
+    private static Picasso picasso = null;
 
     public BaseAppListAdapter(Activity parentActivity, MainAppListAdapter.OnAppChooseListener appChooseListener, MainAppListAdapter.SwitchAdapterListener switchAdapterListener) {
         layoutInflater = LayoutInflater.from(parentActivity);
@@ -89,10 +89,50 @@ public abstract class BaseAppListAdapter extends RecyclerView.Adapter<BaseAppLis
                 shortcuts.put(item.keyCode, item);
             }
         }
+        IconCache.getInstance().warmUp(parentActivity, items, getIconSize());
     }
 
     public abstract void updateShortcuts(Activity parentActivity);
 
+    // Replaces the items and redraws only changed tiles
+    public void setItems(final List<AppInfo> newItems) {
+        final List<AppInfo> oldItems = items;
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldItems != null ? oldItems.size() : 0;
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newItems.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                AppInfo o = oldItems.get(oldItemPosition);
+                AppInfo n = newItems.get(newItemPosition);
+                return o.type == n.type && o.iconIndex == n.iconIndex &&
+                        Objects.equals(o.packageName, n.packageName) &&
+                        Objects.equals(o.url, n.url) &&
+                        Objects.equals(o.intent, n.intent);
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                AppInfo o = oldItems.get(oldItemPosition);
+                AppInfo n = newItems.get(newItemPosition);
+                return Objects.equals(o.name != null ? o.name.toString() : null, n.name != null ? n.name.toString() : null) &&
+                        Objects.equals(o.iconUrl, n.iconUrl) &&
+                        Objects.equals(o.keyCode, n.keyCode) &&
+                        o.multiIcon == n.multiIcon && o.longTap == n.longTap && o.useKiosk == n.useKiosk;
+            }
+        });
+        items = newItems;
+        initShortcuts();
+        diff.dispatchUpdatesTo(this);
+    }
+
     @Override
     public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         ViewHolder viewHolder = new ViewHolder(layoutInflater.inflate(R.layout.item_app, parent, false));
@@ -117,56 +157,35 @@ public abstract class BaseAppListAdapter extends RecyclerView.Adapter<BaseAppLis
         }
 
         try {
-            Integer iconScale = settingsHelper.getConfig().getIconSize();
-            if (iconScale == null) {
-                iconScale = ServerConfig.DEFAULT_ICON_SIZE;
-            }
-            int iconSize = parentActivity.getResources().getDimensionPixelOffset(R.dimen.app_icon_size) * iconScale / 100;
+            // Icons are pre-scaled to this size, so they aren't scaled on drawing
+            int iconSize = getIconSize();
             holder.binding.imageView.getLayoutParams().width = iconSize;
             holder.binding.imageView.getLayoutParams().height = iconSize;
             if (appInfo.iconUrl != null) {
                 // Load the icon
-                if (picasso == null) {
-                    Picasso.Builder builder = new Picasso.Builder(parentActivity);
-                    if (BuildConfig.TRUST_ANY_CERTIFICATE) {
-                        builder.downloader(new OkHttp3Downloader(UnsafeOkHttpClient.getUnsafeOkHttpClient()));
-                    } else {
-                        // Add signature to all requests to protect against unauthorized API calls
-                        // For TRUST_ANY_CERTIFICATE, we won't add signatures because it's unsafe anyway
-                        // and is just a workaround to use Headwind MDM on the LAN
-                        OkHttpClient clientWithSignature = new OkHttpClient.Builder()
-                                .cache(new Cache(new File(parentActivity.getApplication().getCacheDir(), "image_cache"), 1000000L))
-                                .addInterceptor(chain -> {
-                                    okhttp3.Request.Builder requestBuilder = chain.request().newBuilder();
-                                    String signature = InstallUtils.getRequestSignature(chain.request().url().toString());
-                                    if (signature != null) {
-                                        requestBuilder.addHeader("X-Request-Signature", signature);
-                                    }
-                                    return chain.proceed(requestBuilder.build());
-
-                                })
-                                .build();
-                        builder.downloader(new OkHttp3Downloader(clientWithSignature));
-                    }
-                    builder.listener(new Picasso.Listener() {
-                        @Override
-                        public void onImageLoadFailed(Picasso picasso, Uri uri, Exception exception) {
-                            // On fault, get the image from the cache
-                            // This is a workaround against a bug in Picasso: it doesn't display cached images by default!
-                            picasso.load(appInfo.iconUrl)
-                                    .networkPolicy(NetworkPolicy.OFFLINE)
-                                    .into(holder.binding.imageView);
-                        }
-                    });
-                    picasso = builder.build();
-                }
-
-                picasso.load(appInfo.iconUrl)
-                        .into(holder.binding.imageView);
+                getPicasso().load(appInfo.iconUrl)
+                        .resize(iconSize, iconSize)
+                        .centerInside()
+                        .into(holder.binding.imageView, new Callback() {
+                            @Override
+                            public void onSuccess() {
+                            }
+
+                            @Override
+                            public void onError() {
+                                // On fault, get the image from the cache
+                                // This is a workaround against a bug in Picasso: it doesn't display cached images by default!
+                                getPicasso().load(appInfo.iconUrl)
+                                        .networkPolicy(NetworkPolicy.OFFLINE)
+                                        .resize(iconSize, iconSize)
+                                        .centerInside()
+                                        .into(holder.binding.imageView);
+                            }
+                        });
             } else {
                 switch (appInfo.type) {
                     case AppInfo.TYPE_APP:
-                        holder.binding.imageView.setImageDrawable(getIconForApp(appInfo));
+                        bindAppIcon(holder, appInfo, iconSize);
                         break;
                     case AppInfo.TYPE_WEB:
                         holder.binding.imageView.setImageDrawable(
@@ -191,6 +210,49 @@ public abstract class BaseAppListAdapter extends RecyclerView.Adapter<BaseAppLis
         }
     }
 
+    // Package manager is never queried in the main thread: the icon is taken from the cache or loaded in the background
+    private void bindAppIcon(ViewHolder holder, AppInfo appInfo, int iconSize) {
+        getPicasso().cancelRequest(holder.binding.imageView);
+        Bitmap icon = IconCache.getInstance().getCachedIcon(appInfo, iconSize);
+        if (icon != null) {
+            holder.binding.imageView.setImageBitmap(icon);
+            return;
+        }
+        holder.binding.imageView.setImageDrawable(null);
+        IconCache.getInstance().loadIcon(parentActivity, appInfo, iconSize, bitmap -> {
+            // The view may be already bound to another item
+            if (holder.binding.rootLinearLayout.getTag() != appInfo) {
+                return;
+            }
+            if (bitmap != null) {
+                holder.binding.imageView.setImageBitmap(bitmap);
+            } else {
+                holder.binding.imageView.setImageResource(R.drawable.ic_android_white_50dp);
+            }
+        });
+    }
+
+    protected int getIconSize() {
+        Integer iconScale = settingsHelper.getConfig() != null ? settingsHelper.getConfig().getIconSize() : null;
+        if (iconScale == null) {
+            iconScale = ServerConfig.DEFAULT_ICON_SIZE;
+        }
+        return parentActivity.getResources().getDimensionPixelOffset(R.dimen.app_icon_size) * iconScale / 100;
+    }
+
+    // Shared by all adapters, so the memory cache of icons survives recreating the adapters
+    private Picasso getPicasso() {
+        synchronized (BaseAppListAdapter.class) {
+            if (picasso == null) {
+                Picasso.Builder builder = new Picasso.Builder(parentActivity.getApplicationContext());
+                // Shared client adding signatures to requests
+                builder.downloader(new OkHttp3Downloader(HttpClientKeeper.getImageClient(parentActivity)));
+                picasso = builder.build();
+            }
+            return picasso;
+        }
+    }
+
     public int getDrawableResourceForWebApp(AppInfo appInfo) {
         if (appInfo.url.startsWith("file://")) {
             if (appInfo.url.endsWith("/")) {
@@ -374,21 +436,6 @@ public abstract class BaseAppListAdapter extends RecyclerView.Adapter<BaseAppLis
         }
     }
 
-    private Drawable getIconForApp(AppInfo appInfo) {
-        PackageManager pm = parentActivity.getPackageManager();
-        if (!appInfo.multiIcon) {
-            try {
-                return pm.getApplicationIcon(appInfo.packageName);
-            } catch (PackageManager.NameNotFoundException e) {
-                e.printStackTrace();
-                return null;
-            }
-        } else {
-            ResolveInfo ri = getResolveInfoMultiIcon(appInfo);
-            return ri.loadIcon(pm);
-        }
-    }
-
     public boolean onKey(final int keyCode) {
         AppInfo shortcutAppInfo = shortcuts.get(new Integer(keyCode));
         if (shortcutAppInfo != null) {
@@ -3,6 +3,10 @@ package com.hmdm.launcher.ui;
 import android.app.Activity;
 import android.view.LayoutInflater;
 
+import com.hmdm.launcher.util.AppInfo;
+
+import java.util.List;
+
 public class BottomAppListAdapter extends BaseAppListAdapter {
     private LayoutInflater layoutInflater;
 
@@ -12,6 +16,14 @@ public class BottomAppListAdapter extends BaseAppListAdapter {
         updateShortcuts(parentActivity);
     }
 
+    // Displays the saved items without enumerating installed packages
+    public BottomAppListAdapter(Activity parentActivity, OnAppChooseListener appChooseListener, SwitchAdapterListener switchAdapterListener,
+                                List<AppInfo> items) {
+        super(parentActivity, appChooseListener, switchAdapterListener);
+        this.items = items;
+        initShortcuts();
+    }
+
     @Override
     public void updateShortcuts(Activity parentActivity) {
         items = AppShortcutManager.getInstance().getInstalledApps(parentActivity, true);
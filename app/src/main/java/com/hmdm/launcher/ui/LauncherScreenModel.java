@@ -0,0 +1,365 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmdm.launcher.ui;
+
+import android.content.Context;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.hmdm.launcher.json.ServerConfig;
+import com.hmdm.launcher.util.AppInfo;
+import com.hmdm.launcher.util.IconCache;
+import com.hmdm.launcher.util.JsonCodec;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Home screen as it was rendered last time: tiles, labels, icons and background.
+ * It is saved after the content is drawn and used to draw the home screen on cold start
+ * before the installed packages are enumerated.
+ */
+@JsonIgnoreProperties( ignoreUnknown = true )
+public class LauncherScreenModel {
+    private static final String FILE_NAME = "screen_model.json";
+
+    private int iconSize;
+    private String backgroundColor;
+    private String backgroundImageUrl;
+    private List<Tile> mainTiles = new ArrayList<>();
+    private List<Tile> bottomTiles = new ArrayList<>();
+
+    @JsonIgnoreProperties( ignoreUnknown = true )
+    public static class Tile {
+        private int type;
+        private Integer keyCode;
+        private String name;
+        private String packageName;
+        private String url;
+        private String iconUrl;
+        private Integer screenOrder;
+        private int useKiosk;
+        private int longTap;
+        private String intent;
+        private boolean multiIcon;
+        private int iconIndex;
+        // File in the icon cache, so the icon is loaded without querying the package manager
+        private String iconFile;
+
+        public Tile() {}
+
+        public Tile(AppInfo appInfo) {
+            type = appInfo.type;
+            keyCode = appInfo.keyCode;
+            name = appInfo.name != null ? appInfo.name.toString() : null;
+            packageName = appInfo.packageName;
+            url = appInfo.url;
+            iconUrl = appInfo.iconUrl;
+            screenOrder = appInfo.screenOrder;
+            useKiosk = appInfo.useKiosk;
+            longTap = appInfo.longTap;
+            intent = appInfo.intent;
+            multiIcon = appInfo.multiIcon;
+            iconIndex = appInfo.iconIndex;
+        }
+
+        public AppInfo toAppInfo() {
+            AppInfo appInfo = new AppInfo();
+            appInfo.type = type;
+            appInfo.keyCode = keyCode;
+            appInfo.name = name;
+            appInfo.packageName = packageName;
+            appInfo.url = url;
+            appInfo.iconUrl = iconUrl;
+            appInfo.screenOrder = screenOrder;
+            appInfo.useKiosk = useKiosk;
+            appInfo.longTap = longTap;
+            appInfo.intent = intent;
+            appInfo.multiIcon = multiIcon;
+            appInfo.iconIndex = iconIndex;
+            return appInfo;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public void setType(int type) {
+            this.type = type;
+        }
+
+        public Integer getKeyCode() {
+            return keyCode;
+        }
+
+        public void setKeyCode(Integer keyCode) {
+            this.keyCode = keyCode;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getPackageName() {
+            return packageName;
+        }
+
+        public void setPackageName(String packageName) {
+            this.packageName = packageName;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+
+        public String getIconUrl() {
+            return iconUrl;
+        }
+
+        public void setIconUrl(String iconUrl) {
+            this.iconUrl = iconUrl;
+        }
+
+        public Integer getScreenOrder() {
+            return screenOrder;
+        }
+
+        public void setScreenOrder(Integer screenOrder) {
+            this.screenOrder = screenOrder;
+        }
+
+        public int getUseKiosk() {
+            return useKiosk;
+        }
+
+        public void setUseKiosk(int useKiosk) {
+            this.useKiosk = useKiosk;
+        }
+
+        public int getLongTap() {
+            return longTap;
+        }
+
+        public void setLongTap(int longTap) {
+            this.longTap = longTap;
+        }
+
+        public String getIntent() {
+            return intent;
+        }
+
+        public void setIntent(String intent) {
+            this.intent = intent;
+        }
+
+        public boolean isMultiIcon() {
+            return multiIcon;
+        }
+
+        public void setMultiIcon(boolean multiIcon) {
+            this.multiIcon = multiIcon;
+        }
+
+        public int getIconIndex() {
+            return iconIndex;
+        }
+
+        public void setIconIndex(int iconIndex) {
+            this.iconIndex = iconIndex;
+        }
+
+        public String getIconFile() {
+            return iconFile;
+        }
+
+        public void setIconFile(String iconFile) {
+            this.iconFile = iconFile;
+        }
+    }
+
+    public LauncherScreenModel() {}
+
+    /**
+     * Creates the model of the rendered home screen.
+     * Icon files are resolved by the package manager, so it must not be called from the main thread.
+     */
+    public static LauncherScreenModel create(Context context, ServerConfig config, List<AppInfo> mainItems,
+                                             List<AppInfo> bottomItems, int iconSize) {
+        LauncherScreenModel model = new LauncherScreenModel();
+        model.iconSize = iconSize;
+        model.backgroundColor = config.getBackgroundColor();
+        model.backgroundImageUrl = config.getBackgroundImageUrl();
+        model.mainTiles = createTiles(context, mainItems, iconSize);
+        model.bottomTiles = createTiles(context, bottomItems, iconSize);
+        return model;
+    }
+
+    private static List<Tile> createTiles(Context context, List<AppInfo> items, int iconSize) {
+        List<Tile> tiles = new ArrayList<>();
+        if (items == null) {
+            return tiles;
+        }
+        for (AppInfo appInfo : items) {
+            Tile tile = new Tile(appInfo);
+            if (appInfo.type == AppInfo.TYPE_APP && appInfo.iconUrl == null) {
+                tile.iconFile = IconCache.getInstance().getDiskFileName(context, appInfo, iconSize);
+            }
+            tiles.add(tile);
+        }
+        return tiles;
+    }
+
+    // Returns null if there's no saved model or it can't be read
+    public static LauncherScreenModel load(Context context) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            return JsonCodec.reader(LauncherScreenModel.class).readValue(file);
+        } catch (Exception e) {
+            e.printStackTrace();
+            file.delete();
+            return null;
+        }
+    }
+
+    public static void save(Context context, LauncherScreenModel model) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        File tmpFile = new File(context.getFilesDir(), FILE_NAME + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmpFile)) {
+            JsonCodec.write(fos, model);
+        } catch (Exception e) {
+            e.printStackTrace();
+            tmpFile.delete();
+            return;
+        }
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+        }
+    }
+
+    // The home screen isn't displayed (lock screen or kiosk mode), so it shouldn't be drawn on cold start
+    public static void delete(Context context) {
+        new File(context.getFilesDir(), FILE_NAME).delete();
+    }
+
+    // Loads icons of the saved tiles in the background
+    public void preloadIcons(Context context) {
+        preloadIcons(context, mainTiles);
+        preloadIcons(context, bottomTiles);
+    }
+
+    private void preloadIcons(Context context, List<Tile> tiles) {
+        for (Tile tile : tiles) {
+            if (tile.iconFile != null) {
+                IconCache.getInstance().preload(context, tile.toAppInfo(), iconSize, tile.iconFile);
+            }
+        }
+    }
+
+    /**
+     * Removes preloaded icons of the apps updated since the model was saved.
+     * Returns true if any icon has been removed, so the displayed tiles must be redrawn.
+     * Queries the package manager, so it must not be called from the main thread.
+     */
+    public boolean evictStaleIcons(Context context) {
+        boolean evicted = evictStaleIcons(context, mainTiles);
+        return evictStaleIcons(context, bottomTiles) || evicted;
+    }
+
+    private boolean evictStaleIcons(Context context, List<Tile> tiles) {
+        boolean evicted = false;
+        for (Tile tile : tiles) {
+            if (tile.iconFile != null &&
+                    IconCache.getInstance().evictIfStale(context, tile.toAppInfo(), iconSize, tile.iconFile)) {
+                evicted = true;
+            }
+        }
+        return evicted;
+    }
+
+    @JsonIgnore
+    public List<AppInfo> getMainItems() {
+        return toAppInfos(mainTiles);
+    }
+
+    @JsonIgnore
+    public List<AppInfo> getBottomItems() {
+        return toAppInfos(bottomTiles);
+    }
+
+    private static List<AppInfo> toAppInfos(List<Tile> tiles) {
+        List<AppInfo> result = new ArrayList<>();
+        for (Tile tile : tiles) {
+            result.add(tile.toAppInfo());
+        }
+        return result;
+    }
+
+    public int getIconSize() {
+        return iconSize;
+    }
+
+    public void setIconSize(int iconSize) {
+        this.iconSize = iconSize;
+    }
+
+    public String getBackgroundColor() {
+        return backgroundColor;
+    }
+
+    public void setBackgroundColor(String backgroundColor) {
+        this.backgroundColor = backgroundColor;
+    }
+
+    public String getBackgroundImageUrl() {
+        return backgroundImageUrl;
+    }
+
+    public void setBackgroundImageUrl(String backgroundImageUrl) {
+        this.backgroundImageUrl = backgroundImageUrl;
+    }
+
+    public List<Tile> getMainTiles() {
+        return mainTiles;
+    }
+
+    public void setMainTiles(List<Tile> mainTiles) {
+        this.mainTiles = mainTiles;
+    }
+
+    public List<Tile> getBottomTiles() {
+        return bottomTiles;
+    }
+
+    public void setBottomTiles(List<Tile> bottomTiles) {
+        this.bottomTiles = bottomTiles;
+    }
+}
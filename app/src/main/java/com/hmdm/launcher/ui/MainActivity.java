@@ -103,8 +103,8 @@ import com.hmdm.launcher.pro.ProUtils;
 import com.hmdm.launcher.pro.service.CheckForegroundAppAccessibilityService;
 import com.hmdm.launcher.pro.service.CheckForegroundApplicationService;
 import com.hmdm.launcher.receiver.ScreenOffReceiver;
+import com.hmdm.launcher.server.HttpClientKeeper;
 import com.hmdm.launcher.server.ServerServiceKeeper;
-import com.hmdm.launcher.server.UnsafeOkHttpClient;
 import com.hmdm.launcher.service.LocationService;
 import com.hmdm.launcher.service.PluginApiService;
 import com.hmdm.launcher.service.StatusControlService;
@@ -114,9 +114,11 @@ import com.hmdm.launcher.ui.custom.StatusBarUpdater;
 import com.hmdm.launcher.util.AppInfo;
 import com.hmdm.launcher.util.CrashLoopProtection;
 import com.hmdm.launcher.util.DeviceInfoProvider;
-import com.hmdm.launcher.util.InstallUtils;
+import com.hmdm.launcher.util.IconCache;
+import com.hmdm.launcher.util.PackageSnapshotCache;
 import com.hmdm.launcher.util.PreferenceLogger;
 import com.hmdm.launcher.util.RemoteLogger;
+import com.hmdm.launcher.util.StartupTrace;
 import com.hmdm.launcher.util.SystemUtils;
 import com.hmdm.launcher.util.Utils;
 import com.hmdm.launcher.worker.SendDeviceInfoWorker;
@@ -135,9 +137,6 @@ import java.io.PrintWriter;
 import java.util.Arrays;
 import java.util.List;
 
-import okhttp3.Cache;
-import okhttp3.OkHttpClient;
-
 public class MainActivity
         extends BaseActivity
         implements View.OnLongClickListener, BaseAppListAdapter.OnAppChooseListener,
@@ -209,6 +208,11 @@ public class MainActivity
 
     private boolean needSendDeviceInfoAfterReconfigure = false;
     private boolean needRedrawContentAfterReconfigure = false;
+    // The home screen saved last time is displayed, the actual content is not yet built
+    private boolean screenModelPending = false;
+    // Saved home screen displayed on cold start, until the actual content is built
+    private LauncherScreenModel screenModel;
+    private String backgroundImageUrl;
     private boolean orientationLocked = false;
 
     private int REQUEST_CODE_GPS_STATE_CHANGE = 1;
@@ -408,6 +412,11 @@ public class MainActivity
         settingsHelper = SettingsHelper.getInstance(this);
         preferences = getSharedPreferences(Const.PREFERENCES, MODE_PRIVATE);
 
+        StartupTrace.trackFirstFrame(this);
+        if (savedInstanceState == null) {
+            showScreenModel();
+        }
+
         configUpdater = new ConfigUpdater(this);
 
         if ("".equals(settingsHelper.getDeviceId()) && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
@@ -455,6 +464,15 @@ public class MainActivity
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             appChangeCallback = new LauncherApps.Callback() {
+                private void invalidatePackages(String[] packageNames) {
+                    if (packageNames != null) {
+                        for (String packageName : packageNames) {
+                            PackageSnapshotCache.getInstance().invalidate(packageName);
+                            IconCache.getInstance().invalidate(MainActivity.this, packageName);
+                        }
+                    }
+                }
+
                 private void updateShortcuts() {
                     if (mainAppListAdapter != null) {
                         mainAppListAdapter.updateShortcuts(MainActivity.this);
@@ -468,30 +486,37 @@ public class MainActivity
 
                 @Override
                 public void onPackageRemoved(String s, UserHandle userHandle) {
+                    invalidatePackages(new String[] {s});
                     updateShortcuts();
                 }
 
                 @Override
                 public void onPackageAdded(String s, UserHandle userHandle) {
+                    invalidatePackages(new String[] {s});
                     updateShortcuts();
                 }
 
                 @Override
                 public void onPackageChanged(String s, UserHandle userHandle) {
+                    invalidatePackages(new String[] {s});
                     updateShortcuts();
                 }
 
                 @Override
                 public void onPackagesAvailable(String[] strings, UserHandle userHandle, boolean b) {
+                    invalidatePackages(strings);
                 }
 
                 @Override
                 public void onPackagesUnavailable(String[] strings, UserHandle userHandle, boolean b) {
+                    invalidatePackages(strings);
                 }
             };
             appChangeService = (LauncherApps) getSystemService(Context.LAUNCHER_APPS_SERVICE);
             if (appChangeService != null) {
                 appChangeService.registerCallback(appChangeCallback);
+                // Package changes are now tracked, so the package snapshot can be updated incrementally
+                PackageSnapshotCache.getInstance().startTracking();
             }
         }
     }
@@ -576,11 +601,12 @@ public class MainActivity
             setSelfAsDeviceOwner();
         }
 
-        if (mainAppListAdapter != null) {
+        // The saved home screen is refreshed in showContent()
+        if (mainAppListAdapter != null && !screenModelPending) {
             mainAppListAdapter.updateShortcuts(this);
             mainAppListAdapter.notifyDataSetChanged();
         }
-        if (bottomAppListAdapter != null) {
+        if (bottomAppListAdapter != null && !screenModelPending) {
             bottomAppListAdapter.updateShortcuts(this);
             bottomAppListAdapter.notifyDataSetChanged();
         }
@@ -1757,6 +1783,7 @@ public class MainActivity
         scheduleInstalledAppsRun();
 
         if (config.getLock() != null && config.getLock()) {
+            LauncherScreenModel.delete(this);
             showLockScreen();
             return;
         } else {
@@ -1782,6 +1809,7 @@ public class MainActivity
                     // So here we just proceed to drawing the content
                     (!kioskApp.equals(getPackageName()) || !ProUtils.isKioskModeRunning(this))) {
                 if (ProUtils.getKioskAppIntent(kioskApp, this) != null && startKiosk(kioskApp)) {
+                    LauncherScreenModel.delete(this);
                     getWindow().clearFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
                     return;
                 } else {
@@ -1805,108 +1833,213 @@ public class MainActivity
         }
 
         // TODO: Somehow binding is null here which causes a crash. Not sure why this could happen.
-        if ( config.getBackgroundColor() != null ) {
-            try {
-                binding.activityMainContentWrapper.setBackgroundColor(Color.parseColor(config.getBackgroundColor()));
-            } catch (Exception e) {
-                // Invalid color
-                e.printStackTrace();
-                binding.activityMainContentWrapper.setBackgroundColor( getResources().getColor(R.color.defaultBackground));
-            }
-        } else {
-            binding.activityMainContentWrapper.setBackgroundColor( getResources().getColor(R.color.defaultBackground));
-        }
+        setContentBackgroundColor(config.getBackgroundColor());
         updateTitle(config);
 
         statusBarUpdater.updateControlsState(config.isDisplayStatus(), isDarkBackground());
 
-        if (mainAppListAdapter == null || needRedrawContentAfterReconfigure) {
+        if (mainAppListAdapter == null || needRedrawContentAfterReconfigure || screenModelPending) {
+            boolean refreshScreenModel = screenModelPending && !needRedrawContentAfterReconfigure;
             needRedrawContentAfterReconfigure = false;
+            screenModelPending = false;
+            LauncherScreenModel displayedModel = screenModel;
+            screenModel = null;
 
-            if ( config.getBackgroundImageUrl() != null && config.getBackgroundImageUrl().length() > 0 ) {
-                if (picasso == null) {
-                    // Initialize it once because otherwise it doesn't work offline
-                    Picasso.Builder builder = new Picasso.Builder(this);
-                    if (BuildConfig.TRUST_ANY_CERTIFICATE) {
-                        builder.downloader(new OkHttp3Downloader(UnsafeOkHttpClient.getUnsafeOkHttpClient()));
-                    } else {
-                        // Add signature to all requests to protect against unauthorized API calls
-                        // For TRUST_ANY_CERTIFICATE, we won't add signatures because it's unsafe anyway
-                        // and is just a workaround to use Headwind MDM on the LAN
-                        OkHttpClient clientWithSignature = new OkHttpClient.Builder()
-                                .cache(new Cache(new File(getApplication().getCacheDir(), "image_cache"), 1000000L))
-                                .addInterceptor(chain -> {
-                                    okhttp3.Request.Builder requestBuilder = chain.request().newBuilder();
-                                    String signature = InstallUtils.getRequestSignature(chain.request().url().toString());
-                                    if (signature != null) {
-                                        requestBuilder.addHeader("X-Request-Signature", signature);
-                                    }
-                                    return chain.proceed(requestBuilder.build());
+            loadBackgroundImage(config.getBackgroundImageUrl());
 
-                                })
-                                .build();
-                        builder.downloader(new OkHttp3Downloader(clientWithSignature));
-                    }
-                    builder.listener(new Picasso.Listener()
-                    {
-                        @Override
-                        public void onImageLoadFailed(Picasso picasso, Uri uri, Exception exception)
-                        {
-                            // On fault, get the background image from the cache
-                            // This is a workaround against a bug in Picasso: it doesn't display cached images by default!
-                            picasso.load(config.getBackgroundImageUrl())
-                                    .networkPolicy(NetworkPolicy.OFFLINE)
-                                    .fit()
-                                    .centerCrop()
-                                    .into(binding.activityMainBackground);
-                        }
-                    });
-                    picasso = builder.build();
+            if (refreshScreenModel) {
+                // The saved home screen is displayed: build the actual one in the background and apply the changes
+                refreshContentInBackground(displayedModel);
+            } else {
+                spanCount = calculateSpanCount();
+                mainAppListAdapter = new MainAppListAdapter(this, this, this);
+                setupMainContent();
+
+                int bottomAppCount = AppShortcutManager.getInstance().getInstalledAppCount(this, true);
+                if (bottomAppCount > 0) {
+                    bottomAppListAdapter = new BottomAppListAdapter(this, this, this);
+                    setupBottomLine(bottomAppCount);
+                } else {
+                    bottomAppListAdapter = null;
+                    binding.activityBottomLayout.setVisibility(View.GONE);
                 }
+                onContentRendered();
+            }
+        }
+        binding.loading.setVisibility(View.GONE);
+        binding.setShowContent(true);
+        // We can now sleep, uh
+        getWindow().clearFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+    }
+
+    // Draws the home screen saved last time, without enumerating installed packages and loading icons
+    // from the package manager. The actual content is built in showContent()
+    private void showScreenModel() {
+        LauncherScreenModel model = LauncherScreenModel.load(this);
+        if (model == null || settingsHelper.getConfig() == null) {
+            return;
+        }
+        // Icons are read from the disk cache in the background, before the adapters request them
+        model.preloadIcons(this);
+        setContentBackgroundColor(model.getBackgroundColor());
+        loadBackgroundImage(model.getBackgroundImageUrl());
 
-                picasso.load(config.getBackgroundImageUrl())
-                    // fit and centerCrop is a workaround against a crash on too large images on some devices
-                    .fit()
-                    .centerCrop()
-                    .into(binding.activityMainBackground);
+        spanCount = calculateSpanCount();
+        mainAppListAdapter = new MainAppListAdapter(this, this, this, model.getMainItems());
+        setupMainContent();
 
-            } else {
-                binding.activityMainBackground.setImageDrawable(null);
+        List<AppInfo> bottomItems = model.getBottomItems();
+        if (bottomItems.size() > 0) {
+            bottomAppListAdapter = new BottomAppListAdapter(this, this, this, bottomItems);
+            setupBottomLine(bottomItems.size());
+        } else {
+            bottomAppListAdapter = null;
+            binding.activityBottomLayout.setVisibility(View.GONE);
+        }
+        binding.loading.setVisibility(View.GONE);
+        binding.setShowContent(true);
+        screenModel = model;
+        screenModelPending = true;
+    }
+
+    private void refreshContentInBackground(final LauncherScreenModel displayedModel) {
+        new AsyncTask<Void, Void, Void>() {
+            private List<AppInfo> mainItems;
+            private List<AppInfo> bottomItems;
+            private boolean staleIcons;
+
+            @Override
+            protected Void doInBackground(Void... voids) {
+                // Apps updated while the launcher wasn't running must get their new icons
+                staleIcons = displayedModel != null && displayedModel.evictStaleIcons(MainActivity.this);
+                mainItems = AppShortcutManager.getInstance().getInstalledApps(MainActivity.this, false);
+                bottomItems = AppShortcutManager.getInstance().getInstalledApps(MainActivity.this, true);
+                return null;
             }
 
-            Display display = getWindowManager().getDefaultDisplay();
-            Point size = new Point();
-            display.getSize(size);
+            @Override
+            protected void onPostExecute(Void v) {
+                if (isDestroyed() || mainAppListAdapter == null) {
+                    return;
+                }
+                mainAppListAdapter.setItems(mainItems);
+                if (staleIcons) {
+                    // Unchanged items aren't rebound by setItems()
+                    mainAppListAdapter.notifyDataSetChanged();
+                }
+                if (bottomItems.size() > 0) {
+                    if (bottomAppListAdapter == null) {
+                        bottomAppListAdapter = new BottomAppListAdapter(MainActivity.this, MainActivity.this, MainActivity.this, bottomItems);
+                        setupBottomLine(bottomItems.size());
+                    } else {
+                        bottomAppListAdapter.setItems(bottomItems);
+                        if (staleIcons) {
+                            bottomAppListAdapter.notifyDataSetChanged();
+                        }
+                        ((GridLayoutManager) binding.activityBottomLine.getLayoutManager()).setSpanCount(
+                                bottomItems.size() < spanCount ? bottomItems.size() : spanCount);
+                    }
+                } else {
+                    bottomAppListAdapter = null;
+                    binding.activityBottomLayout.setVisibility(View.GONE);
+                }
+                onContentRendered();
+            }
+        }.execute();
+    }
 
-            int width = size.x;
-            int itemWidth = getResources().getDimensionPixelSize(R.dimen.app_list_item_size);
+    private int calculateSpanCount() {
+        Display display = getWindowManager().getDefaultDisplay();
+        Point size = new Point();
+        display.getSize(size);
 
-            spanCount = (int) (width * 1.0f / itemWidth);
-            mainAppListAdapter = new MainAppListAdapter(this, this, this);
-            mainAppListAdapter.setSpanCount(spanCount);
+        int width = size.x;
+        int itemWidth = getResources().getDimensionPixelSize(R.dimen.app_list_item_size);
 
-            binding.activityMainContent.setLayoutManager(new GridLayoutManager(this, spanCount));
-            binding.activityMainContent.setAdapter(mainAppListAdapter);
-            mainAppListAdapter.notifyDataSetChanged();
+        return (int) (width * 1.0f / itemWidth);
+    }
 
-            int bottomAppCount = AppShortcutManager.getInstance().getInstalledAppCount(this, true);
-            if (bottomAppCount > 0) {
-                bottomAppListAdapter = new BottomAppListAdapter(this, this, this);
-                bottomAppListAdapter.setSpanCount(spanCount);
+    private void setupMainContent() {
+        mainAppListAdapter.setSpanCount(spanCount);
 
-                binding.activityBottomLayout.setVisibility(View.VISIBLE);
-                binding.activityBottomLine.setLayoutManager(new GridLayoutManager(this, bottomAppCount < spanCount ? bottomAppCount : spanCount));
-                binding.activityBottomLine.setAdapter(bottomAppListAdapter);
-                bottomAppListAdapter.notifyDataSetChanged();
-            } else {
-                bottomAppListAdapter = null;
-                binding.activityBottomLayout.setVisibility(View.GONE);
+        binding.activityMainContent.setLayoutManager(new GridLayoutManager(this, spanCount));
+        binding.activityMainContent.setAdapter(mainAppListAdapter);
+        mainAppListAdapter.notifyDataSetChanged();
+    }
+
+    private void setupBottomLine(int bottomAppCount) {
+        bottomAppListAdapter.setSpanCount(spanCount);
+
+        binding.activityBottomLayout.setVisibility(View.VISIBLE);
+        binding.activityBottomLine.setLayoutManager(new GridLayoutManager(this, bottomAppCount < spanCount ? bottomAppCount : spanCount));
+        binding.activityBottomLine.setAdapter(bottomAppListAdapter);
+        bottomAppListAdapter.notifyDataSetChanged();
+    }
+
+    private void setContentBackgroundColor(String color) {
+        if (color != null) {
+            try {
+                binding.activityMainContentWrapper.setBackgroundColor(Color.parseColor(color));
+            } catch (Exception e) {
+                // Invalid color
+                e.printStackTrace();
+                binding.activityMainContentWrapper.setBackgroundColor( getResources().getColor(R.color.defaultBackground));
             }
+        } else {
+            binding.activityMainContentWrapper.setBackgroundColor( getResources().getColor(R.color.defaultBackground));
         }
-        binding.loading.setVisibility(View.GONE);
-        binding.setShowContent(true);
-        // We can now sleep, uh
-        getWindow().clearFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+    }
+
+    private void loadBackgroundImage(String url) {
+        backgroundImageUrl = url;
+        if (url == null || url.length() == 0) {
+            binding.activityMainBackground.setImageDrawable(null);
+            return;
+        }
+        if (picasso == null) {
+            // Initialize it once because otherwise it doesn't work offline
+            Picasso.Builder builder = new Picasso.Builder(this);
+            // Shared client adding signatures to requests
+            builder.downloader(new OkHttp3Downloader(HttpClientKeeper.getImageClient(this)));
+            builder.listener(new Picasso.Listener()
+            {
+                @Override
+                public void onImageLoadFailed(Picasso picasso, Uri uri, Exception exception)
+                {
+                    // On fault, get the background image from the cache
+                    // This is a workaround against a bug in Picasso: it doesn't display cached images by default!
+                    picasso.load(backgroundImageUrl)
+                            .networkPolicy(NetworkPolicy.OFFLINE)
+                            .fit()
+                            .centerCrop()
+                            .into(binding.activityMainBackground);
+                }
+            });
+            picasso = builder.build();
+        }
+
+        picasso.load(url)
+            // fit and centerCrop is a workaround against a crash on too large images on some devices
+            .fit()
+            .centerCrop()
+            .into(binding.activityMainBackground);
+    }
+
+    // Called when the home screen displays the actual content
+    private void onContentRendered() {
+        StartupTrace.onInteractive(this);
+
+        ServerConfig config = settingsHelper.getConfig();
+        if (config == null || mainAppListAdapter == null) {
+            return;
+        }
+        final Context context = getApplicationContext();
+        final List<AppInfo> mainItems = mainAppListAdapter.items;
+        final List<AppInfo> bottomItems = bottomAppListAdapter != null ? bottomAppListAdapter.items : null;
+        final int iconSize = mainAppListAdapter.getIconSize();
+        // Icon files are resolved by the package manager, so the model is saved in the background
+        new Thread(() -> LauncherScreenModel.save(context,
+                LauncherScreenModel.create(context, config, mainItems, bottomItems, iconSize))).start();
     }
 
     // Added an option to delay restarting the kiosk app
@@ -2116,6 +2249,7 @@ public class MainActivity
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP &&
                 appChangeService != null && appChangeCallback != null) {
             appChangeService.unregisterCallback(appChangeCallback);
+            PackageSnapshotCache.getInstance().stopTracking();
         }
     }
 
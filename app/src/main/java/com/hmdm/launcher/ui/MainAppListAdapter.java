@@ -21,6 +21,10 @@ package com.hmdm.launcher.ui;
 
 import android.app.Activity;
 
+import com.hmdm.launcher.util.AppInfo;
+
+import java.util.List;
+
 /**
  * Created by Ivan Lozenko on 21.02.2017.
  */
@@ -32,6 +36,14 @@ public class MainAppListAdapter extends BaseAppListAdapter {
         updateShortcuts(parentActivity);
     }
 
+    // Displays the saved items without enumerating installed packages
+    public MainAppListAdapter(Activity parentActivity, OnAppChooseListener appChooseListener, SwitchAdapterListener switchAdapterListener,
+                              List<AppInfo> items) {
+        super(parentActivity, appChooseListener, switchAdapterListener);
+        this.items = items;
+        initShortcuts();
+    }
+
     @Override
     public void updateShortcuts(Activity parentActivity) {
         items = AppShortcutManager.getInstance().getInstalledApps(parentActivity, false);
@@ -0,0 +1,283 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmdm.launcher.util;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+import com.hmdm.launcher.Const;
+import com.hmdm.launcher.json.Application;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides which applications should be installed or removed.
+ * Configured apps are indexed by package name, and installed packages are taken from the shared
+ * package snapshot for large configurations, so the plan is built in linear time.
+ */
+public class AppInstallPlanner {
+
+    public enum Action { REMOVE, INSTALL, UPGRADE, DOWNGRADE, SKIP }
+
+    public static class Step {
+        private final Application application;
+        private final Action action;
+        private final String reason;
+        // Null if the app isn't installed
+        private final String installedVersion;
+
+        private Step(Application application, Action action, String reason, String installedVersion) {
+            this.application = application;
+            this.action = action;
+            this.reason = reason;
+            this.installedVersion = installedVersion;
+        }
+
+        public Application getApplication() {
+            return application;
+        }
+
+        public Action getAction() {
+            return action;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        public String getInstalledVersion() {
+            return installedVersion;
+        }
+    }
+
+    public static class Plan {
+        private final List<Step> steps = new ArrayList<>();
+
+        public List<Step> getSteps() {
+            return steps;
+        }
+
+        // Applications to be processed in order: removals first, then installations
+        public List<Application> getApplications() {
+            List<Application> result = new LinkedList<>();
+            for (Step step : steps) {
+                if (step.action != Action.SKIP) {
+                    result.add(step.application);
+                }
+            }
+            return result;
+        }
+    }
+
+    // Installed packages are looked up through this interface, so the plan can be built without a device
+    interface PackageLookup {
+        // Returns null if the package is not installed
+        PackageInfo getPackageInfo(String pkg);
+    }
+
+    // For smaller configurations, it's cheaper to query packages one by one
+    // unless there's an up-to-date package snapshot
+    private static final int BULK_QUERY_THRESHOLD = 10;
+
+    private static final String REASON_DOWNGRADE_NOT_ALLOWED = "downgrade not allowed";
+
+    private final Context context;
+    private final String selfPackage;
+    private final PackageLookup packageLookup;
+    private boolean useSnapshot;
+
+    public AppInstallPlanner(Context context) {
+        this.context = context;
+        this.selfPackage = context.getPackageName();
+        this.packageLookup = this::getInstalledPackage;
+    }
+
+    AppInstallPlanner(String selfPackage, PackageLookup packageLookup) {
+        this.context = null;
+        this.selfPackage = selfPackage;
+        this.packageLookup = packageLookup;
+    }
+
+    /**
+     * @param applications configured applications
+     * @param queuedApplications applications already queued for installation (they stay in the plan if still needed)
+     * @param pendingPackages packages being installed right now
+     */
+    public Plan plan(List<Application> applications, List<Application> queuedApplications, Set<String> pendingPackages) {
+        Plan plan = createPlan(applications, queuedApplications, pendingPackages);
+        for (Step step : plan.steps) {
+            logStep(step);
+        }
+        return plan;
+    }
+
+    // Same as plan() but without logging
+    Plan createPlan(List<Application> applications, List<Application> queuedApplications, Set<String> pendingPackages) {
+        List<Application> candidates = new ArrayList<>(queuedApplications);
+        Set<String> candidateKeys = new HashSet<>();
+        for (Application a : queuedApplications) {
+            candidateKeys.add(getKey(a));
+        }
+
+        // Versions to be removed, used to allow downgrades
+        Map<String, List<Application>> removals = new HashMap<>();
+
+        // First handle apps to be removed, then apps to be installed
+        // We process only applications of type "app" (default) and skip web links and others
+        for (Application a : applications) {
+            if (a.isRemove()) {
+                String pkg = a.getPkg().toLowerCase(Locale.US);
+                List<Application> list = removals.get(pkg);
+                if (list == null) {
+                    list = new LinkedList<>();
+                    removals.put(pkg, list);
+                }
+                list.add(a);
+                if (isApp(a) && candidateKeys.add(getKey(a))) {
+                    candidates.add(a);
+                }
+            }
+        }
+        for (Application a : applications) {
+            if (isApp(a) && !a.isRemove() && !pendingPackages.contains(a.getPkg()) && candidateKeys.add(getKey(a))) {
+                candidates.add(a);
+            }
+        }
+
+        useSnapshot = candidates.size() > BULK_QUERY_THRESHOLD || PackageSnapshotCache.getInstance().isValid();
+
+        Plan plan = new Plan();
+        for (Application application : candidates) {
+            plan.steps.add(planApplication(application, removals));
+        }
+        return plan;
+    }
+
+    private Step planApplication(Application application, Map<String, List<Application>> removals) {
+        if ((application.getUrl() == null || application.getUrl().trim().equals("")) && !application.isRemove()) {
+            // An app without URL is a system app which doesn't require installation
+            return new Step(application, Action.SKIP, "is system", null);
+        }
+
+        PackageInfo packageInfo = packageLookup.getPackageInfo(application.getPkg());
+        if (packageInfo == null) {
+            // The app isn't installed
+            if (application.isRemove()) {
+                // The app requires removal but already removed
+                return new Step(application, Action.SKIP, "not found, nothing to remove", null);
+            }
+            return new Step(application, Action.INSTALL, "not installed", null);
+        }
+        String installedVersion = packageInfo.versionName;
+
+        if (application.isRemove()) {
+            if (!application.getVersion().equals("0") &&
+                    !InstallUtils.areVersionsEqual(packageInfo.versionName, packageInfo.versionCode, application.getVersion(), application.getCode())) {
+                // If a removal is required, but the app version doesn't match, do not remove
+                return new Step(application, Action.SKIP, "version not match: "
+                        + application.getVersion() + " " + packageInfo.versionName, installedVersion);
+            }
+            return new Step(application, Action.REMOVE, "installed version " + packageInfo.versionName, installedVersion);
+        }
+
+        if (!InstallUtils.upgradingHmdmFreeToFull(selfPackage, application) &&
+                (application.isSkipVersion() || application.getVersion().equals("0") ||
+                        InstallUtils.areVersionsEqual(packageInfo.versionName, packageInfo.versionCode, application.getVersion(), application.getCode()))) {
+            // If installation is required, but the app of the same version already installed, do not install
+            return new Step(application, Action.SKIP, "versions match: "
+                    + application.getVersion() + " " + packageInfo.versionName, installedVersion);
+        }
+
+        if (InstallUtils.compareVersions(packageInfo.versionName, packageInfo.versionCode, application.getVersion(), application.getCode()) > 0) {
+            // Downgrade requested!
+            // It will only succeed if a higher version is marked as "Remove"
+            // Let's check that condition to avoid failed attempts to install and downloads of the lower version each time
+            List<Application> list = removals.get(application.getPkg().toLowerCase(Locale.US));
+            if (list != null) {
+                for (Application a : list) {
+                    if (InstallUtils.areVersionsEqual(packageInfo.versionName, packageInfo.versionCode, a.getVersion(), a.getCode())) {
+                        return new Step(application, Action.DOWNGRADE, "installed version " + packageInfo.versionName
+                                + " will be removed", installedVersion);
+                    }
+                }
+            }
+            return new Step(application, Action.SKIP, REASON_DOWNGRADE_NOT_ALLOWED, installedVersion);
+        }
+
+        return new Step(application, Action.UPGRADE, "installed version " + packageInfo.versionName, installedVersion);
+    }
+
+    private void logStep(Step step) {
+        Application application = step.application;
+        switch (step.action) {
+            case REMOVE:
+                Log.d(Const.LOG_TAG, "checkAndUpdateApplications(): marking app " + application.getPkg() + " to remove");
+                return;
+            case DOWNGRADE:
+                logDowngrade(step);
+                RemoteLogger.log(context, Const.LOG_DEBUG, "Current version of " + application.getPkg() + " will be removed, downgrade allowed");
+                break;
+            case SKIP:
+                if (step.reason.equals(REASON_DOWNGRADE_NOT_ALLOWED)) {
+                    logDowngrade(step);
+                    RemoteLogger.log(context, Const.LOG_DEBUG, "Ignoring downgrade request for " + application.getPkg() + ": remove current version first!");
+                }
+                Log.d(Const.LOG_TAG, "checkAndUpdateApplications(): app " + application.getPkg() + " " + step.reason + ", skipping");
+                return;
+            default:
+                break;
+        }
+        Log.d(Const.LOG_TAG, "checkAndUpdateApplications(): marking app " + application.getPkg() + " to install");
+    }
+
+    private void logDowngrade(Step step) {
+        RemoteLogger.log(context, Const.LOG_DEBUG, "Downgrade requested for " + step.application.getPkg() +
+                ": installed version " + step.installedVersion + ", required version " + step.application.getVersion());
+    }
+
+    private PackageInfo getInstalledPackage(String pkg) {
+        if (useSnapshot) {
+            return PackageSnapshotCache.getInstance().getPackageInfo(context, pkg);
+        }
+        try {
+            return context.getPackageManager().getPackageInfo(pkg, 0);
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static boolean isApp(Application a) {
+        return a.getType() == null || a.getType().equals(Application.TYPE_APP);
+    }
+
+    // Same application in the same version and for the same operation (install or remove)
+    private static String getKey(Application a) {
+        return a.getPkg().toLowerCase(Locale.US) + "\n" +
+                (a.getVersion() != null ? a.getVersion().toLowerCase(Locale.US) : "") + "\n" + a.isRemove();
+    }
+}
@@ -19,52 +19,140 @@
 
 package com.hmdm.launcher.util;
 
-import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.math.BigInteger;
-import java.security.DigestInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class CryptoUtils {
+    // MD5 is used by the server for file checksums
+    public static final String ALGORITHM_MD5 = "MD5";
+    // SHA-256 is hardware accelerated on most ARMv8 devices and may be faster than MD5
+    public static final String ALGORITHM_SHA256 = "SHA-256";
+
+    private static final int BUFFER_SIZE = 262144;
+    // Larger files are memory-mapped in windows of this size to avoid copying the data
+    private static final long MAPPED_WINDOW_SIZE = 64L * 1024 * 1024;
+
+    // Each thread reuses its own buffer
+    private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private static final AtomicLong bytesHashed = new AtomicLong();
+    private static final AtomicLong nanosHashed = new AtomicLong();
+
     public static String calculateChecksum(InputStream fileContent) {
-        // Calculate checksum
-        MessageDigest md = null;
-        try {
-            md = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
+        return calculateChecksum(fileContent, ALGORITHM_MD5);
+    }
+
+    public static String calculateChecksum(InputStream fileContent, String algorithm) {
+        MessageDigest md = getDigest(algorithm);
+        if (md == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        long total = 0;
+        byte[] buffer = buffers.get();
+        try (InputStream is = fileContent) {
+            int length;
+            while ((length = is.read(buffer)) != -1) {
+                md.update(buffer, 0, length);
+                total += length;
+            }
+        } catch (IOException e) {
             e.printStackTrace();
             return null;
         }
-        try (InputStream is = new BufferedInputStream(fileContent);
-             DigestInputStream dis = new DigestInputStream(is, md)) {
-            /* Read decorated stream (dis) to EOF as normal... */
-            int b;
-            while ((b = dis.read()) != -1) {
-                // digest will consume the content when read() called
+        addStats(total, System.nanoTime() - start);
+        return toHex(md.digest());
+    }
+
+    public static String calculateChecksum(File file) {
+        return calculateChecksum(file, ALGORITHM_MD5);
+    }
+
+    public static String calculateChecksum(File file, String algorithm) {
+        MessageDigest md = getDigest(algorithm);
+        if (md == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        long total = 0;
+        try (FileInputStream fis = new FileInputStream(file);
+             FileChannel channel = fis.getChannel()) {
+            long size = channel.size();
+            if (size > MAPPED_WINDOW_SIZE) {
+                // Big files are hashed from the page cache without copying to a buffer
+                for (long position = 0; position < size; position += MAPPED_WINDOW_SIZE) {
+                    MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(MAPPED_WINDOW_SIZE, size - position));
+                    total += mapped.remaining();
+                    md.update(mapped);
+                }
+            } else {
+                ByteBuffer buffer = ByteBuffer.wrap(buffers.get());
+                while (channel.read(buffer) != -1) {
+                    buffer.flip();
+                    total += buffer.remaining();
+                    md.update(buffer);
+                    buffer.clear();
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
             return null;
         }
+        addStats(total, System.nanoTime() - start);
+        return toHex(md.digest());
+    }
 
-        // to calculate message digest of the input string
-        // returned as array of byte
-        byte[] digest = md.digest();
+    // Average hashing speed since the app start
+    public static double getThroughputMBps() {
+        long nanos = nanosHashed.get();
+        if (nanos == 0) {
+            return 0;
+        }
+        return (bytesHashed.get() / (1024.0 * 1024.0)) / (nanos / 1000000000.0);
+    }
 
-        // Convert byte array into signum representation
-        BigInteger no = new BigInteger(1, digest);
+    public static long getBytesHashed() {
+        return bytesHashed.get();
+    }
 
-        // Convert message digest into hex value
-        String hashtext = no.toString(16);
+    private static void addStats(long bytes, long nanos) {
+        bytesHashed.addAndGet(bytes);
+        nanosHashed.addAndGet(nanos);
+    }
 
-        // Add preceding 0s to make it 32 bit
-        while (hashtext.length() < 32) {
-            hashtext = "0" + hashtext;
+    private static MessageDigest getDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+            return null;
         }
-
-        return hashtext;
     }
 
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // Lowercase hex value padded with zeros, as in the server checksums
+    private static String toHex(byte[] digest) {
+        char[] hexChars = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            int v = digest[i] & 0xFF;
+            hexChars[i * 2] = HEX_DIGITS[v >>> 4];
+            hexChars[i * 2 + 1] = HEX_DIGITS[v & 0x0F];
+        }
+        return new String(hexChars);
+    }
 }
@@ -24,7 +24,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
 import android.location.Location;
 import android.location.LocationManager;
 import android.os.BatteryManager;
@@ -46,11 +45,10 @@ import com.hmdm.launcher.json.RemoteFile;
 import com.hmdm.launcher.pro.ProUtils;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.List;
+import java.util.Map;
 
 public class DeviceInfoProvider {
     public static DeviceInfo getDeviceInfo(Context context, boolean queryPermissions, boolean queryApps) {
@@ -70,16 +68,16 @@ public class DeviceInfoProvider {
 
         SettingsHelper config = SettingsHelper.getInstance(context);
         if (queryApps) {
-            PackageManager packageManager = context.getPackageManager();
+            // Installed versions are taken from the shared package snapshot
+            PackageSnapshotCache packageSnapshot = PackageSnapshotCache.getInstance();
             if (config.getConfig() != null) {
                 List<Application> requiredApps = SettingsHelper.getInstance(context).getConfig().getApplications();
                 for (Application application : requiredApps) {
                     if (application.isRemove()) {
                         continue;
                     }
-                    try {
-                        PackageInfo packageInfo = packageManager.getPackageInfo(application.getPkg(), 0);
-
+                    PackageInfo packageInfo = packageSnapshot.getPackageInfo(context, application.getPkg());
+                    if (packageInfo != null) {
                         Application installedApp = new Application();
                         installedApp.setName(application.getName());
                         installedApp.setPkg(packageInfo.packageName);
@@ -96,12 +94,13 @@ public class DeviceInfoProvider {
                         if (!appPresents) {
                             applications.add(installedApp);
                         }
-                    } catch (PackageManager.NameNotFoundException e) {
-                        // Application not installed
                     }
                 }
 
                 List<RemoteFile> requiredFiles = SettingsHelper.getInstance(context).getConfig().getFiles();
+                // Load all entries at once instead of a query per file
+                Map<String, RemoteFile> remoteFilesDb = RemoteFileTable.selectAll(DatabaseHelper.instance(context).getReadableDatabase());
+                FileFingerprintIndex fingerprintIndex = null;
                 for (RemoteFile remoteFile : requiredFiles) {
                     if (remoteFile.getPath() == null || remoteFile.getPath().isEmpty()) {
                         // Protection against crash if the file configuration is invalid
@@ -110,22 +109,28 @@ public class DeviceInfoProvider {
                     }
                     File file = new File(Environment.getExternalStorageDirectory(), remoteFile.getPath());
                     if (file.exists()) {
-                        RemoteFile remoteFileDb = RemoteFileTable.selectByPath(DatabaseHelper.instance(context).getReadableDatabase(),
-                                remoteFile.getPath());
+                        RemoteFile remoteFileDb = remoteFilesDb.get(remoteFile.getPath());
                         if (remoteFileDb != null) {
                             files.add(remoteFileDb);
                         } else {
                             // How could that happen? The database entry should exist for each file
                             // Let's recalculate the checksum to check if the file matches
-                            try {
+                            // The checksum is cached until the file is changed
+                            if (fingerprintIndex == null) {
+                                fingerprintIndex = FileFingerprintIndex.load(context);
+                            }
+                            String checksum = fingerprintIndex.getChecksum(file);
+                            if (checksum != null) {
                                 RemoteFile copy = new RemoteFile(remoteFile);
-                                copy.setChecksum(CryptoUtils.calculateChecksum(new FileInputStream(file)));
+                                copy.setChecksum(checksum);
                                 files.add(copy);
-                            } catch (FileNotFoundException e) {
                             }
                         }
                     }
                 }
+                if (fingerprintIndex != null) {
+                    fingerprintIndex.save();
+                }
             }
         }
 
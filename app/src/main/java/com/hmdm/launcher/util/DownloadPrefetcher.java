@@ -0,0 +1,177 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.hmdm.launcher.Const;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads the next apps or files in the background while the current one is being installed.
+ * Installation stays sequential: the caller takes the downloaded files one by one in the original order.
+ * The amount of files downloaded in advance is limited to save the storage space.
+ */
+public class DownloadPrefetcher {
+    private static final long IDLE_THREAD_TIMEOUT_SEC = 30;
+
+    // Downloads to the app storage in the app, to a temporary directory in tests
+    interface Downloader {
+        File download(String url, InstallUtils.DownloadProgress progress) throws Exception;
+
+        void delete(File file);
+    }
+
+    private final Downloader downloader;
+    private final int maxPrefetched;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private ExecutorService executor;
+    // Incremented on clear() so the downloads started before know their files are not needed
+    private int generation;
+
+    private static class Entry {
+        private Future<File> future;
+        // Progress is only reported for the file which is awaited by the caller
+        private volatile InstallUtils.DownloadProgress progress;
+    }
+
+    public DownloadPrefetcher(final Context context, int maxPrefetched) {
+        this(new Downloader() {
+            @Override
+            public File download(String url, InstallUtils.DownloadProgress progress) throws Exception {
+                return InstallUtils.downloadFile(context, url, progress);
+            }
+
+            @Override
+            public void delete(File file) {
+                InstallUtils.deleteDownloadedFile(file);
+            }
+        }, maxPrefetched);
+    }
+
+    DownloadPrefetcher(Downloader downloader, int maxPrefetched) {
+        this.downloader = downloader;
+        this.maxPrefetched = maxPrefetched;
+    }
+
+    // Returns false if the file is not prefetched because the limit is reached
+    public synchronized boolean prefetch(final String url) {
+        if (entries.containsKey(url)) {
+            return true;
+        }
+        if (entries.size() >= maxPrefetched) {
+            return false;
+        }
+        if (executor == null) {
+            // Idle threads exit, so an abandoned prefetcher doesn't keep them
+            ThreadPoolExecutor threadPool = new ThreadPoolExecutor(maxPrefetched, maxPrefetched,
+                    IDLE_THREAD_TIMEOUT_SEC, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+            threadPool.allowCoreThreadTimeOut(true);
+            executor = threadPool;
+        }
+        final int entryGeneration = generation;
+        final Entry entry = new Entry();
+        entry.future = executor.submit(() -> {
+            Log.d(Const.LOG_TAG, "Prefetching " + url);
+            File file = downloader.download(url, (progress, total, current) -> {
+                InstallUtils.DownloadProgress handler = entry.progress;
+                if (handler != null) {
+                    handler.onDownloadProgress(progress, total, current);
+                }
+            });
+            if (!isCurrent(entryGeneration)) {
+                // Nobody is going to take this file
+                downloader.delete(file);
+                return null;
+            }
+            return file;
+        });
+        entries.put(url, entry);
+        return true;
+    }
+
+    /**
+     * Returns the downloaded file, waiting for the prefetch to complete if necessary.
+     * If the file hasn't been prefetched, it is downloaded in the calling thread.
+     * Must not be called from the main thread.
+     */
+    public File take(String url, InstallUtils.DownloadProgress progress) throws Exception {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.remove(url);
+        }
+        if (entry != null) {
+            entry.progress = progress;
+            try {
+                File file = entry.future.get();
+                if (file != null) {
+                    return file;
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw e;
+            }
+        }
+        return downloader.download(url, progress);
+    }
+
+    // Drops the files which are not taken, for example if the update flow has been interrupted
+    // This must be called when the flow stops, including failures
+    public synchronized void clear() {
+        generation++;
+        for (Entry entry : entries.values()) {
+            if (entry.future.isDone()) {
+                try {
+                    File file = entry.future.get();
+                    if (file != null) {
+                        downloader.delete(file);
+                    }
+                } catch (Exception e) {
+                    // Failed download, nothing to remove
+                }
+            } else {
+                // If the download is already started, it removes the file on completion
+                entry.future.cancel(false);
+            }
+        }
+        entries.clear();
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private synchronized boolean isCurrent(int entryGeneration) {
+        return generation == entryGeneration;
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import android.util.Log;
+
+import com.hmdm.launcher.Const;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * HTTP downloads of apps and files.
+ * An interrupted download is resumed by a Range request if the server supports ranges
+ * and the file on the server has a strong validator (ETag or Last-Modified).
+ * Partially downloaded files have a sidecar file with the URL and the validator.
+ */
+public class DownloadUtils {
+
+    static final int DOWNLOAD_BUFFER_SIZE = 65536;
+    static final String PARTIAL_DOWNLOAD_SUFFIX = ".partial";
+
+    private static final AtomicLong resumedBytes = new AtomicLong();
+
+    // Target of a streamed download: the PackageInstaller session in the app
+    public interface InstallSession {
+        OutputStream openWrite(long length) throws IOException;
+
+        void fsync(OutputStream out) throws IOException;
+
+        void commit() throws IOException;
+
+        void abandon();
+    }
+
+    public static File download(OkHttpClient client, String strUrl, File tempFile, String signature,
+                                InstallUtils.DownloadProgress progressHandler) throws Exception {
+        File partialInfoFile = new File(tempFile.getAbsolutePath() + PARTIAL_DOWNLOAD_SUFFIX);
+
+        // Resume the previous download if the file on the server is the same
+        String validator = getPartialDownloadValidator(strUrl, tempFile, partialInfoFile);
+        long offset = validator != null ? tempFile.length() : 0;
+        if (offset == 0) {
+            partialInfoFile.delete();
+            if (tempFile.exists()) {
+                tempFile.delete();
+            }
+        }
+
+        boolean resumable = true;
+        try {
+            if (offset == 0) {
+                try {
+                    tempFile.createNewFile();
+                } catch (Exception e) {
+                    e.printStackTrace();
+
+                    tempFile = File.createTempFile(tempFile.getName(), "temp");
+                    resumable = false;
+                }
+            }
+
+            Request.Builder requestBuilder = new Request.Builder().
+                    url(strUrl).
+                    header("Accept-Encoding", "identity");
+            if (signature != null) {
+                requestBuilder.header("X-Request-Signature", signature);
+            }
+            if (offset > 0) {
+                // If the file has been changed, the server sends the whole file
+                requestBuilder.header("Range", "bytes=" + offset + "-");
+                requestBuilder.header("If-Range", validator);
+            }
+
+            Response response = client.newCall(requestBuilder.build()).execute();
+            try {
+                boolean append = false;
+                if (offset > 0 && response.code() == 206) {
+                    append = true;
+                    Log.d(Const.LOG_TAG, "Resuming download of " + strUrl + " from " + offset + " bytes");
+                } else if (offset > 0 && response.code() == 416) {
+                    // Partial file is broken, download it again
+                    Log.d(Const.LOG_TAG, "Failed to resume download of " + strUrl + ", restarting");
+                    tempFile.delete();
+                    partialInfoFile.delete();
+                    return download(client, strUrl, tempFile, signature, progressHandler);
+                } else if (response.code() != 200) {
+                    throw new Exception("Bad server response for " + strUrl + ": " + response.code());
+                } else if (offset > 0) {
+                    Log.d(Const.LOG_TAG, "File " + strUrl + " changed on server, restarting download");
+                    offset = 0;
+                }
+
+                if (resumable && !savePartialDownloadInfo(partialInfoFile, strUrl, response)) {
+                    // No validator or no range support, so the download can't be resumed
+                    resumable = false;
+                }
+
+                long contentLength = response.body().contentLength();
+                long lengthOfFile = contentLength >= 0 ? offset + contentLength : -1;
+
+                progressHandler.onDownloadProgress(lengthOfFile > 0 ? (int) ((offset * 100.0f) / lengthOfFile) : 0,
+                        lengthOfFile, offset);
+
+                InputStream is = response.body().byteStream();
+
+                byte[] buffer = new byte[DOWNLOAD_BUFFER_SIZE];
+                int length;
+                long total = offset;
+
+                FileOutputStream fos = new FileOutputStream(tempFile, append);
+                try {
+                    while ((length = is.read(buffer)) > 0) {
+                        total += length;
+                        progressHandler.onDownloadProgress(
+                                lengthOfFile > 0 ? (int) ((total * 100.0f) / lengthOfFile) : 0,
+                                lengthOfFile,
+                                total);
+                        fos.write(buffer, 0, length);
+                    }
+                    fos.flush();
+                } finally {
+                    fos.close();
+                }
+                if (offset > 0) {
+                    resumedBytes.addAndGet(offset);
+                }
+            } finally {
+                response.close();
+            }
+            partialInfoFile.delete();
+        } catch (Exception e) {
+            if (!resumable || !partialInfoFile.exists() || tempFile.length() == 0) {
+                tempFile.delete();
+                partialInfoFile.delete();
+            } else {
+                Log.d(Const.LOG_TAG, "Download of " + strUrl + " interrupted at " + tempFile.length() + " bytes");
+            }
+            throw e;
+        }
+
+        return tempFile;
+    }
+
+    /**
+     * Copies the response body into the install session and commits it if the download is complete.
+     * The size must match Content-Length, and the MD5 must match Content-MD5 if the server sends it.
+     * Otherwise, or if the connection fails, the session is abandoned and an exception is thrown.
+     * The response must have a known length.
+     */
+    public static void streamToSession(Response response, InstallSession session, String strUrl,
+                                       InstallUtils.DownloadProgress progressHandler) throws IOException {
+        long lengthOfFile = response.body().contentLength();
+        boolean committed = false;
+        try {
+            if (lengthOfFile < 0) {
+                throw new IOException("Unknown size of " + strUrl);
+            }
+            MessageDigest md;
+            try {
+                md = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+            progressHandler.onDownloadProgress(0, lengthOfFile, 0);
+
+            InputStream is = response.body().byteStream();
+            OutputStream out = session.openWrite(lengthOfFile);
+            try {
+                byte[] buffer = new byte[DOWNLOAD_BUFFER_SIZE];
+                int length;
+                long total = 0;
+                while ((length = is.read(buffer)) > 0) {
+                    total += length;
+                    if (total > lengthOfFile) {
+                        throw new IOException("Download of " + strUrl + " exceeds " + lengthOfFile + " bytes");
+                    }
+                    md.update(buffer, 0, length);
+                    out.write(buffer, 0, length);
+                    progressHandler.onDownloadProgress(
+                            lengthOfFile > 0 ? (int) ((total * 100.0f) / lengthOfFile) : 0,
+                            lengthOfFile,
+                            total);
+                }
+                if (total != lengthOfFile) {
+                    throw new IOException("Incomplete download of " + strUrl + ": " + total + " of " + lengthOfFile + " bytes");
+                }
+                session.fsync(out);
+            } finally {
+                out.close();
+            }
+
+            String expectedMd5 = response.header("Content-MD5");
+            if (expectedMd5 != null) {
+                String md5 = Base64.getEncoder().encodeToString(md.digest());
+                if (!md5.equals(expectedMd5.trim())) {
+                    throw new IOException("Checksum mismatch for " + strUrl);
+                }
+            }
+
+            session.commit();
+            committed = true;
+        } finally {
+            if (!committed) {
+                Log.w(Const.LOG_TAG, "Abandoning the installation session of " + strUrl);
+                session.abandon();
+            }
+        }
+    }
+
+    // Amount of bytes which were not downloaded again thanks to resumed downloads
+    public static long getResumedBytes() {
+        return resumedBytes.get();
+    }
+
+    /**
+     * Removes the partial downloads of the URLs which are not in the configuration any more,
+     * otherwise large APKs would stay in the storage forever.
+     * Files being downloaded right now (their absolute paths are in activePaths) are kept.
+     * Returns the amount of removed partial downloads.
+     */
+    public static int removeOrphanedPartialDownloads(File dir, Collection<String> urls, Collection<String> activePaths) {
+        File[] children = dir != null ? dir.listFiles() : null;
+        if (children == null) {
+            return 0;
+        }
+        int removed = 0;
+        for (File partialInfoFile : children) {
+            String name = partialInfoFile.getName();
+            if (!name.endsWith(PARTIAL_DOWNLOAD_SUFFIX)) {
+                continue;
+            }
+            File tempFile = new File(dir, name.substring(0, name.length() - PARTIAL_DOWNLOAD_SUFFIX.length()));
+            if (activePaths.contains(tempFile.getAbsolutePath())) {
+                continue;
+            }
+            String url = readPartialDownloadInfo(partialInfoFile).getProperty("url");
+            if (url != null && urls.contains(url)) {
+                continue;
+            }
+            Log.d(Const.LOG_TAG, "Removing partial download of " + url + ": " + tempFile.length() + " bytes");
+            tempFile.delete();
+            partialInfoFile.delete();
+            removed++;
+        }
+        return removed;
+    }
+
+    // Returns the validator of the partially downloaded file, or null if the download can't be resumed
+    private static String getPartialDownloadValidator(String strUrl, File tempFile, File partialInfoFile) {
+        if (!tempFile.exists() || tempFile.length() == 0 || !partialInfoFile.exists()) {
+            return null;
+        }
+        Properties info = readPartialDownloadInfo(partialInfoFile);
+        if (!strUrl.equals(info.getProperty("url"))) {
+            return null;
+        }
+        return info.getProperty("validator");
+    }
+
+    // Returns empty properties if the file can't be read
+    private static Properties readPartialDownloadInfo(File partialInfoFile) {
+        Properties info = new Properties();
+        try (FileInputStream fis = new FileInputStream(partialInfoFile)) {
+            info.load(fis);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return info;
+    }
+
+    // Only strong validators can be used in the If-Range header, and the server must support ranges:
+    // either it says so in Accept-Ranges, or it has just answered a range request
+    private static boolean savePartialDownloadInfo(File partialInfoFile, String strUrl, Response response) {
+        String validator = response.header("ETag");
+        if (validator == null || validator.startsWith("W/")) {
+            validator = response.header("Last-Modified");
+        }
+        boolean rangesSupported = response.code() == 206 || "bytes".equals(response.header("Accept-Ranges"));
+        if (validator == null || !rangesSupported) {
+            partialInfoFile.delete();
+            return false;
+        }
+        Properties info = new Properties();
+        info.setProperty("url", strUrl);
+        info.setProperty("validator", validator);
+        try (FileOutputStream fos = new FileOutputStream(partialInfoFile)) {
+            info.store(fos, null);
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            partialInfoFile.delete();
+            return false;
+        }
+    }
+}
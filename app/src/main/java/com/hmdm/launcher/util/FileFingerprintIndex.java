@@ -0,0 +1,102 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmdm.launcher.util;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.system.Os;
+import android.system.StructStat;
+
+import com.hmdm.launcher.db.DatabaseHelper;
+import com.hmdm.launcher.db.FileFingerprintTable;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cache of file checksums.
+ * A file is hashed again only if its size, modification time or inode are changed.
+ * The index is loaded by a single query; call save() after checking all files to store new checksums.
+ * The index is not thread-safe, use one instance per pass.
+ */
+public class FileFingerprintIndex {
+    private final Context context;
+    private final Map<String, FileFingerprintTable.Fingerprint> fingerprints;
+    private final Map<String, FileFingerprintTable.Fingerprint> changed = new HashMap<>();
+    private int hits;
+    private int misses;
+
+    public static FileFingerprintIndex load(Context context) {
+        SQLiteDatabase db = DatabaseHelper.instance(context).getReadableDatabase();
+        return new FileFingerprintIndex(context, FileFingerprintTable.selectAll(db));
+    }
+
+    private FileFingerprintIndex(Context context, Map<String, FileFingerprintTable.Fingerprint> fingerprints) {
+        this.context = context;
+        this.fingerprints = fingerprints;
+    }
+
+    // Returns null if the file can't be read
+    public String getChecksum(File file) {
+        String path = file.getAbsolutePath();
+        long size;
+        long inode;
+        try {
+            StructStat stat = Os.stat(path);
+            size = stat.st_size;
+            inode = stat.st_ino;
+        } catch (Exception e) {
+            return null;
+        }
+        // Millisecond precision, st_mtime only has seconds
+        long mtime = file.lastModified();
+
+        FileFingerprintTable.Fingerprint fingerprint = fingerprints.get(path);
+        if (fingerprint != null && fingerprint.matches(size, mtime, inode)) {
+            hits++;
+            return fingerprint.getChecksum();
+        }
+
+        misses++;
+        String checksum = CryptoUtils.calculateChecksum(file);
+        if (checksum != null) {
+            fingerprint = new FileFingerprintTable.Fingerprint(path, size, mtime, inode, checksum);
+            fingerprints.put(path, fingerprint);
+            changed.put(path, fingerprint);
+        }
+        return checksum;
+    }
+
+    public void save() {
+        if (changed.size() > 0) {
+            SQLiteDatabase db = DatabaseHelper.instance(context).getWritableDatabase();
+            FileFingerprintTable.insert(db, changed.values());
+            changed.clear();
+        }
+    }
+
+    public int getHits() {
+        return hits;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+}
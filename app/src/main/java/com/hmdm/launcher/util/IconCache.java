@@ -0,0 +1,328 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmdm.launcher.util;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.hmdm.launcher.Const;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Cache of application icons scaled to the size displayed on the launcher grid.
+ * Icons are kept in a memory LRU cache and in a disk cache keyed by package version,
+ * so the home screen can be drawn after reboot without loading icons from the package manager.
+ * Icons loaded by URL are cached by Picasso and are not handled here.
+ */
+public class IconCache {
+    private static final String DIR_NAME = "app_icons";
+    private static final String EXTENSION = ".png";
+    // Package names can't contain this character, so it separates parts of the key
+    private static final String SEPARATOR = "#";
+
+    public interface Callback {
+        // Called in the main thread; icon is null if it can't be loaded
+        void onIconLoaded(Bitmap icon);
+    }
+
+    private static IconCache instance;
+
+    private final IconMemoryCache<Bitmap> memoryCache;
+    // Single thread keeps the order of tasks: icons requested after invalidation aren't read from removed files
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // Icons being loaded, to avoid loading the same icon twice
+    private final Map<String, List<Callback>> pending = new HashMap<>();
+
+    private long memoryHits;
+    private long diskHits;
+    private long misses;
+
+    public static synchronized IconCache getInstance() {
+        if (instance == null) {
+            instance = new IconCache();
+        }
+        return instance;
+    }
+
+    private IconCache() {
+        // Use 1/16th of the available memory, size is measured in kilobytes
+        int cacheSize = (int) (Runtime.getRuntime().maxMemory() / 1024 / 16);
+        memoryCache = new IconMemoryCache<>(cacheSize, bitmap -> bitmap.getByteCount() / 1024);
+    }
+
+    public static String getKey(AppInfo appInfo, int size) {
+        return appInfo.packageName + SEPARATOR + appInfo.iconIndex + SEPARATOR + size;
+    }
+
+    // Doesn't access the disk or the package manager, so it's safe to call from the main thread
+    public Bitmap getCachedIcon(AppInfo appInfo, int size) {
+        Bitmap bitmap = memoryCache.get(getKey(appInfo, size));
+        if (bitmap != null) {
+            synchronized (this) {
+                memoryHits++;
+            }
+        }
+        return bitmap;
+    }
+
+    public void loadIcon(Context context, AppInfo appInfo, int size, Callback callback) {
+        final String key = getKey(appInfo, size);
+        Bitmap bitmap = memoryCache.get(key);
+        if (bitmap != null) {
+            synchronized (this) {
+                memoryHits++;
+            }
+            if (callback != null) {
+                callback.onIconLoaded(bitmap);
+            }
+            return;
+        }
+        synchronized (pending) {
+            List<Callback> callbacks = pending.get(key);
+            if (callbacks != null) {
+                if (callback != null) {
+                    callbacks.add(callback);
+                }
+                return;
+            }
+            callbacks = new LinkedList<>();
+            if (callback != null) {
+                callbacks.add(callback);
+            }
+            pending.put(key, callbacks);
+        }
+        final Context appContext = context.getApplicationContext();
+        final AppInfo info = new AppInfo(appInfo);
+        executor.execute(() -> {
+            Bitmap result = null;
+            try {
+                result = loadIconSync(appContext, info, size, key);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            final Bitmap icon = result;
+            final List<Callback> callbacks;
+            synchronized (pending) {
+                callbacks = pending.remove(key);
+            }
+            if (callbacks != null && callbacks.size() > 0) {
+                handler.post(() -> {
+                    for (Callback c : callbacks) {
+                        c.onIconLoaded(icon);
+                    }
+                });
+            }
+        });
+    }
+
+    // Loads icons of the launcher grid in the background, so they are ready when the grid is drawn
+    public void warmUp(Context context, List<AppInfo> appInfos, int size) {
+        if (appInfos == null) {
+            return;
+        }
+        for (AppInfo appInfo : appInfos) {
+            if (appInfo.type == AppInfo.TYPE_APP && appInfo.iconUrl == null &&
+                    memoryCache.get(getKey(appInfo, size)) == null) {
+                loadIcon(context, appInfo, size, null);
+            }
+        }
+    }
+
+    /**
+     * Name of the file in the disk cache, or null if the package isn't installed.
+     * Queries the package manager, so it must not be called from the main thread.
+     */
+    public String getDiskFileName(Context context, AppInfo appInfo, int size) {
+        PackageInfo packageInfo = PackageSnapshotCache.getInstance().getPackageInfo(context, appInfo.packageName);
+        return packageInfo != null ? getFileName(appInfo, packageInfo.versionCode, size) : null;
+    }
+
+    /**
+     * Loads the icon from the disk file known in advance, without querying the package manager.
+     * Used on cold start, when the package manager is slow to respond.
+     */
+    public void preload(Context context, AppInfo appInfo, int size, String fileName) {
+        final String key = getKey(appInfo, size);
+        final File file = new File(getCacheDir(context), fileName);
+        executor.execute(() -> {
+            if (memoryCache.get(key) != null || !file.exists()) {
+                return;
+            }
+            Bitmap bitmap = BitmapFactory.decodeFile(file.getAbsolutePath());
+            if (bitmap != null) {
+                synchronized (this) {
+                    diskHits++;
+                }
+                memoryCache.put(key, bitmap);
+            }
+        });
+    }
+
+    /**
+     * Drops the icon preloaded from the disk file if the file doesn't belong to the installed version:
+     * the memory key has no version, so the icon of the app updated since the file was saved would be used.
+     * Returns true if the icon has been dropped.
+     * Queries the package manager, so it must not be called from the main thread.
+     */
+    public boolean evictIfStale(Context context, AppInfo appInfo, int size, String fileName) {
+        if (fileName.equals(getDiskFileName(context, appInfo, size))) {
+            return false;
+        }
+        final String key = getKey(appInfo, size);
+        memoryCache.remove(key);
+        // preload() may be still waiting in the executor
+        executor.execute(() -> memoryCache.remove(key));
+        return true;
+    }
+
+    // Called when the package is changed: its icon may be changed as well
+    public void invalidate(Context context, final String packageName) {
+        final String prefix = packageName + SEPARATOR;
+        // Removed at once so the grid doesn't show the old icon, and once more in the executor:
+        // a load started before this call may put the old icon back when it completes
+        memoryCache.removeByPrefix(prefix);
+        final File dir = getCacheDir(context);
+        executor.execute(() -> {
+            memoryCache.removeByPrefix(prefix);
+            File[] files = dir.listFiles();
+            if (files == null) {
+                return;
+            }
+            for (File file : files) {
+                if (file.getName().startsWith(prefix)) {
+                    file.delete();
+                }
+            }
+        });
+    }
+
+    public synchronized String getStats() {
+        long total = memoryHits + diskHits + misses;
+        return "Icon cache: memory hits " + memoryHits + ", disk hits " + diskHits + ", misses " + misses +
+                ", hit rate " + String.format(Locale.US, "%.2f", total > 0 ? (float) (memoryHits + diskHits) / total : 0f);
+    }
+
+    private Bitmap loadIconSync(Context context, AppInfo appInfo, int size, String key) throws Exception {
+        // May be already loaded by preload(); icons of outdated versions are removed by evictIfStale()
+        Bitmap cached = memoryCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        PackageInfo packageInfo = PackageSnapshotCache.getInstance().getPackageInfo(context, appInfo.packageName);
+        if (packageInfo == null) {
+            return null;
+        }
+
+        // The version is a part of the file name, so icons of updated apps aren't taken from the disk
+        // even if the package has been updated while the launcher wasn't running
+        File file = new File(getCacheDir(context), getFileName(appInfo, packageInfo.versionCode, size));
+        if (file.exists()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(file.getAbsolutePath());
+            if (bitmap != null) {
+                synchronized (this) {
+                    diskHits++;
+                }
+                memoryCache.put(key, bitmap);
+                return bitmap;
+            }
+            file.delete();
+        }
+
+        synchronized (this) {
+            misses++;
+        }
+        Drawable drawable = loadDrawable(context, appInfo);
+        if (drawable == null) {
+            return null;
+        }
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        drawable.setBounds(0, 0, size, size);
+        drawable.draw(canvas);
+        memoryCache.put(key, bitmap);
+        saveToDisk(bitmap, file);
+        return bitmap;
+    }
+
+    private Drawable loadDrawable(Context context, AppInfo appInfo) {
+        PackageManager pm = context.getPackageManager();
+        try {
+            if (!appInfo.multiIcon) {
+                return pm.getApplicationIcon(appInfo.packageName);
+            }
+            Intent intent = new Intent(Intent.ACTION_MAIN);
+            intent.addCategory(Intent.CATEGORY_LAUNCHER);
+            intent.setPackage(appInfo.packageName);
+            List<ResolveInfo> shortcuts = pm.queryIntentActivities(intent, 0);
+            if (appInfo.iconIndex < shortcuts.size()) {
+                return shortcuts.get(appInfo.iconIndex).loadIcon(pm);
+            }
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.w(Const.LOG_TAG, "Failed to load icon: package " + appInfo.packageName + " not found");
+        }
+        return null;
+    }
+
+    private void saveToDisk(Bitmap bitmap, File file) {
+        File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmpFile)) {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, fos);
+        } catch (Exception e) {
+            e.printStackTrace();
+            tmpFile.delete();
+            return;
+        }
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+        }
+    }
+
+    private static String getFileName(AppInfo appInfo, int versionCode, int size) {
+        return appInfo.packageName + SEPARATOR + versionCode + SEPARATOR + appInfo.iconIndex + SEPARATOR + size + EXTENSION;
+    }
+
+    private static File getCacheDir(Context context) {
+        File dir = new File(context.getCacheDir(), DIR_NAME);
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        return dir;
+    }
+}
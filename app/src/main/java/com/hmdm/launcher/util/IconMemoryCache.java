@@ -0,0 +1,95 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memory part of the icon cache: an LRU cache limited by the total size of entries,
+ * which can also drop all entries with a key prefix (all icons of a package).
+ * Works like android.util.LruCache, which has no way to remove entries by a condition.
+ */
+class IconMemoryCache<T> {
+    interface Sizer<T> {
+        // Size of the entry in the units of the cache size
+        int sizeOf(T value);
+    }
+
+    // Access order: the least recently used entry is the first one
+    private final LinkedHashMap<String, T> map = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxSize;
+    private final Sizer<T> sizer;
+    private int size;
+
+    IconMemoryCache(int maxSize, Sizer<T> sizer) {
+        this.maxSize = maxSize;
+        this.sizer = sizer;
+    }
+
+    synchronized T get(String key) {
+        return map.get(key);
+    }
+
+    synchronized void put(String key, T value) {
+        T previous = map.put(key, value);
+        size += sizer.sizeOf(value);
+        if (previous != null) {
+            size -= sizer.sizeOf(previous);
+        }
+        // An entry larger than the whole cache is not kept either
+        Iterator<Map.Entry<String, T>> iterator = map.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            size -= sizer.sizeOf(iterator.next().getValue());
+            iterator.remove();
+        }
+    }
+
+    synchronized void remove(String key) {
+        T value = map.remove(key);
+        if (value != null) {
+            size -= sizer.sizeOf(value);
+        }
+    }
+
+    // Returns the amount of removed entries
+    synchronized int removeByPrefix(String prefix) {
+        int removed = 0;
+        Iterator<Map.Entry<String, T>> iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, T> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                size -= sizer.sizeOf(entry.getValue());
+                iterator.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized int count() {
+        return map.size();
+    }
+}
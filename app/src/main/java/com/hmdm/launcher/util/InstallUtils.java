@@ -24,9 +24,7 @@ import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentSender;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageInstaller;
-import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
@@ -41,20 +39,21 @@ import com.hmdm.launcher.db.RemoteFileTable;
 import com.hmdm.launcher.helper.CryptoHelper;
 import com.hmdm.launcher.json.Application;
 import com.hmdm.launcher.json.RemoteFile;
+import com.hmdm.launcher.json.ServerConfig;
+import com.hmdm.launcher.server.HttpClientKeeper;
 
-import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.InputStream;
+import java.io.IOException;
 import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
@@ -63,120 +62,45 @@ import javax.net.ssl.SSLSession;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
+import okhttp3.Request;
+import okhttp3.Response;
+
 public class InstallUtils {
 
+    // Paths of the files being downloaded: downloads of the same URL write the same file, so they wait for each other
+    private static final Set<String> activeDownloads = new HashSet<>();
+
+    // If there's less free space, APKs are installed without a temporary file
+    private static final long LOW_STORAGE_THRESHOLD = 256L * 1024 * 1024;
+
     public static void generateApplicationsForInstallList(Context context, List<Application> applications,
                                                           List<Application> applicationsForInstall,
                                                           Map<String, File> pendingInstallations) {
-        PackageManager packageManager = context.getPackageManager();
-
-        // First handle apps to be removed, then apps to be installed
-        // We process only applications of type "app" (default) and skip web links and others
-        for (Application a : applications) {
-            if ((a.getType() == null || a.getType().equals(Application.TYPE_APP)) && a.isRemove() &&
-                !isInList(applicationsForInstall, a)) {
-                Log.d(Const.LOG_TAG, "checkAndUpdateApplications(): marking app " + a.getPkg() + " to remove");
-                applicationsForInstall.add(a);
-            }
-        }
-        for (Application a : applications) {
-            if ((a.getType() == null || a.getType().equals(Application.TYPE_APP)) && !a.isRemove() &&
-                    !pendingInstallations.containsKey(a.getPkg()) && !isInList(applicationsForInstall, a)) {
-                Log.d(Const.LOG_TAG, "checkAndUpdateApplications(): marking app " + a.getPkg() + " to install");
-                applicationsForInstall.add(a);
-            }
-        }
-        Iterator< Application > it = applicationsForInstall.iterator();
-
-        while ( it.hasNext() ) {
-            Application application = it.next();
-            if ( (application.getUrl() == null || application.getUrl().trim().equals("")) && !application.isRemove() ) {
-                // An app without URL is a system app which doesn't require installation
-                Log.d(Const.LOG_TAG, "checkAndUpdateApplications(): app " + application.getPkg() + " is system, skipping");
-                it.remove();
-                continue;
-            }
-
-            try {
-                PackageInfo packageInfo = packageManager.getPackageInfo( application.getPkg(), 0 );
-
-                if (application.isRemove() && !application.getVersion().equals("0") &&
-                        !areVersionsEqual(packageInfo.versionName, packageInfo.versionCode, application.getVersion(), application.getCode())) {
-                    // If a removal is required, but the app version doesn't match, do not remove
-                    Log.d(Const.LOG_TAG, "checkAndUpdateApplications(): app " + application.getPkg() + " version not match: "
-                            + application.getVersion() + " " + packageInfo.versionName + ", skipping");
-                    it.remove();
-                    continue;
-                }
-
-                if (!application.isRemove() && !upgradingHmdmFreeToFull(context, application, packageInfo) &&
-                        (application.isSkipVersion() || application.getVersion().equals("0") ||
-                                areVersionsEqual(packageInfo.versionName, packageInfo.versionCode, application.getVersion(), application.getCode()))) {
-                    // If installation is required, but the app of the same version already installed, do not install
-                    Log.d(Const.LOG_TAG, "checkAndUpdateApplications(): app " + application.getPkg() + " versions match: "
-                            + application.getVersion() + " " + packageInfo.versionName + ", skipping");
-                    it.remove();
-                    continue;
-                }
-
-                if (!application.isRemove() &&
-                        compareVersions(packageInfo.versionName, packageInfo.versionCode, application.getVersion(), application.getCode()) > 0) {
-                    // Downgrade requested!
-                    // It will only succeed if a higher version is marked as "Remove"
-                    // Let's check that condition to avoid failed attempts to install and downloads of the lower version each time
-                    RemoteLogger.log(context, Const.LOG_DEBUG, "Downgrade requested for " + application.getPkg() +
-                            ": installed version " + packageInfo.versionName + ", required version " + application.getVersion());
-                    boolean canDowngrade = false;
-                    for (Application a : applications) {
-                        if (a.getPkg().equalsIgnoreCase(application.getPkg()) && a.isRemove() &&
-                                areVersionsEqual(packageInfo.versionName, packageInfo.versionCode, a.getVersion(), a.getCode())) {
-                            // Current version will be removed
-                            canDowngrade = true;
-                            break;
-                        }
-                    }
-                    if (canDowngrade) {
-                        RemoteLogger.log(context, Const.LOG_DEBUG, "Current version of " + application.getPkg() + " will be removed, downgrade allowed");
-                    } else {
-                        RemoteLogger.log(context, Const.LOG_DEBUG, "Ignoring downgrade request for " + application.getPkg() + ": remove current version first!");
-                        it.remove();
-                        continue;
-                    }
-                }
-            } catch ( PackageManager.NameNotFoundException e ) {
-                // The app isn't installed, let's keep it in the "To be installed" list
-                if (application.isRemove()) {
-                    // The app requires removal but already removed, remove from the list so do nothing with the app
-                    Log.d(Const.LOG_TAG, "checkAndUpdateApplications(): app " + application.getPkg() + " not found, nothing to remove");
-                    it.remove();
-                    continue;
-                }
-            }
-        }
+        AppInstallPlanner.Plan plan = new AppInstallPlanner(context).plan(applications, applicationsForInstall,
+                pendingInstallations.keySet());
+        applicationsForInstall.clear();
+        applicationsForInstall.addAll(plan.getApplications());
     }
 
-    private static boolean isInList(List<Application> applicationsForInstall, Application a) {
-        for (Application b : applicationsForInstall) {
-            if (a.getPkg().equalsIgnoreCase(b.getPkg()) &&
-                    a.getVersion().equalsIgnoreCase(b.getVersion()) &&
-                    a.isRemove() == b.isRemove()) {
-                return true;
-            }
-        }
-        return false;
+    // Returns true if the installed apps match the configuration, so there's nothing to install or remove
+    public static boolean areApplicationsInstalled(Context context, List<Application> applications,
+                                                   Map<String, File> pendingInstallations) {
+        AppInstallPlanner.Plan plan = new AppInstallPlanner(context).createPlan(applications,
+                Collections.<Application>emptyList(), pendingInstallations.keySet());
+        return plan.getApplications().isEmpty();
     }
 
     // Free and full versions of Headwind MDM launcher have the same version name but different version codes
     // This is a dirty hack determining the full version by the URL
     // It's however better to use different versions, for example 5.16.1 for free and 5.16.2 for full
-    private static boolean upgradingHmdmFreeToFull(Context context, Application application, PackageInfo packageInfo) {
-        if (!application.getPkg().equals(context.getPackageName())) {
+    static boolean upgradingHmdmFreeToFull(String selfPackage, Application application) {
+        if (!application.getPkg().equals(selfPackage)) {
             return false;
         }
         return Utils.getLauncherVariant().equals("opensource") && application.getUrl().endsWith("master.apk");
     }
 
-    private static boolean areVersionsEqual(String v1, int c1, String v2, Integer c2) {
+    static boolean areVersionsEqual(String v1, int c1, String v2, Integer c2) {
         if (c2 != null && c2 != 0) {
             // If version code is present, let's compare version codes instead of names
             return c1 == c2;
@@ -262,6 +186,8 @@ public class InstallUtils {
 
     public static void generateFilesForInstallList(Context context, List<RemoteFile> files,
                                                           List<RemoteFile> filesForInstall) {
+        // Load all entries at once instead of a query per file
+        Map<String, RemoteFile> remoteFilesDb = RemoteFileTable.selectAll(DatabaseHelper.instance(context).getReadableDatabase());
         for (RemoteFile remoteFile : files) {
             if (remoteFile.getPath() == null) {
                 // Ignoring files with no path
@@ -276,8 +202,7 @@ public class InstallUtils {
                 if (!file.exists()) {
                     filesForInstall.add(remoteFile);
                 } else {
-                    RemoteFile remoteFileDb = RemoteFileTable.selectByPath(DatabaseHelper.instance(context).getReadableDatabase(),
-                            remoteFile.getPath());
+                    RemoteFile remoteFileDb = remoteFilesDb.get(remoteFile.getPath());
                     if (remoteFileDb == null ||
                             // Entry not found in the database
                             // This means, a file was created by a third party
@@ -296,6 +221,25 @@ public class InstallUtils {
     }
 
 
+    // Returns true if configured files exist and removed files don't exist. Unlike generateFilesForInstallList(),
+    // this doesn't check the update time of the files, so it's only used if the file list is not changed
+    public static boolean areFilesInPlace(List<RemoteFile> files) {
+        for (RemoteFile remoteFile : files) {
+            if (remoteFile.getPath() == null) {
+                continue;
+            }
+            File file = getFileByPath(remoteFile.getPath());
+            if (remoteFile.isRemove()) {
+                if (file.exists()) {
+                    return false;
+                }
+            } else if (remoteFile.getUrl() != null && !file.exists()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
         public interface DownloadProgress {
         void onDownloadProgress(final int progress, final long total, final long current);
     }
@@ -307,72 +251,63 @@ public class InstallUtils {
 
     public static File downloadFile(Context context, String strUrl, DownloadProgress progressHandler ) throws Exception {
         File tempFile = new File(context.getExternalFilesDir(null), getFileName(strUrl));
-        if (tempFile.exists()) {
-            tempFile.delete();
+        String path = tempFile.getAbsolutePath();
+        synchronized (activeDownloads) {
+            while (activeDownloads.contains(path)) {
+                activeDownloads.wait();
+            }
+            activeDownloads.add(path);
         }
-
         try {
-            try {
-                tempFile.createNewFile();
-            } catch (Exception e) {
-                e.printStackTrace();
-
-                tempFile = File.createTempFile(getFileName(strUrl), "temp");
+            // Use the shared client to reuse connections to the server
+            return DownloadUtils.download(HttpClientKeeper.getClient(), strUrl, tempFile,
+                    getRequestSignature(strUrl), progressHandler);
+        } finally {
+            synchronized (activeDownloads) {
+                activeDownloads.remove(path);
+                activeDownloads.notifyAll();
             }
+        }
+    }
 
-            URL url = new URL(strUrl);
-
-            HttpURLConnection connection;
-            if (BuildConfig.TRUST_ANY_CERTIFICATE && url.getProtocol().toLowerCase().equals("https")) {
-                connection = (HttpsURLConnection) url.openConnection();
-                ((HttpsURLConnection) connection).setHostnameVerifier(DO_NOT_VERIFY);
-            } else {
-                connection = (HttpURLConnection) url.openConnection();
-            }
-            connection.setRequestMethod("GET");
-            connection.setRequestProperty("Accept-Encoding", "identity");
-            connection.setConnectTimeout((int) Const.CONNECTION_TIMEOUT);
-            connection.setReadTimeout((int) Const.CONNECTION_TIMEOUT);
-            String signature = getRequestSignature(strUrl);
-            if (signature != null) {
-                connection.setRequestProperty("X-Request-Signature", signature);
+    // Deletes a downloaded file which is not needed any more, unless the same URL is being downloaded again
+    public static void deleteDownloadedFile(File file) {
+        synchronized (activeDownloads) {
+            if (!activeDownloads.contains(file.getAbsolutePath())) {
+                file.delete();
             }
-            connection.connect();
+        }
+    }
 
-            if (connection.getResponseCode() != 200) {
-                throw new Exception("Bad server response for " + strUrl + ": " + connection.getResponseCode());
+    // Removes interrupted downloads of the apps and files which are not in the configuration any more
+    public static void removeOrphanedPartialDownloads(Context context, ServerConfig config) {
+        Set<String> urls = new HashSet<>();
+        if (config.getApplications() != null) {
+            for (Application application : config.getApplications()) {
+                if (application.getUrl() != null) {
+                    urls.add(application.getUrl());
+                }
             }
-
-            int lengthOfFile = connection.getContentLength();
-
-            progressHandler.onDownloadProgress(0, lengthOfFile, 0);
-
-            InputStream is = connection.getInputStream();
-            DataInputStream dis = new DataInputStream(is);
-
-            byte[] buffer = new byte[1024];
-            int length;
-            long total = 0;
-
-            FileOutputStream fos = new FileOutputStream(tempFile);
-            while ((length = dis.read(buffer)) > 0) {
-                total += length;
-                progressHandler.onDownloadProgress(
-                        (int) ((total * 100.0f) / lengthOfFile),
-                        lengthOfFile,
-                        total);
-                fos.write(buffer, 0, length);
+        }
+        if (config.getFiles() != null) {
+            for (RemoteFile remoteFile : config.getFiles()) {
+                if (remoteFile.getUrl() != null) {
+                    urls.add(remoteFile.getUrl());
+                }
             }
-            fos.flush();
-            fos.close();
-
-            dis.close();
-        } catch (Exception e) {
-            tempFile.delete();
-            throw e;
         }
+        int removed;
+        synchronized (activeDownloads) {
+            removed = DownloadUtils.removeOrphanedPartialDownloads(context.getExternalFilesDir(null), urls, activeDownloads);
+        }
+        if (removed > 0) {
+            RemoteLogger.log(context, Const.LOG_DEBUG, "Removed " + removed + " partial downloads not used by the configuration");
+        }
+    }
 
-        return tempFile;
+    // Amount of bytes which were not downloaded again thanks to resumed downloads
+    public static long getResumedBytes() {
+        return DownloadUtils.getResumedBytes();
     }
 
     public static String getRequestSignature(String strUrl) {
@@ -391,9 +326,12 @@ public class InstallUtils {
         return null;
     }
 
+    // Different URLs may have the same file name, so the name is prefixed by the URL hash
+    // The original name is kept because the installer checks the file extension
     private static String getFileName(String strUrl) {
         int slashIndex = strUrl.lastIndexOf("/");
-        return slashIndex >= 0 ? strUrl.substring(slashIndex) : strUrl;
+        String name = slashIndex >= 0 ? strUrl.substring(slashIndex + 1) : strUrl;
+        return CryptoHelper.getSHA1String(strUrl).substring(0, 12).toLowerCase(Locale.US) + "-" + name;
     }
 
     public interface InstallErrorHandler {
@@ -406,8 +344,7 @@ public class InstallUtils {
         }
 
         if (file.getName().endsWith(".xapk")) {
-            List<File> files = XapkUtils.extract(context, file);
-            XapkUtils.install(context, files, packageName, errorHandler);
+            XapkUtils.install(context, file, packageName, errorHandler);
             return;
         }
 
@@ -441,6 +378,85 @@ public class InstallUtils {
         }
     }
 
+    // Streaming install is used if enabled in build.gradle, or if there's not enough space for a temporary file
+    public static boolean isStreamingInstallPreferred(Context context) {
+        if (BuildConfig.STREAMING_INSTALL) {
+            return true;
+        }
+        File filesDir = context.getExternalFilesDir(null);
+        return filesDir == null || filesDir.getUsableSpace() < LOW_STORAGE_THRESHOLD;
+    }
+
+    /**
+     * Downloads the APK directly into the PackageInstaller session, without a temporary file.
+     * The session is abandoned if the download is incomplete, its size doesn't match Content-Length,
+     * or its MD5 doesn't match Content-MD5 (if sent by the server).
+     * Returns false without creating a session if the server doesn't send the file size:
+     * such a download can't be verified, so the caller should download the file instead.
+     * The installation result is reported by a broadcast as in silentInstallApplication().
+     * This function is called from a background thread.
+     */
+    public static boolean streamInstallApplication(final Context context, String strUrl, final String packageName,
+                                                   DownloadProgress progressHandler) throws Exception {
+        Request.Builder requestBuilder = new Request.Builder().
+                url(strUrl).
+                header("Accept-Encoding", "identity");
+        String signature = getRequestSignature(strUrl);
+        if (signature != null) {
+            requestBuilder.header("X-Request-Signature", signature);
+        }
+
+        Response response = HttpClientKeeper.getClient().newCall(requestBuilder.build()).execute();
+        try {
+            if (response.code() != 200) {
+                throw new Exception("Bad server response for " + strUrl + ": " + response.code());
+            }
+            long lengthOfFile = response.body().contentLength();
+            if (lengthOfFile < 0) {
+                Log.i(Const.LOG_TAG, "Size of " + strUrl + " is unknown, it can't be installed while downloading");
+                return false;
+            }
+
+            Log.i(Const.LOG_TAG, "Installing " + packageName + " while downloading");
+            PackageInstaller packageInstaller = context.getPackageManager().getPackageInstaller();
+            PackageInstaller.SessionParams params = new PackageInstaller.SessionParams(
+                    PackageInstaller.SessionParams.MODE_FULL_INSTALL);
+            params.setAppPackageName(packageName);
+            params.setSize(lengthOfFile);
+            final int sessionId = packageInstaller.createSession(params);
+            final PackageInstaller.Session session = packageInstaller.openSession(sessionId);
+            try {
+                DownloadUtils.streamToSession(response, new DownloadUtils.InstallSession() {
+                    @Override
+                    public OutputStream openWrite(long length) throws IOException {
+                        return session.openWrite("COSU", 0, length);
+                    }
+
+                    @Override
+                    public void fsync(OutputStream out) throws IOException {
+                        session.fsync(out);
+                    }
+
+                    @Override
+                    public void commit() {
+                        session.commit(createIntentSender(context, sessionId, packageName));
+                    }
+
+                    @Override
+                    public void abandon() {
+                        session.abandon();
+                    }
+                }, strUrl, progressHandler);
+                Log.i(Const.LOG_TAG, "Installation session committed");
+            } finally {
+                session.close();
+            }
+            return true;
+        } finally {
+            response.close();
+        }
+    }
+
     public static IntentSender createIntentSender(Context context, int sessionId, String packageName) {
         Intent intent = new Intent(Const.ACTION_INSTALL_COMPLETE);
         if (packageName != null) {
@@ -466,7 +482,7 @@ public class InstallUtils {
 
     public static void requestInstallApplication(Context context, File file, InstallErrorHandler errorHandler) {
         if (file.getName().endsWith(".xapk")) {
-            XapkUtils.install(context, XapkUtils.extract(context, file), null, errorHandler);
+            XapkUtils.install(context, file, null, errorHandler);
             return;
         }
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
@@ -574,7 +590,7 @@ public class InstallUtils {
     public static void deleteTempApk(File file) {
         try {
             if (file.getName().endsWith(".xapk")) {
-                // For XAPK, we need to remove the directory with the same name
+                // XAPK files are not unpacked any more, but earlier versions unpacked them to the directory with the same name
                 String path = file.getAbsolutePath();
                 File directory = new File(path.substring(0, path.length() - 5));
                 if (directory.exists()) {
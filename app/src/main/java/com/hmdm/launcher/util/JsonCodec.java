@@ -0,0 +1,84 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmdm.launcher.util;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide JSON codec.
+ * Creating an ObjectMapper is expensive and drops the cached (de)serializers, so all JSON
+ * is handled by a single mapper. Readers and writers are immutable and cached per type.
+ */
+public class JsonCodec {
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    // The mapper is shared, so it must not be reconfigured by callers
+    public static ObjectMapper getMapper() {
+        return mapper;
+    }
+
+    public static ObjectReader reader(Class<?> type) {
+        return readers.computeIfAbsent(type, mapper::readerFor);
+    }
+
+    // Readers for generic types are not cached, use a static field for frequently used types
+    public static ObjectReader reader(TypeReference<?> type) {
+        return mapper.readerFor(type);
+    }
+
+    public static ObjectWriter writer(Class<?> type) {
+        return writers.computeIfAbsent(type, mapper::writerFor);
+    }
+
+    public static <T> T read(String json, Class<T> type) throws IOException {
+        return reader(type).readValue(json);
+    }
+
+    public static <T> T read(byte[] json, Class<T> type) throws IOException {
+        return reader(type).readValue(json);
+    }
+
+    // The stream is parsed without reading it into memory
+    public static <T> T read(InputStream json, Class<T> type) throws IOException {
+        return reader(type).readValue(json);
+    }
+
+    public static String writeString(Object value) throws IOException {
+        return writer(value.getClass()).writeValueAsString(value);
+    }
+
+    public static byte[] writeBytes(Object value) throws IOException {
+        return writer(value.getClass()).writeValueAsBytes(value);
+    }
+
+    public static void write(OutputStream os, Object value) throws IOException {
+        writer(value.getClass()).writeValue(os, value);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import com.hmdm.launcher.json.RemoteLogConfig;
+import com.hmdm.launcher.json.RemoteLogItem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable in-memory copy of the remote logging rules.
+ * A log item matches if there's a rule for its package with the same or more verbose level
+ * and the message contains the rule filter (SQL LIKE syntax, case-insensitive).
+ */
+public class LogRuleMatcher {
+    public static final LogRuleMatcher EMPTY = new LogRuleMatcher(Collections.<RemoteLogConfig>emptyList());
+
+    // Rules of each package sorted by level in descending order
+    private final Map<String, Rule[]> rulesByPackage;
+
+    public LogRuleMatcher(List<RemoteLogConfig> configs) {
+        Map<String, List<Rule>> lists = new HashMap<>();
+        for (RemoteLogConfig config : configs) {
+            if (config.getPackageId() == null) {
+                // packageId = NULL never matches in SQL
+                continue;
+            }
+            List<Rule> list = lists.get(config.getPackageId());
+            if (list == null) {
+                list = new ArrayList<>();
+                lists.put(config.getPackageId(), list);
+            }
+            list.add(new Rule(config.getLogLevel(), config.getFilter()));
+        }
+
+        Map<String, Rule[]> map = new HashMap<>();
+        for (Map.Entry<String, List<Rule>> entry : lists.entrySet()) {
+            List<Rule> list = entry.getValue();
+            Collections.sort(list, (r1, r2) -> Integer.compare(r2.level, r1.level));
+            map.put(entry.getKey(), list.toArray(new Rule[0]));
+        }
+        rulesByPackage = map;
+    }
+
+    public boolean isEmpty() {
+        return rulesByPackage.isEmpty();
+    }
+
+    public boolean match(RemoteLogItem item) {
+        if (item.getPackageId() == null) {
+            return false;
+        }
+        Rule[] rules = rulesByPackage.get(item.getPackageId());
+        if (rules == null) {
+            return false;
+        }
+        for (Rule rule : rules) {
+            if (rule.level < item.getLogLevel()) {
+                // Rules are sorted by level, so remaining rules are less verbose
+                return false;
+            }
+            if (rule.matches(item.getMessage())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Rule {
+        private final int level;
+        // null means any message
+        private final Pattern pattern;
+
+        private Rule(int level, String filter) {
+            this.level = level;
+            this.pattern = filter == null || filter.isEmpty() ? null : compileLikePattern(filter);
+        }
+
+        private boolean matches(String message) {
+            if (pattern == null) {
+                return true;
+            }
+            // NULL LIKE '...' is false in SQL
+            return message != null && pattern.matcher(message).find();
+        }
+    }
+
+    /**
+     * Converts the SQLite expression "message LIKE ('%' || filter || '%')" to a regular expression.
+     * SQLite LIKE treats % and _ as wildcards and is case-insensitive for ASCII characters only,
+     * which is also the default behavior of Pattern.CASE_INSENSITIVE.
+     */
+    private static Pattern compileLikePattern(String filter) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (int n = 0; n < filter.length(); n++) {
+            char c = filter.charAt(n);
+            if (c == '%' || c == '_') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '%' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    }
+}
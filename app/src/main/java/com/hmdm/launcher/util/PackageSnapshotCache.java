@@ -0,0 +1,300 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmdm.launcher.util;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.hmdm.launcher.Const;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide snapshot of installed packages: versions, labels and launchable activities.
+ * The snapshot is built by a few bulk queries instead of several binder calls per package.
+ * While the main activity tracks package changes by LauncherApps callbacks, the snapshot is updated
+ * incrementally; otherwise it is only valid for a short time.
+ */
+public class PackageSnapshotCache {
+    // Without tracking, the snapshot is rebuilt if it's older than this
+    static final long UNTRACKED_MAX_AGE_MS = 2000;
+
+    // Queries the package manager in the app, returns prepared entries in tests
+    interface Loader {
+        // All installed packages in the order returned by the package manager
+        Map<String, PackageEntry> loadAll(Context context) throws Exception;
+
+        // Returns null if the package is not installed
+        PackageEntry load(Context context, String packageName) throws Exception;
+    }
+
+    public static class PackageEntry {
+        private PackageInfo packageInfo;
+        private String label;
+        // getLaunchIntentForPackage() returns non-null
+        private boolean launchable;
+        private List<String> launcherActivityLabels = Collections.emptyList();
+
+        PackageEntry(PackageInfo packageInfo) {
+            this.packageInfo = packageInfo;
+        }
+
+        public String getPackageName() {
+            return packageInfo.packageName;
+        }
+
+        public PackageInfo getPackageInfo() {
+            return packageInfo;
+        }
+
+        // Label is only loaded for launchable packages
+        public String getLabel() {
+            return label;
+        }
+
+        public boolean isLaunchable() {
+            return launchable;
+        }
+
+        public List<String> getLauncherActivityLabels() {
+            return launcherActivityLabels;
+        }
+    }
+
+    private static PackageSnapshotCache instance;
+
+    private final Loader loader;
+    private final LongSupplier clock;
+    // Packages in the order returned by the package manager
+    private Map<String, PackageEntry> packages;
+    private final Set<String> dirtyPackages = new HashSet<>();
+    private long buildTime;
+    // Amount of registered LauncherApps callbacks
+    private int trackers;
+
+    private long hits;
+    private long misses;
+    private int rebuildCount;
+    private long lastRebuildDuration;
+
+    public static synchronized PackageSnapshotCache getInstance() {
+        if (instance == null) {
+            instance = new PackageSnapshotCache(new PackageManagerLoader(), SystemClock::elapsedRealtime);
+        }
+        return instance;
+    }
+
+    PackageSnapshotCache(Loader loader, LongSupplier clock) {
+        this.loader = loader;
+        this.clock = clock;
+    }
+
+    // Called when a LauncherApps callback is registered. Several activity instances may have callbacks
+    // at the same time (a new one is created before the old one is destroyed), so they are counted
+    public synchronized void startTracking() {
+        if (trackers++ == 0) {
+            // Changes made while nobody was tracking them are not in the snapshot
+            invalidateAll();
+        }
+    }
+
+    // Called when a LauncherApps callback is unregistered
+    public synchronized void stopTracking() {
+        if (trackers > 0) {
+            trackers--;
+        }
+    }
+
+    public synchronized void invalidate(String packageName) {
+        if (packages != null) {
+            dirtyPackages.add(packageName);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        packages = null;
+        dirtyPackages.clear();
+    }
+
+    // Returns null if the package is not installed
+    public synchronized PackageInfo getPackageInfo(Context context, String packageName) {
+        PackageEntry entry = getPackage(context, packageName);
+        return entry != null ? entry.packageInfo : null;
+    }
+
+    public synchronized PackageEntry getPackage(Context context, String packageName) {
+        return getSnapshot(context).get(packageName);
+    }
+
+    public synchronized List<PackageEntry> getPackages(Context context) {
+        return new ArrayList<>(getSnapshot(context).values());
+    }
+
+    // True if the snapshot can be used without rebuilding
+    public synchronized boolean isValid() {
+        return packages != null && (trackers > 0 || clock.getAsLong() - buildTime < UNTRACKED_MAX_AGE_MS);
+    }
+
+    public synchronized String getStats() {
+        long total = hits + misses;
+        return "Package cache: hits " + hits + ", misses " + misses +
+                ", hit rate " + String.format(Locale.US, "%.2f", total > 0 ? (float) hits / total : 0f) +
+                ", rebuilds " + rebuildCount + ", last rebuild " + lastRebuildDuration + " ms";
+    }
+
+    private Map<String, PackageEntry> getSnapshot(Context context) {
+        if (!isValid()) {
+            misses++;
+            rebuild(context);
+        } else {
+            hits++;
+            if (dirtyPackages.size() > 0) {
+                for (String packageName : dirtyPackages) {
+                    refresh(context, packageName);
+                }
+                dirtyPackages.clear();
+            }
+        }
+        return packages;
+    }
+
+    private void rebuild(Context context) {
+        long start = clock.getAsLong();
+        Map<String, PackageEntry> result;
+        try {
+            result = loader.loadAll(context);
+        } catch (Exception e) {
+            e.printStackTrace();
+            result = new LinkedHashMap<>();
+        }
+        packages = result;
+        dirtyPackages.clear();
+        buildTime = clock.getAsLong();
+        rebuildCount++;
+        lastRebuildDuration = buildTime - start;
+        Log.d(Const.LOG_TAG, "Package snapshot rebuilt in " + lastRebuildDuration + " ms, " + result.size() + " packages");
+    }
+
+    private void refresh(Context context, String packageName) {
+        try {
+            PackageEntry entry = loader.load(context, packageName);
+            if (entry != null) {
+                packages.put(packageName, entry);
+            } else {
+                packages.remove(packageName);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static class PackageManagerLoader implements Loader {
+        @Override
+        public Map<String, PackageEntry> loadAll(Context context) {
+            PackageManager pm = context.getPackageManager();
+            Map<String, PackageEntry> result = new LinkedHashMap<>();
+            List<PackageInfo> packageInfos = pm.getInstalledPackages(0);
+            Map<String, List<ResolveInfo>> launcherActivities = groupByPackage(
+                    pm.queryIntentActivities(createMainIntent(Intent.CATEGORY_LAUNCHER, null), 0));
+            Map<String, List<ResolveInfo>> infoActivities = groupByPackage(
+                    pm.queryIntentActivities(createMainIntent(Intent.CATEGORY_INFO, null), 0));
+            for (PackageInfo packageInfo : packageInfos) {
+                result.put(packageInfo.packageName, createEntry(pm, packageInfo,
+                        launcherActivities.get(packageInfo.packageName),
+                        infoActivities.get(packageInfo.packageName)));
+            }
+            return result;
+        }
+
+        @Override
+        public PackageEntry load(Context context, String packageName) {
+            PackageManager pm = context.getPackageManager();
+            try {
+                PackageInfo packageInfo = pm.getPackageInfo(packageName, 0);
+                return createEntry(pm, packageInfo,
+                        pm.queryIntentActivities(createMainIntent(Intent.CATEGORY_LAUNCHER, packageName), 0),
+                        pm.queryIntentActivities(createMainIntent(Intent.CATEGORY_INFO, packageName), 0));
+            } catch (PackageManager.NameNotFoundException e) {
+                return null;
+            }
+        }
+    }
+
+    private static PackageEntry createEntry(PackageManager pm, PackageInfo packageInfo,
+                                            List<ResolveInfo> launcherActivities, List<ResolveInfo> infoActivities) {
+        PackageEntry entry = new PackageEntry(packageInfo);
+        entry.launchable = (launcherActivities != null && launcherActivities.size() > 0) ||
+                (infoActivities != null && infoActivities.size() > 0);
+        if (entry.launchable) {
+            entry.label = packageInfo.applicationInfo != null ?
+                    packageInfo.applicationInfo.loadLabel(pm).toString() : packageInfo.packageName;
+            if (launcherActivities != null && launcherActivities.size() > 0) {
+                List<String> labels = new ArrayList<>(launcherActivities.size());
+                for (ResolveInfo resolveInfo : launcherActivities) {
+                    labels.add(resolveInfo.loadLabel(pm).toString());
+                }
+                entry.launcherActivityLabels = labels;
+            }
+        }
+        return entry;
+    }
+
+    private static Intent createMainIntent(String category, String packageName) {
+        Intent intent = new Intent(Intent.ACTION_MAIN);
+        intent.addCategory(category);
+        if (packageName != null) {
+            intent.setPackage(packageName);
+        }
+        return intent;
+    }
+
+    private static Map<String, List<ResolveInfo>> groupByPackage(List<ResolveInfo> resolveInfos) {
+        Map<String, List<ResolveInfo>> result = new HashMap<>();
+        if (resolveInfos == null) {
+            return result;
+        }
+        for (ResolveInfo resolveInfo : resolveInfos) {
+            if (resolveInfo.activityInfo == null) {
+                continue;
+            }
+            String packageName = resolveInfo.activityInfo.packageName;
+            List<ResolveInfo> list = result.get(packageName);
+            if (list == null) {
+                list = new ArrayList<>();
+                result.put(packageName, list);
+            }
+            list.add(resolveInfo);
+        }
+        return result;
+    }
+}
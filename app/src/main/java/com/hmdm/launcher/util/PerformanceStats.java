@@ -0,0 +1,50 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import android.content.Context;
+
+import com.hmdm.launcher.Const;
+import com.hmdm.launcher.server.HttpClientKeeper;
+import com.hmdm.launcher.server.ServerEndpointSelector;
+import com.hmdm.launcher.worker.PushMessagePipeline;
+import com.hmdm.launcher.worker.PushNotificationProcessor;
+
+/**
+ * Sends the counters of the caches, the network layer and the push message processing
+ * to the remote log (debug level), so they can be checked on the server.
+ * Called periodically together with sending the device info.
+ */
+public class PerformanceStats {
+
+    public static void log(Context context) {
+        String stats = "Performance: " +
+                StartupTrace.getTimeToFirstFrame() + " ms to first frame, " +
+                StartupTrace.getTimeToInteractive() + " ms to interactive. " +
+                PackageSnapshotCache.getInstance().getStats() + ". " +
+                IconCache.getInstance().getStats() + ". " +
+                HttpClientKeeper.getStats() + ". " +
+                ServerEndpointSelector.getInstance().getStats() + " " +
+                "Downloads: resumed " + InstallUtils.getResumedBytes() + " bytes. " +
+                PushMessagePipeline.getInstance().getStats() + ". " +
+                PushNotificationProcessor.getStats();
+        RemoteLogger.log(context, Const.LOG_DEBUG, stats);
+    }
+}
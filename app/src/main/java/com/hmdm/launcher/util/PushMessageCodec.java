@@ -0,0 +1,73 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.hmdm.launcher.json.PushMessage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes push messages received as raw bytes (MQTT) into the same PushMessage objects
+ * which are received by polling.
+ * The message is read by a streaming parser in a single pass; the payload object is not parsed here,
+ * its source text is cut out of the message and parsed by the handler which needs it.
+ */
+public class PushMessageCodec {
+
+    public static PushMessage decode(byte[] data) throws IOException {
+        String messageType = null;
+        String payload = null;
+
+        JsonParser parser = JsonCodec.getMapper().getFactory().createParser(data);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Push message is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+                if ("messageType".equals(field) && token == JsonToken.VALUE_STRING) {
+                    messageType = parser.getText();
+                } else if ("payload".equals(field) && token == JsonToken.START_OBJECT) {
+                    // Offsets are in bytes because the parser reads a byte array
+                    int start = (int) parser.currentTokenLocation().getByteOffset();
+                    parser.skipChildren();
+                    int end = (int) parser.currentLocation().getByteOffset();
+                    payload = new String(data, start, end - start, StandardCharsets.UTF_8);
+                } else if ("payload".equals(field) && token == JsonToken.VALUE_STRING) {
+                    // Same as in the polling response
+                    payload = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } finally {
+            parser.close();
+        }
+
+        if (messageType == null) {
+            throw new IOException("Push message type is not specified");
+        }
+        return new PushMessage(messageType, payload);
+    }
+}
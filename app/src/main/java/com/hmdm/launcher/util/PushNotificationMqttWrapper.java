@@ -39,9 +39,9 @@ import androidx.work.WorkerParameters;
 import com.hmdm.launcher.BuildConfig;
 import com.hmdm.launcher.Const;
 import com.hmdm.launcher.helper.CryptoHelper;
-import com.hmdm.launcher.json.PushMessageJson;
+import com.hmdm.launcher.json.PushMessage;
 import com.hmdm.launcher.json.ServerConfig;
-import com.hmdm.launcher.worker.PushNotificationProcessor;
+import com.hmdm.launcher.worker.PushMessagePipeline;
 
 import org.eclipse.paho.android.service.MqttAndroidClient;
 import org.eclipse.paho.android.service.MqttAndroidConnectOptions;
@@ -53,7 +53,6 @@ import org.eclipse.paho.client.mqttv3.IMqttToken;
 import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.json.JSONObject;
 
 import java.util.LinkedList;
 import java.util.List;
@@ -102,6 +101,9 @@ public class PushNotificationMqttWrapper {
         connectOptions.setAutomaticReconnect(true);
         connectOptions.setKeepAliveInterval(keepaliveTime);
         connectOptions.setCleanSession(false);
+        // Keep unacknowledged messages in memory rather than in SQLite, the journal preserves them on crash
+        connectOptions.setMessageStoreType(MqttAndroidConnectOptions.STORE_MEMORY);
+        connectOptions.setMessageStoreJournal(true);
         if (pushType.equals(ServerConfig.PUSH_OPTIONS_MQTT_WORKER)) {
             connectOptions.setPingType(MqttAndroidConnectOptions.PING_WORKER);
             // For worker, keepalive time cannot be less than 15 minutes
@@ -227,10 +229,8 @@ public class PushNotificationMqttWrapper {
                 @Override
                 public void run() {
                     try {
-                        JSONObject obj = new JSONObject(new String(message.getPayload()));
-                        String messageType = obj.getString("messageType");
-                        PushMessageJson msg = new PushMessageJson(messageType, obj.optJSONObject("payload"));
-                        PushNotificationProcessor.process(msg, context);
+                        PushMessage msg = PushMessageCodec.decode(message.getPayload());
+                        PushMessagePipeline.getInstance().submit(context, msg);
                     } catch (Exception e) {
                         e.printStackTrace();
                     }
@@ -0,0 +1,206 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.hmdm.launcher.Const;
+import com.hmdm.launcher.db.DatabaseHelper;
+import com.hmdm.launcher.db.LogTable;
+import com.hmdm.launcher.json.RemoteLogItem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous writer of remote logs.
+ * Log items are queued by any thread and written to the database by a single writer thread
+ * in batches (one transaction per batch), so a burst of logs doesn't cost a disk sync per line.
+ * If the queue is full, the oldest items are dropped.
+ */
+public class RemoteLogWriter {
+    // Max amount of queued items, older items are dropped when exceeded
+    public static final int QUEUE_CAPACITY = 2000;
+
+    // Items are written when this amount is queued...
+    public static final int BATCH_SIZE = 100;
+
+    // ...or when this time passed after the first item has been queued
+    public static final long FLUSH_INTERVAL_MS = 1000;
+
+    // Old logs are removed once per hour
+    private static final long OLD_LOGS_REMOVAL_PERIOD_MS = 3600000L;
+
+    private static RemoteLogWriter instance;
+
+    // Where the batches go; the database in the app, a stub in tests
+    interface Storage {
+        void write(List<RemoteLogItem> items);
+
+        // Called after the queued items have been written
+        void afterWrite();
+    }
+
+    private final Storage storage;
+    private final ConcurrentLinkedQueue<RemoteLogItem> queue = new ConcurrentLinkedQueue<>();
+    // Incremented before an item is queued and decremented after it's taken out,
+    // so it's never less than the amount of queued items
+    private final AtomicInteger queueSize = new AtomicInteger();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final Thread writerThread;
+
+    private long lastReportedDroppedCount = 0;
+
+    public static synchronized RemoteLogWriter getInstance(Context context) {
+        if (instance == null) {
+            instance = new RemoteLogWriter(new DatabaseStorage(context.getApplicationContext()));
+            instance.start();
+        }
+        return instance;
+    }
+
+    RemoteLogWriter(Storage storage) {
+        this.storage = storage;
+        writerThread = new Thread(() -> writeLoop(), "RemoteLogWriter");
+        writerThread.setDaemon(true);
+    }
+
+    void start() {
+        writerThread.start();
+    }
+
+    public void enqueue(RemoteLogItem item) {
+        int size = queueSize.incrementAndGet();
+        queue.offer(item);
+        while (size > QUEUE_CAPACITY) {
+            if (queue.poll() == null) {
+                break;
+            }
+            size = queueSize.decrementAndGet();
+            droppedCount.incrementAndGet();
+        }
+        if (size == 1 || size >= BATCH_SIZE) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public int getQueueSize() {
+        return queueSize.get();
+    }
+
+    private void writeLoop() {
+        List<RemoteLogItem> batch = new ArrayList<>(BATCH_SIZE);
+        while (true) {
+            if (queueSize.get() <= 0) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            // Wait for more items unless there's enough items for a batch
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MS);
+            while (queueSize.get() < BATCH_SIZE) {
+                long timeLeft = deadline - System.nanoTime();
+                if (timeLeft <= 0) {
+                    break;
+                }
+                LockSupport.parkNanos(this, timeLeft);
+            }
+
+            try {
+                boolean written = false;
+                RemoteLogItem item;
+                while ((item = queue.poll()) != null) {
+                    queueSize.decrementAndGet();
+                    batch.add(item);
+                    if (batch.size() >= BATCH_SIZE) {
+                        storage.write(batch);
+                        batch.clear();
+                        written = true;
+                    }
+                }
+                if (batch.size() > 0) {
+                    storage.write(batch);
+                    batch.clear();
+                    written = true;
+                }
+                // The counter may be ahead of an item being queued right now; that item
+                // wakes the writer again, so there's nothing to do for this round
+                if (written) {
+                    storage.afterWrite();
+                }
+                reportDroppedItems();
+            } catch (Exception e) {
+                e.printStackTrace();
+                batch.clear();
+            }
+        }
+    }
+
+    private void reportDroppedItems() {
+        long dropped = droppedCount.get();
+        if (dropped > lastReportedDroppedCount) {
+            // Do not use RemoteLogger here to avoid recursion
+            Log.w(Const.LOG_TAG, "Remote log queue overflow: " + (dropped - lastReportedDroppedCount) +
+                    " items dropped, " + dropped + " total");
+            lastReportedDroppedCount = dropped;
+        }
+    }
+
+    private static class DatabaseStorage implements Storage {
+        private final Context context;
+        private long lastLogRemoval = 0;
+
+        DatabaseStorage(Context context) {
+            this.context = context;
+        }
+
+        @Override
+        public void write(List<RemoteLogItem> items) {
+            SQLiteDatabase db = DatabaseHelper.instance(context).getWritableDatabase();
+            LogTable.insert(db, items);
+        }
+
+        @Override
+        public void afterWrite() {
+            RemoteLogger.sendLogsToServer(context);
+            removeOldLogs();
+        }
+
+        private void removeOldLogs() {
+            long now = System.currentTimeMillis();
+            if (now > lastLogRemoval + OLD_LOGS_REMOVAL_PERIOD_MS) {
+                SQLiteDatabase db = DatabaseHelper.instance(context).getWritableDatabase();
+                LogTable.deleteOldItems(db);
+                lastLogRemoval = now;
+            }
+        }
+    }
+}
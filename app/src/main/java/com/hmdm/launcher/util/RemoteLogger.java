@@ -20,28 +20,42 @@
 package com.hmdm.launcher.util;
 
 import android.content.Context;
-import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
 import com.hmdm.launcher.Const;
 import com.hmdm.launcher.db.DatabaseHelper;
 import com.hmdm.launcher.db.LogConfigTable;
-import com.hmdm.launcher.db.LogTable;
 import com.hmdm.launcher.json.RemoteLogConfig;
 import com.hmdm.launcher.json.RemoteLogItem;
 import com.hmdm.launcher.worker.RemoteLogWorker;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Remote logging engine which uses SQLite for configuration
  * and storing unsent logs
  */
 public class RemoteLogger {
-    public static long lastLogRemoval = 0;
+    // Rules compiled from the log_rules table, loaded lazily and replaced on config update
+    private static final AtomicReference<LogRuleMatcher> ruleMatcher = new AtomicReference<>();
 
     public static void updateConfig(Context context, List<RemoteLogConfig> rules) {
         LogConfigTable.replaceAll(DatabaseHelper.instance(context).getWritableDatabase(), rules);
+        ruleMatcher.set(new LogRuleMatcher(rules));
+    }
+
+    private static LogRuleMatcher getRuleMatcher(Context context) {
+        LogRuleMatcher matcher = ruleMatcher.get();
+        if (matcher == null) {
+            List<RemoteLogConfig> rules = LogConfigTable.selectAll(DatabaseHelper.instance(context).getReadableDatabase());
+            matcher = new LogRuleMatcher(rules);
+            // Do not overwrite the rules if they have been updated concurrently
+            if (!ruleMatcher.compareAndSet(null, matcher)) {
+                matcher = ruleMatcher.get();
+            }
+        }
+        return matcher;
     }
 
     public static void log(Context context, int level, String message) {
@@ -72,20 +86,9 @@ public class RemoteLogger {
     }
 
     public static void postLog(Context context, RemoteLogItem item) {
-        DatabaseHelper dbHelper = DatabaseHelper.instance(context);
-        SQLiteDatabase db = dbHelper.getReadableDatabase();
-        if (LogConfigTable.match(db, item)) {
-            db = dbHelper.getWritableDatabase();
-            LogTable.insert(db, item);
-            sendLogsToServer(context);
-        }
-
-        // Remove old logs once per hour
-        long now = System.currentTimeMillis();
-        if (now > lastLogRemoval + 3600000L) {
-            db = dbHelper.getWritableDatabase();
-            LogTable.deleteOldItems(db);
-            lastLogRemoval = now;
+        if (getRuleMatcher(context).match(item)) {
+            // Items are written to the database and uploaded by the writer thread
+            RemoteLogWriter.getInstance(context).enqueue(item);
         }
     }
 
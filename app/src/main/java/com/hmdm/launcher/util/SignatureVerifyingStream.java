@@ -0,0 +1,171 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmdm.launcher.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the signature of a server response while the response is being parsed.
+ * The server signs the value of the "data" field: SHA-1 of the shared secret followed by
+ * the response text after the "data": marker, without the closing brace and without whitespace.
+ * Here we assume the specific form of response body: {"status":"OK","message":null,"data":{...}}
+ * The signature is available after the stream is closed; closing reads the rest of the stream.
+ */
+public class SignatureVerifyingStream extends FilterInputStream {
+    private static final byte[] DATA_MARKER = "\"data\":".getBytes(StandardCharsets.UTF_8);
+    // Beginning of the response kept for error messages
+    private static final int CAPTURE_SIZE = 4096;
+
+    private final MessageDigest digest;
+    private final byte[] window = new byte[DATA_MARKER.length];
+    private int windowLength;
+    private boolean markerFound;
+    // The last byte is the closing brace which is not signed, so each byte is digested after the next one arrives
+    private int pendingByte = -1;
+    private final byte[] captured = new byte[CAPTURE_SIZE];
+    private int capturedLength;
+    private long totalLength;
+    private boolean closed;
+    private String signature;
+
+    public SignatureVerifyingStream(InputStream in, String secret) {
+        super(in);
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        digest.update(secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            process((byte) b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int count = super.read(b, off, len);
+        for (int n = 0; n < count; n++) {
+            process(b[off + n]);
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped bytes must be digested as well
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int count = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (count == -1) {
+                break;
+            }
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                // The parser may stop before the end of the stream
+                byte[] buffer = new byte[8192];
+                while (read(buffer, 0, buffer.length) != -1) {
+                }
+            } finally {
+                super.close();
+            }
+            if (markerFound) {
+                signature = toHex(digest.digest());
+            }
+        }
+    }
+
+    // Signature of the data in upper case, or null if the stream is not closed or the data is missing
+    public String getSignature() {
+        return signature;
+    }
+
+    // Beginning of the response as text, for error messages
+    public String getCapturedText() {
+        String text = new String(captured, 0, capturedLength, StandardCharsets.UTF_8);
+        return totalLength > capturedLength ? text + "..." : text;
+    }
+
+    private void process(byte b) {
+        totalLength++;
+        if (capturedLength < CAPTURE_SIZE) {
+            captured[capturedLength++] = b;
+        }
+        if (!markerFound) {
+            if (windowLength < window.length) {
+                window[windowLength++] = b;
+            } else {
+                System.arraycopy(window, 1, window, 0, window.length - 1);
+                window[window.length - 1] = b;
+            }
+            markerFound = windowLength == window.length && matchesMarker();
+            return;
+        }
+        if (pendingByte != -1 && !isWhitespace((byte) pendingByte)) {
+            digest.update((byte) pendingByte);
+        }
+        pendingByte = b & 0xFF;
+    }
+
+    private boolean matchesMarker() {
+        for (int n = 0; n < DATA_MARKER.length; n++) {
+            if (window[n] != DATA_MARKER[n]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Same characters as \s in Java regular expressions
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02X", b));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmdm.launcher.util;
+
+import android.app.Activity;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import com.hmdm.launcher.Const;
+
+/**
+ * Measures the launcher startup after the process start:
+ * time to the first frame and time until the home screen shows the actual content.
+ * Only the first start of the main activity in the process is measured.
+ */
+public class StartupTrace {
+    private static boolean firstFrameTracked;
+    private static boolean interactiveTracked;
+    private static long timeToFirstFrame = -1;
+    private static long timeToInteractive = -1;
+
+    public static void trackFirstFrame(Activity activity) {
+        if (firstFrameTracked) {
+            return;
+        }
+        firstFrameTracked = true;
+        final View decorView = activity.getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                timeToFirstFrame = getTimeSinceProcessStart();
+                Log.i(Const.LOG_TAG, "Startup: first frame in " + timeToFirstFrame + " ms");
+                return true;
+            }
+        });
+    }
+
+    // Called when the home screen is built from the actual configuration and installed packages
+    public static void onInteractive(Activity activity) {
+        if (interactiveTracked) {
+            return;
+        }
+        interactiveTracked = true;
+        timeToInteractive = getTimeSinceProcessStart();
+        activity.reportFullyDrawn();
+        RemoteLogger.log(activity, Const.LOG_INFO, "Startup: first frame in " + timeToFirstFrame +
+                " ms, interactive in " + timeToInteractive + " ms");
+    }
+
+    public static long getTimeToFirstFrame() {
+        return timeToFirstFrame;
+    }
+
+    public static long getTimeToInteractive() {
+        return timeToInteractive;
+    }
+
+    private static long getTimeSinceProcessStart() {
+        return SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+    }
+}
@@ -26,12 +26,7 @@ import android.util.Log;
 
 import com.hmdm.launcher.Const;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
-
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -42,61 +37,42 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 public class XapkUtils {
-    public static List<File> extract(Context context, File xapk) {
-        // Here we presume that xapk file name ends with .xapk
-        try {
-            String extractDir = xapk.getName().substring(0, xapk.getName().length() - 5);
-            File extractDirFile = new File(context.getExternalFilesDir(null), extractDir);
-            if (extractDirFile.isDirectory()) {
-                FileUtils.deleteDirectory(extractDirFile);
-            } else if (extractDirFile.exists()) {
-                extractDirFile.delete();
-            }
-            extractDirFile.mkdirs();
+    private static final int BUFFER_SIZE = 65536;
 
-            List<File> result = new LinkedList<File>();
+    // Split APKs are written to the install session directly from the XAPK file, without unpacking
+    public static void install(Context context, File xapk, String packageName, InstallUtils.InstallErrorHandler errorHandler) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
 
-            ZipFile zipFile = new ZipFile(xapk);
+        ZipFile zipFile = null;
+        List<ZipEntry> apkEntries = new LinkedList<ZipEntry>();
+        long totalSize = 0;
+        try {
+            zipFile = new ZipFile(xapk);
             Enumeration<? extends ZipEntry> entries = zipFile.entries();
-
-            while(entries.hasMoreElements()) {
+            while (entries.hasMoreElements()) {
                 ZipEntry entry = entries.nextElement();
-                if (entry.getName().endsWith(".apk")) {
-                    InputStream inputStream = zipFile.getInputStream(entry);
-                    File resultFile = new File(extractDirFile, entry.getName());
-                    FileOutputStream outputStream = new FileOutputStream(resultFile);
-                    IOUtils.copy(inputStream, outputStream);
-                    inputStream.close();
-                    outputStream.close();
-                    result.add(resultFile);
+                if (!entry.isDirectory() && entry.getName().endsWith(".apk")) {
+                    if (entry.getSize() < 0) {
+                        throw new IOException("Unknown size of " + entry.getName());
+                    }
+                    apkEntries.add(entry);
+                    totalSize += entry.getSize();
                 }
-
             }
-            zipFile.close();
-            return result;
-
         } catch (Exception e) {
             e.printStackTrace();
-            return null;
-        }
-    }
-
-    public static void install(Context context, List<File> files, String packageName, InstallUtils.InstallErrorHandler errorHandler) {
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
-            return;
-        }
-        if (files == null) {
-            RemoteLogger.log(context, Const.LOG_WARN, "Failed to unpack XAPK for " + packageName + " - ignoring installation");
+            closeZipFile(zipFile);
+            RemoteLogger.log(context, Const.LOG_WARN, "Failed to read XAPK for " + packageName + " - ignoring installation");
             if (errorHandler != null) {
                 errorHandler.onInstallError(null);
             }
             return;
         }
-        long totalSize = 0;
-        for (File file : files) {
-            totalSize += file.length();
-        }
 
+        PackageInstaller.Session session = null;
+        boolean committed = false;
         try {
             Log.i(Const.LOG_TAG, "Installing XAPK " + packageName);
             PackageInstaller packageInstaller = context.getPackageManager().getPackageInstaller();
@@ -107,41 +83,68 @@ public class XapkUtils {
             }
             params.setSize(totalSize);
             int sessionId = packageInstaller.createSession(params);
+            session = packageInstaller.openSession(sessionId);
 
-            for (File file : files) {
-                addFileToSession(sessionId, file, packageInstaller);
+            for (ZipEntry entry : apkEntries) {
+                addEntryToSession(session, zipFile, entry);
             }
 
-            PackageInstaller.Session session = packageInstaller.openSession(sessionId);
             session.commit(InstallUtils.createIntentSender(context, sessionId, packageName));
-            session.close();
+            committed = true;
             Log.i(Const.LOG_TAG, "Installation session committed");
 
         } catch (Exception e) {
+            e.printStackTrace();
             if (errorHandler != null) {
                 errorHandler.onInstallError(e.getMessage());
             }
+        } finally {
+            if (session != null) {
+                if (!committed) {
+                    session.abandon();
+                }
+                session.close();
+            }
+            closeZipFile(zipFile);
         }
     }
 
-    private static void addFileToSession(int sessionId, File file, PackageInstaller packageInstaller) throws IOException {
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
-            return;
+    private static void addEntryToSession(PackageInstaller.Session session, ZipFile zipFile, ZipEntry entry) throws IOException {
+        // Session file names must not contain slashes
+        String name = entry.getName();
+        int slashIndex = name.lastIndexOf('/');
+        if (slashIndex >= 0) {
+            name = name.substring(slashIndex + 1);
         }
 
-        FileInputStream in = new FileInputStream(file);
-        // set params
-        PackageInstaller.Session session = packageInstaller.openSession(sessionId);
-        OutputStream out = session.openWrite(file.getName(), 0, file.length());
-        byte[] buffer = new byte[65536];
-        int c;
-        while ((c = in.read(buffer)) != -1) {
-            out.write(buffer, 0, c);
+        InputStream in = zipFile.getInputStream(entry);
+        OutputStream out = session.openWrite(name, 0, entry.getSize());
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long total = 0;
+            int c;
+            while ((c = in.read(buffer)) != -1) {
+                out.write(buffer, 0, c);
+                total += c;
+            }
+            // Compressed entries are also verified by CRC when the stream is read to the end
+            if (total != entry.getSize()) {
+                throw new IOException("Size mismatch for " + entry.getName() + ": " + total + " of " + entry.getSize() + " bytes");
+            }
+            session.fsync(out);
+        } finally {
+            in.close();
+            out.close();
         }
-        session.fsync(out);
-        in.close();
-        out.close();
-        session.close();
     }
 
+    private static void closeZipFile(ZipFile zipFile) {
+        if (zipFile != null) {
+            try {
+                zipFile.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
 }
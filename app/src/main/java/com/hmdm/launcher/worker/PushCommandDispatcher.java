@@ -0,0 +1,273 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.worker;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.hmdm.launcher.Const;
+import com.hmdm.launcher.json.PushMessage;
+import com.hmdm.launcher.util.RemoteLogger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Executes push commands by their type.
+ * Each command type is registered with a lane and a priority. Commands in different lanes
+ * don't wait for each other, so a long file operation doesn't delay a reboot.
+ * Within a lane, the commands with higher priority are executed first.
+ * Commands in the BARRIER lane (like a reboot) wait until all commands dispatched earlier are completed.
+ * This is a trade-off: a reboot sent after a slow purgeDir or runCommand may be delayed up to
+ * BARRIER_TIMEOUT_MS (60 s), but it doesn't interrupt a file operation or a shell command in progress.
+ */
+public class PushCommandDispatcher {
+
+    public enum Lane {
+        // Executed in the calling thread, for commands which only start an activity or send a broadcast
+        INLINE(0),
+        // Short device management commands
+        QUICK(2),
+        // File operations which may take a long time
+        IO(1),
+        // Shell commands, executed one by one
+        EXCLUSIVE(1),
+        // Commands which must not overtake the earlier commands in other lanes
+        BARRIER(1);
+
+        private final int threads;
+
+        Lane(int threads) {
+            this.threads = threads;
+        }
+    }
+
+    public static final int PRIORITY_HIGH = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_LOW = 2;
+
+    // Commands exceeding this amount in a lane are dropped
+    private static final int QUEUE_CAPACITY = 32;
+    private static final long KEEP_ALIVE_SECS = 60;
+    // A barrier command is executed anyway if the earlier commands are not completed in this time
+    private static final long BARRIER_TIMEOUT_MS = 60000;
+
+    public interface Handler {
+        void execute(Context context, PushMessage message);
+    }
+
+    interface Logger {
+        void log(Context context, int level, String message);
+    }
+
+    private static class Command {
+        private final Lane lane;
+        private final int priority;
+        private final Handler handler;
+        private final Stats stats = new Stats();
+
+        private Command(Lane lane, int priority, Handler handler) {
+            this.lane = lane;
+            this.priority = priority;
+            this.handler = handler;
+        }
+    }
+
+    private static class Stats {
+        private int queued;
+        private int executed;
+        private int rejected;
+        private long totalLatency;
+        private long maxLatency;
+    }
+
+    // Ordered by priority, then by arrival
+    private static class Task implements Runnable, Comparable<Task> {
+        private final int priority;
+        private final long sequence;
+        private final Runnable runnable;
+
+        private Task(int priority, long sequence, Runnable runnable) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            runnable.run();
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final Map<String, Command> commands = new HashMap<>();
+    private final Map<Lane, ThreadPoolExecutor> executors = new HashMap<>();
+    // Sequence numbers of the commands which are queued or being executed
+    private final TreeSet<Long> pending = new TreeSet<>();
+    private long sequence;
+    private final LongSupplier clock;
+    private final Logger logger;
+
+    public PushCommandDispatcher() {
+        this(SystemClock::elapsedRealtime, RemoteLogger::log);
+    }
+
+    PushCommandDispatcher(LongSupplier clock, Logger logger) {
+        this.clock = clock;
+        this.logger = logger;
+    }
+
+    public synchronized void register(String messageType, Lane lane, int priority, Handler handler) {
+        commands.put(messageType, new Command(lane, priority, handler));
+    }
+
+    /**
+     * Executes or enqueues the command.
+     * Returns false if there's no handler for this message type.
+     */
+    public boolean dispatch(final Context context, final PushMessage message) {
+        final String messageType = message.getMessageType();
+        final Command command;
+        ThreadPoolExecutor executor = null;
+        final long taskSequence;
+        synchronized (this) {
+            command = commands.get(messageType);
+            if (command == null) {
+                return false;
+            }
+            if (command.lane != Lane.INLINE) {
+                executor = getExecutor(command.lane);
+                if (executor.getQueue().size() >= QUEUE_CAPACITY) {
+                    command.stats.rejected++;
+                    executor = null;
+                } else {
+                    command.stats.queued++;
+                    pending.add(sequence);
+                }
+            }
+            taskSequence = sequence++;
+        }
+
+        final long start = clock.getAsLong();
+        if (command.lane == Lane.INLINE) {
+            runCommand(context, message, command, taskSequence, start);
+        } else if (executor != null) {
+            executor.execute(new Task(command.priority, taskSequence,
+                    () -> runCommand(context, message, command, taskSequence, start)));
+        } else {
+            logger.log(context, Const.LOG_WARN, "Too many pending push commands in lane "
+                    + command.lane + ", dropped " + messageType);
+        }
+        return true;
+    }
+
+    private void runCommand(Context context, PushMessage message, Command command, long taskSequence, long start) {
+        if (command.lane == Lane.BARRIER && !awaitEarlierCommands(taskSequence)) {
+            logger.log(context, Const.LOG_WARN, "Push command " + message.getMessageType() +
+                    " is executed before the earlier commands are completed");
+        }
+        try {
+            command.handler.execute(context, message);
+        } catch (Exception e) {
+            logger.log(context, Const.LOG_WARN, "Push command " + message.getMessageType() + " failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+        long latency = clock.getAsLong() - start;
+        synchronized (this) {
+            Stats stats = command.stats;
+            if (command.lane != Lane.INLINE) {
+                stats.queued--;
+                pending.remove(taskSequence);
+                notifyAll();
+            }
+            stats.executed++;
+            stats.totalLatency += latency;
+            stats.maxLatency = Math.max(stats.maxLatency, latency);
+        }
+    }
+
+    // Returns false if the earlier commands are not completed in time
+    private synchronized boolean awaitEarlierCommands(long taskSequence) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BARRIER_TIMEOUT_MS);
+        while (pending.first() < taskSequence) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return false;
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ThreadPoolExecutor getExecutor(Lane lane) {
+        ThreadPoolExecutor executor = executors.get(lane);
+        if (executor == null) {
+            // Core size equals max size because the queue is unbounded and the pool never grows beyond the core size
+            // The queue is limited by QUEUE_CAPACITY in dispatch()
+            executor = new ThreadPoolExecutor(lane.threads, lane.threads,
+                    KEEP_ALIVE_SECS, TimeUnit.SECONDS, new PriorityBlockingQueue<>());
+            executor.allowCoreThreadTimeOut(true);
+            executors.put(lane, executor);
+        }
+        return executor;
+    }
+
+    // Amount of commands waiting or being executed
+    public synchronized int getQueueDepth(String messageType) {
+        Command command = commands.get(messageType);
+        return command != null ? command.stats.queued : 0;
+    }
+
+    public synchronized String getStats() {
+        StringBuilder sb = new StringBuilder("Push commands:");
+        // Sorted by type to make the output stable
+        for (Map.Entry<String, Command> entry : new TreeMap<>(commands).entrySet()) {
+            Stats stats = entry.getValue().stats;
+            if (stats.executed == 0 && stats.queued == 0 && stats.rejected == 0) {
+                continue;
+            }
+            sb.append(" ").append(entry.getKey()).
+                    append(": executed ").append(stats.executed).
+                    append(", queued ").append(stats.queued).
+                    append(", rejected ").append(stats.rejected).
+                    append(", avg latency ").append(stats.executed > 0 ? stats.totalLatency / stats.executed : 0).
+                    append(" ms, max ").append(stats.maxLatency).append(" ms;");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.worker;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.hmdm.launcher.BuildConfig;
+import com.hmdm.launcher.Const;
+import com.hmdm.launcher.json.PushMessage;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongSupplier;
+
+/**
+ * Inbound push messages from all transports (MQTT, polling and long polling) pass through here
+ * before they are processed.
+ * Messages have no identifiers, so a repeated message can't be told from a message delivered twice
+ * by different transports. Only idempotent commands are deduplicated: a message with the same type
+ * and payload received again within the window is dropped. Other commands (running an app or a shell
+ * command, sending a broadcast or an intent, reboot) are always executed.
+ * Some idempotent commands are coalesced: the first one is executed at once, and all commands
+ * of the same type received within the window are executed once when the window ends.
+ */
+public class PushMessagePipeline {
+    private static final Set<String> COALESCED_TYPES = new HashSet<>(Arrays.asList(
+            PushMessage.TYPE_CONFIG_UPDATED,
+            PushMessage.TYPE_CLEAR_DOWNLOADS
+    ));
+    // Executing these commands twice with the same payload has the same result as executing once
+    private static final Set<String> DEDUPLICATED_TYPES = new HashSet<>(Arrays.asList(
+            PushMessage.TYPE_UNINSTALL_APP,
+            PushMessage.TYPE_DELETE_FILE,
+            PushMessage.TYPE_DELETE_DIR,
+            PushMessage.TYPE_PURGE_DIR,
+            PushMessage.TYPE_GRANT_PERMISSIONS,
+            PushMessage.TYPE_PERMISSIVE_MODE,
+            PushMessage.TYPE_EXIT_KIOSK,
+            PushMessage.TYPE_ADMIN_PANEL
+    ));
+
+    interface Scheduler {
+        void postDelayed(Runnable task, long delay);
+    }
+
+    interface Processor {
+        void process(PushMessage message, Context context);
+    }
+
+    private static PushMessagePipeline instance;
+
+    private final long window;
+    private final LongSupplier clock;
+    private final Scheduler scheduler;
+    private final Processor processor;
+    // Time when a message with the given type and payload was passed to the processor
+    private final Map<String, Long> recentMessages = new HashMap<>();
+    // Time of the last execution of a coalesced type
+    private final Map<String, Long> lastExecutions = new HashMap<>();
+    // Coalesced commands waiting for the window end
+    private final Map<String, PushMessage> pendingMessages = new HashMap<>();
+
+    private int receivedCount;
+    private int executedCount;
+    private int coalescedCount;
+    private int duplicateCount;
+
+    public static synchronized PushMessagePipeline getInstance() {
+        if (instance == null) {
+            instance = new PushMessagePipeline(BuildConfig.PUSH_COALESCE_WINDOW);
+        }
+        return instance;
+    }
+
+    private PushMessagePipeline(long window) {
+        this(window, SystemClock::elapsedRealtime, new Handler(Looper.getMainLooper())::postDelayed,
+                PushNotificationProcessor::process);
+    }
+
+    PushMessagePipeline(long window, LongSupplier clock, Scheduler scheduler, Processor processor) {
+        this.window = window;
+        this.clock = clock;
+        this.scheduler = scheduler;
+        this.processor = processor;
+    }
+
+    public void submit(Context context, PushMessage message) {
+        String messageType = message.getMessageType();
+        boolean execute;
+        synchronized (this) {
+            receivedCount++;
+            long now = clock.getAsLong();
+            if (window <= 0) {
+                execute = true;
+            } else if (COALESCED_TYPES.contains(messageType)) {
+                execute = coalesce(context, message, now);
+            } else if (DEDUPLICATED_TYPES.contains(messageType)) {
+                execute = !isDuplicate(message, now);
+            } else {
+                execute = true;
+            }
+            if (execute) {
+                executedCount++;
+            }
+        }
+        if (execute) {
+            processor.process(message, context);
+        }
+    }
+
+    // Returns true if the message should be executed now
+    private boolean coalesce(final Context context, PushMessage message, long now) {
+        final String messageType = message.getMessageType();
+        Long lastExecution = lastExecutions.get(messageType);
+        if (lastExecution == null || now - lastExecution >= window) {
+            lastExecutions.put(messageType, now);
+            return true;
+        }
+        if (pendingMessages.containsKey(messageType)) {
+            coalescedCount++;
+        } else {
+            scheduler.postDelayed(() -> executePending(context, messageType), lastExecution + window - now);
+        }
+        // The latest payload wins
+        pendingMessages.put(messageType, message);
+        return false;
+    }
+
+    private void executePending(Context context, String messageType) {
+        PushMessage message;
+        synchronized (this) {
+            message = pendingMessages.remove(messageType);
+            if (message == null) {
+                return;
+            }
+            lastExecutions.put(messageType, clock.getAsLong());
+            executedCount++;
+        }
+        processor.process(message, context);
+    }
+
+    private boolean isDuplicate(PushMessage message, long now) {
+        // Expired entries are removed here to keep the map small
+        Iterator<Map.Entry<String, Long>> it = recentMessages.entrySet().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().getValue() >= window) {
+                it.remove();
+            }
+        }
+
+        String key = getKey(message);
+        if (recentMessages.containsKey(key)) {
+            duplicateCount++;
+            Log.d(Const.LOG_TAG, "Duplicate push message dropped: " + message.getMessageType());
+            return true;
+        }
+        recentMessages.put(key, now);
+        return false;
+    }
+
+    // The payload is normalized: transports may format the same payload differently
+    private static String getKey(PushMessage message) {
+        String payload = message.getNormalizedPayload();
+        return message.getMessageType() + "\n" + (payload != null ? payload : "");
+    }
+
+    public synchronized String getStats() {
+        return "Push messages: received " + receivedCount +
+                ", executed " + executedCount +
+                ", coalesced " + coalescedCount +
+                ", duplicates " + duplicateCount;
+    }
+}
@@ -40,6 +40,7 @@ import com.hmdm.launcher.helper.SettingsHelper;
 import com.hmdm.launcher.json.Application;
 import com.hmdm.launcher.json.Download;
 import com.hmdm.launcher.json.PushMessage;
+import com.hmdm.launcher.json.PushPayload;
 import com.hmdm.launcher.json.ServerConfig;
 import com.hmdm.launcher.util.InstallUtils;
 import com.hmdm.launcher.util.LegacyUtils;
@@ -47,115 +48,105 @@ import com.hmdm.launcher.util.RemoteLogger;
 import com.hmdm.launcher.util.SystemUtils;
 import com.hmdm.launcher.util.Utils;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
 import java.io.File;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 public class PushNotificationProcessor {
-    static ThreadPoolExecutor executor = new ThreadPoolExecutor(
-            1, 4,
-            0L, TimeUnit.MILLISECONDS,
-            new LinkedBlockingQueue<>()
-    );
+    private static final PushCommandDispatcher dispatcher = new PushCommandDispatcher();
+
+    static {
+        // Update local configuration
+        // The configUpdated should be broadcasted after the configuration update is completed
+        register(PushMessage.TYPE_CONFIG_UPDATED, PushCommandDispatcher.Lane.INLINE, PushCommandDispatcher.PRIORITY_NORMAL,
+                (context, message) -> ConfigUpdater.notifyConfigUpdate(context));
+        // Run application
+        // Do not broadcast this message to other apps
+        register(PushMessage.TYPE_RUN_APP, PushCommandDispatcher.Lane.INLINE, PushCommandDispatcher.PRIORITY_NORMAL,
+                (context, message) -> runApplication(context, message.getPayloadData()));
+        // Send broadcast
+        register(PushMessage.TYPE_BROADCAST, PushCommandDispatcher.Lane.INLINE, PushCommandDispatcher.PRIORITY_NORMAL,
+                (context, message) -> sendBroadcast(context, message.getPayloadData()));
+        // Turn on permissive mode
+        register(PushMessage.TYPE_PERMISSIVE_MODE, PushCommandDispatcher.Lane.INLINE, PushCommandDispatcher.PRIORITY_NORMAL,
+                (context, message) -> LocalBroadcastManager.getInstance(context).
+                        sendBroadcast(new Intent(Const.ACTION_PERMISSIVE_MODE)));
+        // Temporarily exit kiosk mode
+        register(PushMessage.TYPE_EXIT_KIOSK, PushCommandDispatcher.Lane.INLINE, PushCommandDispatcher.PRIORITY_NORMAL,
+                (context, message) -> LocalBroadcastManager.getInstance(context).
+                        sendBroadcast(new Intent(Const.ACTION_EXIT_KIOSK)));
+        register(PushMessage.TYPE_ADMIN_PANEL, PushCommandDispatcher.Lane.INLINE, PushCommandDispatcher.PRIORITY_NORMAL,
+                (context, message) -> LocalBroadcastManager.getInstance(context).
+                        sendBroadcast(new Intent(Const.ACTION_ADMIN_PANEL)));
+
+        // Reboot a device after the earlier commands are completed
+        register(PushMessage.TYPE_REBOOT, PushCommandDispatcher.Lane.BARRIER, PushCommandDispatcher.PRIORITY_NORMAL,
+                (context, message) -> reboot(context));
+        // Clear application data
+        register(PushMessage.TYPE_CLEAR_APP_DATA, PushCommandDispatcher.Lane.QUICK, PushCommandDispatcher.PRIORITY_HIGH,
+                (context, message) -> clearAppData(context, message.getPayloadData()));
+        // Uninstall application
+        register(PushMessage.TYPE_UNINSTALL_APP, PushCommandDispatcher.Lane.QUICK, PushCommandDispatcher.PRIORITY_NORMAL,
+                (context, message) -> uninstallApplication(context, message.getPayloadData()));
+        // Run a system intent (like settings or ACTION_VIEW)
+        register(PushMessage.TYPE_INTENT, PushCommandDispatcher.Lane.QUICK, PushCommandDispatcher.PRIORITY_NORMAL,
+                (context, message) -> callIntent(context, message.getPayloadData()));
+        // Grant permissions to apps
+        register(PushMessage.TYPE_GRANT_PERMISSIONS, PushCommandDispatcher.Lane.QUICK, PushCommandDispatcher.PRIORITY_LOW,
+                (context, message) -> grantPermissions(context, message.getPayloadData()));
+
+        // Delete file
+        register(PushMessage.TYPE_DELETE_FILE, PushCommandDispatcher.Lane.IO, PushCommandDispatcher.PRIORITY_NORMAL,
+                (context, message) -> deleteFile(context, message.getPayloadData()));
+        // Clear download history
+        register(PushMessage.TYPE_CLEAR_DOWNLOADS, PushCommandDispatcher.Lane.IO, PushCommandDispatcher.PRIORITY_NORMAL,
+                (context, message) -> clearDownloads(context));
+        // Delete directory recursively
+        register(PushMessage.TYPE_DELETE_DIR, PushCommandDispatcher.Lane.IO, PushCommandDispatcher.PRIORITY_LOW,
+                (context, message) -> deleteDir(context, message.getPayloadData()));
+        // Purge directory (delete all files recursively)
+        register(PushMessage.TYPE_PURGE_DIR, PushCommandDispatcher.Lane.IO, PushCommandDispatcher.PRIORITY_LOW,
+                (context, message) -> purgeDir(context, message.getPayloadData()));
+
+        // Run a command-line script
+        register(PushMessage.TYPE_RUN_COMMAND, PushCommandDispatcher.Lane.EXCLUSIVE, PushCommandDispatcher.PRIORITY_NORMAL,
+                (context, message) -> runCommand(context, message.getPayloadData()));
+    }
+
+    private static void register(String messageType, PushCommandDispatcher.Lane lane, int priority,
+                                 PushCommandDispatcher.Handler handler) {
+        dispatcher.register(messageType, lane, priority, handler);
+    }
 
     public static void process(PushMessage message, Context context) {
         RemoteLogger.log(context, Const.LOG_INFO, "Got Push Message, type " + message.getMessageType());
-        if (message.getMessageType().equals(PushMessage.TYPE_CONFIG_UPDATED)) {
-            // Update local configuration
-            ConfigUpdater.notifyConfigUpdate(context);
-            // The configUpdated should be broadcasted after the configuration update is completed
-            return;
-        } else if (message.getMessageType().equals(PushMessage.TYPE_RUN_APP)) {
-            // Run application
-            runApplication(context, message.getPayloadJSON());
-            // Do not broadcast this message to other apps
-            return;
-        } else if (message.getMessageType().equals(PushMessage.TYPE_BROADCAST)) {
-            // Send broadcast
-            sendBroadcast(context, message.getPayloadJSON());
-            return;
-        } else if (message.getMessageType().equals(PushMessage.TYPE_UNINSTALL_APP)) {
-            // Uninstall application
-            executor.execute(() -> uninstallApplication(context, message.getPayloadJSON()));
-            return;
-        } else if (message.getMessageType().equals(PushMessage.TYPE_DELETE_FILE)) {
-            // Delete file
-            executor.execute(() -> deleteFile(context, message.getPayloadJSON()));
-            return;
-        } else if (message.getMessageType().equals(PushMessage.TYPE_DELETE_DIR)) {
-            // Delete directory recursively
-            executor.execute(() -> deleteDir(context, message.getPayloadJSON()));
-            return;
-        } else if (message.getMessageType().equals(PushMessage.TYPE_PURGE_DIR)) {
-            // Purge directory (delete all files recursively)
-            executor.execute(() -> purgeDir(context, message.getPayloadJSON()));
-            return;
-        } else if (message.getMessageType().equals(PushMessage.TYPE_PERMISSIVE_MODE)) {
-            // Turn on permissive mode
-            LocalBroadcastManager.getInstance(context).
-                    sendBroadcast(new Intent(Const.ACTION_PERMISSIVE_MODE));
-            return;
-        } else if (message.getMessageType().equals(PushMessage.TYPE_RUN_COMMAND)) {
-            // Run a command-line script
-            executor.execute(() -> runCommand(context, message.getPayloadJSON()));
-            return;
-        } else if (message.getMessageType().equals(PushMessage.TYPE_REBOOT)) {
-            // Reboot a device
-            executor.execute(() -> reboot(context));
-            return;
-        } else if (message.getMessageType().equals(PushMessage.TYPE_EXIT_KIOSK)) {
-            // Temporarily exit kiosk mode
-            LocalBroadcastManager.getInstance(context).
-                sendBroadcast(new Intent(Const.ACTION_EXIT_KIOSK));
-            return;
-        } else if (message.getMessageType().equals(PushMessage.TYPE_ADMIN_PANEL)) {
-            LocalBroadcastManager.getInstance(context).
-                    sendBroadcast(new Intent(Const.ACTION_ADMIN_PANEL));
-            return;
-        } else if (message.getMessageType().equals(PushMessage.TYPE_CLEAR_DOWNLOADS)) {
-            // Clear download history
-            executor.execute(() -> clearDownloads(context));
-            return;
-        } else if (message.getMessageType().equals(PushMessage.TYPE_INTENT)) {
-            // Run a system intent (like settings or ACTION_VIEW)
-            executor.execute(() -> callIntent(context, message.getPayloadJSON()));
-            return;
-        } else if (message.getMessageType().equals(PushMessage.TYPE_GRANT_PERMISSIONS)) {
-            // Grant permissions to apps
-            executor.execute(() -> grantPermissions(context, message.getPayloadJSON()));
-            return;
-        } else if (message.getMessageType().equals(PushMessage.TYPE_CLEAR_APP_DATA)) {
-            // Clear application data
-            executor.execute(() -> clearAppData(context, message.getPayloadJSON()));
+        if (dispatcher.dispatch(context, message)) {
             return;
         }
 
         // Send broadcast to all plugins
         Intent intent = new Intent(Const.INTENT_PUSH_NOTIFICATION_PREFIX + message.getMessageType());
-        JSONObject jsonObject = message.getPayloadJSON();
-        if (jsonObject != null) {
-            intent.putExtra(Const.INTENT_PUSH_NOTIFICATION_EXTRA, jsonObject.toString());
+        // The payload is passed as is if it's a valid JSON object
+        if (message.getPayloadData() != null) {
+            intent.putExtra(Const.INTENT_PUSH_NOTIFICATION_EXTRA, message.getPayload());
         }
         context.sendBroadcast(intent);
     }
 
-    private static void runApplication(Context context, JSONObject payload) {
+    public static String getStats() {
+        return dispatcher.getStats();
+    }
+
+    private static void runApplication(Context context, PushPayload payload) {
         if (payload == null) {
             return;
         }
         try {
-            String pkg = payload.getString("pkg");
-            String action = payload.optString("action", null);
-            JSONObject extras = payload.optJSONObject("extra");
-            String data = payload.optString("data", null);
+            String pkg = require(payload.getPkg(), "pkg");
+            String action = payload.getAction();
+            String data = payload.getData();
             Intent launchIntent = context.getPackageManager().getLaunchIntentForPackage(pkg);
             if (launchIntent != null) {
                 if (action != null) {
@@ -168,23 +159,7 @@ public class PushNotificationProcessor {
                         e.printStackTrace();
                     }
                 }
-                if (extras != null) {
-                    Iterator<String> keys = extras.keys();
-                    String key;
-                    while (keys.hasNext()) {
-                        key = keys.next();
-                        Object value = extras.get(key);
-                        if (value instanceof String) {
-                            launchIntent.putExtra(key, (String) value);
-                        } else if (value instanceof Integer) {
-                            launchIntent.putExtra(key, ((Integer) value).intValue());
-                        } else if (value instanceof Float) {
-                            launchIntent.putExtra(key, ((Float) value).floatValue());
-                        } else if (value instanceof Boolean) {
-                            launchIntent.putExtra(key, ((Boolean) value).booleanValue());
-                        }
-                    }
-                }
+                putExtras(launchIntent, payload.getExtras());
 
                 // These magic flags are found in the source code of the default Android launcher
                 // These flags preserve the app activity stack (otherwise a launch activity appears at the top which is not correct)
@@ -197,15 +172,14 @@ public class PushNotificationProcessor {
         }
     }
 
-    private static void sendBroadcast(Context context, JSONObject payload) {
+    private static void sendBroadcast(Context context, PushPayload payload) {
         if (payload == null) {
             return;
         }
         try {
-            String pkg = payload.optString("pkg", null);
-            String action = payload.optString("action", null);
-            JSONObject extras = payload.optJSONObject("extra");
-            String data = payload.optString("data", null);
+            String pkg = payload.getPkg();
+            String action = payload.getAction();
+            String data = payload.getData();
             Intent intent = new Intent();
             if (pkg != null) {
                 intent.setPackage(pkg);
@@ -220,23 +194,7 @@ public class PushNotificationProcessor {
                     e.printStackTrace();
                 }
             }
-            if (extras != null) {
-                Iterator<String> keys = extras.keys();
-                String key;
-                while (keys.hasNext()) {
-                    key = keys.next();
-                    Object value = extras.get(key);
-                    if (value instanceof String) {
-                        intent.putExtra(key, (String) value);
-                    } else if (value instanceof Integer) {
-                        intent.putExtra(key, ((Integer) value).intValue());
-                    } else if (value instanceof Float) {
-                        intent.putExtra(key, ((Float) value).floatValue());
-                    } else if (value instanceof Boolean) {
-                        intent.putExtra(key, ((Boolean) value).booleanValue());
-                    }
-                }
-            }
+            putExtras(intent, payload.getExtras());
             context.sendBroadcast(intent);
 
         } catch (Exception e) {
@@ -244,7 +202,28 @@ public class PushNotificationProcessor {
         }
     }
 
-    private static void uninstallApplication(Context context, JSONObject payload) {
+    private static void putExtras(Intent intent, Map<String, Object> extras) {
+        for (Map.Entry<String, Object> extra : extras.entrySet()) {
+            Object value = extra.getValue();
+            if (value instanceof String) {
+                intent.putExtra(extra.getKey(), (String) value);
+            } else if (value instanceof Integer) {
+                intent.putExtra(extra.getKey(), ((Integer) value).intValue());
+            } else if (value instanceof Boolean) {
+                intent.putExtra(extra.getKey(), ((Boolean) value).booleanValue());
+            }
+        }
+    }
+
+    // A missing parameter fails the command, the handler logs the message
+    private static String require(String value, String name) throws Exception {
+        if (value == null) {
+            throw new Exception("no " + name + " specified");
+        }
+        return value;
+    }
+
+    private static void uninstallApplication(Context context, PushPayload payload) {
         if (payload == null) {
             RemoteLogger.log(context, Const.LOG_WARN, "Uninstall request failed: no package specified");
             return;
@@ -256,7 +235,7 @@ public class PushNotificationProcessor {
         }
 
         try {
-            String pkg = payload.getString("pkg");
+            String pkg = require(payload.getPkg(), "pkg");
             InstallUtils.silentUninstallApplication(context, pkg);
             RemoteLogger.log(context, Const.LOG_INFO, "Uninstalled application: " + pkg);
         } catch (Exception e) {
@@ -265,14 +244,14 @@ public class PushNotificationProcessor {
         }
     }
 
-    private static void deleteFile(Context context, JSONObject payload) {
+    private static void deleteFile(Context context, PushPayload payload) {
         if (payload == null) {
             RemoteLogger.log(context, Const.LOG_WARN, "File delete failed: no path specified");
             return;
         }
 
         try {
-            String path = payload.getString("path");
+            String path = require(payload.getPath(), "path");
             File file = new File(Environment.getExternalStorageDirectory(), path);
             file.delete();
             RemoteLogger.log(context, Const.LOG_INFO, "Deleted file: " + path);
@@ -292,14 +271,14 @@ public class PushNotificationProcessor {
         fileOrDirectory.delete();
     }
 
-    private static void deleteDir(Context context, JSONObject payload) {
+    private static void deleteDir(Context context, PushPayload payload) {
         if (payload == null) {
             RemoteLogger.log(context, Const.LOG_WARN, "Directory delete failed: no path specified");
             return;
         }
 
         try {
-            String path = payload.getString("path");
+            String path = require(payload.getPath(), "path");
             File file = new File(Environment.getExternalStorageDirectory(), path);
             deleteRecursive(file);
             RemoteLogger.log(context, Const.LOG_INFO, "Deleted directory: " + path);
@@ -309,20 +288,20 @@ public class PushNotificationProcessor {
         }
     }
 
-    private static void purgeDir(Context context, JSONObject payload) {
+    private static void purgeDir(Context context, PushPayload payload) {
         if (payload == null) {
             RemoteLogger.log(context, Const.LOG_WARN, "Directory purge failed: no path specified");
             return;
         }
 
         try {
-            String path = payload.getString("path");
+            String path = require(payload.getPath(), "path");
             File file = new File(Environment.getExternalStorageDirectory(), path);
             if (!file.isDirectory()) {
                 RemoteLogger.log(context, Const.LOG_WARN, "Directory purge failed: not a directory: " + path);
                 return;
             }
-            String recursive = payload.optString("recursive");
+            String recursive = payload.getRecursive();
             File[] childFiles = file.listFiles();
             for (File child : childFiles) {
                 if (recursive == null || !recursive.equals("1")) {
@@ -340,14 +319,14 @@ public class PushNotificationProcessor {
         }
     }
 
-    private static void runCommand(Context context, JSONObject payload) {
+    private static void runCommand(Context context, PushPayload payload) {
         if (payload == null) {
             RemoteLogger.log(context, Const.LOG_WARN, "Command failed: no command specified");
             return;
         }
 
         try {
-            String command = payload.getString("command");
+            String command = require(payload.getCommand(), "command");
             Log.d(Const.LOG_TAG, "Executing a command: " + command);
             String result = SystemUtils.executeShellCommand(command, true);
             String msg = "Executed a command: " + command;
@@ -392,17 +371,16 @@ public class PushNotificationProcessor {
         DownloadTable.deleteAll(db);
     }
 
-    private static void callIntent(Context context, JSONObject payload) {
+    private static void callIntent(Context context, PushPayload payload) {
         if (payload == null) {
             RemoteLogger.log(context, Const.LOG_WARN, "Calling intent failed: no parameters specified");
             return;
         }
 
         try {
-            String action = payload.getString("action");
+            String action = require(payload.getAction(), "action");
             Log.d(Const.LOG_TAG, "Calling intent: " + action);
-            JSONObject extras = payload.optJSONObject("extra");
-            String data = payload.optString("data", null);
+            String data = payload.getData();
             Intent i = new Intent(action);
             if (data != null) {
                 try {
@@ -411,23 +389,7 @@ public class PushNotificationProcessor {
                     e.printStackTrace();
                 }
             }
-            if (extras != null) {
-                Iterator<String> keys = extras.keys();
-                String key;
-                while (keys.hasNext()) {
-                    key = keys.next();
-                    Object value = extras.get(key);
-                    if (value instanceof String) {
-                        i.putExtra(key, (String) value);
-                    } else if (value instanceof Integer) {
-                        i.putExtra(key, ((Integer) value).intValue());
-                    } else if (value instanceof Float) {
-                        i.putExtra(key, ((Float) value).floatValue());
-                    } else if (value instanceof Boolean) {
-                        i.putExtra(key, ((Boolean) value).booleanValue());
-                    }
-                }
-            }
+            putExtras(i, payload.getExtras());
             i.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TASK);
             i.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
             context.startActivity(i);
@@ -437,7 +399,7 @@ public class PushNotificationProcessor {
         }
     }
 
-    private static void grantPermissions(Context context, JSONObject payload) {
+    private static void grantPermissions(Context context, PushPayload payload) {
         if (!Utils.isDeviceOwner(context) && !BuildConfig.SYSTEM_PRIVILEGES) {
             RemoteLogger.log(context, Const.LOG_WARN, "Can't auto grant permissions: no device owner");
         }
@@ -446,22 +408,7 @@ public class PushNotificationProcessor {
         List<String> apps = null;
 
         if (payload != null) {
-            apps = new LinkedList<>();
-            String pkg;
-            JSONArray pkgs = payload.optJSONArray("pkg");
-            if (pkgs != null) {
-                for (int i = 0; i < pkgs.length(); i++) {
-                    pkg = pkgs.optString(i);
-                    if (pkg != null) {
-                        apps.add(pkg);
-                    }
-                }
-            } else {
-                pkg = payload.optString("pkg");
-                if (pkg != null) {
-                    apps.add(pkg);
-                }
-            }
+            apps = new LinkedList<>(payload.getPackages());
         } else {
             // By default, grant permissions to all packagee having an URL
             apps = new LinkedList<>();
@@ -480,12 +427,12 @@ public class PushNotificationProcessor {
         }
     }
 
-    private static void clearAppData(Context context, JSONObject payload) {
+    private static void clearAppData(Context context, PushPayload payload) {
         if (payload == null) {
             return;
         }
         try {
-            String pkg = payload.getString("pkg");
+            String pkg = require(payload.getPkg(), "pkg");
             RemoteLogger.log(context, Const.LOG_INFO, "Clearing app data for " + pkg);
             DevicePolicyManager dpm = (DevicePolicyManager) context.getSystemService(Context.DEVICE_POLICY_SERVICE);
             ComponentName adminComponentName = LegacyUtils.getAdminComponentName(context);
@@ -36,7 +36,6 @@ import com.hmdm.launcher.helper.SettingsHelper;
 import com.hmdm.launcher.json.PushMessage;
 import com.hmdm.launcher.json.PushResponse;
 import com.hmdm.launcher.json.ServerConfig;
-import com.hmdm.launcher.server.ServerService;
 import com.hmdm.launcher.server.ServerServiceKeeper;
 import com.hmdm.launcher.util.PushNotificationMqttWrapper;
 import com.hmdm.launcher.util.RemoteLogger;
@@ -44,8 +43,6 @@ import com.hmdm.launcher.util.RemoteLogger;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.net.URLEncoder;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import retrofit2.Response;
@@ -108,10 +105,6 @@ public class PushNotificationWorker extends Worker {
 
     // Query server for incoming messages each 15 minutes
     private Result doPollingWork() {
-        ServerService serverService = ServerServiceKeeper.getServerServiceInstance(context);
-        ServerService secondaryServerService = ServerServiceKeeper.getSecondaryServerServiceInstance(context);
-        Response<PushResponse> response = null;
-
         // Calculate request signature
         String encodedDeviceId = settingsHelper.getDeviceId();
         try {
@@ -126,32 +119,15 @@ public class PushNotificationWorker extends Worker {
         }
 
         RemoteLogger.log(context, Const.LOG_DEBUG, "Querying push notifications");
+        final String requestSignature = signature;
         try {
-            response = serverService.
-                    queryPushNotifications(settingsHelper.getServerProject(), settingsHelper.getDeviceId(), signature).execute();
-        } catch (Exception e) {
-            RemoteLogger.log(context, Const.LOG_WARN, "Failed to query push notifications: " + e.getMessage());
-            e.printStackTrace();
-        }
-
-        try {
-            if (response == null) {
-                response = secondaryServerService.
-                        queryPushNotifications(settingsHelper.getServerProject(), settingsHelper.getDeviceId(), signature).execute();
-            }
+            Response<PushResponse> response = ServerServiceKeeper.executeHedged(context, (serverService, baseUrl) ->
+                    serverService.queryPushNotifications(settingsHelper.getServerProject(), settingsHelper.getDeviceId(), requestSignature));
 
             if ( response.isSuccessful() ) {
                 if ( Const.STATUS_OK.equals( response.body().getStatus() ) && response.body().getData() != null ) {
-                    Map<String, PushMessage> filteredMessages = new HashMap<String, PushMessage>();
                     for (PushMessage message : response.body().getData()) {
-                        // Filter out multiple configuration update requests
-                        if (!message.getMessageType().equals(PushMessage.TYPE_CONFIG_UPDATED) ||
-                                !filteredMessages.containsKey(PushMessage.TYPE_CONFIG_UPDATED)) {
-                            filteredMessages.put(message.getMessageType(), message);
-                        }
-                    }
-                    for (Map.Entry<String, PushMessage> entry : filteredMessages.entrySet()) {
-                        PushNotificationProcessor.process(entry.getValue(), context);
+                        PushMessagePipeline.getInstance().submit(context, message);
                     }
                     return Result.success();
                 } else {
@@ -159,6 +135,7 @@ public class PushNotificationWorker extends Worker {
                 }
             }
         } catch ( Exception e ) {
+            RemoteLogger.log(context, Const.LOG_WARN, "Failed to query push notifications: " + e.getMessage());
             e.printStackTrace();
         }
 
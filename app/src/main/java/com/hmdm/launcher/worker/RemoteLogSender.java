@@ -0,0 +1,97 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.worker;
+
+import com.hmdm.launcher.json.RemoteLogItem;
+import com.hmdm.launcher.server.ServerServiceKeeper;
+import com.hmdm.launcher.util.JsonCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import retrofit2.Response;
+
+/**
+ * Sends a batch of remote logs, gzipped if enabled.
+ * If the server returns an error to a compressed request, the batch is repeated uncompressed,
+ * and if that succeeds, the server is considered not supporting compression and logs are no longer gzipped.
+ */
+public class RemoteLogSender {
+
+    public interface Transport {
+        Response<ResponseBody> execute(ServerServiceKeeper.ServerCall<ResponseBody> call) throws Exception;
+    }
+
+    private static final MediaType JSON_MEDIA_TYPE = MediaType.parse("application/json");
+
+    private volatile boolean compressionSupported;
+
+    public RemoteLogSender(boolean compress) {
+        compressionSupported = compress;
+    }
+
+    public boolean isCompressionSupported() {
+        return compressionSupported;
+    }
+
+    public Response<ResponseBody> send(Transport transport, String project, String deviceId,
+                                       List<RemoteLogItem> logItems) throws Exception {
+        if (compressionSupported) {
+            RequestBody compressedBody = createCompressedBody(logItems);
+            Response<ResponseBody> response = transport.execute((serverService, baseUrl) ->
+                    serverService.sendLogsCompressed(project, deviceId, compressedBody));
+            if (response.isSuccessful()) {
+                return response;
+            }
+            if (response.errorBody() != null) {
+                response.errorBody().close();
+            }
+            Response<ResponseBody> plainResponse = sendPlain(transport, project, deviceId, logItems);
+            if (plainResponse.isSuccessful()) {
+                // The server failed to handle the compressed request only
+                compressionSupported = false;
+            }
+            return plainResponse;
+        }
+        return sendPlain(transport, project, deviceId, logItems);
+    }
+
+    private Response<ResponseBody> sendPlain(Transport transport, String project, String deviceId,
+                                             List<RemoteLogItem> logItems) throws Exception {
+        return transport.execute((serverService, baseUrl) ->
+                serverService.sendLogs(project, deviceId, logItems));
+    }
+
+    private RequestBody createCompressedBody(List<RemoteLogItem> logItems) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bos);
+        try {
+            JsonCodec.write(gzip, logItems);
+        } finally {
+            gzip.close();
+        }
+        return RequestBody.create(bos.toByteArray(), JSON_MEDIA_TYPE);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.worker;
+
+import android.util.Log;
+
+import com.hmdm.launcher.Const;
+import com.hmdm.launcher.json.RemoteLogItem;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Uploads stored remote logs in batches limited by an estimated size of their JSON.
+ * The size limit doubles after each successful upload and halves after a failure,
+ * so a backlog is sent in a few large requests on a good connection.
+ */
+public class RemoteLogUploader {
+
+    public interface Storage {
+        // Returns the items having the lowest IDs
+        List<RemoteLogItem> selectFirst(int limit);
+
+        // Deletes items with IDs from fromId to toId inclusive
+        void deleteRange(long fromId, long toId);
+    }
+
+    public interface Uploader {
+        // Returns true on success and false on failure
+        boolean upload(List<RemoteLogItem> items) throws Exception;
+    }
+
+    // Size of log messages sent to server at once (estimated size of JSON in bytes)
+    public static final int MIN_UPLOAD_BYTES = 4 * 1024;
+    public static final int INITIAL_UPLOAD_BYTES = 32 * 1024;
+    public static final int MAX_UPLOAD_BYTES = 512 * 1024;
+
+    // Max amount of log messages sent to server at once, whatever their size.
+    // It used to be 10 when the batch size was fixed; now it only caps batches of short messages
+    public static final int MAX_UPLOADED_MESSAGES = 1000;
+
+    // Estimated size of JSON of a log message without its text
+    static final int ITEM_OVERHEAD_BYTES = 80;
+
+    private int uploadBytes = INITIAL_UPLOAD_BYTES;
+
+    public synchronized int getUploadBytes() {
+        return uploadBytes;
+    }
+
+    // Returns true if all stored items are uploaded, false if an upload failed
+    public synchronized boolean uploadAll(Storage storage, Uploader uploader) {
+        while (true) {
+            List<RemoteLogItem> unsentItems = selectBatch(storage);
+            Log.i(Const.LOG_TAG, "Remote logger: unsent items: " + unsentItems.size());
+            if (unsentItems.size() == 0) {
+                return true;
+            }
+
+            boolean uploaded = false;
+            boolean timedOut = false;
+            try {
+                uploaded = uploader.upload(unsentItems);
+            } catch (Exception e) {
+                e.printStackTrace();
+                timedOut = e instanceof SocketTimeoutException;
+            }
+
+            if (!uploaded) {
+                int prevUploadBytes = uploadBytes;
+                uploadBytes = Math.max(uploadBytes / 2, MIN_UPLOAD_BYTES);
+                if (timedOut && uploadBytes < prevUploadBytes && unsentItems.size() > 1) {
+                    // The batch may be too large for a slow connection, retry with a smaller one
+                    Log.i(Const.LOG_TAG, "Logs upload timed out, retry with batch size " + uploadBytes);
+                    continue;
+                }
+                return false;
+            }
+
+            Log.i(Const.LOG_TAG, "Logs are uploaded");
+            uploadBytes = Math.min(uploadBytes * 2, MAX_UPLOAD_BYTES);
+            // Mark items as sent and query next items
+            // Items are selected in the ID order so there's no unsent items within the range
+            storage.deleteRange(unsentItems.get(0).getId(), unsentItems.get(unsentItems.size() - 1).getId());
+        }
+    }
+
+    // Selects the oldest items fitting into the current upload size
+    private List<RemoteLogItem> selectBatch(Storage storage) {
+        int limit = Math.min(uploadBytes / ITEM_OVERHEAD_BYTES + 1, MAX_UPLOADED_MESSAGES);
+        List<RemoteLogItem> items = storage.selectFirst(limit);
+        List<RemoteLogItem> batch = new ArrayList<>();
+        int size = 0;
+        for (RemoteLogItem item : items) {
+            int itemSize = estimateSize(item);
+            if (batch.size() > 0 && size + itemSize > uploadBytes) {
+                break;
+            }
+            batch.add(item);
+            size += itemSize;
+        }
+        return batch;
+    }
+
+    static int estimateSize(RemoteLogItem item) {
+        return ITEM_OVERHEAD_BYTES +
+                (item.getMessage() != null ? item.getMessage().length() : 0) +
+                (item.getPackageId() != null ? item.getPackageId().length() : 0);
+    }
+}
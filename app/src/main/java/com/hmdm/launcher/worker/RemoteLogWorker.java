@@ -29,12 +29,12 @@ import androidx.work.WorkManager;
 import androidx.work.Worker;
 import androidx.work.WorkerParameters;
 
+import com.hmdm.launcher.BuildConfig;
 import com.hmdm.launcher.Const;
 import com.hmdm.launcher.db.DatabaseHelper;
 import com.hmdm.launcher.db.LogTable;
 import com.hmdm.launcher.helper.SettingsHelper;
 import com.hmdm.launcher.json.RemoteLogItem;
-import com.hmdm.launcher.server.ServerService;
 import com.hmdm.launcher.server.ServerServiceKeeper;
 
 import java.util.List;
@@ -45,9 +45,6 @@ import retrofit2.Response;
 
 public class RemoteLogWorker extends Worker {
 
-    // Amount of log messages sent to server at once
-    public static final int MAX_UPLOADED_MESSAGES = 10;
-
     // Logs are sent once per minute to reduce the server load
     public static final int FIRE_PERIOD_MINS = 1;
 
@@ -58,6 +55,12 @@ public class RemoteLogWorker extends Worker {
 
     private static boolean uploadScheduled = false;
 
+    // Stops compressing logs if the server doesn't accept gzipped logs
+    private static final RemoteLogSender sender = new RemoteLogSender(BuildConfig.COMPRESS_LOGS);
+
+    // Keeps the batch size between runs
+    private static final RemoteLogUploader uploader = new RemoteLogUploader();
+
     private Context context;
     private SettingsHelper settingsHelper;
 
@@ -95,28 +98,29 @@ public class RemoteLogWorker extends Worker {
     // This is running in a background thread by WorkManager
     public Result doWork() {
         try {
-            DatabaseHelper dbHelper = DatabaseHelper.instance(context);
-
-            while (true) {
-                List<RemoteLogItem> unsentItems = LogTable.select(dbHelper.getReadableDatabase(), MAX_UPLOADED_MESSAGES);
-                Log.i(Const.LOG_TAG, "Remote logger: unsent items: " + unsentItems.size());
-                if (unsentItems.size() == 0) {
-                    uploadScheduled = false;
-                    return Result.success();
+            final DatabaseHelper dbHelper = DatabaseHelper.instance(context);
+            RemoteLogUploader.Storage storage = new RemoteLogUploader.Storage() {
+                @Override
+                public List<RemoteLogItem> selectFirst(int limit) {
+                    return LogTable.selectFirst(dbHelper.getReadableDatabase(), limit);
                 }
-                if (!upload(unsentItems)) {
-                    // There was an error: retry!
-                    // XXX: we do not use Result.retry() here because new logs may come
-                    Log.i(Const.LOG_TAG, "Failed to upload logs: retry in " + FIRE_PERIOD_RETRY_MINS + " mins");
-                    uploadScheduled = false;
-                    scheduleUpload(context, FIRE_PERIOD_RETRY_MINS);
-                    return Result.failure();
-                } else {
-                    Log.i(Const.LOG_TAG, "Logs are uploaded");
-                    // Mark items as sent and query next items
-                    LogTable.delete(DatabaseHelper.instance(context).getWritableDatabase(), unsentItems);
+
+                @Override
+                public void deleteRange(long fromId, long toId) {
+                    LogTable.deleteRange(dbHelper.getWritableDatabase(), fromId, toId);
                 }
+            };
+
+            if (!uploader.uploadAll(storage, items -> sendLogs(items).isSuccessful())) {
+                // There was an error: retry!
+                // XXX: we do not use Result.retry() here because new logs may come
+                Log.i(Const.LOG_TAG, "Failed to upload logs: retry in " + FIRE_PERIOD_RETRY_MINS + " mins");
+                uploadScheduled = false;
+                scheduleUpload(context, FIRE_PERIOD_RETRY_MINS);
+                return Result.failure();
             }
+            uploadScheduled = false;
+            return Result.success();
         } catch (Exception e) {
             // Oops... WTF? We need to retry!
             e.printStackTrace();
@@ -126,28 +130,13 @@ public class RemoteLogWorker extends Worker {
         }
     }
 
-    // Returns true on success and false on failure
-    public boolean upload(List<RemoteLogItem> logItems) {
-        ServerService serverService = ServerServiceKeeper.getServerServiceInstance(context);
-        ServerService secondaryServerService = ServerServiceKeeper.getSecondaryServerServiceInstance(context);
-        Response<ResponseBody> response = null;
-
-        try {
-            response = serverService.sendLogs(settingsHelper.getServerProject(), settingsHelper.getDeviceId(), logItems).execute();
-            return response.isSuccessful();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        try {
-            if (response == null) {
-                response = secondaryServerService.
-                        sendLogs(settingsHelper.getServerProject(), settingsHelper.getDeviceId(), logItems).execute();
-                return response.isSuccessful();
-            }
-        } catch ( Exception e ) {
-            e.printStackTrace();
+    private Response<ResponseBody> sendLogs(List<RemoteLogItem> logItems) throws Exception {
+        boolean compressed = sender.isCompressionSupported();
+        Response<ResponseBody> response = sender.send(call -> ServerServiceKeeper.execute(context, call),
+                settingsHelper.getServerProject(), settingsHelper.getDeviceId(), logItems);
+        if (compressed && !sender.isCompressionSupported()) {
+            Log.w(Const.LOG_TAG, "Server failed to handle compressed logs, sending them uncompressed");
         }
-        return false;
+        return response;
     }
 }
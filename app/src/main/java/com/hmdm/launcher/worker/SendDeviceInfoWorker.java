@@ -12,9 +12,9 @@ import androidx.work.WorkerParameters;
 import com.hmdm.launcher.Const;
 import com.hmdm.launcher.helper.SettingsHelper;
 import com.hmdm.launcher.json.DeviceInfo;
-import com.hmdm.launcher.server.ServerService;
 import com.hmdm.launcher.server.ServerServiceKeeper;
 import com.hmdm.launcher.util.DeviceInfoProvider;
+import com.hmdm.launcher.util.PerformanceStats;
 
 import java.util.concurrent.TimeUnit;
 
@@ -45,22 +45,13 @@ public class SendDeviceInfoWorker extends Worker {
             return Result.failure();
         }
 
-        DeviceInfo deviceInfo = DeviceInfoProvider.getDeviceInfo(context, true, true);
-
-        ServerService serverService = ServerServiceKeeper.getServerServiceInstance(context);
-        ServerService secondaryServerService = ServerServiceKeeper.getSecondaryServerServiceInstance(context);
-        Response<ResponseBody> response = null;
+        PerformanceStats.log(context);
 
-        try {
-            response = serverService.sendDevice(settingsHelper.getServerProject(), deviceInfo).execute();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        DeviceInfo deviceInfo = DeviceInfoProvider.getDeviceInfo(context, true, true);
 
         try {
-            if (response == null) {
-                response = secondaryServerService.sendDevice(settingsHelper.getServerProject(), deviceInfo).execute();
-            }
+            Response<ResponseBody> response = ServerServiceKeeper.execute(context, (serverService, baseUrl) ->
+                    serverService.sendDevice(settingsHelper.getServerProject(), deviceInfo));
             if ( response.isSuccessful() ) {
                 SettingsHelper.getInstance(context).setExternalIp(response.headers().get(Const.HEADER_IP_ADDRESS));
                 return Result.success();
@@ -25,6 +25,7 @@ import android.database.sqlite.SQLiteOpenHelper;
 
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 
+import java.io.File;
 import java.util.Iterator;
 
 /**
@@ -136,13 +137,13 @@ class DatabaseMessageStore implements MessageStore {
 	/**
 	 * Constructor - create a DatabaseMessageStore to store arrived MQTT message
 	 * 
-	 * @param service
-	 *            our parent MqttService
+	 * @param traceHandler
+	 *            a place to send trace data, our parent MqttService
 	 * @param context
 	 *            a context to use for android calls
 	 */
-	public DatabaseMessageStore(MqttService service, Context context) {
-		this.traceHandler = service;
+	public DatabaseMessageStore(MqttTraceHandler traceHandler, Context context) {
+		this.traceHandler = traceHandler;
 
 		// Open message database
 		mqttDb = new MQTTDatabaseHelper(traceHandler, context);
@@ -154,6 +155,38 @@ class DatabaseMessageStore implements MessageStore {
 		traceHandler.traceDebug(TAG, "DatabaseMessageStore<init> complete");
 	}
 
+	/**
+	 * Check whether the database has been created, without creating it
+	 *
+	 * @param context
+	 *            a context to use for android calls
+	 * @return true if the database file exists
+	 */
+	static boolean exists(Context context) {
+		return getDatabaseFile(context).exists();
+	}
+
+	/**
+	 * Get the database file, which may not exist yet
+	 *
+	 * @param context
+	 *            a context to use for android calls
+	 * @return the database file
+	 */
+	static File getDatabaseFile(Context context) {
+		return context.getDatabasePath(MQTTDatabaseHelper.DATABASE_NAME);
+	}
+
+	/**
+	 * Delete the database after its messages have been moved to another store
+	 *
+	 * @param context
+	 *            a context to use for android calls
+	 */
+	static void delete(Context context) {
+		context.deleteDatabase(MQTTDatabaseHelper.DATABASE_NAME);
+	}
+
 	/**
 	 * Store an MQTT message
 	 * 
@@ -414,6 +447,7 @@ class DatabaseMessageStore implements MessageStore {
 		DbStoredData(String messageId, String clientHandle, String topic,
 				MqttMessage message) {
 			this.messageId = messageId;
+			this.clientHandle = clientHandle;
 			this.topic = topic;
 			this.message = message;
 		}
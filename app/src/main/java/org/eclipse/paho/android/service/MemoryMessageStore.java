@@ -0,0 +1,388 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eclipse.paho.android.service;
+
+import android.content.Context;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Implementation of the {@link MessageStore} interface keeping the arrived messages in memory.
+ * The amount of stored messages is limited, the oldest messages are dropped on overflow.
+ * If the journal is enabled, each operation is appended to a file so the messages survive
+ * the service restart. The journal is replayed on creation and rewritten when most of its records are obsolete.
+ */
+class MemoryMessageStore implements MessageStore {
+
+    private static final String TAG = "MemoryMessageStore";
+
+    private static final String JOURNAL_NAME = "mqttArrivedMessages.journal";
+    static final int MAX_MESSAGES = 256;
+    // The journal is rewritten when it has this many records and less than a half of them are stored messages
+    static final int JOURNAL_COMPACT_RECORDS = 512;
+
+    private static final byte RECORD_STORE = 1;
+    private static final byte RECORD_DISCARD = 2;
+    private static final byte RECORD_CLEAR = 3;
+
+    private final MqttTraceHandler traceHandler;
+    private final ArrayDeque<MemoryStoredMessage> messages = new ArrayDeque<>();
+    private final File journalFile;
+    private FileOutputStream journal;
+    private int journalRecords;
+    private long nextId = 1;
+
+    public MemoryMessageStore(MqttService service, Context context, boolean useJournal) {
+        this(service, useJournal ? new File(context.getFilesDir(), JOURNAL_NAME) : null);
+    }
+
+    // The journal file is null if the journal is disabled
+    MemoryMessageStore(MqttTraceHandler traceHandler, File journalFile) {
+        this.traceHandler = traceHandler;
+        this.journalFile = journalFile;
+        if (journalFile != null) {
+            replayJournal();
+            rewriteJournal();
+        }
+        traceHandler.traceDebug(TAG, "MemoryMessageStore<init> complete, " + messages.size() + " messages restored");
+    }
+
+    @Override
+    public synchronized String storeArrived(String clientHandle, String topic, MqttMessage message) {
+        String id = Long.toString(nextId++);
+        MemoryStoredMessage stored = new MemoryStoredMessage(id, clientHandle, topic, copyMessage(message));
+        if (messages.size() >= MAX_MESSAGES) {
+            MemoryStoredMessage dropped = messages.removeFirst();
+            traceHandler.traceError(TAG, "storeArrived: store is full, dropped message {" + dropped.messageId + "}");
+        }
+        messages.addLast(stored);
+        appendJournal(RECORD_STORE, stored, null, null);
+        compactJournal();
+        traceHandler.traceDebug(TAG, "storeArrived: stored message with id of {" + id
+                + "} - Number of messages in store = " + messages.size());
+        return id;
+    }
+
+    @Override
+    public synchronized boolean discardArrived(String clientHandle, String id) {
+        Iterator<MemoryStoredMessage> it = messages.iterator();
+        while (it.hasNext()) {
+            MemoryStoredMessage stored = it.next();
+            if (stored.messageId.equals(id) && isSameClient(stored.clientHandle, clientHandle)) {
+                it.remove();
+                appendJournal(RECORD_DISCARD, null, clientHandle, id);
+                compactJournal();
+                return true;
+            }
+        }
+        traceHandler.traceError(TAG, "discardArrived - message {" + id + "} not found");
+        return false;
+    }
+
+    @Override
+    public synchronized Iterator<StoredMessage> getAllArrivedMessages(String clientHandle) {
+        // A copy, so the store may be modified while the backlog is being delivered
+        List<StoredMessage> result = new ArrayList<>();
+        for (MemoryStoredMessage stored : messages) {
+            if (clientHandle == null || clientHandle.equals(stored.clientHandle)) {
+                result.add(stored);
+            }
+        }
+        return result.iterator();
+    }
+
+    @Override
+    public synchronized void clearArrivedMessages(String clientHandle) {
+        int rows = clearMessages(clientHandle);
+        if (rows > 0) {
+            appendJournal(RECORD_CLEAR, null, clientHandle, null);
+            compactJournal();
+        }
+        traceHandler.traceDebug(TAG, "clearArrivedMessages: messages removed = " + rows);
+    }
+
+    boolean hasJournal() {
+        return journalFile != null;
+    }
+
+    @Override
+    public synchronized void close() {
+        closeJournal();
+    }
+
+    private int clearMessages(String clientHandle) {
+        int rows = 0;
+        Iterator<MemoryStoredMessage> it = messages.iterator();
+        while (it.hasNext()) {
+            if (clientHandle == null || clientHandle.equals(it.next().clientHandle)) {
+                it.remove();
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    // Each record is written by a single call, so a crash may only cut off the last record
+    private void appendJournal(byte type, MemoryStoredMessage stored, String clientHandle, String id) {
+        if (journalFile == null) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bos);
+            out.writeByte(type);
+            switch (type) {
+                case RECORD_STORE:
+                    writeMessage(out, stored);
+                    break;
+                case RECORD_DISCARD:
+                    writeNullableString(out, clientHandle);
+                    out.writeUTF(id);
+                    break;
+                case RECORD_CLEAR:
+                    writeNullableString(out, clientHandle);
+                    break;
+            }
+            out.flush();
+            if (journal == null) {
+                journal = new FileOutputStream(journalFile, true);
+            }
+            journal.write(bos.toByteArray());
+            journalRecords++;
+        } catch (IOException e) {
+            traceHandler.traceException(TAG, "appendJournal", e);
+        }
+    }
+
+    // Messages which are never discarded would otherwise keep the journal growing
+    private void compactJournal() {
+        if (journalFile != null && journalRecords >= JOURNAL_COMPACT_RECORDS && journalRecords > 2 * messages.size()) {
+            rewriteJournal();
+        }
+    }
+
+    // Replaces the journal by the records of the messages which are currently stored
+    private void rewriteJournal() {
+        closeJournal();
+        File tmpFile = new File(journalFile.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(tmpFile));
+            try {
+                for (MemoryStoredMessage stored : messages) {
+                    out.writeByte(RECORD_STORE);
+                    writeMessage(out, stored);
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmpFile.renameTo(journalFile)) {
+                throw new IOException("Failed to rename " + tmpFile);
+            }
+            journalRecords = messages.size();
+        } catch (IOException e) {
+            traceHandler.traceException(TAG, "rewriteJournal", e);
+            tmpFile.delete();
+        }
+    }
+
+    private void replayJournal() {
+        if (!journalFile.exists()) {
+            return;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+            try {
+                while (true) {
+                    byte type;
+                    try {
+                        type = in.readByte();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    switch (type) {
+                        case RECORD_STORE:
+                            MemoryStoredMessage stored = readMessage(in);
+                            if (messages.size() >= MAX_MESSAGES) {
+                                messages.removeFirst();
+                            }
+                            messages.addLast(stored);
+                            try {
+                                nextId = Math.max(nextId, Long.parseLong(stored.messageId) + 1);
+                            } catch (NumberFormatException e) {
+                                // Not our ID
+                            }
+                            break;
+                        case RECORD_DISCARD:
+                            String clientHandle = readNullableString(in);
+                            String id = in.readUTF();
+                            Iterator<MemoryStoredMessage> it = messages.iterator();
+                            while (it.hasNext()) {
+                                MemoryStoredMessage m = it.next();
+                                if (m.messageId.equals(id) && isSameClient(m.clientHandle, clientHandle)) {
+                                    it.remove();
+                                    break;
+                                }
+                            }
+                            break;
+                        case RECORD_CLEAR:
+                            clearMessages(readNullableString(in));
+                            break;
+                        default:
+                            throw new IOException("Unknown journal record " + type);
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (EOFException e) {
+            // The last record was cut off by a crash
+            traceHandler.traceError(TAG, "replayJournal: incomplete record at the end of the journal");
+        } catch (IOException e) {
+            traceHandler.traceException(TAG, "replayJournal", e);
+        }
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                // Nothing to do
+            }
+            journal = null;
+        }
+    }
+
+    private static void writeMessage(DataOutputStream out, MemoryStoredMessage stored) throws IOException {
+        out.writeUTF(stored.messageId);
+        writeNullableString(out, stored.clientHandle);
+        writeNullableString(out, stored.topic);
+        MqttMessage message = stored.message;
+        out.writeByte(message.getQos());
+        out.writeBoolean(message.isRetained());
+        out.writeBoolean(message.isDuplicate());
+        byte[] payload = message.getPayload();
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+
+    private static MemoryStoredMessage readMessage(DataInputStream in) throws IOException {
+        String messageId = in.readUTF();
+        String clientHandle = readNullableString(in);
+        String topic = readNullableString(in);
+        int qos = in.readByte();
+        boolean retained = in.readBoolean();
+        boolean duplicate = in.readBoolean();
+        byte[] payload = new byte[in.readInt()];
+        in.readFully(payload);
+        StoredMqttMessage message = new StoredMqttMessage(payload);
+        message.setQos(qos);
+        message.setRetained(retained);
+        message.setDuplicate(duplicate);
+        return new MemoryStoredMessage(messageId, clientHandle, topic, message);
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    // The client may reuse the message object, so it is copied
+    private static MqttMessage copyMessage(MqttMessage message) {
+        StoredMqttMessage copy = new StoredMqttMessage(message.getPayload().clone());
+        copy.setQos(message.getQos());
+        copy.setRetained(message.isRetained());
+        copy.setDuplicate(message.isDuplicate());
+        return copy;
+    }
+
+    private static boolean isSameClient(String s1, String s2) {
+        return s1 == null ? s2 == null : s1.equals(s2);
+    }
+
+    private static class MemoryStoredMessage implements StoredMessage {
+        private final String messageId;
+        private final String clientHandle;
+        private final String topic;
+        private final MqttMessage message;
+
+        MemoryStoredMessage(String messageId, String clientHandle, String topic, MqttMessage message) {
+            this.messageId = messageId;
+            this.clientHandle = clientHandle;
+            this.topic = topic;
+            this.message = message;
+        }
+
+        @Override
+        public String getMessageId() {
+            return messageId;
+        }
+
+        @Override
+        public String getClientHandle() {
+            return clientHandle;
+        }
+
+        @Override
+        public String getTopic() {
+            return topic;
+        }
+
+        @Override
+        public MqttMessage getMessage() {
+            return message;
+        }
+    }
+
+    /**
+     * A way to get at the "setDuplicate" method of MqttMessage
+     */
+    private static class StoredMqttMessage extends MqttMessage {
+
+        StoredMqttMessage(byte[] payload) {
+            super(payload);
+        }
+
+        @Override
+        protected void setDuplicate(boolean dup) {
+            super.setDuplicate(dup);
+        }
+    }
+}
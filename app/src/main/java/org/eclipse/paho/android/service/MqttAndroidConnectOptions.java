@@ -25,7 +25,14 @@ public class MqttAndroidConnectOptions extends MqttConnectOptions {
     public static final int PING_ALARM = 0;
     public static final int PING_WORKER = 1;
 
+    // Where the arrived messages are kept until the application acknowledges them
+    public static final int STORE_DATABASE = 0;
+    public static final int STORE_MEMORY = 1;
+
     private int pingType;
+    private int messageStoreType;
+    // For the memory store only: keep a journal file so messages survive the service restart
+    private boolean messageStoreJournal;
 
     public int getPingType() {
         return pingType;
@@ -34,4 +41,20 @@ public class MqttAndroidConnectOptions extends MqttConnectOptions {
     public void setPingType(int pingType) {
         this.pingType = pingType;
     }
+
+    public int getMessageStoreType() {
+        return messageStoreType;
+    }
+
+    public void setMessageStoreType(int messageStoreType) {
+        this.messageStoreType = messageStoreType;
+    }
+
+    public boolean isMessageStoreJournal() {
+        return messageStoreJournal;
+    }
+
+    public void setMessageStoreJournal(boolean messageStoreJournal) {
+        this.messageStoreJournal = messageStoreJournal;
+    }
 }
@@ -201,6 +201,8 @@ class MqttConnection implements MqttCallbackExtended {
 			cleanSession = options.isCleanSession();
 		}
 
+		service.selectMessageStore(options);
+
 		if (connectOptions.isCleanSession()) { // if it's a clean session,
 			// discard old data
 			service.messageStore.clearArrivedMessages(clientHandle);
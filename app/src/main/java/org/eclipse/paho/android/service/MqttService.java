@@ -53,6 +53,7 @@ import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
 import org.eclipse.paho.client.mqttv3.MqttSecurityException;
 
+import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -249,7 +250,8 @@ public class MqttService extends Service implements MqttTraceHandler {
 
 	// somewhere to persist received messages until we're sure
 	// that they've reached the application
-	MessageStore messageStore;
+	// may be replaced on connect, see selectMessageStore()
+	volatile MessageStore messageStore;
 
 	// An intent receiver to deal with changes in network connectivity
 	private NetworkConnectionIntentReceiver networkConnectionMonitor;
@@ -631,6 +633,52 @@ public class MqttService extends Service implements MqttTraceHandler {
     }
   }
 
+  /**
+   * Replaces the message store if the connect options request another type.
+   * Messages which are not yet acknowledged are moved to the new store.
+   *
+   * @param options the options passed to connect()
+   */
+  synchronized void selectMessageStore(MqttConnectOptions options) {
+    int storeType = MqttAndroidConnectOptions.STORE_DATABASE;
+    boolean journal = false;
+    if (options instanceof MqttAndroidConnectOptions) {
+      storeType = ((MqttAndroidConnectOptions) options).getMessageStoreType();
+      journal = ((MqttAndroidConnectOptions) options).isMessageStoreJournal();
+    }
+
+    MessageStore newStore;
+    if (storeType == MqttAndroidConnectOptions.STORE_MEMORY) {
+      if (messageStore instanceof MemoryMessageStore &&
+              ((MemoryMessageStore) messageStore).hasJournal() == journal) {
+        return;
+      }
+      newStore = new MemoryMessageStore(this, this, journal);
+    } else {
+      if (messageStore instanceof DatabaseMessageStore) {
+        return;
+      }
+      newStore = new DatabaseMessageStore(this, this);
+    }
+    traceDebug(TAG, "selectMessageStore: switching to " + newStore.getClass().getSimpleName());
+
+    // Reading the database creates it, so it's skipped if there's no database yet
+    if (!(messageStore instanceof DatabaseMessageStore) || DatabaseMessageStore.exists(this)) {
+      Iterator<MessageStore.StoredMessage> backlog = messageStore.getAllArrivedMessages(null);
+      while (backlog.hasNext()) {
+        MessageStore.StoredMessage stored = backlog.next();
+        newStore.storeArrived(stored.getClientHandle(), stored.getTopic(), stored.getMessage());
+      }
+      messageStore.clearArrivedMessages(null);
+    }
+    messageStore.close();
+    if (messageStore instanceof DatabaseMessageStore) {
+      // The messages are moved, so the database isn't read again on the next start
+      DatabaseMessageStore.delete(this);
+    }
+    messageStore = newStore;
+  }
+
   // Extend Service
 
   /**
@@ -646,7 +694,10 @@ public class MqttService extends Service implements MqttTraceHandler {
 
     // create somewhere to buffer received messages until
     // we know that they have been passed to the application
-    messageStore = new DatabaseMessageStore(this, this);
+    // The store is selected on connect; the database is only used here if it remains from an earlier start,
+    // so its messages are moved to the selected store
+    messageStore = DatabaseMessageStore.exists(this) ? new DatabaseMessageStore(this, this) :
+            new MemoryMessageStore(this, this, false);
 	}
 
 
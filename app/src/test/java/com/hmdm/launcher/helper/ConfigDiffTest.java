@@ -0,0 +1,180 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.helper;
+
+import com.hmdm.launcher.json.ServerConfig;
+import com.hmdm.launcher.util.JsonCodec;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConfigDiffTest {
+    static final String BASE_CONFIG = "{" +
+            "'title':'Device'," +
+            "'backgroundColor':'#000000'," +
+            "'restrictions':'no_sms'," +
+            "'pushOptions':'mqttWorker'," +
+            "'keepaliveTime':300," +
+            "'runDefaultLauncher':false," +
+            "'custom1':'one'," +
+            "'applications':[" +
+            "  {'pkg':'com.example.app','version':'1.0','code':1,'url':'https://h/app.apk','showIcon':true}," +
+            "  {'pkg':'com.example.old','version':'0','remove':true}]," +
+            "'files':[{'path':'config/app.conf','url':'https://h/app.conf','lastUpdate':100}]," +
+            "'applicationSettings':[{'packageId':'com.hmdm.launcher','name':'proxy','value':'0'}]," +
+            "'actions':[{'action':'android.intent.action.VIEW','packageId':'com.example.browser'}]" +
+            "}";
+
+    @Test
+    public void sameConfigHasNoChanges() throws IOException {
+        ConfigDiff diff = diff(BASE_CONFIG, BASE_CONFIG);
+        assertTrue(diff.isEmpty());
+        assertEquals("none", diff.toString());
+    }
+
+    @Test
+    public void missingSnapshotMeansFullUpdate() throws IOException {
+        ConfigDiff diff = ConfigDiff.compare(null, parse(BASE_CONFIG));
+        assertChanged(diff, ConfigDiff.ALL);
+        assertChanged(ConfigDiff.full(), ConfigDiff.ALL);
+    }
+
+    @Test
+    public void fieldsNotAppliedByStagesAreIgnored() throws IOException {
+        assertTrue(diff(BASE_CONFIG, BASE_CONFIG
+                .replace("'title':'Device'", "'title':'Renamed'")
+                .replace("#000000", "#ffffff")).isEmpty());
+    }
+
+    @Test
+    public void applicationVersionChange() throws IOException {
+        assertChanged(diff(BASE_CONFIG, BASE_CONFIG.replace("'version':'1.0','code':1", "'version':'1.1','code':2")),
+                ConfigDiff.APPLICATIONS);
+    }
+
+    @Test
+    public void applicationRemoved() throws IOException {
+        assertChanged(diff(BASE_CONFIG, BASE_CONFIG.replace(
+                ",  {'pkg':'com.example.old','version':'0','remove':true}", "")),
+                ConfigDiff.APPLICATIONS);
+    }
+
+    @Test
+    public void applicationOrderMatters() throws IOException {
+        // Installation order follows the configuration
+        assertChanged(diff(BASE_CONFIG, BASE_CONFIG.replace(
+                "  {'pkg':'com.example.app','version':'1.0','code':1,'url':'https://h/app.apk','showIcon':true}," +
+                "  {'pkg':'com.example.old','version':'0','remove':true}]",
+                "  {'pkg':'com.example.old','version':'0','remove':true}," +
+                "  {'pkg':'com.example.app','version':'1.0','code':1,'url':'https://h/app.apk','showIcon':true}]")),
+                ConfigDiff.APPLICATIONS);
+    }
+
+    @Test
+    public void fileUpdated() throws IOException {
+        assertChanged(diff(BASE_CONFIG, BASE_CONFIG.replace("'lastUpdate':100", "'lastUpdate':200")),
+                ConfigDiff.FILES);
+    }
+
+    @Test
+    public void customFieldChangesFiles() throws IOException {
+        // File contents may refer to custom fields
+        assertChanged(diff(BASE_CONFIG, BASE_CONFIG.replace("'custom1':'one'", "'custom1':'two'")),
+                ConfigDiff.FILES);
+        assertChanged(diff(BASE_CONFIG, BASE_CONFIG.replace("'custom1':'one'", "'custom1':'one','custom3':'three'")),
+                ConfigDiff.FILES);
+    }
+
+    @Test
+    public void restrictionsChange() throws IOException {
+        assertChanged(diff(BASE_CONFIG, BASE_CONFIG.replace("'no_sms'", "'no_sms,no_outgoing_calls'")),
+                ConfigDiff.RESTRICTIONS);
+    }
+
+    @Test
+    public void applicationSettingsChangePoliciesAndRestrictions() throws IOException {
+        // Proxy and locked packages are set up in the launcher settings
+        assertChanged(diff(BASE_CONFIG, BASE_CONFIG.replace("'name':'proxy','value':'0'", "'name':'proxy','value':'10.0.0.1:3128'")),
+                ConfigDiff.POLICIES | ConfigDiff.RESTRICTIONS);
+    }
+
+    @Test
+    public void defaultLauncherChangesPolicies() throws IOException {
+        assertChanged(diff(BASE_CONFIG, BASE_CONFIG.replace("'runDefaultLauncher':false", "'runDefaultLauncher':true")),
+                ConfigDiff.POLICIES);
+    }
+
+    @Test
+    public void actionsChange() throws IOException {
+        assertChanged(diff(BASE_CONFIG, BASE_CONFIG.replace("com.example.browser", "com.example.kiosk")),
+                ConfigDiff.ACTIONS);
+    }
+
+    @Test
+    public void pushOptionsChange() throws IOException {
+        assertChanged(diff(BASE_CONFIG, BASE_CONFIG.replace("'mqttWorker'", "'polling'")),
+                ConfigDiff.PUSH_OPTIONS);
+        assertChanged(diff(BASE_CONFIG, BASE_CONFIG.replace("'keepaliveTime':300", "'keepaliveTime':600")),
+                ConfigDiff.PUSH_OPTIONS);
+    }
+
+    @Test
+    public void severalSectionsChange() throws IOException {
+        ConfigDiff diff = diff(BASE_CONFIG, BASE_CONFIG
+                .replace("'lastUpdate':100", "'lastUpdate':200")
+                .replace("'no_sms'", "null"));
+        assertChanged(diff, ConfigDiff.FILES | ConfigDiff.RESTRICTIONS);
+        assertEquals("files, restrictions", diff.toString());
+    }
+
+    @Test
+    public void snapshotIsNotAffectedByLaterChangesOfConfig() throws IOException {
+        ServerConfig config = parse(BASE_CONFIG);
+        ConfigDiff.Snapshot snapshot = new ConfigDiff.Snapshot(config);
+        config.getApplications().get(0).setVersion("2.0");
+        config.getFiles().clear();
+
+        assertChanged(ConfigDiff.compare(snapshot, config), ConfigDiff.APPLICATIONS | ConfigDiff.FILES);
+    }
+
+    private static void assertChanged(ConfigDiff diff, int sections) {
+        for (int section = 1; section <= ConfigDiff.ALL; section <<= 1) {
+            String name = ConfigDiff.getSectionName(section);
+            if ((sections & section) != 0) {
+                assertTrue(name + " should be changed", diff.isChanged(section));
+            } else {
+                assertFalse(name + " should not be changed", diff.isChanged(section));
+            }
+        }
+    }
+
+    static ConfigDiff diff(String oldConfig, String newConfig) throws IOException {
+        return ConfigDiff.compare(new ConfigDiff.Snapshot(parse(oldConfig)), parse(newConfig));
+    }
+
+    private static ServerConfig parse(String json) throws IOException {
+        return JsonCodec.read(json.replace('\'', '"'), ServerConfig.class);
+    }
+}
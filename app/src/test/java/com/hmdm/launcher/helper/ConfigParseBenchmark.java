@@ -0,0 +1,126 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.helper;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdm.launcher.json.ServerConfig;
+import com.hmdm.launcher.json.ServerConfigResponse;
+import com.hmdm.launcher.util.JsonCodec;
+import com.hmdm.launcher.util.SignatureVerifyingStream;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares parsing of a signed configuration response of 1000 applications with the previous
+ * implementation (the body read into a string, parsed twice by new mappers and signed by a copy
+ * of its data). See the printed throughput and the memory allocated per response.
+ */
+public class ConfigParseBenchmark {
+    private static final int APP_COUNT = 1000;
+    private static final int ITERATIONS = 50;
+    private static final String SECRET = "changeme-C3z9vi54";
+    private static final String DATA_MARKER = "\"data\":";
+
+    @Test
+    public void parseThroughputAndAllocation() throws Exception {
+        String data = JsonCodec.writeString(ConfigStoreTest.createConfig(APP_COUNT));
+        final byte[] body = ("{\"status\":\"OK\",\"message\":null," + DATA_MARKER + data + "}")
+                .getBytes(StandardCharsets.UTF_8);
+        // The server signs the data without whitespace
+        final String signature = CryptoHelper.getSHA1String(SECRET + data.replaceAll("\\s", ""));
+
+        // Warm up
+        for (int n = 0; n < ITERATIONS; n++) {
+            assertEquals(APP_COUNT, legacyParse(body, signature).getApplications().size());
+            assertEquals(APP_COUNT, streamedParse(body, signature).getApplications().size());
+            sharedMapperParse(body);
+        }
+
+        long[] legacy = measure(() -> legacyParse(body, signature));
+        long[] shared = measure(() -> sharedMapperParse(body));
+        long[] streamed = measure(() -> streamedParse(body, signature));
+
+        System.out.println("Response: " + body.length + " bytes");
+        System.out.println("Previous implementation: " + format(body.length, legacy));
+        System.out.println("Shared mapper, body read into a string, not signed: " + format(body.length, shared));
+        System.out.println("Shared mapper, streamed and signed in one pass: " + format(body.length, streamed));
+    }
+
+    private interface Parser {
+        ServerConfig parse() throws Exception;
+    }
+
+    // Average time and allocated bytes per response
+    private static long[] measure(Parser parser) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int n = 0; n < ITERATIONS; n++) {
+            parser.parse();
+        }
+        long nanos = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+        return new long[] {nanos / ITERATIONS, allocated / ITERATIONS};
+    }
+
+    private static String format(long bytes, long[] result) {
+        return String.format("%.1f MB/s, %d us, %d KB allocated per response",
+                (bytes / (1024.0 * 1024.0)) / (result[0] / 1000000000.0), result[0] / 1000, result[1] / 1024);
+    }
+
+    private static ServerConfig legacyParse(byte[] body, String signature) throws Exception {
+        String serverResponse = new String(body, StandardCharsets.UTF_8);
+        ServerConfigResponse serverConfigResponse = new ObjectMapper().readValue(serverResponse, ServerConfigResponse.class);
+        if (!"OK".equals(serverConfigResponse.getStatus())) {
+            throw new AssertionError();
+        }
+        int pos = serverResponse.indexOf(DATA_MARKER);
+        String serverData = serverResponse.substring(pos + DATA_MARKER.length(), serverResponse.length() - 1);
+        if (!CryptoHelper.getSHA1String(SECRET + serverData.replaceAll("\\s", "")).equalsIgnoreCase(signature)) {
+            throw new AssertionError();
+        }
+        return new ObjectMapper().readValue(serverData, ServerConfig.class);
+    }
+
+    private static ServerConfig sharedMapperParse(byte[] body) throws Exception {
+        return JsonCodec.read(new String(body, StandardCharsets.UTF_8), ServerConfigResponse.class).getData();
+    }
+
+    private static ServerConfig streamedParse(byte[] body, String signature) throws Exception {
+        SignatureVerifyingStream stream = new SignatureVerifyingStream(new ByteArrayInputStream(body), SECRET);
+        ServerConfigResponse response;
+        try {
+            response = JsonCodec.read(stream, ServerConfigResponse.class);
+        } finally {
+            stream.close();
+        }
+        if (!"OK".equals(response.getStatus()) || !signature.equalsIgnoreCase(stream.getSignature())) {
+            throw new AssertionError();
+        }
+        return response.getData();
+    }
+}
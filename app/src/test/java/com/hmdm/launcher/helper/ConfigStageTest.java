@@ -0,0 +1,121 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.helper;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static com.hmdm.launcher.helper.ConfigDiffTest.BASE_CONFIG;
+import static com.hmdm.launcher.helper.ConfigDiffTest.diff;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConfigStageTest {
+
+    @Test
+    public void unchangedConfigSkipsAllStages() throws IOException {
+        assertEquals("[]", executedStages(diff(BASE_CONFIG, BASE_CONFIG)));
+    }
+
+    @Test
+    public void fullUpdateRunsAllStages() {
+        assertEquals("[policies, files, certificates, applications, actions]", executedStages(ConfigDiff.full()));
+    }
+
+    @Test
+    public void applicationChangeRunsApplicationsOnly() throws IOException {
+        assertEquals("[applications]", executedStages(diff(BASE_CONFIG,
+                BASE_CONFIG.replace("'version':'1.0','code':1", "'version':'1.1','code':2"))));
+    }
+
+    @Test
+    public void fileChangeRunsFilesOnly() throws IOException {
+        assertEquals("[files]", executedStages(diff(BASE_CONFIG,
+                BASE_CONFIG.replace("'lastUpdate':100", "'lastUpdate':200"))));
+    }
+
+    @Test
+    public void launcherSettingsChangeRunsPoliciesAndCertificates() throws IOException {
+        // Certificate paths are set in the launcher settings, which belong to the policies
+        assertEquals("[policies, certificates]", executedStages(diff(BASE_CONFIG,
+                BASE_CONFIG.replace("{'packageId':'com.hmdm.launcher','name':'proxy','value':'0'}",
+                        "{'packageId':'com.hmdm.launcher','name':'proxy','value':'0'}," +
+                        "{'packageId':'com.hmdm.launcher','name':'certificates','value':'/sdcard/ca.crt'}"))));
+    }
+
+    @Test
+    public void defaultLauncherChangeRunsPoliciesAndCertificates() throws IOException {
+        assertEquals("[policies, certificates]", executedStages(diff(BASE_CONFIG,
+                BASE_CONFIG.replace("'runDefaultLauncher':false", "'runDefaultLauncher':true"))));
+    }
+
+    @Test
+    public void actionChangeRunsActionsOnly() throws IOException {
+        assertEquals("[actions]", executedStages(diff(BASE_CONFIG,
+                BASE_CONFIG.replace("com.example.browser", "com.example.kiosk"))));
+    }
+
+    @Test
+    public void restrictionsAndPushOptionsDoNotRunSkippableStages() throws IOException {
+        // Restrictions and push options are applied on each update
+        assertEquals("[]", executedStages(diff(BASE_CONFIG, BASE_CONFIG
+                .replace("'no_sms'", "'no_sms,no_outgoing_calls'")
+                .replace("'mqttWorker'", "'polling'"))));
+    }
+
+    @Test
+    public void stageRunsIfDeviceStateDoesNotMatch() throws IOException {
+        ConfigDiff diff = diff(BASE_CONFIG, BASE_CONFIG);
+        assertFalse(ConfigStage.APPLICATIONS.canSkip(diff, () -> false));
+        assertTrue(ConfigStage.APPLICATIONS.canSkip(diff, () -> true));
+        assertTrue(ConfigStage.APPLICATIONS.canSkip(diff, null));
+    }
+
+    @Test
+    public void deviceStateIsNotCheckedForChangedStage() throws IOException {
+        ConfigDiff diff = diff(BASE_CONFIG, BASE_CONFIG.replace("'lastUpdate':100", "'lastUpdate':200"));
+        int[] checks = {0};
+        BooleanSupplier deviceState = () -> {
+            checks[0]++;
+            return true;
+        };
+
+        assertFalse(ConfigStage.FILES.canSkip(diff, deviceState));
+        assertEquals(0, checks[0]);
+        assertTrue(ConfigStage.APPLICATIONS.canSkip(diff, deviceState));
+        assertEquals(1, checks[0]);
+    }
+
+    // Stages in the order ConfigUpdater runs them
+    private static String executedStages(ConfigDiff diff) {
+        List<String> stages = new ArrayList<>();
+        for (ConfigStage stage : ConfigStage.values()) {
+            if (!stage.canSkip(diff, () -> true)) {
+                stages.add(stage.getName());
+            }
+        }
+        return stages.toString();
+    }
+}
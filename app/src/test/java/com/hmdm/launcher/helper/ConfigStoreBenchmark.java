@@ -0,0 +1,121 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.helper;
+
+import com.hmdm.launcher.json.ServerConfig;
+import com.hmdm.launcher.util.JsonCodec;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares loading a configuration of 1000 applications from the config store with parsing
+ * the JSON string which was stored in the preferences earlier. See the printed load time
+ * and the heap retained by the loaded configuration.
+ */
+public class ConfigStoreBenchmark {
+    private static final int APP_COUNT = 1000;
+    private static final int ITERATIONS = 50;
+
+    @Test
+    public void loadTimeAndHeap() throws Exception {
+        File dir = Files.createTempDirectory("configstore").toFile();
+        File file = new File(dir, "config.bin");
+        try {
+            ServerConfig source = ConfigStoreTest.createConfig(APP_COUNT);
+            final String json = JsonCodec.writeString(source);
+            new ConfigStore(file).save(source);
+
+            // Warm up
+            for (int n = 0; n < ITERATIONS; n++) {
+                JsonCodec.read(json, ServerConfig.class);
+                new ConfigStore(file).load().getApplications();
+            }
+
+            long start = System.nanoTime();
+            for (int n = 0; n < ITERATIONS; n++) {
+                JsonCodec.read(json, ServerConfig.class);
+            }
+            long legacyNanos = (System.nanoTime() - start) / ITERATIONS;
+
+            start = System.nanoTime();
+            for (int n = 0; n < ITERATIONS; n++) {
+                new ConfigStore(file).load();
+            }
+            long lazyNanos = (System.nanoTime() - start) / ITERATIONS;
+
+            start = System.nanoTime();
+            for (int n = 0; n < ITERATIONS; n++) {
+                assertEquals(APP_COUNT, new ConfigStore(file).load().getApplications().size());
+            }
+            long decodedNanos = (System.nanoTime() - start) / ITERATIONS;
+
+            long legacyHeap = retainedHeap(() -> JsonCodec.read(json, ServerConfig.class));
+            long lazyHeap = retainedHeap(() -> new ConfigStore(file).load());
+            long decodedHeap = retainedHeap(() -> {
+                ServerConfig config = new ConfigStore(file).load();
+                config.getApplications();
+                return config;
+            });
+
+            System.out.println("Stored JSON: " + json.length() + " characters, config file: " + file.length() + " bytes");
+            System.out.println("Preferences JSON: " + legacyNanos / 1000 + " us, " + legacyHeap / 1024 + " KB retained");
+            System.out.println("Config store: " + lazyNanos / 1000 + " us, " + lazyHeap / 1024 + " KB retained");
+            System.out.println("Config store, applications decoded: " + decodedNanos / 1000 + " us, " + decodedHeap / 1024 + " KB retained");
+        } finally {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private interface Loader {
+        Object load() throws Exception;
+    }
+
+    // Approximate heap used by the loaded object: several copies are kept to smooth out the noise
+    private static long retainedHeap(Loader loader) throws Exception {
+        final int copies = 10;
+        Object[] objects = new Object[copies];
+        long before = usedHeap();
+        for (int n = 0; n < copies; n++) {
+            objects[n] = loader.load();
+        }
+        long after = usedHeap();
+        if (objects[copies - 1] == null) {
+            throw new AssertionError();
+        }
+        return Math.max(0, after - before) / copies;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int n = 0; n < 3; n++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
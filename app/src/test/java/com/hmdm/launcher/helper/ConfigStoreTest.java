@@ -0,0 +1,177 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.helper;
+
+import com.hmdm.launcher.json.Application;
+import com.hmdm.launcher.json.ApplicationSetting;
+import com.hmdm.launcher.json.RemoteFile;
+import com.hmdm.launcher.json.ServerConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConfigStoreTest {
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("configstore").toFile();
+        file = new File(dir, "config.bin");
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void missingFileMeansNoConfig() {
+        assertNull(new ConfigStore(file).load());
+    }
+
+    @Test
+    public void savedConfigIsLoaded() throws Exception {
+        ConfigStore store = new ConfigStore(file);
+        store.save(createConfig(3));
+
+        ConfigStore reader = new ConfigStore(file);
+        ServerConfig config = reader.load();
+        assertNotNull(config);
+        assertEquals(store.getHash(), reader.getHash());
+        assertEquals("Device", config.getTitle());
+        assertEquals(3, config.getApplications().size());
+        assertEquals("com.example.app2", config.getApplications().get(2).getPkg());
+        assertEquals(1, config.getFiles().size());
+        assertEquals("config/app.conf", config.getFiles().get(0).getPath());
+        assertEquals(3, config.getApplicationSettings().size());
+        assertEquals("value1", config.getApplicationSettings().get(1).getValue());
+    }
+
+    @Test
+    public void unchangedConfigIsNotRewritten() throws Exception {
+        ConfigStore store = new ConfigStore(file);
+        store.save(createConfig(3));
+        String hash = store.getHash();
+        assertTrue(file.setLastModified(1000));
+
+        store.save(createConfig(3));
+        assertEquals(hash, store.getHash());
+        assertEquals(1000, file.lastModified());
+
+        store.save(createConfig(4));
+        assertFalse(hash.equals(store.getHash()));
+        assertEquals(4, new ConfigStore(file).load().getApplications().size());
+    }
+
+    @Test
+    public void replacedSectionIsNotDecoded() throws Exception {
+        new ConfigStore(file).save(createConfig(3));
+        ServerConfig config = new ConfigStore(file).load();
+        List<Application> applications = new ArrayList<>();
+        config.setApplications(applications);
+        assertTrue(config.getApplications() == applications);
+    }
+
+    @Test
+    public void damagedFileMeansNoConfig() throws Exception {
+        ConfigStore store = new ConfigStore(file);
+        store.save(createConfig(3));
+        // Change a byte in the last section, after the header
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long position = raf.length() - 10;
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 1);
+        }
+        assertNull(new ConfigStore(file).load());
+        assertFalse(new ConfigStore(file).verify());
+    }
+
+    @Test
+    public void truncatedFileMeansNoConfig() throws Exception {
+        new ConfigStore(file).save(createConfig(3));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() / 2);
+        }
+        assertNull(new ConfigStore(file).load());
+    }
+
+    @Test
+    public void verifyDecodesAllSections() throws Exception {
+        ConfigStore store = new ConfigStore(file);
+        assertFalse(store.verify());
+        store.save(createConfig(3));
+        assertTrue(store.verify());
+    }
+
+    static ServerConfig createConfig(int appCount) {
+        ServerConfig config = new ServerConfig();
+        config.setTitle("Device");
+        config.setBackgroundColor("#000000");
+        List<Application> applications = new ArrayList<>();
+        List<ApplicationSetting> settings = new ArrayList<>();
+        for (int n = 0; n < appCount; n++) {
+            Application application = new Application();
+            application.setPkg("com.example.app" + n);
+            application.setName("Application " + n);
+            application.setVersion("1." + n);
+            application.setCode(n + 1);
+            application.setUrl("https://h-mdm.example/files/app" + n + ".apk");
+            application.setShowIcon(n % 2 == 0);
+            applications.add(application);
+
+            ApplicationSetting setting = new ApplicationSetting();
+            setting.setPackageId(application.getPkg());
+            setting.setName("setting");
+            setting.setValue("value" + n);
+            settings.add(setting);
+        }
+        config.setApplications(applications);
+        config.setApplicationSettings(settings);
+
+        RemoteFile remoteFile = new RemoteFile();
+        remoteFile.setPath("config/app.conf");
+        remoteFile.setUrl("https://h-mdm.example/files/app.conf");
+        remoteFile.setLastUpdate(100L);
+        List<RemoteFile> files = new ArrayList<>();
+        files.add(remoteFile);
+        config.setFiles(files);
+        return config;
+    }
+}
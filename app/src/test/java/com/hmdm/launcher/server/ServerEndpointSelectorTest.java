@@ -0,0 +1,215 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Two local servers: one always responds, the other accepts connections and never responds
+ * until it is "repaired". The time of the selector is simulated, the requests are real.
+ */
+public class ServerEndpointSelectorTest {
+    private static final long TIMEOUT_MS = 300;
+    private static final long PROBE_INTERVAL_MS = 30000;
+
+    private MockWebServer healthy;
+    private MockWebServer blackHole;
+    private volatile boolean blackHoleDown = true;
+    private long now = 1000000;
+    private OkHttpClient client;
+    private OkHttpClient probeClient;
+    private ServerEndpointSelector selector;
+    private String healthyUrl;
+    private String blackHoleUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        Dispatcher dispatcher = new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setBody("OK");
+            }
+        };
+        healthy = new MockWebServer();
+        healthy.setDispatcher(dispatcher);
+        healthy.start();
+        blackHole = new MockWebServer();
+        blackHole.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return blackHoleDown ? new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE) :
+                        new MockResponse();
+            }
+        });
+        blackHole.start();
+        healthyUrl = healthy.url("/").toString();
+        blackHoleUrl = blackHole.url("/").toString();
+
+        client = new OkHttpClient.Builder()
+                .connectTimeout(TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .readTimeout(TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .build();
+        probeClient = client.newBuilder().build();
+        selector = new ServerEndpointSelector(probeClient, () -> now);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        blackHoleDown = false;
+        healthy.shutdown();
+        blackHole.shutdown();
+    }
+
+    @Test
+    public void failedServerIsQueriedLast() throws Exception {
+        assertEquals(healthyUrl, execute(blackHoleUrl, healthyUrl));
+        assertEquals(1, blackHole.getRequestCount());
+
+        long start = System.nanoTime();
+        for (int n = 0; n < 20; n++) {
+            assertEquals(healthyUrl, execute(blackHoleUrl, healthyUrl));
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // No request waits for the timeout of the failed server
+        assertTrue("Elapsed " + elapsedMs + " ms", elapsedMs < 20 * TIMEOUT_MS / 2);
+        assertEquals(1, blackHole.getRequestCount());
+        assertEquals(21, healthy.getRequestCount());
+    }
+
+    @Test
+    public void failedServerIsProbedWithBackoff() throws Exception {
+        execute(blackHoleUrl, healthyUrl);
+
+        // The probe is sent in the background, the healthy server is still queried first
+        now += PROBE_INTERVAL_MS;
+        assertEquals(healthyUrl, selector.getOrder(blackHoleUrl, healthyUrl).get(0));
+        awaitProbes();
+        assertEquals(2, blackHole.getRequestCount());
+        assertEquals("GET", blackHole.takeRequest().getMethod());
+        assertEquals("HEAD", blackHole.takeRequest().getMethod());
+
+        // The second failure doubles the interval
+        now += PROBE_INTERVAL_MS;
+        selector.getOrder(blackHoleUrl, healthyUrl);
+        awaitProbes();
+        assertEquals(2, blackHole.getRequestCount());
+        now += PROBE_INTERVAL_MS;
+        selector.getOrder(blackHoleUrl, healthyUrl);
+        awaitProbes();
+        assertEquals(3, blackHole.getRequestCount());
+    }
+
+    @Test
+    public void repairedServerIsPreferredAgain() throws Exception {
+        execute(blackHoleUrl, healthyUrl);
+        now += PROBE_INTERVAL_MS;
+        selector.getOrder(blackHoleUrl, healthyUrl);
+        awaitProbes();
+        now += 2 * PROBE_INTERVAL_MS;
+        selector.getOrder(blackHoleUrl, healthyUrl);
+        awaitProbes();
+        assertEquals(3, blackHole.getRequestCount());
+
+        // The first successful probe after three failures doesn't make the server healthy yet
+        blackHoleDown = false;
+        now += 4 * PROBE_INTERVAL_MS;
+        selector.getOrder(blackHoleUrl, healthyUrl);
+        awaitProbes();
+        assertEquals(4, blackHole.getRequestCount());
+        assertEquals(healthyUrl, selector.getOrder(blackHoleUrl, healthyUrl).get(0));
+        awaitProbes();
+        assertEquals(5, blackHole.getRequestCount());
+
+        assertEquals(blackHoleUrl, execute(blackHoleUrl, healthyUrl));
+        assertEquals(6, blackHole.getRequestCount());
+    }
+
+    @Test
+    public void unhealthyServerWithoutConsecutiveFailuresIsProbedAfterBaseInterval() throws Exception {
+        for (int n = 0; n < 3; n++) {
+            selector.recordFailure(blackHoleUrl);
+        }
+        // A successful request doesn't make the server healthy after several failures
+        selector.recordSuccess(blackHoleUrl, -1);
+        assertEquals(healthyUrl, selector.getOrder(blackHoleUrl, healthyUrl).get(0));
+        awaitProbes();
+        assertEquals(0, blackHole.getRequestCount());
+
+        now += PROBE_INTERVAL_MS - 1;
+        selector.getOrder(blackHoleUrl, healthyUrl);
+        awaitProbes();
+        assertEquals(0, blackHole.getRequestCount());
+
+        now += 1;
+        selector.getOrder(blackHoleUrl, healthyUrl);
+        awaitProbes();
+        assertEquals(1, blackHole.getRequestCount());
+    }
+
+    @Test
+    public void sameUrlIsRetried() {
+        List<String> order = selector.getOrder(healthyUrl, healthyUrl);
+        assertEquals(2, order.size());
+        assertEquals(healthyUrl, order.get(0));
+        assertEquals(healthyUrl, order.get(1));
+    }
+
+    // Same as ServerServiceKeeper.execute without hedging
+    private String execute(String primaryUrl, String secondaryUrl) throws IOException {
+        IOException error = null;
+        for (String baseUrl : selector.getOrder(primaryUrl, secondaryUrl)) {
+            long start = System.nanoTime();
+            try (Response response = client.newCall(new Request.Builder().url(baseUrl + "rest/public/sync/configuration").build()).execute()) {
+                selector.recordSuccess(baseUrl, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                return baseUrl;
+            } catch (IOException e) {
+                selector.recordFailure(baseUrl);
+                error = e;
+            }
+        }
+        throw error;
+    }
+
+    private void awaitProbes() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10 * TIMEOUT_MS;
+        while (probeClient.dispatcher().runningCallsCount() > 0) {
+            assertTrue("Probe is not completed", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.service;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.TreeMap;
+
+import okhttp3.Headers;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LongPollingSchedulerTest {
+    private static final long MIN_ERROR_DELAY_MS = 60000;
+    private static final long MAX_BACKOFF_MS = 600000;
+    private static final long WALL_CLOCK = 1700000000000L;
+
+    private final Random seeds = new Random(42);
+
+    @Test
+    public void pauseAfterSuccessIsRandomized() {
+        LongPollingScheduler scheduler = scheduler(false);
+        for (int n = 0; n < 1000; n++) {
+            long delay = scheduler.onSuccess();
+            assertTrue(delay >= 2500 && delay <= 7500);
+        }
+    }
+
+    @Test
+    public void pauseAfterErrorIsAtLeastMinute() {
+        LongPollingScheduler scheduler = scheduler(false);
+        for (int n = 0; n < 1000; n++) {
+            long delay = scheduler.onError(n % 2 == 0 ? null : Headers.of("Content-Type", "text/html"));
+            assertTrue("Delay " + delay, delay >= MIN_ERROR_DELAY_MS && delay <= MAX_BACKOFF_MS);
+            if (n % 10 == 9) {
+                scheduler.onSuccess();
+            }
+        }
+    }
+
+    @Test
+    public void pauseGrowsWithConsecutiveErrors() {
+        // Average pauses of many devices: 60 s plus the random part of 0..60 s, 0..120 s, ... 0..540 s
+        long[] expectedSeconds = {90, 120, 180, 300, 330, 330};
+        long[] sums = new long[expectedSeconds.length];
+        for (int device = 0; device < 1000; device++) {
+            LongPollingScheduler scheduler = scheduler(false);
+            for (int n = 0; n < sums.length; n++) {
+                sums[n] += scheduler.onError(null);
+            }
+        }
+        for (int n = 0; n < sums.length; n++) {
+            assertEquals(expectedSeconds[n], sums[n] / 1000 / 1000, expectedSeconds[n] / 20);
+        }
+    }
+
+    @Test
+    public void powerSaveStretchesPauses() {
+        LongPollingScheduler normal = scheduler(3, false);
+        LongPollingScheduler saving = scheduler(3, true);
+        assertEquals(normal.onSuccess() * 3, saving.onSuccess());
+        assertEquals(normal.onError(null) * 3, saving.onError(null));
+    }
+
+    @Test
+    public void retryAfterSecondsIsHonored() {
+        for (int device = 0; device < 1000; device++) {
+            long delay = scheduler(false).onError(Headers.of("Retry-After", "120"));
+            // Not earlier than requested, with up to 10% of jitter
+            assertTrue("Delay " + delay, delay >= 120000 && delay <= 132000);
+        }
+    }
+
+    @Test
+    public void retryAfterDateIsHonored() {
+        Headers headers = new Headers.Builder().set("Retry-After", new Date(WALL_CLOCK + 300000)).build();
+        for (int device = 0; device < 100; device++) {
+            long delay = scheduler(false).onError(headers);
+            assertTrue("Delay " + delay, delay >= 300000 && delay <= 330000);
+        }
+    }
+
+    @Test
+    public void retryAfterIsLimited() {
+        long delay = scheduler(false).onError(Headers.of("Retry-After", "86400"));
+        assertTrue("Delay " + delay, delay <= MAX_BACKOFF_MS * 11 / 10);
+    }
+
+    @Test
+    public void invalidRetryAfterIsIgnored() {
+        long delay = scheduler(false).onError(Headers.of("Retry-After", "soon"));
+        assertTrue(delay >= MIN_ERROR_DELAY_MS && delay <= 2 * MIN_ERROR_DELAY_MS);
+    }
+
+    @Test
+    public void onlyEachNthInquiryIsLoggedWithoutErrors() {
+        LongPollingScheduler scheduler = scheduler(false);
+        int logged = 0;
+        for (int n = 0; n < 100; n++) {
+            if (scheduler.shouldLogInquiry()) {
+                logged++;
+            }
+        }
+        assertEquals(5, logged);
+        scheduler.onError(null);
+        assertTrue(scheduler.shouldLogInquiry());
+        assertTrue(scheduler.shouldLogInquiry());
+        scheduler.onSuccess();
+        assertFalse(scheduler.shouldLogInquiry() && scheduler.shouldLogInquiry());
+    }
+
+    // 10000 devices lose the connection at the same moment, the server is back in 5 minutes
+    @Test
+    public void reconnectStormIsSpread() {
+        final int devices = 10000;
+        final long outage = 300000;
+        TreeMap<Long, Integer> requestsPerSecond = new TreeMap<>();
+        TreeMap<Long, Integer> reconnectsPerSecond = new TreeMap<>();
+        long lastReconnect = 0;
+        for (int device = 0; device < devices; device++) {
+            LongPollingScheduler scheduler = scheduler(false);
+            long time = 0;
+            while (time < outage) {
+                long delay = scheduler.onError(null);
+                assertTrue(delay >= MIN_ERROR_DELAY_MS);
+                time += delay;
+                increment(requestsPerSecond, time / 1000);
+            }
+            increment(reconnectsPerSecond, time / 1000);
+            lastReconnect = Math.max(lastReconnect, time);
+        }
+        int peakRequests = max(requestsPerSecond);
+        int peakReconnects = max(reconnectsPerSecond);
+        // Without jitter, all devices would send each request in the same second
+        assertTrue("Peak " + peakRequests + " requests/s", peakRequests < devices / 20);
+        assertTrue("Peak " + peakReconnects + " reconnects/s", peakReconnects < devices / 50);
+        assertTrue("Last reconnect " + (lastReconnect - outage) / 1000 + " s after the outage",
+                lastReconnect - outage <= MAX_BACKOFF_MS);
+    }
+
+    // The overloaded server asks the devices to return in 2 minutes
+    @Test
+    public void retryAfterStormIsSpread() {
+        final int devices = 10000;
+        TreeMap<Long, Integer> requestsPerSecond = new TreeMap<>();
+        for (int device = 0; device < devices; device++) {
+            long delay = scheduler(false).onError(Headers.of("Retry-After", "120"));
+            increment(requestsPerSecond, delay / 1000);
+        }
+        assertTrue(requestsPerSecond.firstKey() >= 120);
+        assertTrue(requestsPerSecond.size() >= 12);
+        assertTrue(max(requestsPerSecond) < devices / 8);
+    }
+
+    @Test
+    public void serverResponsesSetPauses() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setResponseCode(503).setHeader("Retry-After", "300"));
+        server.enqueue(new MockResponse().setResponseCode(503)
+                .setHeaders(new Headers.Builder().set("Retry-After", new Date(WALL_CLOCK + 240000)).build()));
+        server.enqueue(new MockResponse().setResponseCode(502));
+        server.enqueue(new MockResponse().setResponseCode(500));
+        server.enqueue(new MockResponse().setResponseCode(403));
+        server.enqueue(new MockResponse().setBody("{\"status\":\"OK\",\"data\":[]}"));
+        server.start();
+        try {
+            OkHttpClient client = new OkHttpClient();
+            LongPollingScheduler scheduler = scheduler(false);
+
+            // The overloaded server sets the pause in seconds or by a date
+            long delay = poll(client, server, scheduler);
+            assertTrue("Delay " + delay, delay >= 300000 && delay <= 330000);
+            delay = poll(client, server, scheduler);
+            assertTrue("Delay " + delay, delay >= 240000 && delay <= 264000);
+
+            // Without Retry-After, the backoff of the third consecutive error is used
+            delay = poll(client, server, scheduler);
+            assertTrue("Delay " + delay, delay >= MIN_ERROR_DELAY_MS && delay <= MIN_ERROR_DELAY_MS + 240000);
+
+            // The polling request ended by the server timeout resets the backoff
+            delay = poll(client, server, scheduler);
+            assertTrue("Delay " + delay, delay >= 2500 && delay <= 7500);
+            delay = poll(client, server, scheduler);
+            assertTrue("Delay " + delay, delay >= MIN_ERROR_DELAY_MS && delay <= MIN_ERROR_DELAY_MS + 60000);
+            delay = poll(client, server, scheduler);
+            assertTrue("Delay " + delay, delay >= 2500 && delay <= 7500);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static long poll(OkHttpClient client, MockWebServer server, LongPollingScheduler scheduler) throws Exception {
+        try (Response response = client.newCall(new Request.Builder().url(server.url("/rest/notification/polling/1")).build()).execute()) {
+            return scheduler.onResponse(response.code(), response.headers());
+        }
+    }
+
+    // Each device gets its own random generator
+    private LongPollingScheduler scheduler(boolean powerSaving) {
+        return scheduler(seeds.nextLong(), powerSaving);
+    }
+
+    private static LongPollingScheduler scheduler(long seed, boolean powerSaving) {
+        return new LongPollingScheduler(new Random(seed), () -> powerSaving, () -> WALL_CLOCK);
+    }
+
+    private static void increment(TreeMap<Long, Integer> histogram, long second) {
+        Integer count = histogram.get(second);
+        histogram.put(second, count != null ? count + 1 : 1);
+    }
+
+    private static int max(TreeMap<Long, Integer> histogram) {
+        int max = 0;
+        for (int count : histogram.values()) {
+            max = Math.max(max, count);
+        }
+        return max;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import android.content.pm.PackageInfo;
+
+import com.hmdm.launcher.json.Application;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the time of building the install list with the previous implementation
+ * (a linear duplicate check per app and a configuration scan per downgrade) for 10, 500 and 5000 apps.
+ * Installed packages are looked up in a map in both cases, so the difference is the algorithm only;
+ * on a device, the previous implementation also made a PackageManager call per app. See the printed time.
+ */
+public class AppInstallPlannerBenchmark {
+    private static final int[] SIZES = {10, 500, 5000};
+
+    @Test
+    public void planningTime() {
+        for (int size : SIZES) {
+            Map<String, PackageInfo> installed = new HashMap<>();
+            List<Application> applications = createConfig(size, installed);
+            AppInstallPlanner planner = new AppInstallPlanner("com.hmdm.launcher", installed::get);
+            int repeats = Math.max(1, 50000 / size);
+
+            // Warm up and check that both implementations agree
+            List<Application> planned = planner.createPlan(applications, Collections.<Application>emptyList(),
+                    Collections.<String>emptySet()).getApplications();
+            List<Application> legacy = legacyPlan(applications, installed);
+            assertEquals(legacy, planned);
+
+            long start = System.nanoTime();
+            for (int n = 0; n < repeats; n++) {
+                planner.createPlan(applications, Collections.<Application>emptyList(), Collections.<String>emptySet());
+            }
+            long plannerNanos = (System.nanoTime() - start) / repeats;
+
+            int legacyRepeats = size > 1000 ? 1 : repeats;
+            start = System.nanoTime();
+            for (int n = 0; n < legacyRepeats; n++) {
+                legacyPlan(applications, installed);
+            }
+            long legacyNanos = (System.nanoTime() - start) / legacyRepeats;
+
+            System.out.println("Install list of " + size + " apps (" + planned.size() + " to process): previous "
+                    + legacyNanos / 1000 + " us, planner " + plannerNanos / 1000 + " us");
+        }
+    }
+
+    // A typical configuration: most apps are up to date, some need updates, some are removed
+    private static List<Application> createConfig(int size, Map<String, PackageInfo> installed) {
+        List<Application> applications = new ArrayList<>();
+        for (int n = 0; n < size; n++) {
+            String pkg = "com.example.app" + n;
+            switch (n % 10) {
+                case 0:
+                    // Not installed
+                    applications.add(app(pkg, "1.0", 10));
+                    break;
+                case 1:
+                    // Upgrade
+                    install(installed, pkg, "1.0", 10);
+                    applications.add(app(pkg, "1.1", 11));
+                    break;
+                case 2:
+                    // Allowed downgrade
+                    install(installed, pkg, "2.0", 20);
+                    applications.add(removal(pkg, "2.0", 20));
+                    applications.add(app(pkg, "1.0", 10));
+                    break;
+                case 3:
+                    // Removal of an app which isn't installed
+                    applications.add(removal(pkg, "1.0", 10));
+                    break;
+                default:
+                    install(installed, pkg, "1.0", 10);
+                    applications.add(app(pkg, "1.0", 10));
+                    break;
+            }
+        }
+        return applications;
+    }
+
+    // Previous InstallUtils.generateApplicationsForInstallList() without logging
+    private static List<Application> legacyPlan(List<Application> applications, Map<String, PackageInfo> installed) {
+        List<Application> applicationsForInstall = new ArrayList<>();
+        for (Application a : applications) {
+            if ((a.getType() == null || a.getType().equals(Application.TYPE_APP)) && a.isRemove() &&
+                    !isInList(applicationsForInstall, a)) {
+                applicationsForInstall.add(a);
+            }
+        }
+        for (Application a : applications) {
+            if ((a.getType() == null || a.getType().equals(Application.TYPE_APP)) && !a.isRemove() &&
+                    !isInList(applicationsForInstall, a)) {
+                applicationsForInstall.add(a);
+            }
+        }
+        Iterator<Application> it = applicationsForInstall.iterator();
+        while (it.hasNext()) {
+            Application application = it.next();
+            PackageInfo packageInfo = installed.get(application.getPkg());
+            if (packageInfo == null) {
+                if (application.isRemove()) {
+                    it.remove();
+                }
+                continue;
+            }
+            if (application.isRemove() && !application.getVersion().equals("0") &&
+                    !InstallUtils.areVersionsEqual(packageInfo.versionName, packageInfo.versionCode, application.getVersion(), application.getCode())) {
+                it.remove();
+                continue;
+            }
+            if (!application.isRemove() && (application.isSkipVersion() || application.getVersion().equals("0") ||
+                    InstallUtils.areVersionsEqual(packageInfo.versionName, packageInfo.versionCode, application.getVersion(), application.getCode()))) {
+                it.remove();
+                continue;
+            }
+            if (!application.isRemove() &&
+                    InstallUtils.compareVersions(packageInfo.versionName, packageInfo.versionCode, application.getVersion(), application.getCode()) > 0) {
+                boolean canDowngrade = false;
+                for (Application a : applications) {
+                    if (a.getPkg().equalsIgnoreCase(application.getPkg()) && a.isRemove() &&
+                            InstallUtils.areVersionsEqual(packageInfo.versionName, packageInfo.versionCode, a.getVersion(), a.getCode())) {
+                        canDowngrade = true;
+                        break;
+                    }
+                }
+                if (!canDowngrade) {
+                    it.remove();
+                }
+            }
+        }
+        return applicationsForInstall;
+    }
+
+    private static boolean isInList(List<Application> applicationsForInstall, Application a) {
+        for (Application b : applicationsForInstall) {
+            if (a.getPkg().equalsIgnoreCase(b.getPkg()) &&
+                    a.getVersion().equalsIgnoreCase(b.getVersion()) &&
+                    a.isRemove() == b.isRemove()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void install(Map<String, PackageInfo> installed, String pkg, String versionName, int versionCode) {
+        PackageInfo packageInfo = new PackageInfo();
+        packageInfo.packageName = pkg;
+        packageInfo.versionName = versionName;
+        packageInfo.versionCode = versionCode;
+        installed.put(pkg, packageInfo);
+    }
+
+    private static Application app(String pkg, String version, int code) {
+        Application application = new Application();
+        application.setPkg(pkg);
+        application.setVersion(version);
+        application.setCode(code);
+        application.setUrl("https://h-mdm.com/files/" + pkg + "-" + version + ".apk");
+        return application;
+    }
+
+    private static Application removal(String pkg, String version, int code) {
+        Application application = app(pkg, version, code);
+        application.setRemove(true);
+        return application;
+    }
+}
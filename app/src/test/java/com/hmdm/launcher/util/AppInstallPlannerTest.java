@@ -0,0 +1,211 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import android.content.pm.PackageInfo;
+
+import com.hmdm.launcher.json.Application;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class AppInstallPlannerTest {
+    private static final String SELF_PACKAGE = "com.hmdm.launcher";
+
+    private Map<String, PackageInfo> installed;
+    private AppInstallPlanner planner;
+
+    @Before
+    public void setUp() {
+        installed = new HashMap<>();
+        planner = new AppInstallPlanner(SELF_PACKAGE, pkg -> installed.get(pkg));
+    }
+
+    @Test
+    public void installsMissingApp() {
+        AppInstallPlanner.Step step = planSingle(app("com.example.app", "1.0", 0));
+        assertEquals(AppInstallPlanner.Action.INSTALL, step.getAction());
+        assertNull(step.getInstalledVersion());
+    }
+
+    @Test
+    public void skipsSameVersion() {
+        install("com.example.app", "1.0", 10);
+        assertEquals(AppInstallPlanner.Action.SKIP, planSingle(app("com.example.app", "1.0", 0)).getAction());
+        // Version codes are compared if present
+        assertEquals(AppInstallPlanner.Action.SKIP, planSingle(app("com.example.app", "1.0-beta", 10)).getAction());
+        // Only digits of version names are compared
+        assertEquals(AppInstallPlanner.Action.SKIP, planSingle(app("com.example.app", "v1.0", 0)).getAction());
+    }
+
+    @Test
+    public void skipsAnyVersionIfNotSpecified() {
+        install("com.example.app", "1.0", 10);
+        assertEquals(AppInstallPlanner.Action.SKIP, planSingle(app("com.example.app", "0", 0)).getAction());
+        Application skipVersion = app("com.example.app", "2.0", 0);
+        skipVersion.setSkipVersion(true);
+        assertEquals(AppInstallPlanner.Action.SKIP, planSingle(skipVersion).getAction());
+    }
+
+    @Test
+    public void upgradesOlderVersion() {
+        install("com.example.app", "1.0", 10);
+        AppInstallPlanner.Step step = planSingle(app("com.example.app", "1.1", 0));
+        assertEquals(AppInstallPlanner.Action.UPGRADE, step.getAction());
+        assertEquals("1.0", step.getInstalledVersion());
+        assertEquals(AppInstallPlanner.Action.UPGRADE, planSingle(app("com.example.app", "1.0", 11)).getAction());
+    }
+
+    @Test
+    public void downgradeRequiresRemovalOfInstalledVersion() {
+        install("com.example.app", "2.0", 20);
+        Application older = app("com.example.app", "1.0", 0);
+        assertEquals(AppInstallPlanner.Action.SKIP, planSingle(older).getAction());
+
+        Application removal = removal("com.example.app", "2.0");
+        AppInstallPlanner.Plan plan = plan(older, removal);
+        assertEquals(2, plan.getSteps().size());
+        // Removals go first
+        assertSame(removal, plan.getSteps().get(0).getApplication());
+        assertEquals(AppInstallPlanner.Action.REMOVE, plan.getSteps().get(0).getAction());
+        assertEquals(AppInstallPlanner.Action.DOWNGRADE, plan.getSteps().get(1).getAction());
+        assertEquals(Arrays.asList(removal, older), plan.getApplications());
+    }
+
+    @Test
+    public void removalOfAnotherVersionIsSkipped() {
+        install("com.example.app", "2.0", 20);
+        assertEquals(AppInstallPlanner.Action.SKIP, planSingle(removal("com.example.app", "1.0")).getAction());
+        assertEquals(AppInstallPlanner.Action.REMOVE, planSingle(removal("com.example.app", "0")).getAction());
+        assertEquals(AppInstallPlanner.Action.SKIP, planSingle(removal("com.example.missing", "0")).getAction());
+    }
+
+    @Test
+    public void systemAppsAndWebLinksAreNotInstalled() {
+        assertEquals(AppInstallPlanner.Action.SKIP, planSingle(app("com.android.settings", "1.0", 0, null)).getAction());
+        assertEquals(AppInstallPlanner.Action.SKIP, planSingle(app("com.android.settings", "1.0", 0, " ")).getAction());
+
+        Application web = app("web", "0", 0);
+        web.setType("web");
+        assertEquals(0, plan(web).getSteps().size());
+    }
+
+    @Test
+    public void pendingPackagesAreNotPlanned() {
+        Set<String> pending = new HashSet<>(Collections.singletonList("com.example.app"));
+        AppInstallPlanner.Plan plan = planner.createPlan(Collections.singletonList(app("com.example.app", "1.0", 0)),
+                Collections.<Application>emptyList(), pending);
+        assertEquals(0, plan.getSteps().size());
+    }
+
+    @Test
+    public void queuedAppsStayInOrderAndAreNotDuplicated() {
+        Application queued = app("com.example.queued", "1.0", 0);
+        Application configured = app("com.example.app", "1.0", 0);
+        List<Application> queue = new ArrayList<>(Collections.singletonList(queued));
+
+        AppInstallPlanner.Plan plan = planner.createPlan(Arrays.asList(configured, app("com.example.queued", "1.0", 0)),
+                queue, Collections.<String>emptySet());
+
+        assertEquals(Arrays.asList(queued, configured), plan.getApplications());
+    }
+
+    @Test
+    public void duplicateConfigEntriesArePlannedOnce() {
+        AppInstallPlanner.Plan plan = plan(app("com.example.app", "1.0", 0), app("COM.EXAMPLE.APP", "1.0", 0));
+        assertEquals(1, plan.getSteps().size());
+    }
+
+    @Test
+    public void freeLauncherIsUpgradedToFullVersionOfSameVersion() {
+        install(SELF_PACKAGE, "6.36", 15360);
+        Application full = app(SELF_PACKAGE, "6.36", 15360, "https://h-mdm.com/files/hmdm-6.36-master.apk");
+        assertEquals(AppInstallPlanner.Action.UPGRADE, planSingle(full).getAction());
+        Application same = app(SELF_PACKAGE, "6.36", 15360, "https://h-mdm.com/files/hmdm-6.36-os.apk");
+        assertEquals(AppInstallPlanner.Action.SKIP, planSingle(same).getAction());
+    }
+
+    @Test
+    public void largeConfiguration() {
+        List<Application> applications = new ArrayList<>();
+        for (int n = 0; n < 1000; n++) {
+            String pkg = "com.example.app" + n;
+            if (n % 2 == 0) {
+                install(pkg, "1.0", 1);
+            }
+            applications.add(app(pkg, "1.0", 1));
+        }
+        AppInstallPlanner.Plan plan = planner.createPlan(applications, Collections.<Application>emptyList(),
+                Collections.<String>emptySet());
+        assertEquals(1000, plan.getSteps().size());
+        assertEquals(500, plan.getApplications().size());
+    }
+
+    private AppInstallPlanner.Step planSingle(Application application) {
+        AppInstallPlanner.Plan plan = plan(application);
+        assertEquals(1, plan.getSteps().size());
+        return plan.getSteps().get(0);
+    }
+
+    private AppInstallPlanner.Plan plan(Application... applications) {
+        return planner.createPlan(Arrays.asList(applications), Collections.<Application>emptyList(),
+                Collections.<String>emptySet());
+    }
+
+    private void install(String pkg, String versionName, int versionCode) {
+        PackageInfo packageInfo = new PackageInfo();
+        packageInfo.packageName = pkg;
+        packageInfo.versionName = versionName;
+        packageInfo.versionCode = versionCode;
+        installed.put(pkg, packageInfo);
+    }
+
+    private static Application app(String pkg, String version, int code) {
+        return app(pkg, version, code, "https://h-mdm.com/files/" + pkg + ".apk");
+    }
+
+    private static Application app(String pkg, String version, int code, String url) {
+        Application application = new Application();
+        application.setPkg(pkg);
+        application.setVersion(version);
+        application.setCode(code != 0 ? code : null);
+        application.setUrl(url);
+        return application;
+    }
+
+    private static Application removal(String pkg, String version) {
+        Application application = app(pkg, version, 0);
+        application.setRemove(true);
+        return application;
+    }
+}
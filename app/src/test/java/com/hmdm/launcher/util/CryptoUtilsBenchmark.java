@@ -0,0 +1,114 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the file hashing speed with the previous implementation
+ * (a DigestInputStream read byte by byte). See the printed throughput.
+ */
+public class CryptoUtilsBenchmark {
+    private static final int SMALL_FILE_SIZE = 16 * 1024 * 1024;
+    // Larger than the memory-mapped window
+    private static final int LARGE_FILE_SIZE = 96 * 1024 * 1024;
+
+    @Test
+    public void hashingThroughput() throws Exception {
+        File small = createFile(SMALL_FILE_SIZE);
+        File large = createFile(LARGE_FILE_SIZE);
+        try {
+            // Warm up
+            CryptoUtils.calculateChecksum(small);
+            legacyChecksum(small);
+
+            long start = System.nanoTime();
+            String legacy = legacyChecksum(small);
+            long legacyNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            String buffered = CryptoUtils.calculateChecksum(small);
+            long bufferedNanos = System.nanoTime() - start;
+            assertEquals(legacy, buffered);
+
+            start = System.nanoTime();
+            String mapped = CryptoUtils.calculateChecksum(large);
+            long mappedNanos = System.nanoTime() - start;
+            assertEquals(CryptoUtils.calculateChecksum(new FileInputStream(large)), mapped);
+
+            start = System.nanoTime();
+            CryptoUtils.calculateChecksum(small, CryptoUtils.ALGORITHM_SHA256);
+            long sha256Nanos = System.nanoTime() - start;
+
+            System.out.println("MD5, previous implementation: " + throughput(SMALL_FILE_SIZE, legacyNanos));
+            System.out.println("MD5, buffered: " + throughput(SMALL_FILE_SIZE, bufferedNanos));
+            System.out.println("MD5, memory-mapped: " + throughput(LARGE_FILE_SIZE, mappedNanos));
+            System.out.println("SHA-256, buffered: " + throughput(SMALL_FILE_SIZE, sha256Nanos));
+        } finally {
+            small.delete();
+            large.delete();
+        }
+    }
+
+    private static String throughput(long bytes, long nanos) {
+        return String.format("%.1f MB/s", (bytes / (1024.0 * 1024.0)) / (nanos / 1000000000.0));
+    }
+
+    private static File createFile(int size) throws IOException {
+        File file = File.createTempFile("benchmark", ".bin");
+        byte[] chunk = new byte[1024 * 1024];
+        Random random = new Random(size);
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            for (int written = 0; written < size; written += chunk.length) {
+                random.nextBytes(chunk);
+                fos.write(chunk, 0, Math.min(chunk.length, size - written));
+            }
+        }
+        return file;
+    }
+
+    private static String legacyChecksum(File file) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        try (InputStream is = new BufferedInputStream(new FileInputStream(file));
+             DigestInputStream dis = new DigestInputStream(is, md)) {
+            while (dis.read() != -1) {
+                // digest will consume the content when read() called
+            }
+        }
+        String hashtext = new BigInteger(1, md.digest()).toString(16);
+        while (hashtext.length() < 32) {
+            hashtext = "0" + hashtext;
+        }
+        return hashtext;
+    }
+}
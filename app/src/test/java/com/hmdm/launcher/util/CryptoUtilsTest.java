@@ -0,0 +1,103 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CryptoUtilsTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("checksum", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void md5OfKnownValues() throws IOException {
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", CryptoUtils.calculateChecksum(stream("")));
+        assertEquals("9e107d9d372bb6826bd81d3542a419d6",
+                CryptoUtils.calculateChecksum(stream("The quick brown fox jumps over the lazy dog")));
+        write("The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8));
+        assertEquals("9e107d9d372bb6826bd81d3542a419d6", CryptoUtils.calculateChecksum(file));
+    }
+
+    @Test
+    public void leadingZerosArePreserved() {
+        // MD5 of "jk8ssl" starts with zero bytes
+        assertEquals("0000000018e6137ac2caab16074784a6", CryptoUtils.calculateChecksum(stream("jk8ssl")));
+    }
+
+    @Test
+    public void sha256() {
+        assertEquals("d7a8fbb307d7809469ca9abcb0082e4f8d5651e46d3cdb762d02d0bf37c9e592",
+                CryptoUtils.calculateChecksum(stream("The quick brown fox jumps over the lazy dog"),
+                        CryptoUtils.ALGORITHM_SHA256));
+    }
+
+    @Test
+    public void fileAndStreamChecksumsMatchAcrossBufferBoundaries() throws IOException {
+        byte[] data = new byte[262144 * 3 + 17];
+        new Random(1).nextBytes(data);
+        write(data);
+        assertEquals(CryptoUtils.calculateChecksum(new ByteArrayInputStream(data)), CryptoUtils.calculateChecksum(file));
+    }
+
+    @Test
+    public void mappedFileChecksumMatchesStream() throws IOException {
+        // Files larger than the mapped window are hashed in several windows
+        byte[] data = new byte[65 * 1024 * 1024 + 3];
+        new Random(2).nextBytes(data);
+        write(data);
+        assertEquals(CryptoUtils.calculateChecksum(new ByteArrayInputStream(data)), CryptoUtils.calculateChecksum(file));
+    }
+
+    @Test
+    public void missingFileHasNoChecksum() {
+        file.delete();
+        assertNull(CryptoUtils.calculateChecksum(file));
+    }
+
+    private void write(byte[] data) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(data);
+        }
+    }
+
+    private static ByteArrayInputStream stream(String s) {
+        return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the duration of the install stage when apps are downloaded one by one
+ * and when the next apps are prefetched while the current one is being installed.
+ * Each download is throttled to simulate a slow connection. See the printed time.
+ */
+public class DownloadPrefetcherBenchmark {
+    private static final int APPS = 8;
+    private static final int APP_SIZE = 128 * 1024;
+    // Download of one app takes about 200 ms
+    private static final long THROTTLE_BYTES = 32 * 1024;
+    private static final long THROTTLE_PERIOD_MS = 50;
+    private static final long INSTALL_TIME_MS = 100;
+
+    private MockWebServer server;
+    private File downloadDir;
+    private final OkHttpClient client = new OkHttpClient();
+    private final AtomicInteger fileCounter = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                int index = Integer.parseInt(request.getPath().replaceAll("\\D", ""));
+                return new MockResponse()
+                        .setBody(new Buffer().write(content(index)))
+                        .throttleBody(THROTTLE_BYTES, THROTTLE_PERIOD_MS, TimeUnit.MILLISECONDS);
+            }
+        });
+        server.start();
+        downloadDir = Files.createTempDirectory("prefetch").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+        File[] files = downloadDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        downloadDir.delete();
+    }
+
+    @Test
+    public void installStageDuration() throws Exception {
+        // Warm up the server and the client
+        runInstallStage(0);
+
+        long sequentialMs = runInstallStage(0);
+        // Same as the default PARALLEL_DOWNLOADS = 3
+        long prefetchMs = runInstallStage(2);
+
+        System.out.println("Install stage, " + APPS + " apps, sequential downloads: " + sequentialMs + " ms");
+        System.out.println("Install stage, " + APPS + " apps, 2 apps prefetched: " + prefetchMs + " ms");
+        assertTrue(prefetchMs < sequentialMs);
+    }
+
+    // Follows ConfigUpdater: prefetch the next apps, then take and install the current one
+    private long runInstallStage(int maxPrefetched) throws Exception {
+        DownloadPrefetcher prefetcher = new DownloadPrefetcher(new DownloadPrefetcher.Downloader() {
+            @Override
+            public File download(String url, InstallUtils.DownloadProgress progress) throws Exception {
+                return downloadFile(url);
+            }
+
+            @Override
+            public void delete(File file) {
+                file.delete();
+            }
+        }, maxPrefetched);
+
+        List<Integer> installed = new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            for (int n = 0; n < APPS; n++) {
+                for (int next = n + 1; next < APPS; next++) {
+                    if (!prefetcher.prefetch(url(next))) {
+                        break;
+                    }
+                }
+                File file = prefetcher.take(url(n), null);
+                assertEquals(APP_SIZE, file.length());
+                assertEquals(content(n)[0], Files.readAllBytes(file.toPath())[0]);
+                Thread.sleep(INSTALL_TIME_MS);
+                installed.add(n);
+                file.delete();
+            }
+        } finally {
+            prefetcher.clear();
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // Installation order is kept
+        for (int n = 0; n < APPS; n++) {
+            assertEquals(n, (int) installed.get(n));
+        }
+        return elapsedMs;
+    }
+
+    private File downloadFile(String url) throws IOException {
+        File file = new File(downloadDir, "app" + fileCounter.incrementAndGet() + ".apk");
+        try (Response response = client.newCall(new Request.Builder().url(url).build()).execute();
+             InputStream in = response.body().byteStream();
+             OutputStream out = new FileOutputStream(file)) {
+            byte[] buffer = new byte[16384];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return file;
+    }
+
+    private String url(int index) {
+        return server.url("/files/app" + index + ".apk").toString();
+    }
+
+    private static byte[] content(int index) {
+        byte[] content = new byte[APP_SIZE];
+        Arrays.fill(content, (byte) index);
+        return content;
+    }
+}
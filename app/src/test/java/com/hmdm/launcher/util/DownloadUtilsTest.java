@@ -0,0 +1,410 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Random;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DownloadUtilsTest {
+    private static final String ETAG = "\"v1\"";
+
+    private final byte[] content = new byte[300 * 1024];
+    private final OkHttpClient client = new OkHttpClient();
+    private MockWebServer server;
+    private File dir;
+    private File tempFile;
+
+    // Server behavior
+    private boolean acceptRanges = true;
+    private String etag = ETAG;
+    private int disconnects = 1;
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(1).nextBytes(content);
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return respond(request);
+            }
+        });
+        server.start();
+        dir = Files.createTempDirectory("download").toFile();
+        tempFile = new File(dir, "app.apk");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void interruptedDownloadIsResumed() throws Exception {
+        long resumedBefore = DownloadUtils.getResumedBytes();
+
+        interruptedDownload();
+        long received = tempFile.length();
+        assertTrue(received > 0 && received < content.length);
+        assertTrue(partialInfoFile().exists());
+
+        File file = download();
+
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        assertFalse(partialInfoFile().exists());
+        server.takeRequest();
+        RecordedRequest resumed = server.takeRequest();
+        assertEquals("bytes=" + received + "-", resumed.getHeader("Range"));
+        assertEquals(ETAG, resumed.getHeader("If-Range"));
+        assertEquals(received, DownloadUtils.getResumedBytes() - resumedBefore);
+    }
+
+    @Test
+    public void downloadIsNotResumedWithoutAcceptRanges() throws Exception {
+        acceptRanges = false;
+
+        interruptedDownload();
+        // The partial file is useless, so it's not kept
+        assertFalse(tempFile.exists());
+        assertFalse(partialInfoFile().exists());
+
+        File file = download();
+
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        server.takeRequest();
+        assertNull(server.takeRequest().getHeader("Range"));
+    }
+
+    @Test
+    public void downloadIsNotResumedWithoutStrongValidator() throws Exception {
+        etag = "W/\"v1\"";
+
+        interruptedDownload();
+        assertFalse(tempFile.exists());
+
+        assertArrayEquals(content, Files.readAllBytes(download().toPath()));
+        server.takeRequest();
+        assertNull(server.takeRequest().getHeader("Range"));
+    }
+
+    @Test
+    public void fileChangedOnServerIsDownloadedAgain() throws Exception {
+        interruptedDownload();
+        etag = "\"v2\"";
+        content[0]++;
+
+        File file = download();
+
+        // The server ignored the range because the validator doesn't match
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        server.takeRequest();
+        assertEquals(ETAG, server.takeRequest().getHeader("If-Range"));
+    }
+
+    @Test
+    public void severalInterruptionsAreResumed() throws Exception {
+        disconnects = 3;
+        for (int n = 0; n < 3; n++) {
+            interruptedDownload();
+        }
+
+        assertArrayEquals(content, Files.readAllBytes(download().toPath()));
+        assertEquals(4, server.getRequestCount());
+    }
+
+    @Test
+    public void unsatisfiableRangeRestartsDownload() throws Exception {
+        interruptedDownload();
+        // The partial file is longer than the file on the server
+        try (FileOutputStream fos = new FileOutputStream(tempFile, true)) {
+            fos.write(new byte[content.length]);
+        }
+
+        assertArrayEquals(content, Files.readAllBytes(download().toPath()));
+        server.takeRequest();
+        assertTrue(server.takeRequest().getHeader("Range") != null);
+        assertNull(server.takeRequest().getHeader("Range"));
+    }
+
+    @Test
+    public void partialDownloadOfOtherUrlIsNotResumed() throws Exception {
+        interruptedDownload();
+        Properties info = new Properties();
+        info.setProperty("url", server.url("/files/other.apk").toString());
+        info.setProperty("validator", ETAG);
+        try (FileOutputStream fos = new FileOutputStream(partialInfoFile())) {
+            info.store(fos, null);
+        }
+
+        assertArrayEquals(content, Files.readAllBytes(download().toPath()));
+        server.takeRequest();
+        assertNull(server.takeRequest().getHeader("Range"));
+    }
+
+    @Test
+    public void orphanedPartialDownloadsAreRemoved() throws Exception {
+        File kept = createPartialDownload("kept.apk", "https://h/files/kept.apk");
+        File orphan = createPartialDownload("orphan.apk", "https://h/files/removed.apk");
+        File active = createPartialDownload("active.apk", "https://h/files/active.apk");
+        File unreadable = new File(dir, "broken.apk");
+        Files.write(unreadable.toPath(), new byte[10]);
+        Files.write(new File(dir, "broken.apk" + DownloadUtils.PARTIAL_DOWNLOAD_SUFFIX).toPath(), new byte[0]);
+        File complete = new File(dir, "complete.apk");
+        Files.write(complete.toPath(), new byte[10]);
+
+        int removed = DownloadUtils.removeOrphanedPartialDownloads(dir,
+                new HashSet<>(Collections.singletonList("https://h/files/kept.apk")),
+                Collections.singleton(active.getAbsolutePath()));
+
+        assertEquals(2, removed);
+        assertTrue(kept.exists());
+        assertTrue(new File(kept.getPath() + DownloadUtils.PARTIAL_DOWNLOAD_SUFFIX).exists());
+        assertFalse(orphan.exists());
+        assertFalse(new File(orphan.getPath() + DownloadUtils.PARTIAL_DOWNLOAD_SUFFIX).exists());
+        assertFalse(unreadable.exists());
+        assertTrue(active.exists());
+        // Only partial downloads are removed
+        assertTrue(complete.exists());
+    }
+
+    @Test
+    public void completeStreamedDownloadIsCommitted() throws Exception {
+        disconnects = 0;
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return respond(request).setHeader("Content-MD5", md5(content));
+            }
+        });
+        FakeSession session = new FakeSession();
+
+        stream(session);
+
+        assertTrue(session.committed);
+        assertFalse(session.abandoned);
+        assertArrayEquals(content, session.data.toByteArray());
+    }
+
+    @Test
+    public void streamedDownloadWithoutChecksumIsVerifiedBySize() throws Exception {
+        disconnects = 0;
+        FakeSession session = new FakeSession();
+
+        stream(session);
+
+        assertTrue(session.committed);
+        assertEquals(content.length, session.data.size());
+    }
+
+    @Test
+    public void interruptedStreamedDownloadIsAbandoned() throws Exception {
+        FakeSession session = new FakeSession();
+
+        try {
+            stream(session);
+            fail("Download should be interrupted");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        assertTrue(session.abandoned);
+        assertFalse(session.committed);
+        assertTrue(session.data.size() < content.length);
+    }
+
+    @Test
+    public void streamedDownloadWithWrongChecksumIsAbandoned() throws Exception {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse()
+                        .setBody(new Buffer().write(content))
+                        .setHeader("Content-MD5", md5(new byte[1]));
+            }
+        });
+        FakeSession session = new FakeSession();
+
+        try {
+            stream(session);
+            fail("Checksum mismatch should be detected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Checksum mismatch"));
+        }
+
+        assertTrue(session.abandoned);
+        assertFalse(session.committed);
+    }
+
+    @Test
+    public void streamedDownloadOfUnknownSizeIsAbandoned() throws Exception {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setChunkedBody(new Buffer().write(content), 8192);
+            }
+        });
+        FakeSession session = new FakeSession();
+
+        try {
+            stream(session);
+            fail("Download of unknown size can't be verified");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        assertTrue(session.abandoned);
+        assertEquals(0, session.data.size());
+    }
+
+    private MockResponse respond(RecordedRequest request) {
+        String range = request.getHeader("Range");
+        String ifRange = request.getHeader("If-Range");
+        int offset = 0;
+        if (range != null && etag.equals(ifRange)) {
+            offset = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+            if (offset >= content.length) {
+                return new MockResponse().setResponseCode(416)
+                        .setHeader("Content-Range", "bytes */" + content.length);
+            }
+        }
+        MockResponse response = new MockResponse()
+                .setResponseCode(offset > 0 ? 206 : 200)
+                .setHeader("ETag", etag)
+                .setBody(new Buffer().write(Arrays.copyOfRange(content, offset, content.length)));
+        if (offset > 0) {
+            response.setHeader("Content-Range", "bytes " + offset + "-" + (content.length - 1) + "/" + content.length);
+        }
+        if (acceptRanges) {
+            response.setHeader("Accept-Ranges", "bytes");
+        }
+        if (disconnects > 0) {
+            disconnects--;
+            response.setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+        }
+        return response;
+    }
+
+    private void interruptedDownload() {
+        try {
+            download();
+            fail("Download should be interrupted");
+        } catch (Exception e) {
+            // Expected
+        }
+    }
+
+    private File download() throws Exception {
+        return DownloadUtils.download(client, server.url("/files/app.apk").toString(), tempFile, null,
+                (progress, total, current) -> {});
+    }
+
+    private void stream(FakeSession session) throws IOException {
+        Request request = new Request.Builder().url(server.url("/files/app.apk")).build();
+        try (Response response = client.newCall(request).execute()) {
+            DownloadUtils.streamToSession(response, session, request.url().toString(),
+                    (progress, total, current) -> {});
+        }
+    }
+
+    private static String md5(byte[] data) {
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("MD5").digest(data));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static class FakeSession implements DownloadUtils.InstallSession {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        boolean committed;
+        boolean abandoned;
+
+        @Override
+        public OutputStream openWrite(long length) {
+            return data;
+        }
+
+        @Override
+        public void fsync(OutputStream out) {
+        }
+
+        @Override
+        public void commit() {
+            committed = true;
+        }
+
+        @Override
+        public void abandon() {
+            abandoned = true;
+        }
+    }
+
+    private File partialInfoFile() {
+        return new File(tempFile.getPath() + DownloadUtils.PARTIAL_DOWNLOAD_SUFFIX);
+    }
+
+    private File createPartialDownload(String name, String url) throws IOException {
+        File file = new File(dir, name);
+        Files.write(file.toPath(), new byte[100]);
+        Properties info = new Properties();
+        info.setProperty("url", url);
+        info.setProperty("validator", ETAG);
+        try (FileOutputStream fos = new FileOutputStream(file.getPath() + DownloadUtils.PARTIAL_DOWNLOAD_SUFFIX)) {
+            info.store(fos, null);
+        }
+        return file;
+    }
+}
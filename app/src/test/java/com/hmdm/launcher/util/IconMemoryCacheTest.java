@@ -0,0 +1,117 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class IconMemoryCacheTest {
+    private IconMemoryCache<byte[]> cache;
+
+    @Before
+    public void setUp() {
+        // Sizes in kilobytes, like the icon cache
+        cache = new IconMemoryCache<>(100, value -> value.length / 1024);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        cache.put("com.example.a#0#96", icon(40));
+        cache.put("com.example.b#0#96", icon(40));
+        // Access makes the first entry the most recently used one
+        assertNotNull(cache.get("com.example.a#0#96"));
+        cache.put("com.example.c#0#96", icon(40));
+
+        assertNull(cache.get("com.example.b#0#96"));
+        assertNotNull(cache.get("com.example.a#0#96"));
+        assertNotNull(cache.get("com.example.c#0#96"));
+        assertEquals(80, cache.size());
+        assertEquals(2, cache.count());
+    }
+
+    @Test
+    public void replacedEntryIsNotCountedTwice() {
+        cache.put("com.example.a#0#96", icon(40));
+        cache.put("com.example.a#0#96", icon(60));
+        assertEquals(60, cache.size());
+        assertEquals(1, cache.count());
+
+        cache.put("com.example.b#0#96", icon(40));
+        assertEquals(100, cache.size());
+        assertEquals(2, cache.count());
+    }
+
+    @Test
+    public void entryLargerThanCacheIsNotKept() {
+        cache.put("com.example.a#0#96", icon(40));
+        cache.put("com.example.b#0#96", icon(101));
+        assertNull(cache.get("com.example.b#0#96"));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.count());
+    }
+
+    @Test
+    public void removesAllIconsOfPackage() {
+        cache.put("com.example.a#0#96", icon(10));
+        cache.put("com.example.a#1#96", icon(10));
+        cache.put("com.example.a#0#144", icon(20));
+        // Package names sharing a prefix are not affected, since the prefix includes the separator
+        cache.put("com.example.ab#0#96", icon(10));
+
+        assertEquals(3, cache.removeByPrefix("com.example.a#"));
+        assertNull(cache.get("com.example.a#0#96"));
+        assertNull(cache.get("com.example.a#1#96"));
+        assertNull(cache.get("com.example.a#0#144"));
+        assertNotNull(cache.get("com.example.ab#0#96"));
+        assertEquals(10, cache.size());
+
+        assertEquals(0, cache.removeByPrefix("com.example.a#"));
+    }
+
+    @Test
+    public void removesSingleIcon() {
+        cache.put("com.example.a#0#96", icon(10));
+        cache.put("com.example.a#1#96", icon(20));
+        cache.remove("com.example.a#1#96");
+        cache.remove("com.example.b#0#96");
+        assertNull(cache.get("com.example.a#1#96"));
+        assertNotNull(cache.get("com.example.a#0#96"));
+        assertEquals(10, cache.size());
+    }
+
+    @Test
+    public void freedSpaceIsReused() {
+        cache.put("com.example.a#0#96", icon(50));
+        cache.put("com.example.b#0#96", icon(50));
+        cache.removeByPrefix("com.example.a#");
+        cache.put("com.example.c#0#96", icon(50));
+        assertNotNull(cache.get("com.example.b#0#96"));
+        assertNotNull(cache.get("com.example.c#0#96"));
+        assertEquals(100, cache.size());
+    }
+
+    private static byte[] icon(int kilobytes) {
+        return new byte[kilobytes * 1024];
+    }
+}
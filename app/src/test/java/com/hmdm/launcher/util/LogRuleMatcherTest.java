@@ -0,0 +1,131 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import com.hmdm.launcher.json.RemoteLogConfig;
+import com.hmdm.launcher.json.RemoteLogItem;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LogRuleMatcherTest {
+    private static final String PACKAGE = "com.example.app";
+
+    @Test
+    public void emptyFilterMatchesAnyMessage() {
+        LogRuleMatcher matcher = matcher(rule(PACKAGE, 3, null), rule("com.other", 5, ""));
+        assertTrue(matcher.match(item(PACKAGE, 3, "anything")));
+        assertTrue(matcher.match(item(PACKAGE, 1, null)));
+        assertTrue(matcher.match(item("com.other", 5, "x")));
+    }
+
+    @Test
+    public void levelAndPackageMustMatch() {
+        LogRuleMatcher matcher = matcher(rule(PACKAGE, 3, null));
+        assertFalse(matcher.match(item(PACKAGE, 4, "verbose")));
+        assertFalse(matcher.match(item("com.other", 1, "error")));
+        assertFalse(matcher.match(item(null, 1, "error")));
+        assertFalse(matcher(rule(null, 5, null)).match(item(null, 1, "error")));
+    }
+
+    @Test
+    public void lessVerboseRuleWithFilterDoesNotHideMoreVerboseRule() {
+        LogRuleMatcher matcher = matcher(rule(PACKAGE, 1, "fatal"), rule(PACKAGE, 4, "network"));
+        assertTrue(matcher.match(item(PACKAGE, 3, "network is down")));
+        assertTrue(matcher.match(item(PACKAGE, 1, "fatal error")));
+        assertFalse(matcher.match(item(PACKAGE, 2, "fatal error")));
+        assertFalse(matcher.match(item(PACKAGE, 5, "network is down")));
+    }
+
+    @Test
+    public void filterIsSubstringAndCaseInsensitive() {
+        LogRuleMatcher matcher = matcher(rule(PACKAGE, 5, "Download"));
+        assertTrue(matcher.match(item(PACKAGE, 3, "download failed")));
+        assertTrue(matcher.match(item(PACKAGE, 3, "APK DOWNLOAD FAILED")));
+        assertFalse(matcher.match(item(PACKAGE, 3, "install failed")));
+        assertFalse(matcher.match(item(PACKAGE, 3, null)));
+    }
+
+    @Test
+    public void caseInsensitivityIsAsciiOnly() {
+        // SQLite LIKE folds only ASCII letters
+        LogRuleMatcher matcher = matcher(rule(PACKAGE, 5, "ошибка"));
+        assertTrue(matcher.match(item(PACKAGE, 3, "ошибка сети")));
+        assertFalse(matcher.match(item(PACKAGE, 3, "ОШИБКА сети")));
+    }
+
+    @Test
+    public void percentMatchesAnySequence() {
+        LogRuleMatcher matcher = matcher(rule(PACKAGE, 5, "install%failed"));
+        assertTrue(matcher.match(item(PACKAGE, 3, "install of app.apk failed")));
+        assertTrue(matcher.match(item(PACKAGE, 3, "installfailed")));
+        assertFalse(matcher.match(item(PACKAGE, 3, "failed to install")));
+    }
+
+    @Test
+    public void underscoreMatchesSingleCharacter() {
+        LogRuleMatcher matcher = matcher(rule(PACKAGE, 5, "error _1"));
+        assertTrue(matcher.match(item(PACKAGE, 3, "error #1")));
+        assertTrue(matcher.match(item(PACKAGE, 3, "error \n1")));
+        assertFalse(matcher.match(item(PACKAGE, 3, "error 1")));
+        assertFalse(matcher.match(item(PACKAGE, 3, "error ##1")));
+    }
+
+    @Test
+    public void regexCharactersAreLiterals() {
+        LogRuleMatcher matcher = matcher(rule(PACKAGE, 5, "a.b*(c)[d]\\E$"));
+        assertTrue(matcher.match(item(PACKAGE, 3, "x a.b*(c)[d]\\E$ y")));
+        assertFalse(matcher.match(item(PACKAGE, 3, "axbbb(c)[d]\\E")));
+    }
+
+    @Test
+    public void likeWildcardsCannotBeEscaped() {
+        // The SQL query had no ESCAPE clause, so a backslash doesn't escape a wildcard
+        LogRuleMatcher matcher = matcher(rule(PACKAGE, 5, "100\\%"));
+        assertTrue(matcher.match(item(PACKAGE, 3, "100\\ done")));
+        assertFalse(matcher.match(item(PACKAGE, 3, "100% done")));
+    }
+
+    private static LogRuleMatcher matcher(RemoteLogConfig... rules) {
+        return new LogRuleMatcher(new ArrayList<>(Arrays.asList(rules)));
+    }
+
+    static RemoteLogConfig rule(String packageId, int level, String filter) {
+        RemoteLogConfig config = new RemoteLogConfig();
+        config.setPackageId(packageId);
+        config.setLogLevel(level);
+        config.setFilter(filter);
+        return config;
+    }
+
+    static RemoteLogItem item(String packageId, int level, String message) {
+        RemoteLogItem item = new RemoteLogItem();
+        item.setPackageId(packageId);
+        item.setLogLevel(level);
+        item.setMessage(message);
+        return item;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PackageSnapshotCacheTest {
+    private final Map<String, Integer> installed = new LinkedHashMap<>();
+    private final List<String> loads = new ArrayList<>();
+    private int loadAllCount;
+    private long now = 100000;
+    private PackageSnapshotCache cache;
+
+    @Before
+    public void setUp() {
+        installed.put("com.example.a", 1);
+        installed.put("com.example.b", 1);
+        cache = new PackageSnapshotCache(new PackageSnapshotCache.Loader() {
+            @Override
+            public Map<String, PackageSnapshotCache.PackageEntry> loadAll(Context context) {
+                loadAllCount++;
+                Map<String, PackageSnapshotCache.PackageEntry> result = new LinkedHashMap<>();
+                for (String packageName : installed.keySet()) {
+                    result.put(packageName, load(context, packageName));
+                }
+                return result;
+            }
+
+            @Override
+            public PackageSnapshotCache.PackageEntry load(Context context, String packageName) {
+                loads.add(packageName);
+                Integer versionCode = installed.get(packageName);
+                if (versionCode == null) {
+                    return null;
+                }
+                PackageInfo packageInfo = new PackageInfo();
+                packageInfo.packageName = packageName;
+                packageInfo.versionCode = versionCode;
+                return new PackageSnapshotCache.PackageEntry(packageInfo);
+            }
+        }, () -> now);
+    }
+
+    @Test
+    public void untrackedSnapshotExpires() {
+        assertEquals(1, versionOf("com.example.a"));
+        assertEquals(1, loadAllCount);
+
+        now += PackageSnapshotCache.UNTRACKED_MAX_AGE_MS - 1;
+        assertTrue(cache.isValid());
+        assertEquals(2, cache.getPackages(null).size());
+        assertEquals(1, loadAllCount);
+
+        installed.put("com.example.a", 2);
+        now += 1;
+        assertFalse(cache.isValid());
+        assertEquals(2, versionOf("com.example.a"));
+        assertEquals(2, loadAllCount);
+    }
+
+    @Test
+    public void trackedSnapshotDoesNotExpire() {
+        cache.startTracking();
+        cache.getPackages(null);
+        now += PackageSnapshotCache.UNTRACKED_MAX_AGE_MS * 100;
+        assertTrue(cache.isValid());
+        cache.getPackages(null);
+        assertEquals(1, loadAllCount);
+
+        // Expires as usual when tracking stops
+        cache.stopTracking();
+        assertFalse(cache.isValid());
+    }
+
+    @Test
+    public void refreshesOnlyDirtyPackages() {
+        cache.startTracking();
+        cache.getPackages(null);
+        loads.clear();
+
+        installed.put("com.example.b", 2);
+        installed.put("com.example.c", 1);
+        cache.invalidate("com.example.b");
+        cache.invalidate("com.example.c");
+        // Invalidated packages are loaded once on the next access, not at the time of invalidation
+        assertTrue(loads.isEmpty());
+
+        assertEquals(2, versionOf("com.example.b"));
+        assertEquals(1, versionOf("com.example.c"));
+        assertEquals(1, versionOf("com.example.a"));
+        assertEquals(1, loadAllCount);
+        assertEquals(2, loads.size());
+        assertTrue(loads.contains("com.example.b"));
+        assertTrue(loads.contains("com.example.c"));
+    }
+
+    @Test
+    public void removesUninstalledPackage() {
+        cache.startTracking();
+        cache.getPackages(null);
+
+        installed.remove("com.example.a");
+        cache.invalidate("com.example.a");
+        assertNull(cache.getPackageInfo(null, "com.example.a"));
+        assertEquals(1, cache.getPackages(null).size());
+        assertEquals(1, loadAllCount);
+    }
+
+    @Test
+    public void invalidateBeforeSnapshotIsIgnored() {
+        cache.invalidate("com.example.a");
+        cache.getPackages(null);
+        cache.getPackages(null);
+        assertEquals(1, loadAllCount);
+        // Only the bulk load, no separate refresh of the invalidated package
+        assertEquals(2, loads.size());
+    }
+
+    @Test
+    public void invalidateAllRebuilds() {
+        cache.startTracking();
+        cache.getPackages(null);
+        cache.invalidate("com.example.a");
+        cache.invalidateAll();
+        assertFalse(cache.isValid());
+        cache.getPackages(null);
+        assertEquals(2, loadAllCount);
+    }
+
+    @Test
+    public void firstTrackerInvalidatesSnapshot() {
+        cache.getPackages(null);
+        // Changes made before tracking started are not known
+        cache.startTracking();
+        assertFalse(cache.isValid());
+        cache.getPackages(null);
+        assertEquals(2, loadAllCount);
+
+        // A second tracker doesn't drop the snapshot, and stopping one of two keeps tracking
+        cache.startTracking();
+        cache.stopTracking();
+        now += PackageSnapshotCache.UNTRACKED_MAX_AGE_MS * 100;
+        assertTrue(cache.isValid());
+
+        // Extra calls to stopTracking() don't make the counter negative
+        cache.stopTracking();
+        cache.stopTracking();
+        cache.startTracking();
+        cache.getPackages(null);
+        assertEquals(3, loadAllCount);
+        now += PackageSnapshotCache.UNTRACKED_MAX_AGE_MS * 100;
+        assertTrue(cache.isValid());
+    }
+
+    private int versionOf(String packageName) {
+        return cache.getPackageInfo(null, packageName).versionCode;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import com.hmdm.launcher.json.PushMessage;
+import com.hmdm.launcher.json.PushPayload;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class PushMessageCodecTest {
+
+    @Test
+    public void objectPayloadIsCutOut() throws IOException {
+        PushMessage message = decode("{\"messageType\":\"runApp\",\"payload\":{\"pkg\":\"com.example\",\"extra\":{\"a\":[1,{\"b\":null}]}}}");
+        assertEquals(PushMessage.TYPE_RUN_APP, message.getMessageType());
+        assertEquals("{\"pkg\":\"com.example\",\"extra\":{\"a\":[1,{\"b\":null}]}}", message.getPayload());
+        assertEquals("com.example", message.getPayloadData().getPkg());
+    }
+
+    @Test
+    public void payloadFormattingIsKept() throws IOException {
+        PushMessage message = decode("{ \"payload\" : {\n  \"path\" : \"a b.txt\"\n} , \"messageType\" : \"deleteFile\" }");
+        assertEquals(PushMessage.TYPE_DELETE_FILE, message.getMessageType());
+        assertEquals("{\n  \"path\" : \"a b.txt\"\n}", message.getPayload());
+    }
+
+    @Test
+    public void multiByteCharactersBeforeAndInsidePayload() throws IOException {
+        PushMessage message = decode("{\"comment\":\"Ünïcødé — 端末 😀\",\"messageType\":\"broadcast\"," +
+                "\"payload\":{\"action\":\"ação\",\"data\":\"€\"}}");
+        assertEquals("{\"action\":\"ação\",\"data\":\"€\"}", message.getPayload());
+        assertEquals("ação", message.getPayloadData().getAction());
+    }
+
+    @Test
+    public void stringPayloadIsTakenAsIs() throws IOException {
+        PushMessage message = decode("{\"messageType\":\"runCommand\",\"payload\":\"{\\\"command\\\":\\\"ls\\\"}\"}");
+        assertEquals("{\"command\":\"ls\"}", message.getPayload());
+        assertEquals("ls", message.getPayloadData().getCommand());
+    }
+
+    @Test
+    public void missingOrNullPayload() throws IOException {
+        assertNull(decode("{\"messageType\":\"reboot\"}").getPayload());
+        assertNull(decode("{\"messageType\":\"reboot\",\"payload\":null}").getPayload());
+        assertNull(decode("{\"messageType\":\"reboot\"}").getPayloadData());
+    }
+
+    @Test
+    public void unknownFieldsAreSkipped() throws IOException {
+        PushMessage message = decode("{\"id\":15,\"extra\":{\"messageType\":\"wrong\"},\"list\":[\"messageType\"]," +
+                "\"messageType\":\"configUpdated\"}");
+        assertEquals(PushMessage.TYPE_CONFIG_UPDATED, message.getMessageType());
+    }
+
+    @Test
+    public void messageTypeIsRequired() {
+        assertInvalid("{\"payload\":{}}");
+        assertInvalid("{\"messageType\":15}");
+        assertInvalid("[]");
+        assertInvalid("{\"messageType\":\"reboot\"");
+        assertInvalid("");
+    }
+
+    @Test
+    public void payloadIsParsedOnce() throws Exception {
+        PushMessage message = decode("{\"messageType\":\"intent\",\"payload\":{\"action\":\"VIEW\"," +
+                "\"extra\":{\"s\":\"x\",\"i\":5,\"b\":true,\"f\":1.5,\"o\":{}}}}");
+        PushPayload payload = message.getPayloadData();
+        assertSame(payload, message.getPayloadData());
+        assertEquals("VIEW", payload.getAction());
+        Map<String, Object> extras = payload.getExtras();
+        assertEquals(3, extras.size());
+        assertEquals("x", extras.get("s"));
+        assertEquals(5, extras.get("i"));
+        assertEquals(true, extras.get("b"));
+        try {
+            extras.put("s", "y");
+            fail("Extras are shared by the handlers and must not be changed");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void packageListOrSingle() throws IOException {
+        PushPayload list = decode("{\"messageType\":\"grantPermissions\",\"payload\":{\"pkg\":[\"a\",\"b\"]}}")
+                .getPayloadData();
+        assertEquals(Arrays.asList("a", "b"), list.getPackages());
+        assertNull(list.getPkg());
+        PushPayload single = decode("{\"messageType\":\"grantPermissions\",\"payload\":{\"pkg\":\"a\"}}")
+                .getPayloadData();
+        assertEquals(Arrays.asList("a"), single.getPackages());
+    }
+
+    @Test
+    public void normalizedPayloadIgnoresFormatting() throws IOException {
+        PushMessage compact = decode("{\"messageType\":\"deleteFile\",\"payload\":{\"path\":\"a\"}}");
+        PushMessage formatted = decode("{\"messageType\":\"deleteFile\",\"payload\":{\n  \"path\" : \"a\"\n}}");
+        assertEquals(compact.getNormalizedPayload(), formatted.getNormalizedPayload());
+        assertNull(decode("{\"messageType\":\"deleteFile\",\"payload\":\"not json\"}").getNormalizedPayload());
+    }
+
+    @Test
+    public void sameAsPolledMessage() throws Exception {
+        // The polling response contains the payload as a string
+        PushMessage polled = JsonCodec.read("{\"messageType\":\"uninstallApp\",\"payload\":\"{\\\"pkg\\\":\\\"com.example\\\"}\"}",
+                PushMessage.class);
+        PushMessage received = decode("{\"messageType\":\"uninstallApp\",\"payload\":{\"pkg\":\"com.example\"}}");
+        assertEquals(polled.getMessageType(), received.getMessageType());
+        assertEquals(polled.getPayload(), received.getPayload());
+        assertFalse(JsonCodec.writeString(received).contains("payloadJSON"));
+    }
+
+    private static PushMessage decode(String text) throws IOException {
+        return PushMessageCodec.decode(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertInvalid(String text) {
+        try {
+            decode(text);
+            fail("Decoded " + text);
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+}
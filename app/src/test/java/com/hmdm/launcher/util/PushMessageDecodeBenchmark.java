@@ -0,0 +1,108 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import com.hmdm.launcher.json.PushMessage;
+import com.hmdm.launcher.json.PushPayload;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares handling of a push message with the previous implementation, where the payload was
+ * parsed by org.json twice (for the duplicate check key and by the command handler).
+ * Now it is parsed once by the shared mapper into typed fields. See the printed time and
+ * the memory allocated per message.
+ */
+public class PushMessageDecodeBenchmark {
+    private static final int ITERATIONS = 100000;
+    private static final byte[] MESSAGE = ("{\"messageType\":\"runApp\",\"payload\":{\"pkg\":\"com.example.app\"," +
+            "\"action\":\"android.intent.action.VIEW\",\"data\":\"https://h-mdm.com/\"," +
+            "\"extra\":{\"mode\":\"kiosk\",\"count\":5,\"enabled\":true}}}").getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void decodeTimeAndAllocation() throws Exception {
+        // Warm up
+        for (int n = 0; n < ITERATIONS; n++) {
+            assertEquals("com.example.app", legacyHandle());
+            assertEquals("com.example.app", typedHandle());
+        }
+
+        long[] legacy = measure(PushMessageDecodeBenchmark::legacyHandle);
+        long[] typed = measure(PushMessageDecodeBenchmark::typedHandle);
+
+        System.out.println("Message: " + MESSAGE.length + " bytes");
+        System.out.println("Previous implementation, parsed twice by org.json: " + format(legacy));
+        System.out.println("Parsed once into typed fields: " + format(typed));
+    }
+
+    private interface Handler {
+        String handle() throws Exception;
+    }
+
+    // Average time and allocated bytes per message
+    private static long[] measure(Handler handler) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int n = 0; n < ITERATIONS; n++) {
+            handler.handle();
+        }
+        long nanos = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+        return new long[] {nanos / ITERATIONS, allocated / ITERATIONS};
+    }
+
+    private static String format(long[] result) {
+        return String.format("%d ns, %d bytes allocated per message", result[0], result[1]);
+    }
+
+    private static String legacyHandle() throws Exception {
+        PushMessage message = PushMessageCodec.decode(MESSAGE);
+        String key = message.getMessageType() + "\n" + new JSONObject(message.getPayload()).toString();
+        if (key.isEmpty()) {
+            throw new AssertionError();
+        }
+        JSONObject payload = new JSONObject(message.getPayload());
+        payload.optString("action", null);
+        payload.optString("data", null);
+        payload.optJSONObject("extra").keys();
+        return payload.getString("pkg");
+    }
+
+    private static String typedHandle() throws Exception {
+        PushMessage message = PushMessageCodec.decode(MESSAGE);
+        String key = message.getMessageType() + "\n" + message.getNormalizedPayload();
+        if (key.isEmpty()) {
+            throw new AssertionError();
+        }
+        PushPayload payload = message.getPayloadData();
+        payload.getAction();
+        payload.getData();
+        payload.getExtras();
+        return payload.getPkg();
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import com.hmdm.launcher.json.RemoteLogItem;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RemoteLogWriterTest {
+    private final List<List<String>> batches = new ArrayList<>();
+    private final AtomicInteger afterWriteCalls = new AtomicInteger();
+    private final AtomicInteger emptyRounds = new AtomicInteger();
+    private final AtomicInteger written = new AtomicInteger();
+    private volatile CountDownLatch allWritten = new CountDownLatch(1);
+    private volatile int expected;
+    // Items written since the last afterWrite() call
+    private int writtenInRound;
+
+    private final RemoteLogWriter writer = new RemoteLogWriter(new RemoteLogWriter.Storage() {
+        @Override
+        public void write(List<RemoteLogItem> items) {
+            List<String> messages = new ArrayList<>();
+            for (RemoteLogItem item : items) {
+                messages.add(item.getMessage());
+            }
+            synchronized (batches) {
+                batches.add(messages);
+            }
+            writtenInRound += items.size();
+            if (written.addAndGet(items.size()) >= expected) {
+                allWritten.countDown();
+            }
+        }
+
+        @Override
+        public void afterWrite() {
+            afterWriteCalls.incrementAndGet();
+            if (writtenInRound == 0) {
+                emptyRounds.incrementAndGet();
+            }
+            writtenInRound = 0;
+        }
+    });
+
+    @Test
+    public void queuedItemsAreWrittenInBatches() throws Exception {
+        expected = 250;
+        for (int n = 0; n < 250; n++) {
+            writer.enqueue(item(n));
+        }
+        writer.start();
+        assertTrue(allWritten.await(5, TimeUnit.SECONDS));
+
+        synchronized (batches) {
+            assertEquals(3, batches.size());
+            assertEquals(RemoteLogWriter.BATCH_SIZE, batches.get(0).size());
+            assertEquals(RemoteLogWriter.BATCH_SIZE, batches.get(1).size());
+            assertEquals(50, batches.get(2).size());
+            assertEquals("0", batches.get(0).get(0));
+            assertEquals("249", batches.get(2).get(49));
+        }
+        assertEquals(1, afterWriteCalls.get());
+        assertEquals(0, writer.getQueueSize());
+    }
+
+    @Test
+    public void smallBatchIsWrittenAfterFlushInterval() throws Exception {
+        expected = 3;
+        writer.start();
+        long start = System.nanoTime();
+        for (int n = 0; n < 3; n++) {
+            writer.enqueue(item(n));
+        }
+        assertTrue(allWritten.await(5, TimeUnit.SECONDS));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // The writer waits for more items before writing a partial batch
+        assertTrue("Written after " + elapsedMs + " ms", elapsedMs >= RemoteLogWriter.FLUSH_INTERVAL_MS - 50);
+        synchronized (batches) {
+            assertEquals(1, batches.size());
+            assertEquals(3, batches.get(0).size());
+        }
+    }
+
+    @Test
+    public void oldestItemsAreDroppedOnOverflow() throws Exception {
+        int total = RemoteLogWriter.QUEUE_CAPACITY + 150;
+        for (int n = 0; n < total; n++) {
+            writer.enqueue(item(n));
+        }
+        assertEquals(RemoteLogWriter.QUEUE_CAPACITY, writer.getQueueSize());
+        assertEquals(150, writer.getDroppedCount());
+
+        expected = RemoteLogWriter.QUEUE_CAPACITY;
+        writer.start();
+        assertTrue(allWritten.await(5, TimeUnit.SECONDS));
+        synchronized (batches) {
+            assertEquals("150", batches.get(0).get(0));
+            List<String> last = batches.get(batches.size() - 1);
+            assertEquals(Integer.toString(total - 1), last.get(last.size() - 1));
+        }
+    }
+
+    @Test
+    public void concurrentProducersNeitherLoseItemsNorCauseEmptyRounds() throws Exception {
+        final int threads = 4;
+        final int perThread = 50000;
+        expected = threads * perThread;
+        writer.start();
+
+        AtomicInteger minQueueSize = new AtomicInteger();
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread producer = new Thread(() -> {
+                for (int n = 0; n < perThread; n++) {
+                    writer.enqueue(item(n));
+                    int size = writer.getQueueSize();
+                    if (size < minQueueSize.get()) {
+                        minQueueSize.set(size);
+                    }
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        // Whatever wasn't dropped must reach the storage
+        long deadline = System.currentTimeMillis() + 5000;
+        while (written.get() + writer.getDroppedCount() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, written.get() + writer.getDroppedCount());
+        assertEquals(0, minQueueSize.get());
+        assertEquals(0, emptyRounds.get());
+    }
+
+    private static RemoteLogItem item(int n) {
+        RemoteLogItem item = new RemoteLogItem();
+        item.setPackageId("com.example");
+        item.setLogLevel(4);
+        item.setMessage(Integer.toString(n));
+        return item;
+    }
+}
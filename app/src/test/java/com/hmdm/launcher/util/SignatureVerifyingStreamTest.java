@@ -0,0 +1,194 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import com.hmdm.launcher.helper.CryptoHelper;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SignatureVerifyingStreamTest {
+    private static final String SECRET = "changeme-C3z9vi54";
+
+    @Test
+    public void compactResponse() throws IOException {
+        assertSameSignature("{\"status\":\"OK\",\"message\":null,\"data\":{\"title\":\"Device\",\"applications\":[]}}");
+    }
+
+    @Test
+    public void whitespaceInsideData() throws IOException {
+        assertSameSignature("{\"status\": \"OK\", \"message\": null, \"data\":\n  {\n\t\"title\" : \"My device\",\r\n  \"kioskMode\": false\f}\n}");
+    }
+
+    @Test
+    public void trailingWhitespace() throws IOException {
+        // The old code dropped the last character whatever it was
+        assertSameSignature("{\"status\":\"OK\",\"data\":{\"title\":\"Device\"}}\n");
+        assertSameSignature("{\"status\":\"OK\",\"data\":{\"title\":\"Device\"}}\r\n\n ");
+        assertSameSignature("{\"status\":\"OK\",\"data\":{\"title\":\"Device\"} }");
+    }
+
+    @Test
+    public void multiByteCharacters() throws IOException {
+        assertSameSignature("{\"status\":\"OK\",\"data\":{\"title\":\"Устройство № 1 — 端末 😀\",\"custom1\":\"é\"}}");
+    }
+
+    @Test
+    public void markerInsideMessage() throws IOException {
+        // The first occurrence of the marker is used, as before
+        assertSameSignature("{\"status\":\"OK\",\"message\":\"{\\\"data\\\":1}\",\"data\":{\"title\":\"\\\"data\\\":\"}}");
+    }
+
+    @Test
+    public void missingDataMarker() throws IOException {
+        String response = "{\"status\":\"ERROR\",\"message\":\"error.device.notfound\"}";
+        assertEquals(-1, response.indexOf("\"data\":"));
+        SignatureVerifyingStream stream = new SignatureVerifyingStream(stream(response), SECRET);
+        drain(stream, 1);
+        stream.close();
+        assertNull(stream.getSignature());
+    }
+
+    @Test
+    public void signatureIsAvailableAfterClose() throws IOException {
+        SignatureVerifyingStream stream = new SignatureVerifyingStream(stream("{\"data\":{}}"), SECRET);
+        drain(stream, 4);
+        assertNull(stream.getSignature());
+        stream.close();
+        assertNotNull(stream.getSignature());
+    }
+
+    @Test
+    public void parserStopsEarly() throws IOException {
+        String response = "{\"status\":\"OK\",\"data\":{\"title\":\"Device\",\"applications\":[{\"pkg\":\"a\"}]}}  \n";
+        for (int consumed = 0; consumed <= response.length(); consumed += 7) {
+            SignatureVerifyingStream stream = new SignatureVerifyingStream(stream(response), SECRET);
+            byte[] buffer = new byte[consumed];
+            int count = 0;
+            while (count < consumed) {
+                int read = stream.read(buffer, count, consumed - count);
+                if (read == -1) {
+                    break;
+                }
+                count += read;
+            }
+            stream.close();
+            assertEquals("Consumed " + consumed, legacySignature(response), stream.getSignature());
+        }
+    }
+
+    @Test
+    public void skippedBytesAreDigested() throws IOException {
+        String response = "{\"status\":\"OK\",\"data\":{\"title\":\"Device\"}}";
+        SignatureVerifyingStream stream = new SignatureVerifyingStream(stream(response), SECRET);
+        stream.read();
+        assertEquals(20, stream.skip(20));
+        stream.read();
+        stream.close();
+        assertEquals(legacySignature(response), stream.getSignature());
+    }
+
+    @Test
+    public void capturedText() throws IOException {
+        StringBuilder sb = new StringBuilder("{\"status\":\"OK\",\"data\":\"");
+        while (sb.length() < 5000) {
+            sb.append('x');
+        }
+        sb.append("\"}");
+        SignatureVerifyingStream stream = new SignatureVerifyingStream(stream(sb.toString()), SECRET);
+        stream.close();
+        String captured = stream.getCapturedText();
+        assertTrue(captured.endsWith("..."));
+        assertEquals(sb.substring(0, 4096), captured.substring(0, 4096));
+    }
+
+    @Test
+    public void randomResponses() throws IOException {
+        String[] whitespace = {"", " ", "\n", "\r\n", "\t", "\u000B", "\f", "  \n "};
+        String[] values = {"\"Device\"", "null", "true", "12345", "\"Ünïcødé ✓\"", "[1, 2 ,3]", "{\"a\" : {}}"};
+        Random random = new Random(42);
+        for (int n = 0; n < 500; n++) {
+            StringBuilder sb = new StringBuilder("{\"status\":\"OK\",\"data\":");
+            sb.append(whitespace[random.nextInt(whitespace.length)]).append('{');
+            int fields = random.nextInt(6);
+            for (int f = 0; f < fields; f++) {
+                if (f > 0) {
+                    sb.append(',');
+                }
+                sb.append(whitespace[random.nextInt(whitespace.length)])
+                        .append("\"field").append(f).append("\"")
+                        .append(whitespace[random.nextInt(whitespace.length)]).append(':')
+                        .append(whitespace[random.nextInt(whitespace.length)])
+                        .append(values[random.nextInt(values.length)]);
+            }
+            sb.append(whitespace[random.nextInt(whitespace.length)]).append("}}");
+            sb.append(whitespace[random.nextInt(whitespace.length)]);
+            assertSameSignature(sb.toString(), 1 + random.nextInt(64));
+        }
+    }
+
+    private static void assertSameSignature(String response) throws IOException {
+        assertSameSignature(response, 1);
+        assertSameSignature(response, 8192);
+    }
+
+    private static void assertSameSignature(String response, int chunkSize) throws IOException {
+        SignatureVerifyingStream stream = new SignatureVerifyingStream(stream(response), SECRET);
+        drain(stream, chunkSize);
+        stream.close();
+        assertEquals(response, legacySignature(response), stream.getSignature());
+    }
+
+    // Signature calculation used before the response was streamed
+    private static String legacySignature(String serverResponse) {
+        final String dataMarker = "\"data\":";
+        int pos = serverResponse.indexOf(dataMarker);
+        if (pos == -1) {
+            return null;
+        }
+        String serverData = serverResponse.substring(pos + dataMarker.length(), serverResponse.length() - 1);
+        return CryptoHelper.getSHA1String(SECRET + serverData.replaceAll("\\s", ""));
+    }
+
+    private static InputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void drain(InputStream stream, int chunkSize) throws IOException {
+        if (chunkSize == 1) {
+            while (stream.read() != -1) {
+            }
+            return;
+        }
+        byte[] buffer = new byte[chunkSize];
+        while (stream.read(buffer, 0, chunkSize) != -1) {
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.worker;
+
+import com.hmdm.launcher.json.PushMessage;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PushCommandDispatcherTest {
+    private static final long WAIT_SEC = 5;
+
+    private final List<String> log = Collections.synchronizedList(new ArrayList<>());
+    private final PushCommandDispatcher dispatcher = new PushCommandDispatcher(() -> 0,
+            (context, level, message) -> log.add(message));
+
+    @Test
+    public void unknownCommandIsNotDispatched() {
+        assertFalse(dispatcher.dispatch(null, message("unknown")));
+    }
+
+    @Test
+    public void inlineCommandRunsInCallingThread() {
+        final Thread caller = Thread.currentThread();
+        final AtomicInteger executed = new AtomicInteger();
+        dispatcher.register("inline", PushCommandDispatcher.Lane.INLINE, PushCommandDispatcher.PRIORITY_NORMAL,
+                (context, message) -> {
+                    assertTrue(Thread.currentThread() == caller);
+                    executed.incrementAndGet();
+                });
+        assertTrue(dispatcher.dispatch(null, message("inline")));
+        assertEquals(1, executed.get());
+        assertEquals(0, dispatcher.getQueueDepth("inline"));
+    }
+
+    @Test
+    public void floodIsLimitedPerLane() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(34);
+        dispatcher.register("quick", PushCommandDispatcher.Lane.QUICK, PushCommandDispatcher.PRIORITY_NORMAL,
+                (context, message) -> {
+                    await(release);
+                    done.countDown();
+                });
+        for (int n = 0; n < 100; n++) {
+            assertTrue(dispatcher.dispatch(null, message("quick")));
+        }
+        // Two commands are being executed, 32 are waiting, the rest is dropped
+        awaitQueueDepth("quick", 34);
+        assertEquals(66, log.size());
+        assertTrue(log.get(0).contains("dropped quick"));
+
+        release.countDown();
+        assertTrue(done.await(WAIT_SEC, TimeUnit.SECONDS));
+        awaitQueueDepth("quick", 0);
+        assertTrue(dispatcher.getStats().contains("quick: executed 34, queued 0, rejected 66"));
+    }
+
+    @Test
+    public void floodInOneLaneDoesNotDelayOtherLanes() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch quickDone = new CountDownLatch(1);
+        dispatcher.register("io", PushCommandDispatcher.Lane.IO, PushCommandDispatcher.PRIORITY_NORMAL,
+                (context, message) -> await(release));
+        dispatcher.register("quick", PushCommandDispatcher.Lane.QUICK, PushCommandDispatcher.PRIORITY_NORMAL,
+                (context, message) -> quickDone.countDown());
+        for (int n = 0; n < 50; n++) {
+            dispatcher.dispatch(null, message("io"));
+        }
+        dispatcher.dispatch(null, message("quick"));
+        assertTrue(quickDone.await(WAIT_SEC, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    public void quickLatencyIsBoundedWhileIoAndExclusiveAreFlooded() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        dispatcher.register("purgeDir", PushCommandDispatcher.Lane.IO, PushCommandDispatcher.PRIORITY_LOW,
+                (context, message) -> await(release));
+        dispatcher.register("runCommand", PushCommandDispatcher.Lane.EXCLUSIVE, PushCommandDispatcher.PRIORITY_NORMAL,
+                (context, message) -> await(release));
+        final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        dispatcher.register("clearAppData", PushCommandDispatcher.Lane.QUICK, PushCommandDispatcher.PRIORITY_HIGH,
+                (context, message) -> latencies.add(System.nanoTime() - Long.parseLong(message.getPayload())));
+        for (int n = 0; n < 100; n++) {
+            dispatcher.dispatch(null, message("purgeDir"));
+            dispatcher.dispatch(null, message("runCommand"));
+        }
+        awaitQueueDepth("purgeDir", 33);
+        awaitQueueDepth("runCommand", 33);
+
+        for (int n = 0; n < 20; n++) {
+            dispatcher.dispatch(null, message("clearAppData", Long.toString(System.nanoTime())));
+            Thread.sleep(5);
+        }
+        awaitQueueDepth("clearAppData", 0);
+        release.countDown();
+
+        assertEquals(20, latencies.size());
+        long maxLatencyMs = TimeUnit.NANOSECONDS.toMillis(Collections.max(latencies));
+        assertTrue("Max latency " + maxLatencyMs + " ms", maxLatencyMs < 250);
+    }
+
+    @Test
+    public void higherPriorityIsExecutedFirstWithinLane() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(6);
+        final List<String> order = Collections.synchronizedList(new ArrayList<>());
+        dispatcher.register("block", PushCommandDispatcher.Lane.EXCLUSIVE, PushCommandDispatcher.PRIORITY_HIGH,
+                (context, message) -> await(release));
+        for (final int priority : new int[] {PushCommandDispatcher.PRIORITY_HIGH,
+                PushCommandDispatcher.PRIORITY_NORMAL, PushCommandDispatcher.PRIORITY_LOW}) {
+            dispatcher.register("p" + priority, PushCommandDispatcher.Lane.EXCLUSIVE, priority,
+                    (context, message) -> {
+                        order.add(message.getPayload());
+                        done.countDown();
+                    });
+        }
+        dispatcher.dispatch(null, message("block"));
+        awaitQueueDepth("block", 1);
+        dispatcher.dispatch(null, message("p" + PushCommandDispatcher.PRIORITY_LOW, "low1"));
+        dispatcher.dispatch(null, message("p" + PushCommandDispatcher.PRIORITY_NORMAL, "normal1"));
+        dispatcher.dispatch(null, message("p" + PushCommandDispatcher.PRIORITY_HIGH, "high1"));
+        dispatcher.dispatch(null, message("p" + PushCommandDispatcher.PRIORITY_LOW, "low2"));
+        dispatcher.dispatch(null, message("p" + PushCommandDispatcher.PRIORITY_NORMAL, "normal2"));
+        dispatcher.dispatch(null, message("p" + PushCommandDispatcher.PRIORITY_HIGH, "high2"));
+        release.countDown();
+        assertTrue(done.await(WAIT_SEC, TimeUnit.SECONDS));
+        assertEquals("[high1, high2, normal1, normal2, low1, low2]", order.toString());
+    }
+
+    @Test
+    public void barrierWaitsForEarlierCommandsInAllLanes() throws Exception {
+        final CountDownLatch releaseIo = new CountDownLatch(1);
+        final CountDownLatch releaseQuick = new CountDownLatch(1);
+        final CountDownLatch rebooted = new CountDownLatch(1);
+        final List<String> order = Collections.synchronizedList(new ArrayList<>());
+        dispatcher.register("io", PushCommandDispatcher.Lane.IO, PushCommandDispatcher.PRIORITY_LOW,
+                (context, message) -> {
+                    await(releaseIo);
+                    order.add("io");
+                });
+        dispatcher.register("quick", PushCommandDispatcher.Lane.QUICK, PushCommandDispatcher.PRIORITY_NORMAL,
+                (context, message) -> {
+                    await(releaseQuick);
+                    order.add("quick");
+                });
+        dispatcher.register("reboot", PushCommandDispatcher.Lane.BARRIER, PushCommandDispatcher.PRIORITY_NORMAL,
+                (context, message) -> {
+                    order.add("reboot");
+                    rebooted.countDown();
+                });
+        dispatcher.dispatch(null, message("io"));
+        dispatcher.dispatch(null, message("io"));
+        dispatcher.dispatch(null, message("quick"));
+        dispatcher.dispatch(null, message("reboot"));
+
+        assertFalse(rebooted.await(200, TimeUnit.MILLISECONDS));
+        releaseQuick.countDown();
+        assertFalse(rebooted.await(200, TimeUnit.MILLISECONDS));
+        releaseIo.countDown();
+        assertTrue(rebooted.await(WAIT_SEC, TimeUnit.SECONDS));
+        assertEquals("[quick, io, io, reboot]", order.toString());
+        assertTrue(log.isEmpty());
+    }
+
+    @Test
+    public void barrierDoesNotWaitForLaterCommands() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch rebooted = new CountDownLatch(1);
+        dispatcher.register("io", PushCommandDispatcher.Lane.IO, PushCommandDispatcher.PRIORITY_NORMAL,
+                (context, message) -> await(release));
+        dispatcher.register("reboot", PushCommandDispatcher.Lane.BARRIER, PushCommandDispatcher.PRIORITY_NORMAL,
+                (context, message) -> rebooted.countDown());
+        dispatcher.dispatch(null, message("reboot"));
+        dispatcher.dispatch(null, message("io"));
+        assertTrue(rebooted.await(WAIT_SEC, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    public void failedCommandIsLoggedAndCounted() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        dispatcher.register("fail", PushCommandDispatcher.Lane.QUICK, PushCommandDispatcher.PRIORITY_NORMAL,
+                (context, message) -> {
+                    done.countDown();
+                    throw new IllegalStateException("broken");
+                });
+        dispatcher.dispatch(null, message("fail"));
+        assertTrue(done.await(WAIT_SEC, TimeUnit.SECONDS));
+        awaitQueueDepth("fail", 0);
+        assertEquals("[Push command fail failed: broken]", log.toString());
+        assertTrue(dispatcher.getStats().contains("fail: executed 1"));
+    }
+
+    private static PushMessage message(String type) {
+        return message(type, null);
+    }
+
+    private static PushMessage message(String type, String payload) {
+        return new PushMessage(type, payload);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(WAIT_SEC, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void awaitQueueDepth(String type, int depth) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(WAIT_SEC);
+        while (dispatcher.getQueueDepth(type) != depth) {
+            assertTrue("Queue depth " + dispatcher.getQueueDepth(type), System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.worker;
+
+import com.hmdm.launcher.json.PushMessage;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class PushMessagePipelineTest {
+    private static final long WINDOW = 5000;
+
+    private long now = 100000;
+    // Delayed tasks with their execution time
+    private final List<Long> taskTimes = new ArrayList<>();
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final List<String> processed = new ArrayList<>();
+    private final PushMessagePipeline pipeline = new PushMessagePipeline(WINDOW, () -> now,
+            (task, delay) -> {
+                tasks.add(task);
+                taskTimes.add(now + delay);
+            },
+            (message, context) -> processed.add(message.getMessageType() +
+                    (message.getPayload() != null ? " " + message.getPayload() : "")));
+
+    @Test
+    public void idempotentDuplicateIsDropped() {
+        submit(PushMessage.TYPE_DELETE_FILE, "{\"path\":\"a.txt\"}");
+        advance(1000);
+        submit(PushMessage.TYPE_DELETE_FILE, "{\"path\":\"a.txt\"}");
+        submit(PushMessage.TYPE_DELETE_FILE, "{\"path\":\"b.txt\"}");
+        assertEquals("[deleteFile {\"path\":\"a.txt\"}, deleteFile {\"path\":\"b.txt\"}]", processed.toString());
+        assertEquals("Push messages: received 3, executed 2, coalesced 0, duplicates 1", pipeline.getStats());
+    }
+
+    @Test
+    public void samePayloadWithDifferentFormattingIsDuplicate() {
+        submit(PushMessage.TYPE_UNINSTALL_APP, "{\"pkg\":\"com.example\"}");
+        submit(PushMessage.TYPE_UNINSTALL_APP, "{ \"pkg\" : \"com.example\" }");
+        assertEquals(1, processed.size());
+    }
+
+    @Test
+    public void duplicateAfterWindowIsExecuted() {
+        submit(PushMessage.TYPE_PURGE_DIR, "{\"path\":\"tmp\"}");
+        advance(WINDOW);
+        submit(PushMessage.TYPE_PURGE_DIR, "{\"path\":\"tmp\"}");
+        assertEquals(2, processed.size());
+    }
+
+    @Test
+    public void repeatedNonIdempotentCommandsAreExecuted() {
+        String[] types = {PushMessage.TYPE_RUN_COMMAND, PushMessage.TYPE_RUN_APP, PushMessage.TYPE_BROADCAST,
+                PushMessage.TYPE_INTENT, PushMessage.TYPE_REBOOT, PushMessage.TYPE_CLEAR_APP_DATA, "pluginMessage"};
+        for (String type : types) {
+            for (int n = 0; n < 3; n++) {
+                submit(type, "{\"command\":\"input keyevent 26\"}");
+                advance(100);
+            }
+        }
+        assertEquals(types.length * 3, processed.size());
+        assertEquals("Push messages: received 21, executed 21, coalesced 0, duplicates 0", pipeline.getStats());
+    }
+
+    @Test
+    public void burstIsCoalesced() {
+        submit(PushMessage.TYPE_CONFIG_UPDATED, null);
+        assertEquals(1, processed.size());
+        for (int n = 0; n < 10; n++) {
+            advance(100);
+            submit(PushMessage.TYPE_CONFIG_UPDATED, null);
+        }
+        // The rest of the burst is executed once at the window end
+        assertEquals(1, processed.size());
+        assertEquals(1, tasks.size());
+        assertEquals(100000 + WINDOW, (long) taskTimes.get(0));
+        runTasks();
+        assertEquals(2, processed.size());
+        assertEquals("Push messages: received 11, executed 2, coalesced 9, duplicates 0", pipeline.getStats());
+
+        // The next message is delayed until the window after the coalesced execution ends
+        advance(1000);
+        submit(PushMessage.TYPE_CONFIG_UPDATED, null);
+        assertEquals(2, processed.size());
+        assertEquals(now - 1000 + WINDOW, (long) taskTimes.get(0));
+    }
+
+    @Test
+    public void latestCoalescedPayloadWins() {
+        submit(PushMessage.TYPE_CLEAR_DOWNLOADS, "1");
+        submit(PushMessage.TYPE_CLEAR_DOWNLOADS, "2");
+        submit(PushMessage.TYPE_CLEAR_DOWNLOADS, "3");
+        runTasks();
+        assertEquals("[clearDownloadHistory 1, clearDownloadHistory 3]", processed.toString());
+    }
+
+    @Test
+    public void singleMessageAfterWindowIsExecutedAtOnce() {
+        submit(PushMessage.TYPE_CONFIG_UPDATED, null);
+        advance(WINDOW);
+        submit(PushMessage.TYPE_CONFIG_UPDATED, null);
+        assertEquals(2, processed.size());
+        assertEquals(0, tasks.size());
+    }
+
+    @Test
+    public void zeroWindowDisablesPipeline() {
+        List<String> executed = new ArrayList<>();
+        PushMessagePipeline disabled = new PushMessagePipeline(0, () -> now, (task, delay) -> {
+            throw new AssertionError();
+        }, (message, context) -> executed.add(message.getMessageType()));
+        for (int n = 0; n < 3; n++) {
+            disabled.submit(null, message(PushMessage.TYPE_CONFIG_UPDATED, null));
+            disabled.submit(null, message(PushMessage.TYPE_DELETE_FILE, "{\"path\":\"a.txt\"}"));
+        }
+        assertEquals(6, executed.size());
+    }
+
+    private void submit(String type, String payload) {
+        pipeline.submit(null, message(type, payload));
+    }
+
+    private void advance(long ms) {
+        now += ms;
+    }
+
+    // Runs the delayed tasks at their time
+    private void runTasks() {
+        while (!tasks.isEmpty()) {
+            Runnable task = tasks.remove(0);
+            now = Math.max(now, taskTimes.remove(0));
+            task.run();
+        }
+    }
+
+    private static PushMessage message(String type, String payload) {
+        return new PushMessage(type, payload);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.worker;
+
+import com.hmdm.launcher.json.RemoteLogItem;
+import com.hmdm.launcher.server.ServerService;
+import com.hmdm.launcher.util.JsonCodec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import okhttp3.ResponseBody;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import retrofit2.converter.jackson.JacksonConverterFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RemoteLogSenderTest {
+    private MockWebServer server;
+    private ServerService service;
+    private RemoteLogSender.Transport transport;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        service = new Retrofit.Builder()
+                .baseUrl(server.url("/"))
+                .addConverterFactory(JacksonConverterFactory.create(JsonCodec.getMapper()))
+                .build()
+                .create(ServerService.class);
+        transport = call -> call.create(service, server.url("/").toString()).execute();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void sendsGzippedJson() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200));
+        RemoteLogSender sender = new RemoteLogSender(true);
+
+        assertTrue(sender.send(transport, "hmdm", "device1", createItems()).isSuccessful());
+
+        RecordedRequest request = server.takeRequest();
+        assertEquals("/hmdm/rest/plugins/devicelog/log/list/device1", request.getPath());
+        assertEquals("gzip", request.getHeader("Content-Encoding"));
+        RemoteLogItem[] sent = JsonCodec.read(new GZIPInputStream(request.getBody().inputStream()), RemoteLogItem[].class);
+        assertEquals(2, sent.length);
+        assertEquals("second message", sent[1].getMessage());
+        assertTrue(sender.isCompressionSupported());
+    }
+
+    @Test
+    public void fallsBackToPlainJsonOnServerError() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(500));
+        server.enqueue(new MockResponse().setResponseCode(200));
+        RemoteLogSender sender = new RemoteLogSender(true);
+
+        assertTrue(sender.send(transport, "hmdm", "device1", createItems()).isSuccessful());
+
+        assertEquals("gzip", server.takeRequest().getHeader("Content-Encoding"));
+        RecordedRequest plain = server.takeRequest();
+        assertNull(plain.getHeader("Content-Encoding"));
+        RemoteLogItem[] sent = JsonCodec.read(plain.getBody().readByteArray(), RemoteLogItem[].class);
+        assertEquals("first message", sent[0].getMessage());
+        assertFalse(sender.isCompressionSupported());
+
+        // Next batches are sent uncompressed at once
+        server.enqueue(new MockResponse().setResponseCode(200));
+        assertTrue(sender.send(transport, "hmdm", "device1", createItems()).isSuccessful());
+        assertNull(server.takeRequest().getHeader("Content-Encoding"));
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void keepsCompressionIfPlainRequestAlsoFails() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(503));
+        RemoteLogSender sender = new RemoteLogSender(true);
+
+        Response<ResponseBody> response = sender.send(transport, "hmdm", "device1", createItems());
+
+        assertEquals(503, response.code());
+        assertEquals(2, server.getRequestCount());
+        assertTrue(sender.isCompressionSupported());
+    }
+
+    @Test
+    public void sendsPlainJsonIfCompressionDisabled() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200));
+        RemoteLogSender sender = new RemoteLogSender(false);
+
+        assertTrue(sender.send(transport, "hmdm", "device1", createItems()).isSuccessful());
+
+        assertNull(server.takeRequest().getHeader("Content-Encoding"));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    private static List<RemoteLogItem> createItems() {
+        List<RemoteLogItem> items = new ArrayList<>();
+        items.add(createItem(1, "first message"));
+        items.add(createItem(2, "second message"));
+        return items;
+    }
+
+    private static RemoteLogItem createItem(long timestamp, String message) {
+        RemoteLogItem item = new RemoteLogItem();
+        item.setTimestamp(timestamp);
+        item.setLogLevel(3);
+        item.setPackageId("com.example.app");
+        item.setMessage(message);
+        return item;
+    }
+}
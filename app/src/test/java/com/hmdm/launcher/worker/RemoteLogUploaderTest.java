@@ -0,0 +1,232 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.worker;
+
+import com.hmdm.launcher.json.RemoteLogItem;
+import com.hmdm.launcher.server.ServerService;
+import com.hmdm.launcher.util.JsonCodec;
+
+import org.junit.Test;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import retrofit2.Retrofit;
+import retrofit2.converter.jackson.JacksonConverterFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RemoteLogUploaderTest {
+    private final RemoteLogUploader uploader = new RemoteLogUploader();
+    private final List<Integer> batchBytes = new ArrayList<>();
+
+    @Test
+    public void budgetDoublesOnSuccessUpToMax() {
+        MemoryStorage storage = new MemoryStorage(20000);
+
+        assertTrue(uploader.uploadAll(storage, items -> {
+            batchBytes.add(size(items));
+            return true;
+        }));
+
+        assertEquals(0, storage.items.size());
+        assertEquals(RemoteLogUploader.MAX_UPLOAD_BYTES, uploader.getUploadBytes());
+        // Each batch fits into the budget and the budget doubles until the message cap is reached
+        int budget = RemoteLogUploader.INITIAL_UPLOAD_BYTES;
+        for (int n = 0; n < 3; n++) {
+            assertTrue(batchBytes.get(n) <= budget);
+            assertTrue(batchBytes.get(n) > budget - 200);
+            budget *= 2;
+        }
+    }
+
+    @Test
+    public void batchIsCappedByMessageCount() {
+        MemoryStorage storage = new MemoryStorage(5000);
+        List<Integer> counts = new ArrayList<>();
+        for (int n = 0; n < 6; n++) {
+            // Reach the largest budget
+            uploader.uploadAll(new MemoryStorage(1), items -> true);
+        }
+        assertEquals(RemoteLogUploader.MAX_UPLOAD_BYTES, uploader.getUploadBytes());
+
+        uploader.uploadAll(storage, items -> counts.add(items.size()));
+
+        assertEquals(5, counts.size());
+        assertEquals(RemoteLogUploader.MAX_UPLOADED_MESSAGES, (int) counts.get(0));
+    }
+
+    @Test
+    public void budgetHalvesOnFailureDownToMin() {
+        MemoryStorage storage = new MemoryStorage(1000);
+        List<Integer> budgets = new ArrayList<>();
+        for (int n = 0; n < 5; n++) {
+            assertFalse(uploader.uploadAll(storage, items -> false));
+            budgets.add(uploader.getUploadBytes());
+        }
+
+        assertEquals("[16384, 8192, 4096, 4096, 4096]", budgets.toString());
+        // Nothing is deleted after a failure
+        assertEquals(1000, storage.items.size());
+
+        // The budget grows back after the connection recovers
+        assertTrue(uploader.uploadAll(storage, items -> true));
+        assertTrue(uploader.getUploadBytes() > RemoteLogUploader.MIN_UPLOAD_BYTES);
+    }
+
+    @Test
+    public void timeoutIsRetriedWithSmallerBatch() {
+        MemoryStorage storage = new MemoryStorage(1000);
+        int[] calls = {0};
+
+        assertTrue(uploader.uploadAll(storage, items -> {
+            batchBytes.add(size(items));
+            if (calls[0]++ == 0) {
+                throw new SocketTimeoutException();
+            }
+            return true;
+        }));
+
+        assertTrue(batchBytes.get(1) <= RemoteLogUploader.INITIAL_UPLOAD_BYTES / 2);
+        assertEquals(0, storage.items.size());
+    }
+
+    @Test
+    public void otherErrorsAreNotRetried() {
+        MemoryStorage storage = new MemoryStorage(1000);
+        int[] calls = {0};
+
+        assertFalse(uploader.uploadAll(storage, items -> {
+            calls[0]++;
+            throw new java.io.IOException("Connection reset");
+        }));
+
+        assertEquals(1, calls[0]);
+        assertEquals(RemoteLogUploader.INITIAL_UPLOAD_BYTES / 2, uploader.getUploadBytes());
+    }
+
+    @Test
+    public void timeoutOfSingleItemIsNotRetried() {
+        MemoryStorage storage = new MemoryStorage(1);
+        int[] calls = {0};
+
+        assertFalse(uploader.uploadAll(storage, items -> {
+            calls[0]++;
+            throw new SocketTimeoutException();
+        }));
+
+        assertEquals(1, calls[0]);
+    }
+
+    @Test
+    public void largeBacklogIsDrainedInFewRequests() throws Exception {
+        final int backlog = 50000;
+        MockWebServer server = new MockWebServer();
+        server.start();
+        try {
+            for (int n = 0; n < 200; n++) {
+                server.enqueue(new MockResponse().setResponseCode(200));
+            }
+            ServerService service = new Retrofit.Builder()
+                    .baseUrl(server.url("/"))
+                    .addConverterFactory(JacksonConverterFactory.create(JsonCodec.getMapper()))
+                    .build()
+                    .create(ServerService.class);
+            RemoteLogSender sender = new RemoteLogSender(true);
+            RemoteLogSender.Transport transport = call -> call.create(service, server.url("/").toString()).execute();
+            MemoryStorage storage = new MemoryStorage(backlog);
+
+            long start = System.nanoTime();
+            assertTrue(uploader.uploadAll(storage, items ->
+                    sender.send(transport, "hmdm", "device1", items).isSuccessful()));
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertEquals(0, storage.items.size());
+            // The previous fixed batches of 10 items took 5000 requests
+            int requests = server.getRequestCount();
+            assertTrue(requests + " requests", requests <= backlog / RemoteLogUploader.MAX_UPLOADED_MESSAGES + 5);
+            assertTrue("Drained in " + elapsedMs + " ms", elapsedMs < 30000);
+
+            // Every item is delivered once, in order
+            long expectedTimestamp = 1;
+            for (int n = 0; n < requests; n++) {
+                RecordedRequest request = server.takeRequest();
+                RemoteLogItem[] sent = JsonCodec.read(new GZIPInputStream(request.getBody().inputStream()),
+                        RemoteLogItem[].class);
+                for (RemoteLogItem item : sent) {
+                    assertEquals(expectedTimestamp++, item.getTimestamp());
+                }
+            }
+            assertEquals(backlog + 1, expectedTimestamp);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static int size(List<RemoteLogItem> items) {
+        int size = 0;
+        for (RemoteLogItem item : items) {
+            size += RemoteLogUploader.estimateSize(item);
+        }
+        return size;
+    }
+
+    // Log table replacement keeping the items ordered by ID
+    static class MemoryStorage implements RemoteLogUploader.Storage {
+        final TreeMap<Long, RemoteLogItem> items = new TreeMap<>();
+
+        MemoryStorage(int count) {
+            for (long id = 1; id <= count; id++) {
+                RemoteLogItem item = new RemoteLogItem();
+                item.setId(id);
+                item.setTimestamp(id);
+                item.setLogLevel(4);
+                item.setPackageId("com.example.app");
+                item.setMessage("Log message number " + id + " from a background service");
+                items.put(id, item);
+            }
+        }
+
+        @Override
+        public List<RemoteLogItem> selectFirst(int limit) {
+            List<RemoteLogItem> result = new ArrayList<>();
+            Iterator<RemoteLogItem> iterator = items.values().iterator();
+            while (iterator.hasNext() && result.size() < limit) {
+                result.add(iterator.next());
+            }
+            return result;
+        }
+
+        @Override
+        public void deleteRange(long fromId, long toId) {
+            items.subMap(fromId, true, toId, true).clear();
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eclipse.paho.android.service;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryMessageStoreTest {
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    private final MqttTraceHandler traceHandler = new MqttTraceHandler() {
+        @Override
+        public void traceDebug(String tag, String message) {
+        }
+
+        @Override
+        public void traceError(String tag, String message) {
+            errors.add(message);
+        }
+
+        @Override
+        public void traceException(String tag, String message, Exception e) {
+            errors.add(message + ": " + e);
+        }
+    };
+
+    private File dir;
+    private File journal;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("mqttstore").toFile();
+        journal = new File(dir, "journal");
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void messagesAreReplayedAfterRestart() {
+        MemoryMessageStore store = new MemoryMessageStore(traceHandler, journal);
+        String id1 = store.storeArrived("client1", "topic/a", message("one", 1, false));
+        String id2 = store.storeArrived("client1", "topic/b", message("two", 2, true));
+        store.storeArrived("client2", "topic/c", message("three", 0, false));
+        String id4 = store.storeArrived("client2", "topic/d", message("four", 1, false));
+        assertTrue(store.discardArrived("client1", id1));
+        store.clearArrivedMessages("client2");
+        String id5 = store.storeArrived("client2", "topic/e", message("five", 1, false));
+        store.close();
+
+        store = new MemoryMessageStore(traceHandler, journal);
+        List<MessageStore.StoredMessage> messages = list(store, null);
+        assertEquals(2, messages.size());
+        MessageStore.StoredMessage stored = messages.get(0);
+        assertEquals(id2, stored.getMessageId());
+        assertEquals("client1", stored.getClientHandle());
+        assertEquals("topic/b", stored.getTopic());
+        assertEquals("two", new String(stored.getMessage().getPayload(), StandardCharsets.UTF_8));
+        assertEquals(2, stored.getMessage().getQos());
+        assertTrue(stored.getMessage().isRetained());
+        assertEquals(id5, messages.get(1).getMessageId());
+
+        // Discarded and cleared messages are not replayed, and the IDs aren't reused
+        assertFalse(store.discardArrived("client2", id4));
+        assertTrue(Long.parseLong(store.storeArrived("client1", "topic/f", message("six", 1, false))) > Long.parseLong(id5));
+        store.close();
+    }
+
+    @Test
+    public void messagesAreFilteredByClient() {
+        MemoryMessageStore store = new MemoryMessageStore(traceHandler, null);
+        store.storeArrived("client1", "topic", message("one", 1, false));
+        String id = store.storeArrived("client2", "topic", message("two", 1, false));
+        // The same ID of another client is not discarded
+        assertFalse(store.discardArrived("client1", id));
+        assertEquals(1, list(store, "client1").size());
+        assertEquals(1, list(store, "client2").size());
+        assertEquals(2, list(store, null).size());
+
+        // The returned messages are a copy, so they may be discarded while iterating
+        Iterator<MessageStore.StoredMessage> it = store.getAllArrivedMessages(null);
+        while (it.hasNext()) {
+            MessageStore.StoredMessage stored = it.next();
+            assertTrue(store.discardArrived(stored.getClientHandle(), stored.getMessageId()));
+        }
+        assertEquals(0, list(store, null).size());
+        assertFalse(journal.exists());
+    }
+
+    @Test
+    public void storedMessageIsCopied() {
+        MemoryMessageStore store = new MemoryMessageStore(traceHandler, null);
+        byte[] payload = "one".getBytes(StandardCharsets.UTF_8);
+        MqttMessage message = new MqttMessage(payload);
+        store.storeArrived("client", "topic", message);
+        // The client may reuse the message and the buffer
+        payload[0] = 'x';
+        message.setQos(0);
+        MessageStore.StoredMessage stored = list(store, null).get(0);
+        assertEquals("one", new String(stored.getMessage().getPayload(), StandardCharsets.UTF_8));
+        assertEquals(1, stored.getMessage().getQos());
+    }
+
+    @Test
+    public void truncatedLastRecordIsSkipped() throws Exception {
+        MemoryMessageStore store = new MemoryMessageStore(traceHandler, journal);
+        String id1 = store.storeArrived("client", "topic", message("one", 1, false));
+        store.storeArrived("client", "topic", message("two", 1, false));
+        store.close();
+
+        // A crash while the last record was being written
+        try (RandomAccessFile file = new RandomAccessFile(journal, "rw")) {
+            file.setLength(file.length() - 2);
+        }
+        store = new MemoryMessageStore(traceHandler, journal);
+        List<MessageStore.StoredMessage> messages = list(store, null);
+        assertEquals(1, messages.size());
+        assertEquals(id1, messages.get(0).getMessageId());
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0).contains("incomplete record"));
+
+        // The journal is rewritten on start, so the records appended later are readable
+        String id3 = store.storeArrived("client", "topic", message("three", 1, false));
+        store.close();
+        store = new MemoryMessageStore(traceHandler, journal);
+        messages = list(store, null);
+        assertEquals(2, messages.size());
+        assertEquals(id3, messages.get(1).getMessageId());
+        assertEquals(1, errors.size());
+        store.close();
+    }
+
+    @Test
+    public void oldestMessagesAreDroppedOnOverflow() {
+        final int extra = 10;
+        MemoryMessageStore store = new MemoryMessageStore(traceHandler, journal);
+        List<String> ids = new ArrayList<>();
+        for (int n = 0; n < MemoryMessageStore.MAX_MESSAGES + extra; n++) {
+            ids.add(store.storeArrived("client", "topic", message("message" + n, 1, false)));
+        }
+        List<MessageStore.StoredMessage> messages = list(store, null);
+        assertEquals(MemoryMessageStore.MAX_MESSAGES, messages.size());
+        assertEquals(ids.get(extra), messages.get(0).getMessageId());
+        assertEquals(extra, errors.size());
+        store.close();
+
+        // The journal still has the records of the dropped messages, they are dropped on replay as well
+        store = new MemoryMessageStore(traceHandler, journal);
+        messages = list(store, null);
+        assertEquals(MemoryMessageStore.MAX_MESSAGES, messages.size());
+        assertEquals(ids.get(extra), messages.get(0).getMessageId());
+        assertEquals(ids.get(ids.size() - 1), messages.get(messages.size() - 1).getMessageId());
+        store.close();
+    }
+
+    @Test
+    public void journalIsCompacted() {
+        MemoryMessageStore store = new MemoryMessageStore(traceHandler, journal);
+        String kept = store.storeArrived("client", "topic", message("kept", 1, false));
+        long maxLength = 0;
+        for (int n = 0; n < MemoryMessageStore.JOURNAL_COMPACT_RECORDS * 10; n++) {
+            String id = store.storeArrived("client", "topic", message("message" + n, 1, false));
+            assertTrue(store.discardArrived("client", id));
+            maxLength = Math.max(maxLength, journal.length());
+        }
+        // Without compaction, the journal would have 10240 records of about 40 bytes
+        assertTrue("Max journal length " + maxLength, maxLength < (MemoryMessageStore.JOURNAL_COMPACT_RECORDS + 2) * 64);
+        store.close();
+
+        store = new MemoryMessageStore(traceHandler, journal);
+        List<MessageStore.StoredMessage> messages = list(store, null);
+        assertEquals(1, messages.size());
+        assertEquals(kept, messages.get(0).getMessageId());
+        assertTrue(errors.isEmpty());
+        store.close();
+    }
+
+    private static MqttMessage message(String payload, int qos, boolean retained) {
+        MqttMessage message = new MqttMessage(payload.getBytes(StandardCharsets.UTF_8));
+        message.setQos(qos);
+        message.setRetained(retained);
+        return message;
+    }
+
+    private static List<MessageStore.StoredMessage> list(MessageStore store, String clientHandle) {
+        List<MessageStore.StoredMessage> result = new ArrayList<>();
+        Iterator<MessageStore.StoredMessage> it = store.getAllArrivedMessages(clientHandle);
+        while (it.hasNext()) {
+            result.add(it.next());
+        }
+        return result;
+    }
+}